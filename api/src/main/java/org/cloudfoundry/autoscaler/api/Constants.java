@@ -667,6 +667,7 @@ public final class Constants {
 	public static int value_default_stepUpCoolDownSecs = 600;
 	public static int value_default_lowerThreshold_Memory = 30;
 	public static int value_default_upperThreshold_Memory= 80;
+	public static int value_default_targetValue_Memory = 60;
 	public static int value_default_instanceStepCountDown = 1;
 	public static int value_default_instanceStepCountUp = 1;
 	public static int value_max_statwindow = 3600;
@@ -675,6 +676,8 @@ public final class Constants {
 	public static int value_max_stepUpCoolDownSecs = 3600;
 	public static int value_max_lowerThreshold_Memory = 100;
 	public static int value_max_upperThreshold_Memory= 100;
+	public static int value_min_targetValue_Memory = 1;
+	public static int value_max_targetValue_Memory = 100;
 	public static String TRIGGER_STATWINDOW = "statWindow";
 	public static String TRIGGER_BREACHDURATION = "breachDuration";
 	public static String TRIGGER_LOWERTHRESHOLD = "lowerThreshold";
@@ -683,6 +686,9 @@ public final class Constants {
 	public static String TRIGGER_INSTANCESTEPCOUNTUP = "instanceStepCountUp";
 	public static String TRIGGER_STEPDOWNCOOLDOWNSECS = "stepDownCoolDownSecs";
 	public static String TRIGGER_STEPUPCOOLDOWN = "stepUpCoolDownSecs";
+	public static String TRIGGER_TARGETVALUE = "targetValue";
+	public static String TRIGGER_TYPE_THRESHOLD = "threshold";
+	public static String TRIGGER_TYPE_TARGET_TRACKING = "targetTracking";
 	public static Map<String, Integer> trigger_default = new HashMap<String, Integer>() //server metric string to metricType
 	{
 	    {
@@ -694,6 +700,7 @@ public final class Constants {
 	        put(TRIGGER_INSTANCESTEPCOUNTUP, value_default_instanceStepCountUp);
 	        put(TRIGGER_STEPDOWNCOOLDOWNSECS, value_default_stepDownCoolDownSecs);
 	        put(TRIGGER_STEPUPCOOLDOWN, value_default_stepUpCoolDownSecs);
+	        put(TRIGGER_TARGETVALUE, value_default_targetValue_Memory);
 	    }
 	};
 
@@ -830,6 +837,17 @@ public final class Constants {
         item.put("upperThreshold_Max", subitem);
         range.put("upperThreshold", item);
 
+        item = new HashMap<String, Map<String, String>>();
+        subitem = new HashMap<String, String>();
+        subitem.put("value", String.valueOf(value_min_targetValue_Memory));
+        subitem.put("message", "{PolicyTrigger.targetValue.Min}");
+        item.put("targetValue_Min", subitem);
+        subitem = new HashMap<String, String>();
+        subitem.put("value", String.valueOf(value_max_targetValue_Memory));
+        subitem.put("message", "{PolicyTrigger.targetValue.Max}");
+        item.put("targetValue_Max", subitem);
+        range.put("targetValue", item);
+
         mulit_range.put("trigger_Memory", range);
 
         return mulit_range;
@@ -35,6 +35,12 @@ public class PolicyTrigger {
 	@NotNull(message="{PolicyTrigger.stepUpCoolDownSecs.NotNull}")
 	private int      stepUpCoolDownSecs    = getTriggerDefaultInt("stepUpCoolDownSecs");
 
+	private String   triggerType = Constants.TRIGGER_TYPE_THRESHOLD;
+
+	private int      targetValue = getTriggerDefaultInt("targetValue");
+
+	private boolean  predictive = false;
+
 	public int getTriggerDefaultInt(String key) {
 		return Constants.getTriggerDefaultInt(key);
 	}
@@ -44,6 +50,23 @@ public class PolicyTrigger {
 	    return this.lowerThreshold <= this.upperThreshold; //whatever metricType is, this will always hold
 	}
 
+	@AssertTrue(message="{PolicyTrigger.isTriggerTypeValid.AssertTrue}")
+	private boolean isTriggerTypeValid() {
+	    return Constants.TRIGGER_TYPE_THRESHOLD.equals(this.triggerType) || Constants.TRIGGER_TYPE_TARGET_TRACKING.equals(this.triggerType);
+	}
+
+	/*
+	 * A targetTracking trigger does not need thresholds, the target is used where they are not specified
+	 */
+	private void setTargetThresholds() {
+		if (!Constants.TRIGGER_TYPE_TARGET_TRACKING.equals(this.triggerType))
+			return;
+		if (!this.lowerThreshold_set)
+			this.lowerThreshold = this.targetValue;
+		if (!this.upperThreshold_set)
+			this.upperThreshold = this.targetValue;
+	}
+
 
 	public String  getMetricType() {
 		return this.metricType;
@@ -134,4 +157,30 @@ public class PolicyTrigger {
 	public void setStepUpCoolDownSecs(int stepUpCoolDownSecs) {
 		this.stepUpCoolDownSecs = stepUpCoolDownSecs;
 	}
+
+	public String getTriggerType() {
+		return this.triggerType;
+	}
+
+	public void setTriggerType(String triggerType) {
+		this.triggerType = triggerType;
+		setTargetThresholds();
+	}
+
+	public int getTargetValue() {
+		return this.targetValue;
+	}
+
+	public void setTargetValue(int targetValue) {
+		this.targetValue = targetValue;
+		setTargetThresholds();
+	}
+
+	public boolean isPredictive() {
+		return this.predictive;
+	}
+
+	public void setPredictive(boolean predictive) {
+		this.predictive = predictive;
+	}
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
@@ -29,6 +30,10 @@ public class recurringSchedule{
 	@NotNull(message="{recurringSchedule.repeatOn.NotNull}")
 	private String repeatOn;
 
+	@Min(value=0, message="{recurringSchedule.leadTimeSecs.Min}")
+	@Max(value=3600, message="{recurringSchedule.leadTimeSecs.Max}")
+	private Integer leadTimeSecs; //how long before the start to add the minInstCount instances, null for the lead tuned by the server
+
 	@AssertTrue(message="{recurringSchedule.isRepeatOnValid.AssertTrue}")
 	private boolean isRepeatOnValid() {
 		String[] s_values = this.repeatOn.replace("\"", "").replace("[", "").replace("]", "").split(",");
@@ -122,4 +127,12 @@ public class recurringSchedule{
 	public void setRepeatOn(String repeatOn) {
 		this.repeatOn = repeatOn;
 	}
+
+	public Integer getLeadTimeSecs() {
+		return this.leadTimeSecs;
+	}
+
+	public void setLeadTimeSecs(Integer leadTimeSecs) {
+		this.leadTimeSecs = leadTimeSecs;
+	}
 }
\ No newline at end of file
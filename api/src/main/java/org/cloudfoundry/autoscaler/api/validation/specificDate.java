@@ -5,6 +5,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
@@ -28,6 +29,10 @@ public class specificDate{
 	@NotNull(message="{specificDate.endTime.NotNull}")
 	private String endTime;
 
+	@Min(value=0, message="{specificDate.leadTimeSecs.Min}")
+	@Max(value=3600, message="{specificDate.leadTimeSecs.Max}")
+	private Integer leadTimeSecs; //how long before the start to add the minInstCount instances, null for the lead tuned by the server
+
 	@AssertTrue(message="{specificDate.isDateTimeValid.AssertTrue}")
 	private boolean isDateTimeValid() {
 		try {
@@ -108,4 +113,12 @@ public class specificDate{
 	public void setEndTime(String endTime) {
 		this.endTime = endTime;
 	}
+
+	public Integer getLeadTimeSecs() {
+		return this.leadTimeSecs;
+	}
+
+	public void setLeadTimeSecs(Integer leadTimeSecs) {
+		this.leadTimeSecs = leadTimeSecs;
+	}
 }
\ No newline at end of file
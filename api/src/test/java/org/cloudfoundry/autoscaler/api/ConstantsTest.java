@@ -23,6 +23,7 @@ public class ConstantsTest {
     	assertEquals(80, Constants.getTriggerDefaultInt("upperThreshold"));
     	assertEquals(1, Constants.getTriggerDefaultInt("instanceStepCountDown"));
     	assertEquals(1, Constants.getTriggerDefaultInt("instanceStepCountUp"));
+    	assertEquals(60, Constants.getTriggerDefaultInt("targetValue"));
     	
     	String [] metrics = Constants.getMetricTypeByAppType("java");
     	assertEquals(1, metrics.length);
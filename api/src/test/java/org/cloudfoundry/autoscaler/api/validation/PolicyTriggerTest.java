@@ -0,0 +1,68 @@
+package org.cloudfoundry.autoscaler.api.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class PolicyTriggerTest {
+
+	private Set<ConstraintViolation<PolicyTrigger>> validate(String json) throws Exception {
+		PolicyTrigger trigger = new ObjectMapper().readValue(json, PolicyTrigger.class);
+		Validator validator = BeanValidation.getPolicyRange().buildValidatorFactory().getValidator();
+		return validator.validate(trigger);
+	}
+
+	@Test
+	public void targetTrackingTest() throws Exception {
+		// thresholds are not needed
+		assertTrue(validate("{\"metricType\":\"Memory\",\"triggerType\":\"targetTracking\",\"targetValue\":60}").isEmpty());
+		PolicyTrigger trigger = new ObjectMapper().readValue("{\"targetValue\":50,\"triggerType\":\"targetTracking\"}",
+				PolicyTrigger.class);
+		assertEquals(50, trigger.getLowerThreshold());
+		assertEquals(50, trigger.getUpperThreshold());
+		boolean targetViolated = false;
+		for (ConstraintViolation<PolicyTrigger> violation : validate("{\"metricType\":\"Memory\",\"triggerType\":\"targetTracking\",\"targetValue\":101}"))
+			targetViolated |= "targetValue".equals(violation.getPropertyPath().toString());
+		assertTrue(targetViolated);
+		assertEquals(1, validate("{\"metricType\":\"Memory\",\"triggerType\":\"target\",\"lowerThreshold\":30,\"upperThreshold\":80}").size());
+		// threshold triggers are unchanged
+		assertTrue(validate("{\"metricType\":\"Memory\",\"lowerThreshold\":30,\"upperThreshold\":80}").isEmpty());
+	}
+
+	@Test
+	public void predictiveTest() throws Exception {
+		Map<String, String> serviceInfo = new HashMap<String, String>();
+		serviceInfo.put("appType", "java");
+		String policy = "{\"instanceMinCount\":1,\"instanceMaxCount\":5,\"policyTriggers\":[{\"metricType\":\"Memory\","
+				+ "\"lowerThreshold\":30,\"upperThreshold\":80,\"predictive\":true}]}";
+		JsonNode input = BeanValidation.parsePolicy(policy, serviceInfo, new MockHttpServletRequest());
+		assertTrue(input.get("valid").asBoolean());
+		JsonNode trigger = new ObjectMapper().readTree(input.get("new_json").asText()).get("policyTriggers").get(0);
+		assertTrue(trigger.get("predictive").asBoolean());
+
+		// returned as stored by the server
+		JsonNode output = BeanValidation.parsePolicyOutput(input.get("new_json").asText(), new HashMap<String, String>(),
+				serviceInfo, new MockHttpServletRequest());
+		trigger = new ObjectMapper().readTree(output.get("new_json").asText()).get("policyTriggers").get(0);
+		assertTrue(trigger.get("predictive").asBoolean());
+
+		input = BeanValidation.parsePolicy(policy.replace(",\"predictive\":true", ""), serviceInfo,
+				new MockHttpServletRequest());
+		trigger = new ObjectMapper().readTree(input.get("new_json").asText()).get("policyTriggers").get(0);
+		assertFalse(trigger.get("predictive").asBoolean());
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.cloudfoundry.autoscaler.api.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ScheduleTest {
+
+	private static final String POLICY = "{\"instanceMinCount\":1,\"instanceMaxCount\":5,\"policyTriggers\":[{\"metricType\":\"Memory\","
+			+ "\"lowerThreshold\":30,\"upperThreshold\":80}],\"schedules\":{\"timezone\":\"(GMT +08:00) Asia/Shanghai\","
+			+ "\"recurringSchedule\":[{\"minInstCount\":2,\"startTime\":\"08:00\",\"endTime\":\"10:00\",\"repeatOn\":\"[\\\"1\\\",\\\"2\\\"]\"%s}],"
+			+ "\"specificDate\":[{\"minInstCount\":3,\"startDate\":\"2030-01-01\",\"startTime\":\"08:00\",\"endDate\":\"2030-01-01\","
+			+ "\"endTime\":\"10:00\"%s}]}}";
+
+	private JsonNode parse(String recurringLead, String specificLead) throws Exception {
+		Map<String, String> serviceInfo = new HashMap<String, String>();
+		serviceInfo.put("appType", "java");
+		return BeanValidation.parsePolicy(String.format(POLICY, recurringLead, specificLead), serviceInfo,
+				new MockHttpServletRequest());
+	}
+
+	@Test
+	public void leadTimeSecsTest() throws Exception {
+		JsonNode input = parse(",\"leadTimeSecs\":300", ",\"leadTimeSecs\":0");
+		assertTrue(input.get("valid").asBoolean());
+		JsonNode policy = new ObjectMapper().readTree(input.get("new_json").asText());
+		assertEquals(300, policy.get("recurringSchedule").get(0).get("leadTimeSecs").asInt());
+		assertEquals(0, policy.get("specificDate").get(0).get("leadTimeSecs").asInt());
+
+		// returned as stored by the server
+		Map<String, String> serviceInfo = new HashMap<String, String>();
+		serviceInfo.put("appType", "java");
+		JsonNode output = BeanValidation.parsePolicyOutput(input.get("new_json").asText(), new HashMap<String, String>(),
+				serviceInfo, new MockHttpServletRequest());
+		JsonNode schedules = new ObjectMapper().readTree(output.get("new_json").asText()).get("schedules");
+		assertEquals(300, schedules.get("recurringSchedule").get(0).get("leadTimeSecs").asInt());
+
+		// optional
+		input = parse("", "");
+		assertTrue(input.get("valid").asBoolean());
+		policy = new ObjectMapper().readTree(input.get("new_json").asText());
+		assertTrue(policy.get("recurringSchedule").get(0).path("leadTimeSecs").isMissingNode()
+				|| policy.get("recurringSchedule").get(0).get("leadTimeSecs").isNull());
+
+		assertFalse(parse(",\"leadTimeSecs\":-1", "").get("valid").asBoolean());
+		assertFalse(parse("", ",\"leadTimeSecs\":3601").get("valid").asBoolean());
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.cloudfoundry.autoscaler.bean;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -19,6 +20,9 @@ public class AutoScalerPolicyTrigger
 	public static final String UNSPECIFIED_STRING = null;              // don't change to anything else (see isUnspecified())
 	public static final String TriggerId_LowerThreshold = "lower";
 	public static final String TriggerId_UpperThreshold = "upper";
+	public static final String TriggerId_Target = "target";
+	public static final String TRIGGER_TYPE_THRESHOLD = "threshold";
+	public static final String TRIGGER_TYPE_TARGET_TRACKING = "targetTracking";
 	public static final String ADJUSTMENT_CHANGE_CAPACITY = "changeCapacity";
 	public static final String ADJUSTMENT_CHANGE_PERCENTAGE = "changePercentage";
 	private String   metricType            = null;
@@ -37,6 +41,9 @@ public class AutoScalerPolicyTrigger
 	private int      startSetNumInstances  = 10;
 	private int      endSetNumInstances    = 10;
 	private String   unit = "percent";
+	private boolean  predictive            = false; //scales out ahead of forecast breaches of the upper threshold
+	private String   triggerType           = TRIGGER_TYPE_THRESHOLD; //threshold or targetTracking
+	private int      targetValue           = 60; //the average kept by a targetTracking trigger
 	@JsonProperty("scaleInAdjustment")
 	private String scaleInAdjustmentType; //adjustment type, can be changeCapacity or changePercentage
 	@JsonProperty("scaleOutAdjustment")
@@ -201,6 +208,35 @@ public class AutoScalerPolicyTrigger
 		this.unit = unit;
 	}
 
+	public boolean isPredictive() {
+		return predictive;
+	}
+
+	public void setPredictive(boolean predictive) {
+		this.predictive = predictive;
+	}
+
+	public String getTriggerType() {
+		return triggerType;
+	}
+
+	public void setTriggerType(String triggerType) {
+		this.triggerType = triggerType;
+	}
+
+	@JsonIgnore
+	public boolean isTargetTracking() {
+		return TRIGGER_TYPE_TARGET_TRACKING.equalsIgnoreCase(triggerType);
+	}
+
+	public int getTargetValue() {
+		return targetValue;
+	}
+
+	public void setTargetValue(int targetValue) {
+		this.targetValue = targetValue;
+	}
+
 	public String getScaleInAdjustmentType() {
 		return scaleInAdjustmentType;
 	}
@@ -1,5 +1,6 @@
 package org.cloudfoundry.autoscaler.bean;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 /*
@@ -7,6 +8,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
   "appId":       <appId>,
   "triggerId":   <triggerId>,
   "metricValue": <metricValue>
+  "targetValue": <targetValue>, only for target triggers
   "timeStamp":   <timeStamp>
 }
 */
@@ -18,9 +20,13 @@ public class MonitorTriggerEvent
 	private String appId       = "noName";
 	private String triggerId   = "0";
 	private double    metricValue = 0.0;
+	private double    targetValue = 0.0; //the target in the unit of the metric value, for target triggers
+	private double    severity    = 0.0; //the relative deviation of the metric value from the threshold
 	private String metricType;
 	private long   timeStamp   = 0;
+	private long   deadline    = 0; //the event is stale after this time, 0 if it has no deadline
 	private Trigger trigger; //The trigger that triggers this event
+	private ScalingTrace trace; //timestamps of the scaling action, not sent by monitors
 
 	public String getAppId() {
 		return appId;
@@ -46,6 +52,36 @@ public class MonitorTriggerEvent
 		this.metricValue = metricValue;
 	}
 
+	public double getTargetValue() {
+		return targetValue;
+	}
+
+	public void setTargetValue(double targetValue) {
+		this.targetValue = targetValue;
+	}
+
+	/**
+	 * @return false for lower threshold events and target events below the target
+	 */
+	@JsonIgnore
+	public boolean isScaleOut() {
+		if (AutoScalerPolicyTrigger.TriggerId_LowerThreshold.equals(triggerId))
+			return false;
+		if (AutoScalerPolicyTrigger.TriggerId_Target.equals(triggerId))
+			return metricValue > targetValue;
+		return true;
+	}
+
+	@JsonIgnore
+	public double getSeverity() {
+		return severity;
+	}
+
+	@JsonIgnore
+	public void setSeverity(double severity) {
+		this.severity = severity;
+	}
+
 	public long getTimeStamp() {
 		return timeStamp;
 	}
@@ -54,6 +90,16 @@ public class MonitorTriggerEvent
 		this.timeStamp = timeStamp;
 	}
 
+	@JsonIgnore
+	public long getDeadline() {
+		return deadline;
+	}
+
+	@JsonIgnore
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
 	public String getMetricType() {
 		return metricType;
 	}
@@ -70,5 +116,15 @@ public class MonitorTriggerEvent
 		this.trigger = trigger;
 	}
 
+	@JsonIgnore
+	public ScalingTrace getTrace() {
+		return trace;
+	}
+
+	@JsonIgnore
+	public void setTrace(ScalingTrace trace) {
+		this.trace = trace;
+	}
+
 	
 }
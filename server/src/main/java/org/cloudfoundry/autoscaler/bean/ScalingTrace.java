@@ -0,0 +1,113 @@
+package org.cloudfoundry.autoscaler.bean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timestamps of a scaling action, from the metric breach to the running
+ * instances. A trace goes with the trigger event, or with the schedule change,
+ * through each stage; a stage not reached is 0.
+ */
+public class ScalingTrace {
+
+	public static final String STAGE_BREACH = "breach";
+	public static final String STAGE_DISPATCH = "dispatch";
+	public static final String STAGE_QUEUE = "queue";
+	public static final String STAGE_DECISION = "decision";
+	public static final String STAGE_SCALE_REQUEST = "scaleRequest";
+	public static final String STAGE_STARTUP = "startup";
+	public static final String STAGE_TOTAL = "total";
+
+	private long breachStartTime; // the metric first crossed the threshold
+	private long firedTime; // the trigger event was created
+	private long enqueuedTime; // the event was put into the mailbox of the app
+	private long handledTime; // the event was taken from the mailbox
+	private long scaleRequestTime; // the Cloud Controller call started
+	private long scaleAcceptedTime; // the Cloud Controller call returned
+	private long runningTime; // the instances were detected running
+
+	public long getBreachStartTime() {
+		return breachStartTime;
+	}
+
+	public void setBreachStartTime(long breachStartTime) {
+		this.breachStartTime = breachStartTime;
+	}
+
+	public long getFiredTime() {
+		return firedTime;
+	}
+
+	public void setFiredTime(long firedTime) {
+		this.firedTime = firedTime;
+	}
+
+	public long getEnqueuedTime() {
+		return enqueuedTime;
+	}
+
+	public void setEnqueuedTime(long enqueuedTime) {
+		this.enqueuedTime = enqueuedTime;
+	}
+
+	public long getHandledTime() {
+		return handledTime;
+	}
+
+	public void setHandledTime(long handledTime) {
+		this.handledTime = handledTime;
+	}
+
+	public long getScaleRequestTime() {
+		return scaleRequestTime;
+	}
+
+	public void setScaleRequestTime(long scaleRequestTime) {
+		this.scaleRequestTime = scaleRequestTime;
+	}
+
+	public long getScaleAcceptedTime() {
+		return scaleAcceptedTime;
+	}
+
+	public void setScaleAcceptedTime(long scaleAcceptedTime) {
+		this.scaleAcceptedTime = scaleAcceptedTime;
+	}
+
+	public long getRunningTime() {
+		return runningTime;
+	}
+
+	public void setRunningTime(long runningTime) {
+		this.runningTime = runningTime;
+	}
+
+	/**
+	 * @return the milliseconds spent in each reached stage, and in total from
+	 *         the earliest timestamp to the running instances
+	 */
+	public Map<String, Long> getBreakdown() {
+		Map<String, Long> breakdown = new LinkedHashMap<String, Long>();
+		putStage(breakdown, STAGE_BREACH, breachStartTime, firedTime);
+		putStage(breakdown, STAGE_DISPATCH, firedTime, enqueuedTime);
+		putStage(breakdown, STAGE_QUEUE, enqueuedTime, handledTime);
+		putStage(breakdown, STAGE_DECISION, handledTime, scaleRequestTime);
+		putStage(breakdown, STAGE_SCALE_REQUEST, scaleRequestTime, scaleAcceptedTime);
+		putStage(breakdown, STAGE_STARTUP, scaleAcceptedTime, runningTime);
+		long start = 0;
+		for (long time : new long[] { breachStartTime, firedTime, enqueuedTime, handledTime, scaleRequestTime }) {
+			if (time > 0) {
+				start = time;
+				break;
+			}
+		}
+		putStage(breakdown, STAGE_TOTAL, start, runningTime);
+		return breakdown;
+	}
+
+	private static void putStage(Map<String, Long> breakdown, String stage, long start, long end) {
+		if (start > 0 && end > 0)
+			breakdown.put(stage, Math.max(0, end - start));
+	}
+
+}
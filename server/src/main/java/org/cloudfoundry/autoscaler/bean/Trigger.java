@@ -25,6 +25,7 @@ public class Trigger implements Serializable {
 
     public static final String THRESHOLD_TYPE_LARGER_THAN = "larger_than";
     public static final String THRESHOLD_TYPE_LESS_THAN = "less_than";
+    public static final String THRESHOLD_TYPE_TARGET = "target"; // the metric threshold is a target value to keep
 
     public static final String AGGREGATE_TYPE_AVG = "avg";
 
@@ -41,6 +42,7 @@ public class Trigger implements Serializable {
     private String thresholdType = THRESHOLD_TYPE_LARGER_THAN;
     private String callbackUrl = "";
     private String unit = "percent";
+    private boolean predictive = false;
 
     public ArrayList<Condition> conditionList = null;
 
@@ -151,6 +153,14 @@ public class Trigger implements Serializable {
         this.appId = appId;
     }
 
+    public boolean isPredictive() {
+        return predictive;
+    }
+
+    public void setPredictive(boolean predictive) {
+        this.predictive = predictive;
+    }
+
     public String generateKey(){
     	return this.getMetric() +  "_" + this.getTriggerId() + "_" + this.getMetricThreshold();
     }
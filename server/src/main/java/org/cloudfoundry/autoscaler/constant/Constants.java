@@ -93,6 +93,7 @@ public final class Constants {
 	public static final String CF_APPLICATION_STATE_STARTED = "STARTED";
 	public static final String CF_APPLICATION_STATE_STOPPED = "STOPPED";
 	public final static String MemoryQuotaExceeded = "CF-AppMemoryQuotaExceeded";
+	public final static String SpaceMemoryQuotaExceeded = "CF-SpaceQuotaMemoryLimitExceeded";
 	public final static String CloudFoundryInternalError = "CloudFoundryInternalError"; // CloudFoundry error
 	   public enum MESSAGE_KEY {
 	    	RestResponseErrorMsg_build_JSON_error, 
@@ -10,16 +10,24 @@ import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
 import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.data.AsyncAutoScalingDataStore;
 import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
 import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
+import org.cloudfoundry.autoscaler.data.couchdb.CouchdbStorageService;
 import org.cloudfoundry.autoscaler.data.couchdb.document.BoundApp;
 import org.cloudfoundry.autoscaler.data.couchdb.document.TriggerRecord;
+import org.cloudfoundry.autoscaler.data.jdbc.JdbcStorageService;
 import org.cloudfoundry.autoscaler.manager.PolicyManager;
 import org.cloudfoundry.autoscaler.manager.PolicyManagerImpl;
+import org.cloudfoundry.autoscaler.manager.ScalingDispatcher;
 import org.cloudfoundry.autoscaler.manager.ScalingStateManager;
+import org.cloudfoundry.autoscaler.manager.ScalingEventManager;
+import org.cloudfoundry.autoscaler.manager.ScalingStateMonitor;
+import org.cloudfoundry.autoscaler.metric.forecast.PredictiveScaler;
 import org.cloudfoundry.autoscaler.metric.monitor.MonitorController;
 import org.cloudfoundry.autoscaler.metric.poller.CFPollerManager;
 import org.cloudfoundry.autoscaler.schedule.ScalingScheduledServiceFactory;
+import org.cloudfoundry.autoscaler.util.LocalCache;
 
 /**
  * Application Lifecycle Listener implementation class LifecycleListener
@@ -58,6 +66,23 @@ public class LifecycleListener implements ServletContextListener {
         CFPollerManager.getInstance().shutdown();
         MonitorController.getInstance().shutdown();
         ScalingScheduledServiceFactory.getScheduledService().shutdown();
+        ScalingDispatcher.getInstance().shutdown();
+        ScalingStateMonitor.getInstance().shutdown();
+        ScalingEventManager.getInstance().shutdown();
+        PredictiveScaler.getInstance().shutdown();
+        LocalCache.shutdown();
+        AsyncAutoScalingDataStore asyncDataStore = AutoScalingDataStoreFactory.getInitializedAsyncAutoScalingDataStore();
+        if (asyncDataStore != null) {
+            asyncDataStore.shutdown(10000);
+        }
+        CouchdbStorageService storeService = CouchdbStorageService.getInitializedInstance();
+        if (storeService != null) {
+            storeService.shutdown();
+        }
+        JdbcStorageService jdbcStoreService = JdbcStorageService.getInitializedInstance();
+        if (jdbcStoreService != null) {
+            jdbcStoreService.shutdown();
+        }
         logger.info("Finished to shutdown all thread pools.");
     }
     
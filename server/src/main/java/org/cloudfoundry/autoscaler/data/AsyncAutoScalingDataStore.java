@@ -0,0 +1,342 @@
+package org.cloudfoundry.autoscaler.data;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.Application;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
+
+/**
+ * Non-blocking counterparts of the {@link AutoScalingDataStore} operations.
+ *
+ * Operations run on a small shared pool and report completion through
+ * {@link DataStoreFuture}. Operations submitted with the same key, usually
+ * the app id, run one after another in submission order, so writes for an app
+ * never overtake each other. When the pool queue is full the submitting
+ * thread runs the operation itself, which slows producers down instead of
+ * dropping writes. At most maxPendingPerKey operations are pending per key, further
+ * ones fail with a RejectedExecutionException and are counted, so a slow
+ * database cannot fill the heap. Scaling state transitions use their own key,
+ * see {@link #scalingStateKey(String)}, so they do not wait behind the
+ * metrics of the app.
+ */
+public class AsyncAutoScalingDataStore {
+	private static final Logger logger = Logger.getLogger(AsyncAutoScalingDataStore.class);
+
+	private final AutoScalingDataStore store;
+	private final ThreadPoolExecutor executor;
+	private final Map<String, Queue<Runnable>> keyQueues = new HashMap<String, Queue<Runnable>>();
+	private final int maxPendingPerKey;
+
+	private final AtomicLong submitted = new AtomicLong(0);
+	private final AtomicLong succeeded = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+	private final AtomicLong rejected = new AtomicLong(0);
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * @param store
+	 * @param threads
+	 * @param queueSize the size of the pool queue
+	 * @param maxPendingPerKey the most operations pending for a key
+	 */
+	public AsyncAutoScalingDataStore(AutoScalingDataStore store, int threads, int queueSize, int maxPendingPerKey) {
+		this.store = store;
+		this.maxPendingPerKey = Math.max(1, maxPendingPerKey);
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("dataStoreAsync"),
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+						// also after shutdown, so that queued writes are not lost
+						task.run();
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @param appId
+	 * @return the ordering key of the scaling state transitions of the app
+	 */
+	public static String scalingStateKey(String appId) {
+		return "scalingState/" + appId;
+	}
+
+	public AutoScalingDataStore getDataStore() {
+		return store;
+	}
+
+	/**
+	 * Runs the operation on the pool, after all operations submitted earlier
+	 * with the same key
+	 * @param key the ordering key, or null if the operation can run in any order
+	 * @param operation
+	 * @return
+	 */
+	public <T> DataStoreFuture<T> submit(String key, final Callable<T> operation) {
+		final DataStoreFuture<T> future = new DataStoreFuture<T>();
+		final long submitTime = System.nanoTime();
+		submitted.incrementAndGet();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				if (future.isDone())
+					return;
+				try {
+					T result = operation.call();
+					succeeded.incrementAndGet();
+					latency.recordSince(submitTime);
+					future.complete(result);
+				} catch (Throwable e) {
+					failed.incrementAndGet();
+					latency.recordSince(submitTime);
+					future.fail(e);
+				}
+			}
+		};
+		if (key == null) {
+			executor.execute(task);
+			return future;
+		}
+
+		boolean idle;
+		synchronized (keyQueues) {
+			Queue<Runnable> queue = keyQueues.get(key);
+			idle = queue == null;
+			if (idle) {
+				queue = new LinkedList<Runnable>();
+				keyQueues.put(key, queue);
+			} else if (queue.size() >= maxPendingPerKey) {
+				rejected.incrementAndGet();
+				failed.incrementAndGet();
+				future.fail(new RejectedExecutionException(maxPendingPerKey + " data store operations of " + key
+						+ " are pending"));
+				return future;
+			}
+			queue.add(task);
+		}
+		if (idle)
+			executor.execute(new KeyDrainer(key));
+		return future;
+	}
+
+	/**
+	 * Runs the queued operations of a key one at a time, giving the pool
+	 * thread back between operations so a busy app cannot starve the others.
+	 * The drainer goes back to the end of the pool queue itself, it only
+	 * keeps running the operations of the key when the queue is full.
+	 */
+	private class KeyDrainer implements Runnable {
+		private final String key;
+
+		private KeyDrainer(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				synchronized (keyQueues) {
+					task = keyQueues.get(key).peek();
+				}
+				try {
+					task.run();
+				} finally {
+					synchronized (keyQueues) {
+						Queue<Runnable> queue = keyQueues.get(key);
+						queue.poll();
+						if (queue.isEmpty()) {
+							keyQueues.remove(key);
+							return;
+						}
+					}
+				}
+				if (requeue())
+					return;
+			}
+		}
+
+		/**
+		 * Puts the drainer at the end of the pool queue, without running it
+		 * on this thread when the queue is full
+		 */
+		private boolean requeue() {
+			if (executor.isShutdown() || !executor.getQueue().offer(this))
+				return false;
+			// a drainer queued behind shutdown or without a pool thread left is run here
+			if (executor.isShutdown() && executor.remove(this))
+				return false;
+			executor.prestartCoreThread();
+			return true;
+		}
+	}
+
+	public DataStoreFuture<Void> addTrigger(final Trigger trigger) {
+		return submit(trigger.getAppId(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.addTrigger(trigger);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> removeTrigger(final String appId) {
+		return submit(appId, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.removeTrigger(appId);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> addAppStats(final AppInstanceMetrics appInstanceMetrics) {
+		return submit(appInstanceMetrics.getAppId(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.addAppStats(appInstanceMetrics);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<List<AppInstanceMetrics>> getAppStatsHistoryByAppIdAfter(final String appId,
+			final long newerThan) {
+		return submit(appId, new Callable<List<AppInstanceMetrics>>() {
+			@Override
+			public List<AppInstanceMetrics> call() throws Exception {
+				return store.getAppStatsHistoryByAppIdAfter(appId, newerThan);
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> addBinding(final String serviceId, final String appId, final String appType,
+			final String appName) {
+		return submit(appId, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.addBinding(serviceId, appId, appType, appName);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> updateBinding(final String serviceId, final String appId, final String appType,
+			final String appName) {
+		return submit(appId, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.updateBinding(serviceId, appId, appType, appName);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> removeBinding(final String serviceId, final String appId) {
+		return submit(appId, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.removeBinding(serviceId, appId);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> saveApplication(final Application app) {
+		return submit(app.getAppId(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.saveApplication(app);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<Application> getApplication(final String appId) {
+		return submit(appId, new Callable<Application>() {
+			@Override
+			public Application call() throws Exception {
+				return store.getApplication(appId);
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> saveScalingState(final AppAutoScaleState state) {
+		return submit(scalingStateKey(state.getAppId()), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.saveScalingState(state);
+				return null;
+			}
+		});
+	}
+
+	public DataStoreFuture<AppAutoScaleState> getScalingState(final String appId) {
+		return submit(scalingStateKey(appId), new Callable<AppAutoScaleState>() {
+			@Override
+			public AppAutoScaleState call() throws Exception {
+				return store.getScalingState(appId);
+			}
+		});
+	}
+
+	public DataStoreFuture<Void> saveScalingHistory(final ScalingHistory scalingHistory) {
+		return submit(scalingHistory.getAppId(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.saveScalingHistory(scalingHistory);
+				return null;
+			}
+		});
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		long done = succeeded.get() + failed.get();
+		stats.put("submitted", submitted.get());
+		stats.put("succeeded", succeeded.get());
+		stats.put("failed", failed.get());
+		stats.put("rejected", rejected.get());
+		stats.put("pending", submitted.get() - done);
+		synchronized (keyQueues) {
+			stats.put("activeKeys", keyQueues.size());
+		}
+		stats.put("poolQueueSize", executor.getQueue().size());
+		stats.put("latency", latency.getStats());
+		return stats;
+	}
+
+	/**
+	 * Stops accepting operations and waits for the queued ones to finish
+	 */
+	public void shutdown(long timeoutMs) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS))
+				logger.warn("Data store operations still pending after " + timeoutMs + " ms: "
+						+ (submitted.get() - succeeded.get() - failed.get()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
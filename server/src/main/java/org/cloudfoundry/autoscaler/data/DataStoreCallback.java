@@ -0,0 +1,17 @@
+package org.cloudfoundry.autoscaler.data;
+
+public interface DataStoreCallback<T> {
+
+	/**
+	 * Called when the operation succeeded
+	 * @param result
+	 */
+	public void onSuccess(T result);
+
+	/**
+	 * Called when the operation failed
+	 * @param failure
+	 */
+	public void onFailure(Throwable failure);
+
+}
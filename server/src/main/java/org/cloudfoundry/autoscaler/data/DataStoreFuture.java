@@ -0,0 +1,136 @@
+package org.cloudfoundry.autoscaler.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Result of an asynchronous data store operation. Callbacks run on the thread
+ * completing the operation, or right away on the registering thread if it is
+ * already complete, so no thread waits on an outstanding request unless the
+ * caller chooses to block in {@link #get()}.
+ */
+public class DataStoreFuture<T> implements Future<T> {
+	private static final Logger logger = Logger.getLogger(DataStoreFuture.class);
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private List<DataStoreCallback<T>> callbacks = new ArrayList<DataStoreCallback<T>>();
+	private T result;
+	private Throwable failure;
+	private boolean cancelled;
+
+	public static <T> DataStoreFuture<T> completed(T result) {
+		DataStoreFuture<T> future = new DataStoreFuture<T>();
+		future.complete(result);
+		return future;
+	}
+
+	/**
+	 * Registers a callback, which is called once when the operation completes
+	 */
+	public void addCallback(DataStoreCallback<T> callback) {
+		synchronized (this) {
+			if (callbacks != null) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		notify(callback);
+	}
+
+	public boolean complete(T result) {
+		List<DataStoreCallback<T>> toNotify;
+		synchronized (this) {
+			if (callbacks == null)
+				return false;
+			this.result = result;
+			toNotify = callbacks;
+			callbacks = null;
+		}
+		done.countDown();
+		for (DataStoreCallback<T> callback : toNotify)
+			notify(callback);
+		return true;
+	}
+
+	public boolean fail(Throwable failure) {
+		List<DataStoreCallback<T>> toNotify;
+		synchronized (this) {
+			if (callbacks == null)
+				return false;
+			this.failure = failure;
+			toNotify = callbacks;
+			callbacks = null;
+		}
+		done.countDown();
+		for (DataStoreCallback<T> callback : toNotify)
+			notify(callback);
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (callbacks == null)
+				return false;
+			cancelled = true;
+		}
+		return fail(new CancellationException());
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException();
+		return getResult();
+	}
+
+	private synchronized T getResult() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException();
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return result;
+	}
+
+	private void notify(DataStoreCallback<T> callback) {
+		T result;
+		Throwable failure;
+		synchronized (this) {
+			result = this.result;
+			failure = this.failure;
+		}
+		try {
+			if (failure == null)
+				callback.onSuccess(result);
+			else
+				callback.onFailure(failure);
+		} catch (Exception e) {
+			logger.error("Data store callback failed", e);
+		}
+	}
+
+}
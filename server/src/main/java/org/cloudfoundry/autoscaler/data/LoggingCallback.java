@@ -0,0 +1,26 @@
+package org.cloudfoundry.autoscaler.data;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Callback for fire-and-forget data store operations, logs the failure
+ */
+public class LoggingCallback<T> implements DataStoreCallback<T> {
+	private static final Logger logger = Logger.getLogger(LoggingCallback.class);
+
+	private final String message;
+
+	public LoggingCallback(String message) {
+		this.message = message;
+	}
+
+	@Override
+	public void onSuccess(T result) {
+	}
+
+	@Override
+	public void onFailure(Throwable failure) {
+		logger.error(message + ": " + failure.getMessage(), failure);
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.cloudfoundry.autoscaler.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.constant.Constants;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+
+/**
+ * Rebuilds the regular metrics series of apps whose metrics are stored in
+ * change-only mode.
+ *
+ * Stored metrics with a sample interval hold their values until the next
+ * stored metrics, so a copy is added for every poll in between, for at most
+ * the keyframe distance. Longer gaps mean the app did not report and are
+ * left empty.
+ */
+public class StepHeldMetrics {
+
+	private static final boolean changeOnly = ConfigManager.getBoolean("metricsChangeOnly", false);
+	private static final int keyframePolls = ConfigManager.getInt("metricsKeyframePolls", 10);
+	private static final long reportInterval = ConfigManager.getInt(Constants.REPORT_INTERVAL, 60) * 1000L;
+
+	private static final Comparator<AppInstanceMetrics> BY_TIMESTAMP = new Comparator<AppInstanceMetrics>() {
+		@Override
+		public int compare(AppInstanceMetrics o1, AppInstanceMetrics o2) {
+			return o1.getTimestamp() < o2.getTimestamp() ? -1 : (o1.getTimestamp() > o2.getTimestamp() ? 1 : 0);
+		}
+	};
+
+	private StepHeldMetrics() {
+	}
+
+	public static boolean isChangeOnly() {
+		return changeOnly;
+	}
+
+	public static int getKeyframePolls() {
+		return keyframePolls;
+	}
+
+	/**
+	 * @return how much earlier than the requested time history has to be
+	 *         read to find the metrics holding at that time
+	 */
+	public static long getLookback() {
+		return changeOnly ? (long) (keyframePolls * reportInterval * 1.5) : 0;
+	}
+
+	/**
+	 * @param stored the stored metrics of an app, read from newerThan minus
+	 *            the lookback
+	 * @param newerThan
+	 * @param now
+	 * @return the stored and held metrics not older than newerThan, ordered by time
+	 */
+	public static List<AppInstanceMetrics> expand(List<AppInstanceMetrics> stored, long newerThan, long now) {
+		List<AppInstanceMetrics> sorted = new ArrayList<AppInstanceMetrics>(stored);
+		Collections.sort(sorted, BY_TIMESTAMP);
+
+		List<AppInstanceMetrics> results = new ArrayList<AppInstanceMetrics>(sorted.size());
+		for (int i = 0; i < sorted.size(); i++) {
+			AppInstanceMetrics metrics = sorted.get(i);
+			if (metrics.getTimestamp() >= newerThan)
+				results.add(metrics);
+			Long interval = metrics.getSampleInterval();
+			if (interval == null || interval <= 0)
+				continue;
+			long until = i + 1 < sorted.size() ? sorted.get(i + 1).getTimestamp() - interval / 2 : now;
+			for (int poll = 1; poll < keyframePolls; poll++) {
+				long offset = poll * interval;
+				if (metrics.getTimestamp() + offset > until)
+					break;
+				if (metrics.getTimestamp() + offset >= newerThan)
+					results.add(shift(metrics, offset));
+			}
+		}
+		return results;
+	}
+
+	private static AppInstanceMetrics shift(AppInstanceMetrics metrics, long offset) {
+		AppInstanceMetrics held = metrics.deepClone();
+		held.setTimestamp(metrics.getTimestamp() + offset);
+		for (InstanceMetrics instance : held.getInstanceMetrics()) {
+			instance.setTimestamp(instance.getTimestamp() + offset);
+			for (Metric metric : instance.getMetrics())
+				metric.setTimestamp(metric.getTimestamp() + offset);
+		}
+		return held;
+	}
+
+}
@@ -1,11 +1,43 @@
 package org.cloudfoundry.autoscaler.data.couchdb;
 
+import org.cloudfoundry.autoscaler.data.AsyncAutoScalingDataStore;
 import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.jdbc.JdbcStorageService;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
 
 public class AutoScalingDataStoreFactory {
 
+	public static final String DATA_STORE_COUCHDB = "couchdb";
+	public static final String DATA_STORE_JDBC = "jdbc";
+
+	private static final String dataStore = ConfigManager.get("dataStore", DATA_STORE_COUCHDB);
+
+	private static volatile AsyncAutoScalingDataStore asyncDataStore = null;
+
 	public static AutoScalingDataStore getAutoScalingDataStore() {
+		if (DATA_STORE_JDBC.equalsIgnoreCase(dataStore))
+			return JdbcStorageService.getInstance();
 		return CouchdbStorageService.getInstance();
 	}
 
+	public static AsyncAutoScalingDataStore getAsyncAutoScalingDataStore() {
+		if (asyncDataStore == null) {
+			synchronized (AutoScalingDataStoreFactory.class) {
+				if (asyncDataStore == null)
+					asyncDataStore = new AsyncAutoScalingDataStore(getAutoScalingDataStore(),
+							ConfigManager.getInt("dataStoreAsyncThreads", 8),
+							ConfigManager.getInt("dataStoreAsyncQueueSize", 10000),
+							ConfigManager.getInt("dataStoreAsyncMaxPendingPerKey", 1000));
+			}
+		}
+		return asyncDataStore;
+	}
+
+	/**
+	 * @return the async data store if it has been created, without creating it
+	 */
+	public static AsyncAutoScalingDataStore getInitializedAsyncAutoScalingDataStore() {
+		return asyncDataStore;
+	}
+
 }
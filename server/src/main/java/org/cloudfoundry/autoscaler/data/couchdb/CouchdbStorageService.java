@@ -1,19 +1,28 @@
 package org.cloudfoundry.autoscaler.data.couchdb;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.bean.Trigger;
 import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.StepHeldMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.archive.MetricArchiveStore;
 import org.cloudfoundry.autoscaler.data.couchdb.connection.manager.ServerDAOManager;
 import org.cloudfoundry.autoscaler.data.couchdb.connection.manager.ServerMetricDAOManager;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.AppAutoScaleStateDAO;
@@ -21,10 +30,12 @@ import org.cloudfoundry.autoscaler.data.couchdb.dao.AppInstanceMetricsDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.ApplicationDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.AutoScalerPolicyDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.BoundAppDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.CommonDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.MetricDBSegmentDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.ScalingHistoryDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.ServiceConfigDAO;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.TriggerRecordDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.base.DesignDocumentPrewarmer;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
 import org.cloudfoundry.autoscaler.data.couchdb.document.Application;
@@ -34,11 +45,15 @@ import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
 import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
 import org.cloudfoundry.autoscaler.data.couchdb.document.ServiceConfig;
 import org.cloudfoundry.autoscaler.data.couchdb.document.TriggerRecord;
+import org.cloudfoundry.autoscaler.data.couchdb.spool.WriteSpool;
 import org.cloudfoundry.autoscaler.exceptions.DataStoreException;
 import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
 import org.cloudfoundry.autoscaler.manager.ScalingHistoryFilter;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
 import org.cloudfoundry.autoscaler.util.AutoScalerEnvUtil;
 import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.ektorp.UpdateConflictException;
+import org.ektorp.support.CouchDbDocument;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -59,6 +74,29 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 	private static final ObjectMapper mapper = new ObjectMapper();
 	private static final String serverName = AutoScalerEnvUtil.getServerName();
 
+	private static final boolean spoolEnabled = ConfigManager.getBoolean("spoolEnabled", true);
+	private static final String spoolDir = ConfigManager.get("spoolDir");
+	private static final long spoolMaxBytes = ConfigManager.getLong("spoolMaxSizeMB", 256) * 1024 * 1024;
+	private static final long spoolFsyncInterval = ConfigManager.getLong("spoolFsyncIntervalMs", 200);
+	private static final int spoolFsyncBatchSize = ConfigManager.getInt("spoolFsyncBatchSize", 100);
+	private static final long spoolReplayInterval = ConfigManager.getLong("spoolReplayIntervalSec", 10) * 1000;
+	private static final int spoolReplayBatchSize = ConfigManager.getInt("spoolReplayBatchSize", 500);
+	private static final int spoolMaxReplayAttempts = ConfigManager.getInt("spoolMaxReplayAttempts", 30);
+	private static final int revisionCacheSize = ConfigManager.getInt("couchdbRevisionCacheSize", 10000);
+	private static final int updateConflictRetries = ConfigManager.getInt("couchdbUpdateConflictRetries", 2);
+	private static final long scalingStateCacheTTL = ConfigManager.getLong("scalingStateCacheTTL", 300) * 1000;
+	private static final long metricDBProvisionLeadTime = ConfigManager.getLong("couchdbMetricDBProvisionLeadTime", 10) * 1000 * 60L;
+	private static final boolean archiveEnabled = ConfigManager.getBoolean("metricArchiveEnabled", false);
+	private static final String archiveDir = ConfigManager.get("metricArchiveDir");
+	private static final long archiveDelay = ConfigManager.getLong("metricArchiveAfterMin", 60) * 1000 * 60L;
+	private static final long archiveInterval = ConfigManager.getLong("metricArchiveIntervalMin", 10);
+	private static final int archivePageSize = ConfigManager.getInt("metricArchivePageSize", 1000);
+	private static final int archiveBlockRows = ConfigManager.getInt("metricArchiveBlockRows", 1000);
+	private static final long archiveRetention = ConfigManager.getLong("metricArchiveRetentionDays", 365) * 24 * 60 * 60 * 1000L;
+	private static final long archiveMaxBytes = ConfigManager.getLong("metricArchiveMaxSizeMB", 0) * 1024 * 1024L;
+	private static final String SPOOL_TYPE_METRICS = "metrics";
+	private static final String SPOOL_TYPE_HISTORY = "history";
+
 	private TriggerRecordDAO triggerRecordDao;
 	private BoundAppDAO boundAppDao;
 	private ServiceConfigDAO serviceConfigDao;
@@ -68,9 +106,39 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 	private AppAutoScaleStateDAO appAutoScaleStateDao;
 	private ScalingHistoryDAO scalingHistoryDao;
 
-	private List<AppInstanceMetricsDAO> appInstanceMetricsDAOList;
-	private List<MetricDBSegment> metricDBSegmentList;
-	private int curMetricDBSegmentAnchor;
+	private volatile MetricDBSegmentRouting segmentRouting;
+
+	// the next metric DB, created and initialized ahead of the segment boundary
+	private MetricDBSegment provisionedSegment;
+	private AppInstanceMetricsDAO provisionedDao;
+	private ScheduledThreadPoolExecutor provisionExecutor;
+	private MetricArchiveStore archiveStore;
+	private ScheduledThreadPoolExecutor archiveExecutor;
+
+	private WriteSpool writeSpool;
+
+	// latest known revision per document id, updated on every successful write
+	@SuppressWarnings("serial")
+	private final Map<String, String> revisionCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(
+			16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > revisionCacheSize;
+		}
+	});
+
+	// <appId, last read or written AppAutoScaleState>
+	private final ConcurrentMap<String, CachedScalingState> scalingStateCache = new ConcurrentHashMap<String, CachedScalingState>();
+
+	private static class CachedScalingState {
+		private final AppAutoScaleState state;
+		private final long expireTime;
+
+		private CachedScalingState(AppAutoScaleState state) {
+			this.state = state;
+			this.expireTime = System.currentTimeMillis() + scalingStateCacheTTL;
+		}
+	}
 
 	private static volatile CouchdbStorageService instance;
 
@@ -78,6 +146,15 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 		initCouchdb();
 	}
 
+	/**
+	 * Without a CouchDB connection, metric writes are routed through the
+	 * given segments
+	 */
+	CouchdbStorageService(MetricDBSegmentDAO metricDBSegmentDao, MetricDBSegmentRouting segmentRouting) {
+		this.metricDBSegmentDao = metricDBSegmentDao;
+		this.segmentRouting = segmentRouting;
+	}
+
 	public static CouchdbStorageService getInstance() {
 		if (instance == null) {
 			synchronized (CouchdbStorageService.class) {
@@ -88,6 +165,14 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 		return instance;
 	}
 
+	/**
+	 * Returns the instance only if it is already initialized, for callers that
+	 * should not trigger the database connection
+	 */
+	public static CouchdbStorageService getInitializedInstance() {
+		return instance;
+	}
+
 	private void initCouchdb() {
 
 		ServerDAOManager ScalingRepoManager = null;
@@ -103,8 +188,113 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 		scalingHistoryDao = ScalingRepoManager.getScalingHistoryDao();
 		appAutoScaleStateDao = ScalingRepoManager.getAppAutoScalerStateDao();
 
+		initMetricArchive();
 		initExistingMetricDB();
+		initWriteSpool();
+		initMetricDBProvision();
+
+	}
+
+	private void initWriteSpool() {
+		if (!spoolEnabled)
+			return;
+		// a spool on ephemeral disk would be lost with the writes it holds
+		if (spoolDir == null || spoolDir.trim().isEmpty()) {
+			logger.warn("spoolDir is not configured, failed writes will be dropped");
+			return;
+		}
+		try {
+			writeSpool = new WriteSpool(spoolDir, spoolMaxBytes, spoolFsyncInterval, spoolFsyncBatchSize,
+					spoolReplayInterval, spoolReplayBatchSize, spoolMaxReplayAttempts, new WriteSpool.Replayer() {
+						@Override
+						public boolean replay(String type, List<String> records) {
+							return replaySpooledRecords(type, records);
+						}
+
+						@Override
+						public boolean isAvailable() {
+							return scalingHistoryDao.isReachable();
+						}
+					});
+		} catch (Exception e) {
+			logger.error("Failed to init write spool in " + spoolDir + ", failed writes will be dropped", e);
+		}
+	}
+
+	public WriteSpool getWriteSpool() {
+		return writeSpool;
+	}
+
+	public MetricArchiveStore getMetricArchiveStore() {
+		return archiveStore;
+	}
 
+	public void shutdown() {
+		if (provisionExecutor != null)
+			provisionExecutor.shutdownNow();
+		if (archiveExecutor != null)
+			archiveExecutor.shutdownNow();
+		if (writeSpool != null)
+			writeSpool.shutdown();
+		DesignDocumentPrewarmer.getInstance().shutdown();
+	}
+
+	/**
+	 * Writes records from the spool back to CouchDB, metrics in bulk per
+	 * metric DB segment
+	 */
+	private boolean replaySpooledRecords(String type, List<String> records) {
+		try {
+			if (SPOOL_TYPE_METRICS.equals(type)) {
+				MetricDBSegmentRouting routing = segmentRouting;
+				Map<Integer, List<AppInstanceMetrics>> metricsBySegment = new TreeMap<Integer, List<AppInstanceMetrics>>();
+				for (String record : records) {
+					AppInstanceMetrics metrics = mapper.readValue(record, AppInstanceMetrics.class);
+					int anchor = routing.getAnchor(metrics.getTimestamp());
+					List<AppInstanceMetrics> segmentMetrics = metricsBySegment.get(anchor);
+					if (segmentMetrics == null) {
+						segmentMetrics = new ArrayList<AppInstanceMetrics>();
+						metricsBySegment.put(anchor, segmentMetrics);
+					}
+					segmentMetrics.add(metrics);
+				}
+				for (Map.Entry<Integer, List<AppInstanceMetrics>> entry : metricsBySegment.entrySet()) {
+					if (!routing.getDao(entry.getKey()).tryAddAll(entry.getValue()))
+						return false;
+				}
+				return true;
+			} else if (SPOOL_TYPE_HISTORY.equals(type)) {
+				for (String record : records) {
+					if (!storeScalingHistory(mapper.readValue(record, ScalingHistory.class)))
+						return false;
+				}
+				return true;
+			}
+			logger.warn("Skipped " + records.size() + " spooled records of unknown type " + type);
+			return true;
+		} catch (Exception e) {
+			logger.error("Failed to replay spooled " + type + " records", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Appends a failed or deferred write to the spool
+	 * @return false if there is no spool or it is full
+	 */
+	private boolean spool(String type, Object document) {
+		if (writeSpool == null)
+			return false;
+		try {
+			return writeSpool.append(type, mapper.writeValueAsString(document));
+		} catch (Exception e) {
+			logger.error("Failed to spool " + type + " record", e);
+			return false;
+		}
+	}
+
+	private boolean hasSpooledWrites() {
+		return writeSpool != null && writeSpool.hasPending();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -112,16 +302,17 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 
 		Calendar now = Calendar.getInstance();
 
-		appInstanceMetricsDAOList = new ArrayList<AppInstanceMetricsDAO>();
-		metricDBSegmentList = metricDBSegmentDao.findLastestMetricDBs(serverName);
+		List<AppInstanceMetricsDAO> appInstanceMetricsDAOList = new ArrayList<AppInstanceMetricsDAO>();
+		List<MetricDBSegment> metricDBSegmentList = metricDBSegmentDao.findLastestMetricDBs(serverName);
 		MetricDBSegment curSegment = MetricDBSegmentManager.getInstance().getMetricDBSegment(now, serverName);
 
 		if (metricDBSegmentList != null) {
 			Collections.sort(metricDBSegmentList);
 
-			// stale the old db segment records & rollout old database
+			// stale the old db segment records & rollout old database, they
+			// are moved to the archive instead if it is enabled
 			Iterator<MetricDBSegment> iter = metricDBSegmentList.iterator();
-			while (iter.hasNext()) {
+			while (archiveStore == null && iter.hasNext()) {
 				MetricDBSegment seg = iter.next();
 				if (seg.getEndTimestamp() != Long.MAX_VALUE
 						&& seg.getEndTimestamp() + metricDBStaleTime < curSegment.getStartTimestamp()) {
@@ -173,7 +364,7 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 			appInstanceMetricsDAOList.add(appInstanceMetricsDao);
 		}
 
-		curMetricDBSegmentAnchor = metricDBSegmentList.size() - 1;
+		segmentRouting = new MetricDBSegmentRouting(metricDBSegmentList, appInstanceMetricsDAOList);
 
 		try {
 			logger.info("Init with metricDBSegment : " + mapper.writeValueAsString(metricDBSegmentList));
@@ -185,6 +376,10 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 
 	public synchronized boolean addMetricDB(long startTimestamp, int seq) throws Exception {
 
+		// another writer has already rolled over
+		if (segmentRouting.getActiveSegment().getSegmentSeq() >= seq)
+			return true;
+
 		if (metricDBSegmentDao.findByServerNameSegmentSeq(serverName, seq) != null) {
 			logger.info("Required metric DB is added at timestamp " + startTimestamp + " with seq " + seq);
 			return true;
@@ -195,27 +390,147 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 
 		MetricDBSegment newSegment = MetricDBSegmentManager.getInstance().getMetricDBSegment(now, serverName);
 		newSegment.setSegmentSeq(seq);
-		metricDBSegmentDao.add(newSegment);
 
 		String newMetricDBName = metricDBPrefix + newSegment.getMetricDBPostfix();
 		AppInstanceMetricsDAO newAppInstanceMetricsDao = null;
-		try {
-			newAppInstanceMetricsDao = (new ServerMetricDAOManager(newMetricDBName, username, password, host,
-					port, enableSSL, timeout, true)).getAppInstanceMetricDao();
+		if (provisionedSegment != null
+				&& provisionedSegment.getMetricDBPostfix().equalsIgnoreCase(newSegment.getMetricDBPostfix())) {
+			newAppInstanceMetricsDao = provisionedDao;
+		} else {
+			newAppInstanceMetricsDao = createMetricDB(newMetricDBName);
+			if (newAppInstanceMetricsDao == null)
+				return false;
+		}
+		provisionedSegment = null;
+		provisionedDao = null;
 
+		metricDBSegmentDao.add(newSegment);
+		segmentRouting = segmentRouting.withSegment(newSegment, newAppInstanceMetricsDao);
+		logger.info("Add a new metric DB. Current metricDBSegment is : "
+				+ mapper.writeValueAsString(segmentRouting.getSegments()));
+
+		return true;
+
+	}
+
+	AppInstanceMetricsDAO createMetricDB(String metricDBName) {
+		try {
+			return (new ServerMetricDAOManager(metricDBName, username, password, host, port, enableSSL, timeout,
+					true)).getAppInstanceMetricDao();
 		} catch (Exception e) {
-			logger.error("Fail to add new metric DB " + newMetricDBName + " with Error: " + e.getMessage(), e);
-			return false;
+			logger.error("Fail to add new metric DB " + metricDBName + " with Error: " + e.getMessage(), e);
+			return null;
 		}
+	}
 
-		appInstanceMetricsDAOList.add(newAppInstanceMetricsDao);
-		metricDBSegmentList.add(newSegment);
-		curMetricDBSegmentAnchor = metricDBSegmentList.size() - 1;
-		logger.info(
-				"Add a new metric DB. Current metricDBSegment is : " + mapper.writeValueAsString(metricDBSegmentList));
+	private void initMetricDBProvision() {
+		provisionExecutor = new ScheduledThreadPoolExecutor(1);
+		provisionExecutor.setThreadFactory(new NamedThreadFactory("metricDBProvisionExecutor"));
+		provisionExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					provisionNextMetricDB();
+				} catch (Exception e) {
+					logger.error("Failed to provision the next metric DB: " + e.getMessage(), e);
+				}
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Creates the metric DB of the next segment and its design documents
+	 * before the active segment ends, so the first write after the rollover
+	 * does not wait for them. The segment record is only added on rollover.
+	 */
+	public synchronized void provisionNextMetricDB() {
+		MetricDBSegment activeSegment = segmentRouting.getActiveSegment();
+		long endTimestamp = activeSegment.getEndTimestamp();
+		if (endTimestamp == Long.MAX_VALUE || System.currentTimeMillis() + metricDBProvisionLeadTime < endTimestamp)
+			return;
+
+		Calendar next = Calendar.getInstance();
+		next.setTimeInMillis(endTimestamp + 1);
+		MetricDBSegment nextSegment = MetricDBSegmentManager.getInstance().getMetricDBSegment(next, serverName);
+		if (provisionedSegment != null
+				&& provisionedSegment.getMetricDBPostfix().equalsIgnoreCase(nextSegment.getMetricDBPostfix()))
+			return;
+
+		String nextMetricDBName = metricDBPrefix + nextSegment.getMetricDBPostfix();
+		AppInstanceMetricsDAO nextDao = createMetricDB(nextMetricDBName);
+		if (nextDao != null) {
+			provisionedSegment = nextSegment;
+			provisionedDao = nextDao;
+			logger.info("Provisioned the next metric DB " + nextMetricDBName);
+		}
+	}
 
-		return true;
+	private void initMetricArchive() {
+		if (!archiveEnabled)
+			return;
+		// the archive is the only copy of the archived metrics
+		if (archiveDir == null || archiveDir.trim().isEmpty()) {
+			logger.warn("metricArchiveDir is not configured, closed metric DBs are kept in CouchDB");
+			return;
+		}
+		try {
+			archiveStore = new MetricArchiveStore(new File(archiveDir), archivePageSize, archiveBlockRows,
+					archiveRetention, archiveMaxBytes);
+		} catch (Exception e) {
+			logger.error("Failed to init metric archive in " + archiveDir + ", closed metric DBs are kept in CouchDB", e);
+			return;
+		}
+		archiveExecutor = new ScheduledThreadPoolExecutor(1);
+		archiveExecutor.setThreadFactory(new NamedThreadFactory("metricDBArchiveExecutor"));
+		archiveExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					archiveClosedMetricDBs();
+				} catch (Exception e) {
+					logger.error("Failed to archive closed metric DBs: " + e.getMessage(), e);
+				}
+			}
+		}, 1, archiveInterval, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Moves the metric DB segments that ended more than metricArchiveAfterMin
+	 * ago into the local archive and deletes them from CouchDB. The active
+	 * segment is never archived, and nothing is archived while spooled
+	 * metrics, which may belong to a closed segment, wait for replay.
+	 * Archives past their retention are deleted first.
+	 */
+	public void archiveClosedMetricDBs() {
+		if (archiveStore == null)
+			return;
+		long now = System.currentTimeMillis();
+		archiveStore.deleteExpired(now);
+		if (hasSpooledWrites())
+			return;
+		MetricDBSegmentRouting routing = segmentRouting;
+		for (int i = 0; i < routing.getActiveAnchor(); i++) {
+			MetricDBSegment segment = routing.getSegment(i);
+			if (segment.getEndTimestamp() + archiveDelay < now)
+				archiveMetricDB(segment, routing.getDao(i));
+		}
+	}
 
+	private void archiveMetricDB(MetricDBSegment segment, AppInstanceMetricsDAO dao) {
+		String metricDBName = metricDBPrefix + segment.getMetricDBPostfix();
+		try {
+			archiveStore.archive(metricDBName, segment, dao);
+		} catch (Exception e) {
+			logger.error("Failed to archive metric DB " + metricDBName + ", it is kept in CouchDB: " + e.getMessage(), e);
+			return;
+		}
+		synchronized (this) {
+			segmentRouting = segmentRouting.withoutSegment(segment);
+		}
+		new ServerMetricDAOManager(metricDBName, username, password, host, port, enableSSL, timeout)
+				.deleteMetricDB(metricDBName);
+		metricDBSegmentDao.remove(segment);
+		logger.info("Removed archived metricDB : " + metricDBName);
 	}
 
 	@Override
@@ -244,8 +559,13 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 
 	@Override
 	public void addAppStats(AppInstanceMetrics appInstanceMetrics) throws Exception {
-		MetricDBSegment activeMetricDBSegment = metricDBSegmentList.get(curMetricDBSegmentAnchor);
-		AppInstanceMetricsDAO activeAppInstanceMetricsDao = appInstanceMetricsDAOList.get(curMetricDBSegmentAnchor);
+		// keep the order with the writes waiting in the spool
+		if (hasSpooledWrites() && spool(SPOOL_TYPE_METRICS, appInstanceMetrics))
+			return;
+
+		MetricDBSegmentRouting routing = segmentRouting;
+		MetricDBSegment activeMetricDBSegment = routing.getActiveSegment();
+		AppInstanceMetricsDAO activeAppInstanceMetricsDao = routing.getActiveDao();
 
 		long currentTimestamp = appInstanceMetrics.getTimestamp();
 		long endTimestamp = activeMetricDBSegment.getEndTimestamp();
@@ -256,32 +576,30 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 			// otherwise reusing previous ones and retry the add metric db when
 			// next metric data comes.
 			if (addMetricDB(currentTimestamp, activeMetricDBSegment.getSegmentSeq() + 1))
-				activeAppInstanceMetricsDao = appInstanceMetricsDAOList.get(curMetricDBSegmentAnchor);
+				activeAppInstanceMetricsDao = segmentRouting.getActiveDao();
 		}
 
-		activeAppInstanceMetricsDao.add(appInstanceMetrics);
+		if (!activeAppInstanceMetricsDao.tryAdd(appInstanceMetrics) && !spool(SPOOL_TYPE_METRICS, appInstanceMetrics))
+			logger.warn("Dropped metrics of app " + appInstanceMetrics.getAppId() + " at " + currentTimestamp);
 	}
 
 	@Override
 	public List<AppInstanceMetrics> getAppStatsHistoryByAppIdAfter(String appId, long newerThan) throws Exception {
 
 		List<AppInstanceMetrics> results = new ArrayList<AppInstanceMetrics>();
-
-		int startingAnchor = 0;
-		for (int i = curMetricDBSegmentAnchor; i >= 0; i--) {
-			if (newerThan > metricDBSegmentList.get(i).getStartTimestamp()) {
-				startingAnchor = i;
-				break;
-			}
-		}
-		for (int i = startingAnchor; i <= curMetricDBSegmentAnchor; i++) {
-			AppInstanceMetricsDAO appInstanceMetricsDao = appInstanceMetricsDAOList.get(i);
-			List<AppInstanceMetrics> appInstanceMetrics = appInstanceMetricsDao.findByAppIdAfter(appId, newerThan);
+		long from = newerThan - StepHeldMetrics.getLookback();
+
+		MetricDBSegmentRouting routing = segmentRouting;
+		if (archiveStore != null)
+			results.addAll(archiveStore.findByAppIdAfter(appId, from, routing.getSegments()));
+		for (int i = routing.getAnchor(from); i <= routing.getActiveAnchor(); i++) {
+			AppInstanceMetricsDAO appInstanceMetricsDao = routing.getDao(i);
+			List<AppInstanceMetrics> appInstanceMetrics = appInstanceMetricsDao.findByAppIdAfter(appId, from);
 			if (appInstanceMetrics != null)
 				results.addAll(appInstanceMetrics);
 		}
 
-		return results;
+		return StepHeldMetrics.expand(results, newerThan, System.currentTimeMillis());
 	}
 
 	@Override
@@ -462,17 +780,21 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 	@Override
 	public void saveScalingState(AppAutoScaleState state) throws DataStoreException {
 		try {
-			AppAutoScaleState existingState = getScalingState(state.getAppId());
-			if (existingState == null)
-				appAutoScaleStateDao.add(state);
-			else {
-				if (state.getId() == null)
+			if (state.getId() == null) {
+				AppAutoScaleState existingState = getScalingState(state.getAppId());
+				if (existingState != null) {
 					state.setId(existingState.getId());
-				if (state.getRevision() == null)
-					state.setRevision(existingState.getRevision());
-				appAutoScaleStateDao.update(state);
+					if (state.getRevision() == null)
+						state.setRevision(existingState.getRevision());
+				}
+			}
+			if (!upsert(appAutoScaleStateDao, state)) {
+				scalingStateCache.remove(state.getAppId());
+				throw new DataStoreException("Failed to save the scaling state of application " + state.getAppId());
 			}
+			scalingStateCache.put(state.getAppId(), new CachedScalingState(copyOf(state)));
 		} catch (org.ektorp.DbAccessException e) {
+			scalingStateCache.remove(state.getAppId());
 			throw new DataStoreException(e);
 		}
 
@@ -480,7 +802,64 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 
 	@Override
 	public AppAutoScaleState getScalingState(String appId) {
-		return appAutoScaleStateDao.findByAppId(appId);
+		if (appId == null)
+			return null;
+		CachedScalingState cached = scalingStateCache.get(appId);
+		if (cached != null && cached.expireTime > System.currentTimeMillis())
+			return copyOf(cached.state);
+
+		// a missing state is not cached, it may be saved by another server
+		AppAutoScaleState state = appAutoScaleStateDao.findByAppId(appId);
+		if (state == null)
+			return null;
+		// a state saved since the read is newer than the one read, keep it
+		CachedScalingState loaded = new CachedScalingState(copyOf(state));
+		boolean stored = cached == null ? scalingStateCache.putIfAbsent(appId, loaded) == null
+				: scalingStateCache.replace(appId, cached, loaded);
+		if (!stored) {
+			CachedScalingState current = scalingStateCache.get(appId);
+			return current != null ? copyOf(current.state) : state;
+		}
+		revisionCache.put(state.getId(), state.getRevision());
+		return state;
+	}
+
+	/**
+	 * Callers update the returned state in place, so the cache only hands out copies
+	 */
+	private AppAutoScaleState copyOf(AppAutoScaleState state) {
+		if (state == null)
+			return null;
+		return mapper.convertValue(state, AppAutoScaleState.class);
+	}
+
+	/**
+	 * Writes the document with a single PUT using the cached revision, and
+	 * falls back to reading the current revision when it conflicts
+	 */
+	private boolean upsert(CommonDAO dao, CouchDbDocument document) {
+		String id = document.getId();
+		if (id != null && document.getRevision() == null) {
+			String revision = revisionCache.get(id);
+			if (revision != null)
+				document.setRevision(revision);
+		}
+		for (int retry = 0;; retry++) {
+			try {
+				if (!dao.tryPut(document))
+					return false;
+				revisionCache.put(document.getId(), document.getRevision());
+				return true;
+			} catch (UpdateConflictException e) {
+				if (retry >= updateConflictRetries) {
+					logger.error("Failed to save document " + id + " after " + retry + " conflict retries");
+					revisionCache.remove(id);
+					return false;
+				}
+				CouchDbDocument current = (CouchDbDocument) dao.get(id);
+				document.setRevision(current == null ? null : current.getRevision());
+			}
+		}
 	}
 
 	@Override
@@ -504,69 +883,54 @@ public class CouchdbStorageService implements AutoScalingDataStore {
 	@Override
 	public void saveScalingHistory(ScalingHistory scalingHistory) throws DataStoreException {
 		try {
-			ScalingHistory existingHistory = getHistoryById(scalingHistory.getId());
-			if (existingHistory == null)
-				scalingHistoryDao.add(scalingHistory);
-			else {
-				if (scalingHistory.getId() == null)
-					scalingHistory.setId(existingHistory.getId());
-				if (scalingHistory.getRevision() == null)
-					scalingHistory.setRevision(existingHistory.getRevision());
-				scalingHistoryDao.update(scalingHistory);
-			}
+			// keep the order with the writes waiting in the spool
+			if (hasSpooledWrites() && spool(SPOOL_TYPE_HISTORY, scalingHistory))
+				return;
+			if (!storeScalingHistory(scalingHistory) && !spool(SPOOL_TYPE_HISTORY, scalingHistory))
+				throw new DataStoreException("Failed to save scaling history " + scalingHistory.getId());
 		} catch (org.ektorp.DbAccessException e) {
 			throw new DataStoreException(e);
 		}
 	}
 
+	private boolean storeScalingHistory(ScalingHistory scalingHistory) {
+		return upsert(scalingHistoryDao, scalingHistory);
+	}
+
 	@Override
 	public List<ScalingHistory> getHistoryList(ScalingHistoryFilter filter) throws DataStoreException {
-		List<ScalingHistory> historyList = scalingHistoryDao.findByScalingTime(filter.getAppId(), filter.getStartTime(),
-				filter.getEndTime());
-		if (filter.getScaleType() != null) {
-			historyList = filterScalingHistoryByScaleType(historyList, filter.getScaleType());
-		}
-		if (filter.getStatus() != null) {
-			historyList = filterScalingHistoryByStatus(historyList, filter.getStatus());
-		}
+		String scaleType = getScaleTypeKey(filter.getScaleType());
+		if (filter.getScaleType() != null && scaleType == null)
+			return new ArrayList<ScalingHistory>();
+		List<ScalingHistory> historyList = scalingHistoryDao.findByFilter(filter.getAppId(), scaleType,
+				getStatusKey(filter.getStatus()), filter.getStartTime(), filter.getEndTime(),
+				Math.max(filter.getOffset(), 0), Math.max(filter.getMaxCount(), 0));
+		if (historyList == null)
+			return new ArrayList<ScalingHistory>();
 		return historyList;
 	}
 
-	private List<ScalingHistory> filterScalingHistoryByScaleType(List<ScalingHistory> historyList, String scaleType) {
-		List<ScalingHistory> newList = new ArrayList<ScalingHistory>();
-		if (historyList == null)
-			return newList;
-		for (ScalingHistory history : historyList) {
-			if (ScalingHistoryFilter.SCALE_IN_TYPE.equals(scaleType) && history.getAdjustment() < 0)
-				newList.add(history);
-			else if (ScalingHistoryFilter.SCALE_OUT_TYPE.equals(scaleType) && history.getAdjustment() > 0)
-				newList.add(history);
-		}
-		return newList;
+	@Override
+	public int getHistoryCount(ScalingHistoryFilter filter) throws DataStoreException {
+		String scaleType = getScaleTypeKey(filter.getScaleType());
+		if (filter.getScaleType() != null && scaleType == null)
+			return 0;
+		return scalingHistoryDao.countByFilter(filter.getAppId(), scaleType, getStatusKey(filter.getStatus()),
+				filter.getStartTime(), filter.getEndTime());
 	}
 
-	private List<ScalingHistory> filterScalingHistoryByStatus(List<ScalingHistory> historyList, String status) {
-		List<ScalingHistory> newList = new ArrayList<ScalingHistory>();
-		if (historyList == null)
-			return newList;
-		for (ScalingHistory history : historyList) {
-			if (history.getStatus() == Integer.parseInt(status))
-				newList.add(history);
-		}
-		return newList;
+	private String getScaleTypeKey(String scaleType) {
+		if (ScalingHistoryFilter.SCALE_IN_TYPE.equalsIgnoreCase(scaleType))
+			return ScalingHistoryFilter.SCALE_IN_TYPE;
+		else if (ScalingHistoryFilter.SCALE_OUT_TYPE.equalsIgnoreCase(scaleType))
+			return ScalingHistoryFilter.SCALE_OUT_TYPE;
+		return null;
 	}
 
-	@Override
-	public int getHistoryCount(ScalingHistoryFilter filter) throws DataStoreException {
-		List<ScalingHistory> historyList = scalingHistoryDao.findByScalingTime(filter.getAppId(), filter.getStartTime(),
-				filter.getEndTime());
-		if (filter.getScaleType() != null) {
-			historyList = filterScalingHistoryByScaleType(historyList, filter.getScaleType());
-		}
-		if (filter.getStatus() != null) {
-			historyList = filterScalingHistoryByStatus(historyList, filter.getStatus());
-		}
-		return historyList.size();
+	private Integer getStatusKey(String status) {
+		if (status == null)
+			return null;
+		return Integer.parseInt(status);
 	}
 
 	@Override
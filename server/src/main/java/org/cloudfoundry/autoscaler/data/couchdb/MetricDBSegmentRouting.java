@@ -0,0 +1,94 @@
+package org.cloudfoundry.autoscaler.data.couchdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.data.couchdb.dao.AppInstanceMetricsDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
+
+/**
+ * Immutable snapshot of the metric DB segments and their DAOs, ordered by
+ * start time. The last segment is the active one. A rollover builds a new
+ * snapshot and swaps it in, so readers route writes and queries without
+ * locking and always see segments and DAOs that belong together.
+ */
+public class MetricDBSegmentRouting {
+
+	private final List<MetricDBSegment> segments;
+	private final List<AppInstanceMetricsDAO> daos;
+
+	public MetricDBSegmentRouting(List<MetricDBSegment> segments, List<AppInstanceMetricsDAO> daos) {
+		if (segments.isEmpty() || segments.size() != daos.size())
+			throw new IllegalArgumentException("Each metric DB segment needs exactly one DAO");
+		this.segments = Collections.unmodifiableList(new ArrayList<MetricDBSegment>(segments));
+		this.daos = Collections.unmodifiableList(new ArrayList<AppInstanceMetricsDAO>(daos));
+	}
+
+	/**
+	 * @return a new snapshot with the segment appended as the active one
+	 */
+	public MetricDBSegmentRouting withSegment(MetricDBSegment segment, AppInstanceMetricsDAO dao) {
+		List<MetricDBSegment> newSegments = new ArrayList<MetricDBSegment>(segments);
+		List<AppInstanceMetricsDAO> newDaos = new ArrayList<AppInstanceMetricsDAO>(daos);
+		newSegments.add(segment);
+		newDaos.add(dao);
+		return new MetricDBSegmentRouting(newSegments, newDaos);
+	}
+
+	/**
+	 * @return a new snapshot without the closed segment, or this one if it
+	 *         does not hold the segment
+	 */
+	public MetricDBSegmentRouting withoutSegment(MetricDBSegment segment) {
+		for (int i = 0; i < getActiveAnchor(); i++) {
+			MetricDBSegment s = segments.get(i);
+			if (s.getSegmentSeq() == segment.getSegmentSeq()
+					&& s.getMetricDBPostfix().equalsIgnoreCase(segment.getMetricDBPostfix())) {
+				List<MetricDBSegment> newSegments = new ArrayList<MetricDBSegment>(segments);
+				List<AppInstanceMetricsDAO> newDaos = new ArrayList<AppInstanceMetricsDAO>(daos);
+				newSegments.remove(i);
+				newDaos.remove(i);
+				return new MetricDBSegmentRouting(newSegments, newDaos);
+			}
+		}
+		return this;
+	}
+
+	public int getActiveAnchor() {
+		return segments.size() - 1;
+	}
+
+	public MetricDBSegment getActiveSegment() {
+		return segments.get(getActiveAnchor());
+	}
+
+	public AppInstanceMetricsDAO getActiveDao() {
+		return daos.get(getActiveAnchor());
+	}
+
+	public MetricDBSegment getSegment(int anchor) {
+		return segments.get(anchor);
+	}
+
+	public AppInstanceMetricsDAO getDao(int anchor) {
+		return daos.get(anchor);
+	}
+
+	public List<MetricDBSegment> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the anchor of the segment holding the timestamp, or the
+	 *         oldest segment for timestamps before all of them
+	 */
+	public int getAnchor(long timestamp) {
+		for (int i = getActiveAnchor(); i > 0; i--) {
+			if (timestamp >= segments.get(i).getStartTimestamp())
+				return i;
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,39 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+/**
+ * Reads a bit stream written by {@link BitOutput}
+ */
+class BitInput {
+
+	private final byte[] buffer;
+	private long position = 0;
+
+	public BitInput(byte[] buffer) {
+		this.buffer = buffer;
+	}
+
+	public boolean readBit() {
+		int index = (int) (position >>> 3);
+		if (index >= buffer.length)
+			throw new IllegalStateException("Read past the end of the archive block");
+		boolean bit = (buffer[index] & (0x80 >>> (int) (position & 7))) != 0;
+		position++;
+		return bit;
+	}
+
+	public long readBits(int bits) {
+		long value = 0;
+		for (int i = 0; i < bits; i++)
+			value = (value << 1) | (readBit() ? 1 : 0);
+		return value;
+	}
+
+	/**
+	 * Reads a two's complement value of the given width
+	 */
+	public long readSignedBits(int bits) {
+		long value = readBits(bits);
+		return bits == 64 ? value : (value << (64 - bits)) >> (64 - bits);
+	}
+
+}
@@ -0,0 +1,36 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+import java.util.Arrays;
+
+/**
+ * Growable bit stream, bits are written most significant first
+ */
+class BitOutput {
+
+	private byte[] buffer = new byte[256];
+	private long bitCount = 0;
+
+	public void writeBit(boolean bit) {
+		int index = (int) (bitCount >>> 3);
+		if (index == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		if (bit)
+			buffer[index] |= 0x80 >>> (int) (bitCount & 7);
+		bitCount++;
+	}
+
+	/**
+	 * Writes the lowest bits of the value
+	 * @param value
+	 * @param bits 0 to 64
+	 */
+	public void writeBits(long value, int bits) {
+		for (int i = bits - 1; i >= 0; i--)
+			writeBit(((value >>> i) & 1) != 0);
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, (int) ((bitCount + 7) >>> 3));
+	}
+
+}
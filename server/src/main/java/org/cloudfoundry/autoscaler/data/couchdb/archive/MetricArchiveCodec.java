@@ -0,0 +1,501 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+
+/**
+ * Columnar encoding of a block of app instance metrics.
+ *
+ * The fields of all rows, instances and metrics of a block are written column
+ * by column. Strings go to a dictionary and are referenced by index,
+ * timestamps are delta-of-delta encoded and numeric values are XOR encoded
+ * against the previous value of the same series, as in Gorilla. A series is
+ * the row itself, an instance index or an instance index and metric name, so
+ * regular samples of slowly changing metrics take only a few bits each.
+ * Blocks are written in the layout of a {@link MetricSegmentArchive}
+ * version, the sample interval column exists since version 2.
+ */
+public class MetricArchiveCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int VALUE_NULL = 0;
+	private static final int VALUE_DOUBLE = 1;
+	private static final int VALUE_LONG = 2;
+	private static final int VALUE_STRING = 3;
+
+	private MetricArchiveCodec() {
+	}
+
+	public static byte[] encode(List<AppInstanceMetrics> rows) throws IOException {
+		return encode(rows, MetricSegmentArchive.VERSION);
+	}
+
+	static byte[] encode(List<AppInstanceMetrics> rows, int version) throws IOException {
+		Dictionary dictionary = new Dictionary();
+		BitOutput bits = new BitOutput();
+		List<InstanceMetrics> instances = new ArrayList<InstanceMetrics>();
+		List<Metric> metrics = new ArrayList<Metric>();
+		List<Integer> metricInstanceIndexes = new ArrayList<Integer>();
+
+		int[] ids = new int[rows.size()];
+		int[] appIds = new int[rows.size()];
+		int[] appNames = new int[rows.size()];
+		int[] appTypes = new int[rows.size()];
+		int[] serviceIds = new int[rows.size()];
+		int[] instanceCounts = new int[rows.size()];
+		int[] sampleIntervals = new int[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			AppInstanceMetrics row = rows.get(i);
+			ids[i] = dictionary.ref(row.getId());
+			appIds[i] = dictionary.ref(row.getAppId());
+			appNames[i] = dictionary.ref(row.getAppName());
+			appTypes[i] = dictionary.ref(row.getAppType());
+			serviceIds[i] = dictionary.ref(row.getServiceId());
+			List<InstanceMetrics> rowInstances = row.getInstanceMetrics();
+			instanceCounts[i] = rowInstances == null ? 0 : rowInstances.size();
+			if (rowInstances != null)
+				instances.addAll(rowInstances);
+			sampleIntervals[i] = row.getSampleInterval() == null ? 0
+					: (int) Math.min(row.getSampleInterval(), Integer.MAX_VALUE);
+		}
+		writeInts(bits, ids);
+		writeInts(bits, appIds);
+		writeInts(bits, appNames);
+		writeInts(bits, appTypes);
+		writeInts(bits, serviceIds);
+		writeInts(bits, instanceCounts);
+		if (version >= 2)
+			writeInts(bits, sampleIntervals);
+		TimestampSeries rowTimestamps = new TimestampSeries();
+		for (AppInstanceMetrics row : rows)
+			rowTimestamps.encode(bits, row.getTimestamp());
+		ValueSeries memQuotas = new ValueSeries();
+		for (AppInstanceMetrics row : rows)
+			memQuotas.encode(bits, Double.doubleToRawLongBits(row.getMemQuota()));
+
+		int[] instanceIndexes = new int[instances.size()];
+		int[] instanceIds = new int[instances.size()];
+		int[] metricCounts = new int[instances.size()];
+		for (int i = 0; i < instances.size(); i++) {
+			InstanceMetrics instance = instances.get(i);
+			instanceIndexes[i] = zigZag(instance.getInstanceIndex());
+			instanceIds[i] = dictionary.ref(instance.getInstanceId());
+			List<Metric> instanceMetrics = instance.getMetrics();
+			metricCounts[i] = instanceMetrics == null ? 0 : instanceMetrics.size();
+			if (instanceMetrics != null) {
+				for (Metric metric : instanceMetrics) {
+					metrics.add(metric);
+					metricInstanceIndexes.add(instance.getInstanceIndex());
+				}
+			}
+		}
+		writeInts(bits, instanceIndexes);
+		writeInts(bits, instanceIds);
+		writeInts(bits, metricCounts);
+		Map<String, TimestampSeries> instanceTimestamps = new HashMap<String, TimestampSeries>();
+		for (InstanceMetrics instance : instances)
+			timestamps(instanceTimestamps, String.valueOf(instance.getInstanceIndex()))
+					.encode(bits, instance.getTimestamp());
+
+		int[] names = new int[metrics.size()];
+		int[] categories = new int[metrics.size()];
+		int[] groups = new int[metrics.size()];
+		int[] units = new int[metrics.size()];
+		int[] descs = new int[metrics.size()];
+		int[] kinds = new int[metrics.size()];
+		List<Integer> stringValues = new ArrayList<Integer>();
+		long[] numericValues = new long[metrics.size()];
+		for (int i = 0; i < metrics.size(); i++) {
+			Metric metric = metrics.get(i);
+			names[i] = dictionary.ref(metric.getName());
+			categories[i] = dictionary.ref(metric.getCategory());
+			groups[i] = dictionary.ref(metric.getGroup());
+			units[i] = dictionary.ref(metric.getUnit());
+			descs[i] = dictionary.ref(metric.getDesc());
+			kinds[i] = valueKind(metric.getValue());
+			if (kinds[i] == VALUE_STRING)
+				stringValues.add(dictionary.ref(metric.getValue()));
+			else if (kinds[i] != VALUE_NULL)
+				numericValues[i] = Double.doubleToRawLongBits(Double.parseDouble(metric.getValue()));
+		}
+		writeInts(bits, names);
+		writeInts(bits, categories);
+		writeInts(bits, groups);
+		writeInts(bits, units);
+		writeInts(bits, descs);
+		for (int kind : kinds)
+			bits.writeBits(kind, 2);
+		Map<String, TimestampSeries> metricTimestamps = new HashMap<String, TimestampSeries>();
+		Map<String, ValueSeries> metricValues = new HashMap<String, ValueSeries>();
+		for (int i = 0; i < metrics.size(); i++) {
+			String key = metricInstanceIndexes.get(i) + "/" + metrics.get(i).getName();
+			timestamps(metricTimestamps, key).encode(bits, metrics.get(i).getTimestamp());
+			if (kinds[i] == VALUE_DOUBLE || kinds[i] == VALUE_LONG)
+				values(metricValues, key).encode(bits, numericValues[i]);
+		}
+		int[] stringRefs = new int[stringValues.size()];
+		for (int i = 0; i < stringRefs.length; i++)
+			stringRefs[i] = stringValues.get(i);
+		writeInts(bits, stringRefs);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(rows.size());
+		out.writeInt(dictionary.strings.size());
+		for (String s : dictionary.strings) {
+			byte[] encoded = s.getBytes(UTF8);
+			out.writeInt(encoded.length);
+			out.write(encoded);
+		}
+		byte[] columns = bits.toByteArray();
+		out.writeInt(columns.length);
+		out.write(columns);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	public static List<AppInstanceMetrics> decode(byte[] block) throws IOException {
+		return decode(block, MetricSegmentArchive.VERSION);
+	}
+
+	public static List<AppInstanceMetrics> decode(byte[] block, int version) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+		int rowCount = in.readInt();
+		String[] dictionary = new String[in.readInt() + 1];
+		for (int i = 1; i < dictionary.length; i++) {
+			byte[] encoded = new byte[in.readInt()];
+			in.readFully(encoded);
+			dictionary[i] = new String(encoded, UTF8);
+		}
+		byte[] columns = new byte[in.readInt()];
+		in.readFully(columns);
+		BitInput bits = new BitInput(columns);
+
+		int[] ids = readInts(bits, rowCount);
+		int[] appIds = readInts(bits, rowCount);
+		int[] appNames = readInts(bits, rowCount);
+		int[] appTypes = readInts(bits, rowCount);
+		int[] serviceIds = readInts(bits, rowCount);
+		int[] instanceCounts = readInts(bits, rowCount);
+		int[] sampleIntervals = version >= 2 ? readInts(bits, rowCount) : new int[rowCount];
+		List<AppInstanceMetrics> rows = new ArrayList<AppInstanceMetrics>(rowCount);
+		int instanceCount = 0;
+		for (int i = 0; i < rowCount; i++) {
+			AppInstanceMetrics row = new AppInstanceMetrics();
+			if (ids[i] != 0)
+				row.setId(dictionary[ids[i]]);
+			row.setAppId(dictionary[appIds[i]]);
+			row.setAppName(dictionary[appNames[i]]);
+			row.setAppType(dictionary[appTypes[i]]);
+			row.setServiceId(dictionary[serviceIds[i]]);
+			if (sampleIntervals[i] != 0)
+				row.setSampleInterval(Long.valueOf(sampleIntervals[i]));
+			rows.add(row);
+			instanceCount += instanceCounts[i];
+		}
+		TimestampSeries rowTimestamps = new TimestampSeries();
+		for (AppInstanceMetrics row : rows)
+			row.setTimestamp(rowTimestamps.decode(bits));
+		ValueSeries memQuotas = new ValueSeries();
+		for (AppInstanceMetrics row : rows)
+			row.setMemQuota(Double.longBitsToDouble(memQuotas.decode(bits)));
+
+		int[] instanceIndexes = readInts(bits, instanceCount);
+		int[] instanceIds = readInts(bits, instanceCount);
+		int[] metricCounts = readInts(bits, instanceCount);
+		List<InstanceMetrics> instances = new ArrayList<InstanceMetrics>(instanceCount);
+		Map<String, TimestampSeries> instanceTimestamps = new HashMap<String, TimestampSeries>();
+		int metricCount = 0;
+		for (int i = 0; i < instanceCount; i++) {
+			InstanceMetrics instance = new InstanceMetrics();
+			instance.setInstanceIndex(unZigZag(instanceIndexes[i]));
+			instance.setInstanceId(dictionary[instanceIds[i]]);
+			instance.setStored(true);
+			instance.setTimestamp(timestamps(instanceTimestamps, String.valueOf(instance.getInstanceIndex())).decode(bits));
+			instances.add(instance);
+			metricCount += metricCounts[i];
+		}
+
+		int[] names = readInts(bits, metricCount);
+		int[] categories = readInts(bits, metricCount);
+		int[] groups = readInts(bits, metricCount);
+		int[] units = readInts(bits, metricCount);
+		int[] descs = readInts(bits, metricCount);
+		int[] kinds = new int[metricCount];
+		int stringCount = 0;
+		for (int i = 0; i < metricCount; i++) {
+			kinds[i] = (int) bits.readBits(2);
+			if (kinds[i] == VALUE_STRING)
+				stringCount++;
+		}
+		Map<String, TimestampSeries> metricTimestamps = new HashMap<String, TimestampSeries>();
+		Map<String, ValueSeries> metricValues = new HashMap<String, ValueSeries>();
+		List<Metric> metrics = new ArrayList<Metric>(metricCount);
+		int m = 0;
+		for (int i = 0; i < instanceCount; i++) {
+			for (int j = 0; j < metricCounts[i]; j++, m++) {
+				Metric metric = new Metric();
+				metric.setName(dictionary[names[m]]);
+				metric.setCategory(dictionary[categories[m]]);
+				metric.setGroup(dictionary[groups[m]]);
+				metric.setUnit(dictionary[units[m]]);
+				metric.setDesc(dictionary[descs[m]]);
+				String key = instances.get(i).getInstanceIndex() + "/" + metric.getName();
+				metric.setTimestamp(timestamps(metricTimestamps, key).decode(bits));
+				if (kinds[m] == VALUE_DOUBLE)
+					metric.setValue(Double.toString(
+							Double.longBitsToDouble(values(metricValues, key).decode(bits))));
+				else if (kinds[m] == VALUE_LONG)
+					metric.setValue(Long.toString((long) Double
+							.longBitsToDouble(values(metricValues, key).decode(bits))));
+				metrics.add(metric);
+			}
+		}
+		int[] stringRefs = readInts(bits, stringCount);
+		int s = 0;
+		for (int i = 0; i < metricCount; i++) {
+			if (kinds[i] == VALUE_STRING)
+				metrics.get(i).setValue(dictionary[stringRefs[s++]]);
+		}
+
+		m = 0;
+		int n = 0;
+		for (int i = 0; i < rowCount; i++) {
+			List<InstanceMetrics> rowInstances = new LinkedList<InstanceMetrics>();
+			for (int j = 0; j < instanceCounts[i]; j++, n++) {
+				List<Metric> instanceMetrics = new LinkedList<Metric>();
+				for (int k = 0; k < metricCounts[n]; k++)
+					instanceMetrics.add(metrics.get(m++));
+				instances.get(n).setMetrics(instanceMetrics);
+				rowInstances.add(instances.get(n));
+			}
+			rows.get(i).setInstanceMetrics(rowInstances);
+		}
+		return rows;
+	}
+
+	/**
+	 * Metric values are strings, numbers are stored as doubles if they can
+	 * be formatted back to the same string
+	 */
+	private static int valueKind(String value) {
+		if (value == null)
+			return VALUE_NULL;
+		try {
+			long l = Long.parseLong(value);
+			if (Long.toString(l).equals(value) && Math.abs(l) < (1L << 53))
+				return VALUE_LONG;
+		} catch (NumberFormatException e) {
+		}
+		try {
+			if (Double.toString(Double.parseDouble(value)).equals(value))
+				return VALUE_DOUBLE;
+		} catch (NumberFormatException e) {
+		}
+		return VALUE_STRING;
+	}
+
+	private static int zigZag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int unZigZag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static int bitsFor(int max) {
+		return 32 - Integer.numberOfLeadingZeros(max);
+	}
+
+	/**
+	 * Writes non-negative ints with the width of the largest one
+	 */
+	private static void writeInts(BitOutput bits, int[] values) {
+		int max = 0;
+		for (int value : values)
+			max = Math.max(max, value);
+		int width = bitsFor(max);
+		bits.writeBits(width, 6);
+		for (int value : values)
+			bits.writeBits(value, width);
+	}
+
+	private static int[] readInts(BitInput bits, int count) {
+		int width = (int) bits.readBits(6);
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++)
+			values[i] = (int) bits.readBits(width);
+		return values;
+	}
+
+	private static TimestampSeries timestamps(Map<String, TimestampSeries> series, String key) {
+		TimestampSeries s = series.get(key);
+		if (s == null) {
+			s = new TimestampSeries();
+			series.put(key, s);
+		}
+		return s;
+	}
+
+	private static ValueSeries values(Map<String, ValueSeries> series, String key) {
+		ValueSeries s = series.get(key);
+		if (s == null) {
+			s = new ValueSeries();
+			series.put(key, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Strings of a block, reference 0 stands for null
+	 */
+	private static class Dictionary {
+		private final List<String> strings = new ArrayList<String>();
+		private final Map<String, Integer> refs = new HashMap<String, Integer>();
+
+		private int ref(String s) {
+			if (s == null)
+				return 0;
+			Integer ref = refs.get(s);
+			if (ref == null) {
+				strings.add(s);
+				ref = strings.size();
+				refs.put(s, ref);
+			}
+			return ref;
+		}
+	}
+
+	/**
+	 * Delta-of-delta timestamps: 0 for an unchanged interval, otherwise a
+	 * prefix selecting 7, 9, 12, 32 or 64 bits for the change
+	 */
+	private static class TimestampSeries {
+		private static final int[] WIDTHS = { 7, 9, 12, 32, 64 };
+
+		private boolean first = true;
+		private long previous;
+		private long previousDelta;
+
+		private void encode(BitOutput bits, long timestamp) {
+			if (first) {
+				bits.writeBits(timestamp, 64);
+				first = false;
+				previous = timestamp;
+				return;
+			}
+			long delta = timestamp - previous;
+			long deltaOfDelta = delta - previousDelta;
+			previous = timestamp;
+			previousDelta = delta;
+			if (deltaOfDelta == 0) {
+				bits.writeBit(false);
+				return;
+			}
+			for (int i = 0; i < WIDTHS.length; i++) {
+				int width = WIDTHS[i];
+				if (width == 64 || (deltaOfDelta >= -(1L << (width - 1)) && deltaOfDelta < (1L << (width - 1)))) {
+					// i + 1 ones, then a zero unless it is the last prefix
+					bits.writeBits(-1L, i + 1);
+					if (i < WIDTHS.length - 1)
+						bits.writeBit(false);
+					bits.writeBits(deltaOfDelta, width);
+					return;
+				}
+			}
+		}
+
+		private long decode(BitInput bits) {
+			if (first) {
+				first = false;
+				previous = bits.readBits(64);
+				return previous;
+			}
+			long deltaOfDelta = 0;
+			if (bits.readBit()) {
+				int i = 0;
+				while (i < WIDTHS.length - 1 && bits.readBit())
+					i++;
+				deltaOfDelta = bits.readSignedBits(WIDTHS[i]);
+			}
+			previousDelta += deltaOfDelta;
+			previous += previousDelta;
+			return previous;
+		}
+	}
+
+	/**
+	 * XOR encoding of double values: 0 for a repeated value, otherwise the
+	 * meaningful bits of the XOR with the previous value, reusing the
+	 * previous leading and trailing zero counts when they fit
+	 */
+	private static class ValueSeries {
+		private boolean first = true;
+		private long previous;
+		private int previousLeading = -1;
+		private int previousTrailing;
+
+		private void encode(BitOutput bits, long value) {
+			if (first) {
+				bits.writeBits(value, 64);
+				first = false;
+				previous = value;
+				return;
+			}
+			long xor = value ^ previous;
+			previous = value;
+			if (xor == 0) {
+				bits.writeBit(false);
+				return;
+			}
+			bits.writeBit(true);
+			int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int trailing = Long.numberOfTrailingZeros(xor);
+			if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+				bits.writeBit(false);
+				bits.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+				return;
+			}
+			int significant = 64 - leading - trailing;
+			bits.writeBit(true);
+			bits.writeBits(leading, 5);
+			bits.writeBits(significant - 1, 6);
+			bits.writeBits(xor >>> trailing, significant);
+			previousLeading = leading;
+			previousTrailing = trailing;
+		}
+
+		private long decode(BitInput bits) {
+			if (first) {
+				first = false;
+				previous = bits.readBits(64);
+				return previous;
+			}
+			if (!bits.readBit())
+				return previous;
+			if (bits.readBit()) {
+				previousLeading = (int) bits.readBits(5);
+				int significant = (int) bits.readBits(6) + 1;
+				previousTrailing = 64 - previousLeading - significant;
+			}
+			long xor = bits.readBits(64 - previousLeading - previousTrailing) << previousTrailing;
+			previous ^= xor;
+			return previous;
+		}
+	}
+
+}
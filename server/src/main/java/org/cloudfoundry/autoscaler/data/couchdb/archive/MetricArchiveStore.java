@@ -0,0 +1,273 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.AppInstanceMetricsDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
+
+/**
+ * Local cold tier of closed metric DB segments.
+ *
+ * A segment is archived by paging through its metrics in app id order and
+ * streaming them into a compressed {@link MetricSegmentArchive} file, which
+ * is only made visible once it is complete and durable. Archives are ordered
+ * by segment start time, readers get an immutable snapshot of them. Archives
+ * older than the retention time are deleted oldest first, as are the oldest
+ * archives while the archive directory is larger than its size cap.
+ */
+public class MetricArchiveStore {
+	private static final Logger logger = Logger.getLogger(MetricArchiveStore.class);
+	private static final String ARCHIVE_SUFFIX = ".archive";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final Comparator<MetricSegmentArchive> BY_START = new Comparator<MetricSegmentArchive>() {
+		@Override
+		public int compare(MetricSegmentArchive o1, MetricSegmentArchive o2) {
+			return o1.getSegment().compareTo(o2.getSegment());
+		}
+	};
+
+	private final File dir;
+	private final int pageSize;
+	private final int blockRows;
+	private final long retentionMillis;
+	private final long maxBytes;
+	private volatile List<MetricSegmentArchive> archives = Collections.emptyList();
+
+	private final AtomicLong archivedSegments = new AtomicLong(0);
+	private final AtomicLong archivedRows = new AtomicLong(0);
+	private final AtomicLong failedSegments = new AtomicLong(0);
+	private final AtomicLong readRequests = new AtomicLong(0);
+	private final AtomicLong expiredSegments = new AtomicLong(0);
+
+	/**
+	 * @param dir
+	 * @param pageSize
+	 * @param blockRows
+	 * @param retentionMillis how long archives are kept after their segment
+	 *            ended, 0 keeps them forever
+	 * @param maxBytes the size cap of all archives, 0 for no cap
+	 */
+	public MetricArchiveStore(File dir, int pageSize, int blockRows, long retentionMillis, long maxBytes)
+			throws IOException {
+		this.dir = dir;
+		this.pageSize = pageSize;
+		this.blockRows = blockRows;
+		this.retentionMillis = retentionMillis;
+		this.maxBytes = maxBytes;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create metric archive directory " + dir);
+		loadArchives();
+	}
+
+	private void loadArchives() {
+		List<MetricSegmentArchive> loaded = new ArrayList<MetricSegmentArchive>();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(TEMP_SUFFIX)) {
+					// left over by an interrupted archive run, the segment is still in CouchDB
+					if (!file.delete())
+						logger.warn("Failed to delete incomplete metric archive " + file);
+				} else if (file.getName().endsWith(ARCHIVE_SUFFIX)) {
+					try {
+						loaded.add(MetricSegmentArchive.open(file));
+					} catch (IOException e) {
+						logger.error("Skipped unreadable metric archive " + file + ": " + e.getMessage(), e);
+					}
+				}
+			}
+		}
+		Collections.sort(loaded, BY_START);
+		archives = Collections.unmodifiableList(loaded);
+		logger.info("Loaded " + loaded.size() + " metric archives from " + dir);
+	}
+
+	/**
+	 * Copies all metrics of the segment into a new archive file
+	 * @param name the file name, usually the metric DB name
+	 * @param segment
+	 * @param dao the DAO of the segment's metric DB
+	 * @return the new archive
+	 * @throws IOException if the segment could not be read or written, the
+	 *             segment should then be kept
+	 */
+	public synchronized MetricSegmentArchive archive(String name, MetricDBSegment segment, AppInstanceMetricsDAO dao)
+			throws IOException {
+		MetricSegmentArchive existing = getArchive(segment.getMetricDBPostfix());
+		if (existing != null)
+			return existing;
+
+		long startTime = System.currentTimeMillis();
+		File temp = new File(dir, name + ARCHIVE_SUFFIX + TEMP_SUFFIX);
+		File target = new File(dir, name + ARCHIVE_SUFFIX);
+		MetricArchiveWriter writer = new MetricArchiveWriter(temp, segment, blockRows);
+		try {
+			try {
+				AppInstanceMetrics last = null;
+				while (true) {
+					List<AppInstanceMetrics> page = dao.findPage(last, pageSize);
+					if (page == null || page.isEmpty())
+						break;
+					for (AppInstanceMetrics metrics : page)
+						writer.add(metrics);
+					last = page.get(page.size() - 1);
+					if (page.size() < pageSize)
+						break;
+				}
+			} finally {
+				writer.close();
+			}
+			if (!temp.renameTo(target))
+				throw new IOException("Cannot rename " + temp + " to " + target);
+			// the segment is deleted from CouchDB once this returns
+			syncDirectory();
+		} catch (IOException e) {
+			failedSegments.incrementAndGet();
+			temp.delete();
+			target.delete();
+			throw e;
+		} catch (RuntimeException e) {
+			failedSegments.incrementAndGet();
+			temp.delete();
+			throw new IOException("Failed to read metric DB segment " + segment, e);
+		}
+
+		MetricSegmentArchive archive = MetricSegmentArchive.open(target);
+		List<MetricSegmentArchive> newArchives = new ArrayList<MetricSegmentArchive>(archives);
+		newArchives.add(archive);
+		Collections.sort(newArchives, BY_START);
+		archives = Collections.unmodifiableList(newArchives);
+		archivedSegments.incrementAndGet();
+		archivedRows.addAndGet(writer.getRowCount());
+		logger.info("Archived " + writer.getRowCount() + " metrics of segment " + segment + " to " + target + " ("
+				+ target.length() + " bytes) in " + (System.currentTimeMillis() - startTime) + " ms");
+		return archive;
+	}
+
+	private void syncDirectory() throws IOException {
+		FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Deletes the archives past the retention time, and the oldest archives
+	 * while all archives together are larger than the size cap
+	 * @param now
+	 * @return the number of deleted archives
+	 */
+	public synchronized int deleteExpired(long now) {
+		long bytes = 0;
+		for (MetricSegmentArchive archive : archives)
+			bytes += archive.getFile().length();
+		List<MetricSegmentArchive> kept = new ArrayList<MetricSegmentArchive>(archives);
+		int deleted = 0;
+		while (!kept.isEmpty()) {
+			MetricSegmentArchive oldest = kept.get(0);
+			boolean expired = retentionMillis > 0 && oldest.getSegment().getEndTimestamp() + retentionMillis < now;
+			if (!expired && (maxBytes <= 0 || bytes <= maxBytes))
+				break;
+			long length = oldest.getFile().length();
+			if (!oldest.getFile().delete() && oldest.getFile().exists()) {
+				logger.warn("Failed to delete expired metric archive " + oldest.getFile());
+				break;
+			}
+			kept.remove(0);
+			bytes -= length;
+			deleted++;
+			logger.info("Deleted metric archive " + oldest.getFile() + " of segment " + oldest.getSegment());
+		}
+		if (deleted > 0) {
+			archives = Collections.unmodifiableList(kept);
+			expiredSegments.addAndGet(deleted);
+		}
+		return deleted;
+	}
+
+	public MetricSegmentArchive getArchive(String metricDBPostfix) {
+		for (MetricSegmentArchive archive : archives) {
+			if (archive.getSegment().getMetricDBPostfix().equalsIgnoreCase(metricDBPostfix))
+				return archive;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the archives ordered by segment start time
+	 */
+	public List<MetricSegmentArchive> getArchives() {
+		return archives;
+	}
+
+	/**
+	 * @param appId
+	 * @param newerThan
+	 * @param liveSegments segments still served from CouchDB, their archives
+	 *            are skipped until the segments are removed
+	 * @return the archived metrics of the app ordered by segment
+	 */
+	public List<AppInstanceMetrics> findByAppIdAfter(String appId, long newerThan,
+			Collection<MetricDBSegment> liveSegments) throws IOException {
+		List<AppInstanceMetrics> results = new ArrayList<AppInstanceMetrics>();
+		for (MetricSegmentArchive archive : archives) {
+			if (archive.getSegment().getEndTimestamp() < newerThan || isLive(archive, liveSegments))
+				continue;
+			readRequests.incrementAndGet();
+			try {
+				results.addAll(archive.findByAppIdAfter(appId, newerThan));
+			} catch (FileNotFoundException e) {
+				// deleted since the snapshot was taken
+				if (archive.getFile().exists())
+					throw e;
+			}
+		}
+		return results;
+	}
+
+	private boolean isLive(MetricSegmentArchive archive, Collection<MetricDBSegment> liveSegments) {
+		for (MetricDBSegment segment : liveSegments) {
+			if (segment.getMetricDBPostfix().equalsIgnoreCase(archive.getSegment().getMetricDBPostfix()))
+				return true;
+		}
+		return false;
+	}
+
+	public Map<String, Object> getStats() {
+		List<MetricSegmentArchive> current = archives;
+		long rows = 0;
+		long bytes = 0;
+		for (MetricSegmentArchive archive : current) {
+			rows += archive.getRowCount();
+			bytes += archive.getFile().length();
+		}
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("archives", current.size());
+		stats.put("rows", rows);
+		stats.put("bytes", bytes);
+		stats.put("archivedSegments", archivedSegments.get());
+		stats.put("archivedRows", archivedRows.get());
+		stats.put("failedSegments", failedSegments.get());
+		stats.put("readRequests", readRequests.get());
+		stats.put("expiredSegments", expiredSegments.get());
+		return stats;
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.data.couchdb.archive.MetricSegmentArchive.Block;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
+
+/**
+ * Streams metrics into a {@link MetricSegmentArchive} file. Metrics have to
+ * be added grouped by app id, only one block is held in memory.
+ */
+public class MetricArchiveWriter implements Closeable {
+
+	private static final Comparator<AppInstanceMetrics> BY_TIMESTAMP = new Comparator<AppInstanceMetrics>() {
+		@Override
+		public int compare(AppInstanceMetrics o1, AppInstanceMetrics o2) {
+			return o1.getTimestamp() < o2.getTimestamp() ? -1 : (o1.getTimestamp() > o2.getTimestamp() ? 1 : 0);
+		}
+	};
+
+	private final FileOutputStream fileOut;
+	private final DataOutputStream out;
+	private final int blockRows;
+	private final int version;
+	private final List<Block> blocks = new ArrayList<Block>();
+	private final List<AppInstanceMetrics> pending = new ArrayList<AppInstanceMetrics>();
+	private long position;
+	private long rowCount = 0;
+
+	public MetricArchiveWriter(File file, MetricDBSegment segment, int blockRows) throws IOException {
+		this(file, segment, blockRows, MetricSegmentArchive.VERSION);
+	}
+
+	MetricArchiveWriter(File file, MetricDBSegment segment, int blockRows, int version) throws IOException {
+		this.blockRows = blockRows;
+		this.version = version;
+		this.fileOut = new FileOutputStream(file);
+		this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+		out.writeInt(MetricSegmentArchive.MAGIC);
+		out.writeInt(version);
+		out.writeUTF(segment.getMetricDBPostfix());
+		out.writeUTF(segment.getServerName() == null ? "" : segment.getServerName());
+		out.writeLong(segment.getStartTimestamp());
+		out.writeLong(segment.getEndTimestamp());
+		out.writeInt(segment.getSegmentSeq());
+		position = out.size();
+	}
+
+	public void add(AppInstanceMetrics metrics) throws IOException {
+		if (metrics.getAppId() == null)
+			return;
+		if (!pending.isEmpty()
+				&& (pending.size() >= blockRows || !pending.get(0).getAppId().equals(metrics.getAppId())))
+			flushBlock();
+		pending.add(metrics);
+		rowCount++;
+	}
+
+	private void flushBlock() throws IOException {
+		Collections.sort(pending, BY_TIMESTAMP);
+		byte[] bytes = MetricArchiveCodec.encode(pending, version);
+		out.write(bytes);
+		blocks.add(new Block(pending.get(0).getAppId(), pending.get(0).getTimestamp(),
+				pending.get(pending.size() - 1).getTimestamp(), position, bytes.length, pending.size()));
+		position += bytes.length;
+		pending.clear();
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Writes the remaining metrics and the block index, and syncs the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!pending.isEmpty())
+				flushBlock();
+			out.writeInt(blocks.size());
+			for (Block block : blocks) {
+				out.writeUTF(block.appId);
+				out.writeLong(block.minTimestamp);
+				out.writeLong(block.maxTimestamp);
+				out.writeLong(block.offset);
+				out.writeInt(block.length);
+				out.writeInt(block.rows);
+			}
+			out.writeLong(position);
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
+
+/**
+ * Read-only archive file of a metric DB segment.
+ *
+ * The file starts with the segment, followed by blocks of metrics encoded by
+ * {@link MetricArchiveCodec}, each holding the metrics of a single app. The
+ * index of the blocks is at the end of the file and kept in memory, so a
+ * query only reads the blocks of its app that are new enough. Files of
+ * older versions are still read, version 1 blocks have no sample intervals.
+ */
+public class MetricSegmentArchive {
+
+	static final int MAGIC = 0x4D415243;
+	static final int VERSION = 2;
+	static final int MIN_VERSION = 1;
+
+	private final File file;
+	private final int version;
+	private final MetricDBSegment segment;
+	private final Map<String, List<Block>> blocksByAppId;
+	private final long rowCount;
+
+	static class Block {
+		final String appId;
+		final long minTimestamp;
+		final long maxTimestamp;
+		final long offset;
+		final int length;
+		final int rows;
+
+		Block(String appId, long minTimestamp, long maxTimestamp, long offset, int length, int rows) {
+			this.appId = appId;
+			this.minTimestamp = minTimestamp;
+			this.maxTimestamp = maxTimestamp;
+			this.offset = offset;
+			this.length = length;
+			this.rows = rows;
+		}
+	}
+
+	private MetricSegmentArchive(File file, int version, MetricDBSegment segment,
+			Map<String, List<Block>> blocksByAppId, long rowCount) {
+		this.file = file;
+		this.version = version;
+		this.segment = segment;
+		this.blocksByAppId = blocksByAppId;
+		this.rowCount = rowCount;
+	}
+
+	public static MetricSegmentArchive open(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a metric archive");
+			int version = in.readInt();
+			if (version < MIN_VERSION || version > VERSION)
+				throw new IOException("Unsupported version " + version + " of metric archive " + file);
+			MetricDBSegment segment = new MetricDBSegment();
+			segment.setMetricDBPostfix(in.readUTF());
+			String serverName = in.readUTF();
+			segment.setServerName(serverName.isEmpty() ? null : serverName);
+			segment.setStartTimestamp(in.readLong());
+			segment.setEndTimestamp(in.readLong());
+			segment.setSegmentSeq(in.readInt());
+
+			in.seek(in.length() - 8);
+			in.seek(in.readLong());
+			int blockCount = in.readInt();
+			Map<String, List<Block>> blocksByAppId = new HashMap<String, List<Block>>();
+			long rowCount = 0;
+			for (int i = 0; i < blockCount; i++) {
+				Block block = new Block(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt(),
+						in.readInt());
+				List<Block> blocks = blocksByAppId.get(block.appId);
+				if (blocks == null) {
+					blocks = new ArrayList<Block>();
+					blocksByAppId.put(block.appId, blocks);
+				}
+				blocks.add(block);
+				rowCount += block.rows;
+			}
+			return new MetricSegmentArchive(file, version, segment, blocksByAppId, rowCount);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the archived metrics of the app with a timestamp not before newerThan
+	 */
+	public List<AppInstanceMetrics> findByAppIdAfter(String appId, long newerThan) throws IOException {
+		List<Block> blocks = blocksByAppId.get(appId);
+		if (blocks == null || segment.getEndTimestamp() < newerThan)
+			return Collections.emptyList();
+
+		List<AppInstanceMetrics> results = new ArrayList<AppInstanceMetrics>();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			for (Block block : blocks) {
+				if (block.maxTimestamp < newerThan)
+					continue;
+				byte[] bytes = new byte[block.length];
+				in.seek(block.offset);
+				in.readFully(bytes);
+				for (AppInstanceMetrics metrics : MetricArchiveCodec.decode(bytes, version)) {
+					if (metrics.getTimestamp() >= newerThan)
+						results.add(metrics);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return results;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public MetricDBSegment getSegment() {
+		return segment;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public int getAppCount() {
+		return blocksByAppId.size();
+	}
+
+}
@@ -17,4 +17,12 @@ public interface AppInstanceMetricsDAO extends CommonDAO {
 
 	public List<AppInstanceMetrics> findByAppIdAfter(String appId, long timestamp) throws Exception;
 
+	/**
+	 * Pages through all metrics ordered by app id, app type and timestamp
+	 * @param after the last metrics of the previous page, or null for the first page
+	 * @param limit
+	 * @return
+	 */
+	public List<AppInstanceMetrics> findPage(AppInstanceMetrics after, int limit);
+
 }
@@ -1,5 +1,7 @@
 package org.cloudfoundry.autoscaler.data.couchdb.dao;
 
+import java.util.List;
+
 public interface CommonDAO {
 
 	public <T> Object get(String id);
@@ -10,4 +12,21 @@ public interface CommonDAO {
 
 	public <T> void update(T entity);
 
+	public <T> boolean tryAdd(T entity);
+
+	public <T> boolean tryAddAll(List<T> entities);
+
+	public <T> boolean tryUpdate(T entity);
+
+	/**
+	 * Creates or updates the entity with a single request
+	 * @throws org.ektorp.UpdateConflictException if the entity revision is stale
+	 */
+	public <T> boolean tryPut(T entity);
+
+	/**
+	 * @return true if the database answers
+	 */
+	public boolean isReachable();
+
 }
@@ -10,4 +10,19 @@ public interface ScalingHistoryDAO extends CommonDAO {
 
 	public List<ScalingHistory> findByScalingTime(String appId, long startTime, long endTime);
 
+	/**
+	 * Finds one page of scaling history, newest first
+	 * @param scaleType scaleIn/scaleOut, or null for both
+	 * @param status scaling status, or null for all
+	 * @param offset number of records to skip
+	 * @param maxCount page size, or 0 for no limit
+	 */
+	public List<ScalingHistory> findByFilter(String appId, String scaleType, Integer status, long startTime,
+			long endTime, int offset, int maxCount);
+
+	/**
+	 * Counts the scaling history matching the filter with the view's reduce function
+	 */
+	public int countByFilter(String appId, String scaleType, Integer status, long startTime, long endTime);
+
 }
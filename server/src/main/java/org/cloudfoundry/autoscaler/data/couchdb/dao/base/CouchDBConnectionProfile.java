@@ -1,43 +1,97 @@
 package org.cloudfoundry.autoscaler.data.couchdb.dao.base;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
 
+/**
+ * Lock-free CouchDB request statistics: the number of requests in flight and
+ * a latency histogram per design document and view or operation
+ */
 public class CouchDBConnectionProfile {
 
-	private static CouchDBConnectionProfile instance;
-	private static int connectionCount = 0;
-	private static Set<String> uuidSet = new HashSet<String>();
-	
-	
-	public static synchronized CouchDBConnectionProfile getInstance() {
-        if (instance == null) {
-            instance = new CouchDBConnectionProfile();
-        }
-        return instance;
-    }
-	
-    public int getConnectionCount(){
-    	return connectionCount;
-    }
-    
-    public Set<String> getConntionUUID(){
-    	return uuidSet;
-    }
-    
-    public void increaseConnectionCount(String uuid){
-    	connectionCount++;
-    	uuidSet.add(uuid);
-    }
-	
-    public void decreaseConnectionCount(String uuid){
-    	connectionCount--;
-    	uuidSet.remove(uuid);
-    }
-
-    
-
-	
-	
+	private static final CouchDBConnectionProfile instance = new CouchDBConnectionProfile();
+
+	private final AtomicInteger connectionCount = new AtomicInteger(0);
+	private final AtomicLong failureCount = new AtomicLong(0);
+	private final ConcurrentMap<String, LatencyHistogram> latencyMap = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentMap<String, AtomicInteger> activeMap = new ConcurrentHashMap<String, AtomicInteger>();
+
+	public static CouchDBConnectionProfile getInstance() {
+		return instance;
+	}
+
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * Requests in flight per design document and view or operation
+	 */
+	public Map<String, Integer> getActiveConnections() {
+		Map<String, Integer> active = new TreeMap<String, Integer>();
+		for (Map.Entry<String, AtomicInteger> entry : activeMap.entrySet()) {
+			int count = entry.getValue().get();
+			if (count > 0)
+				active.put(entry.getKey(), count);
+		}
+		return active;
+	}
+
+	public CouchDBRequest increaseConnectionCount(String name) {
+		connectionCount.incrementAndGet();
+		getActiveCounter(name).incrementAndGet();
+		return new CouchDBRequest(name, System.nanoTime());
+	}
+
+	public void decreaseConnectionCount(CouchDBRequest request) {
+		connectionCount.decrementAndGet();
+		getActiveCounter(request.getName()).decrementAndGet();
+		if (request.isFailed())
+			failureCount.incrementAndGet();
+		getLatencyHistogram(request.getName()).recordSince(request.getStartTime());
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> latency = new TreeMap<String, Object>();
+		for (Map.Entry<String, LatencyHistogram> entry : latencyMap.entrySet())
+			latency.put(entry.getKey(), entry.getValue().getStats());
+		Map<String, Object> stats = new TreeMap<String, Object>();
+		stats.put("connectionCount", connectionCount.get());
+		stats.put("failureCount", failureCount.get());
+		stats.put("latency", latency);
+		return stats;
+	}
+
+	private AtomicInteger getActiveCounter(String name) {
+		AtomicInteger counter = activeMap.get(name);
+		if (counter == null) {
+			AtomicInteger newCounter = new AtomicInteger(0);
+			counter = activeMap.putIfAbsent(name, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+		return counter;
+	}
+
+	private LatencyHistogram getLatencyHistogram(String name) {
+		LatencyHistogram histogram = latencyMap.get(name);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = latencyMap.putIfAbsent(name, newHistogram);
+			if (histogram == null)
+				histogram = newHistogram;
+		}
+		return histogram;
+	}
+
 }
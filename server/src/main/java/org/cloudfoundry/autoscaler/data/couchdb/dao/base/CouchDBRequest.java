@@ -0,0 +1,46 @@
+package org.cloudfoundry.autoscaler.data.couchdb.dao.base;
+
+/**
+ * A CouchDB request in flight, created by beforeConnection and completed by
+ * afterConnection
+ */
+public class CouchDBRequest {
+
+	private final String name;
+	private final long startTime;
+	private String loggingInfo;
+	private boolean failed;
+
+	public CouchDBRequest(String name, long startTime) {
+		this.name = name;
+		this.startTime = startTime;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return start time from System.nanoTime()
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public String getLoggingInfo() {
+		return loggingInfo;
+	}
+
+	public void setLoggingInfo(String loggingInfo) {
+		this.loggingInfo = loggingInfo;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+
+}
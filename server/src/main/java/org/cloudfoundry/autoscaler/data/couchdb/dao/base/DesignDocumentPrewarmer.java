@@ -0,0 +1,128 @@
+package org.cloudfoundry.autoscaler.data.couchdb.dao.base;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DesignDocInfo;
+import org.ektorp.ViewQuery;
+
+/**
+ * Builds the indexes of newly uploaded design documents in the background.
+ *
+ * A query with stale=update_after returns at once and makes CouchDB build the
+ * index afterwards, so the first real query does not wait for the whole
+ * build. The design document info is then polled until the indexer is done,
+ * which is reported in the stats.
+ */
+public class DesignDocumentPrewarmer {
+	private static final Logger logger = Logger.getLogger(DesignDocumentPrewarmer.class);
+	private static final long pollInterval = ConfigManager.getLong("couchdbViewPrewarmPollIntervalSec", 5);
+	private static final long timeout = ConfigManager.getLong("couchdbViewPrewarmTimeoutSec", 1800) * 1000;
+
+	private static final DesignDocumentPrewarmer instance = new DesignDocumentPrewarmer();
+
+	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+	private final Set<String> building = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicLong started = new AtomicLong(0);
+	private final AtomicLong completed = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+
+	private DesignDocumentPrewarmer() {
+		executor.setThreadFactory(new NamedThreadFactory("designDocPrewarm"));
+	}
+
+	public static DesignDocumentPrewarmer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts the index build of a design document in the background
+	 * @param db
+	 * @param designDocId
+	 * @param viewName any view of the design document, they share one index
+	 */
+	public void prewarm(final CouchDbConnector db, final String designDocId, final String viewName) {
+		final String name = db.getDatabaseName() + "/" + designDocId;
+		if (!building.add(name))
+			return;
+		started.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					db.queryView(new ViewQuery().designDocId(designDocId).viewName(viewName).limit(1)
+							.staleOkUpdateAfter());
+					logger.info("Started building the index of " + name);
+					// the indexer starts after the response, check it later
+					scheduleCheck(db, designDocId, name, System.currentTimeMillis());
+				} catch (Exception e) {
+					finish(name, false);
+					logger.warn("Failed to prewarm the index of " + name + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	private void waitForIndex(final CouchDbConnector db, final String designDocId, final String name,
+			final long startTime) {
+		DesignDocInfo info = db.getDesignDocInfo(designDocId.substring("_design/".length()));
+		if (info.getViewIndex() == null || !info.getViewIndex().isUpdaterRunning()) {
+			finish(name, true);
+			logger.info("Built the index of " + name + " in " + (System.currentTimeMillis() - startTime) + " ms");
+			return;
+		}
+		if (System.currentTimeMillis() - startTime > timeout) {
+			finish(name, false);
+			logger.warn("Index of " + name + " is still building after " + timeout + " ms");
+			return;
+		}
+		scheduleCheck(db, designDocId, name, startTime);
+	}
+
+	private void scheduleCheck(final CouchDbConnector db, final String designDocId, final String name,
+			final long startTime) {
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					waitForIndex(db, designDocId, name, startTime);
+				} catch (Exception e) {
+					finish(name, false);
+					logger.warn("Failed to check the index of " + name + ": " + e.getMessage());
+				}
+			}
+		}, pollInterval, TimeUnit.SECONDS);
+	}
+
+	private void finish(String name, boolean succeeded) {
+		building.remove(name);
+		if (succeeded)
+			completed.incrementAndGet();
+		else
+			failed.incrementAndGet();
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("started", started.get());
+		stats.put("completed", completed.get());
+		stats.put("failed", failed.get());
+		stats.put("building", building.toArray(new String[0]));
+		return stats;
+	}
+
+}
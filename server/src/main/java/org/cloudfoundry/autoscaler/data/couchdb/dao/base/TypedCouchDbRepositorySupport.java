@@ -4,16 +4,22 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.data.couchdb.document.BoundApp;
 import org.cloudfoundry.autoscaler.data.couchdb.document.TriggerRecord;
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.UpdateConflictException;
 import org.ektorp.ViewQuery;
 import org.ektorp.support.CouchDbDocument;
 import org.ektorp.support.CouchDbRepositorySupport;
+import org.ektorp.support.DesignDocument;
 import org.ektorp.support.DesignDocument.View;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -23,19 +29,22 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
 
 	private static final Logger logger = Logger.getLogger(TypedCouchDbRepositorySupport.class);
 	private static final ObjectMapper mapper = new ObjectMapper();
-
-	private static Object lock=new Object();
+	private static final String VIEWS_HASH = "viewsHash";
+	private static final ConcurrentMap<String, String> verifiedDesignDocs = new ConcurrentHashMap<String, String>();
 
 	private String designDocName = null;
+	private String profileName = null;
 	
     public TypedCouchDbRepositorySupport(Class<T> type, CouchDbConnector db, boolean createIfNotExists) {
         super(type, db, createIfNotExists);
         this.designDocName = "_design/" + type.getSimpleName();
+        this.profileName = type.getSimpleName();
     }
 
     public TypedCouchDbRepositorySupport(Class<T> type, CouchDbConnector db, String designDocName) {
         super(type, db, designDocName);
         this.designDocName = "_design/" + designDocName;
+        this.profileName = designDocName;
     }
 
     public String getDesignDocName() {
@@ -45,6 +54,72 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
 	public void initView() throws Exception {
 		initStandardDesignDocument();
     }
+
+	/**
+	 * Uploads the design document only when the view definitions changed.
+	 * The hash of the generated views is stored in the design document and
+	 * remembered per database, so unchanged views are checked with at most
+	 * one GET and never re-uploaded, which would make CouchDB rebuild the
+	 * index. Indexes of uploaded views are built in the background.
+	 */
+	@Override
+	public void initStandardDesignDocument() {
+		DesignDocument generated = getDesignDocumentFactory().generateFrom(this);
+		if (generated.getViews().isEmpty())
+			return;
+		String viewsHash = getViewsHash(generated);
+		String cacheKey = db.getDatabaseName() + "/" + stdDesignDocumentId;
+		if (viewsHash.equals(verifiedDesignDocs.get(cacheKey)))
+			return;
+
+		for (int retry = 0;; retry++) {
+			DesignDocument designDoc = db.find(DesignDocument.class, stdDesignDocumentId);
+			if (designDoc != null && (viewsHash.equals(designDoc.getAnonymous().get(VIEWS_HASH))
+					|| containsViews(designDoc, generated))) {
+				verifiedDesignDocs.put(cacheKey, viewsHash);
+				return;
+			}
+			if (designDoc == null) {
+				designDoc = getDesignDocumentFactory().newDesignDocumentInstance();
+				designDoc.setId(stdDesignDocumentId);
+			}
+			for (Map.Entry<String, View> view : generated.getViews().entrySet())
+				designDoc.addView(view.getKey(), view.getValue());
+			designDoc.setAnonymous(VIEWS_HASH, viewsHash);
+			try {
+				if (designDoc.getRevision() == null)
+					db.create(designDoc);
+				else
+					db.update(designDoc);
+			} catch (UpdateConflictException e) {
+				if (retry < 2)
+					continue;
+				throw e;
+			}
+			logger.info("Uploaded design document " + stdDesignDocumentId + " to " + db.getDatabaseName());
+			verifiedDesignDocs.put(cacheKey, viewsHash);
+			DesignDocumentPrewarmer.getInstance().prewarm(db, stdDesignDocumentId,
+					generated.getViews().keySet().iterator().next());
+			return;
+		}
+	}
+
+	private static String getViewsHash(DesignDocument designDoc) {
+		StringBuilder views = new StringBuilder();
+		for (Map.Entry<String, View> view : new TreeMap<String, View>(designDoc.getViews()).entrySet()) {
+			views.append(view.getKey()).append('\n').append(view.getValue().getMap()).append('\n')
+					.append(view.getValue().getReduce()).append('\n');
+		}
+		return DigestUtils.sha1Hex(views.toString());
+	}
+
+	private static boolean containsViews(DesignDocument designDoc, DesignDocument generated) {
+		for (Map.Entry<String, View> view : generated.getViews().entrySet()) {
+			if (!view.getValue().equals(designDoc.get(view.getKey())))
+				return false;
+		}
+		return true;
+	}
     
     public List<String> getViewNames() throws Exception {
     	
@@ -65,11 +140,12 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
     
     @Override
     public List<T> queryView (String viewName) {
-		String[] input = beforeConnection("QUERY",  new String[]{viewName});
+		CouchDBRequest input = beforeConnection("QUERY",  new String[]{viewName});
 		List<T> returnvalue = null;
 		try{
 			returnvalue = super.queryView(viewName);
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage());
 		}
     	afterConnection(input);
@@ -79,11 +155,12 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
     @Override
     public List<T> queryView (String viewName, ComplexKey key) {
 		
-		String[] input = beforeConnection("QUERY",  new String[]{viewName, key.toJson().toString()});
+		CouchDBRequest input = beforeConnection("QUERY",  new String[]{viewName, key.toJson().toString()});
 		List<T> returnvalue = null;
     	try {
     		returnvalue = super.queryView(viewName, key);
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage());
 		}
 		
@@ -94,11 +171,12 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
     
     @Override
     public List<T> queryView (String viewName, int key) {
-    	String[] input = beforeConnection("QUERY",  new String[]{viewName, String.valueOf(key)});
+    	CouchDBRequest input = beforeConnection("QUERY",  new String[]{viewName, String.valueOf(key)});
 		List<T> returnvalue = null;
 		try{
     	 returnvalue = super.queryView(viewName, key);
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage());
 		}
    	   afterConnection(input);
@@ -108,11 +186,12 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
     
     @Override
     public List<T> queryView (String viewName, String key) {
-    	String[] input = beforeConnection("QUERY",  new String[]{viewName, key});
+    	CouchDBRequest input = beforeConnection("QUERY",  new String[]{viewName, key});
 		List<T> returnvalue = null;
 		try{
 			returnvalue = super.queryView(viewName, key);
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage());
 		}
 		afterConnection(input);
@@ -122,11 +201,12 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
     
     @Override
     public T get (String id) {
-		String[] input = beforeConnection("GET",  new String[]{id});
+		CouchDBRequest input = beforeConnection("GET",  new String[]{id});
 		T returnvalue = null;
 		try{
     	 returnvalue = super.get(id);
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage());
 		}
 
@@ -137,89 +217,174 @@ public class TypedCouchDbRepositorySupport<T> extends CouchDbRepositorySupport<T
     
     @Override
     public void add (T entity) {
+    	tryAdd(entity);
+    }
+
+    /**
+     * Adds the entity, returns false instead of throwing when CouchDB rejects or cannot be reached
+     */
+    public boolean tryAdd (T entity) {
     	
-    	String mapStr = null;
-    	try {
-			mapStr=mapper.writeValueAsString(entity);
-		} catch (JsonProcessingException e1) {
-		}
+    	String mapStr = toLogString(entity);
     	
-		String[] input = beforeConnection("ADD",  new String[]{mapStr});
+		CouchDBRequest input = beforeConnection("ADD",  new String[]{mapStr});
+		boolean succeeded = false;
     	try {
     		super.add(entity);
+    		succeeded = true;
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage());
 		}
 		afterConnection(input);
+		return succeeded;
 
     }
+
+    /**
+     * Adds all entities with one bulk request, returns false if the request or any document failed
+     */
+    public boolean tryAddAll (List<T> entities) {
+    	CouchDBRequest input = beforeConnection("BULK", new String[]{String.valueOf(entities.size())});
+    	boolean succeeded = false;
+    	try {
+    		List<DocumentOperationResult> results = db.executeBulk(entities);
+    		succeeded = results.isEmpty();
+    		for (DocumentOperationResult result : results)
+    			logger.error("Failed to add " + result.getId() + " in bulk: " + result.getError() + " " + result.getReason());
+    	} catch (Exception e){
+    		input.setFailed(true);
+    		logger.error(e.getMessage());
+    	}
+    	afterConnection(input);
+    	return succeeded;
+    }
     
+    /**
+     * @return true if the database of the repository answers
+     */
+    public boolean isReachable() {
+    	CouchDBRequest input = beforeConnection("GET", new String[]{"dbInfo"});
+    	try {
+    		db.getDbInfo();
+    		return true;
+    	} catch (Exception e) {
+    		input.setFailed(true);
+    		logger.warn("Database " + db.getDatabaseName() + " is not reachable. " + e.getMessage());
+    		return false;
+    	} finally {
+    		afterConnection(input);
+    	}
+    }
+
+    /**
+     * Writes the entity with a single request, a POST if it has no id yet and a PUT otherwise.
+     * An UpdateConflictException is passed to the caller when the revision is stale, other failures return false
+     */
+    public boolean tryPut (T entity) {
+
+    	String mapStr = toLogString(entity);
+
+    	CouchDBRequest input = beforeConnection("PUT", new String[]{mapStr});
+    	boolean succeeded = false;
+    	try {
+    		if (((CouchDbDocument) entity).getId() == null)
+    			db.create(entity);
+    		else
+    			db.update(entity);
+    		succeeded = true;
+    	} catch (UpdateConflictException e){
+    		input.setFailed(true);
+    		afterConnection(input);
+    		throw e;
+    	} catch (Exception e){
+    		input.setFailed(true);
+    		logger.error(e.getMessage(), e);
+    	}
+    	afterConnection(input);
+    	return succeeded;
+    }
+
     @Override
     public void update (T entity) {
+    	tryUpdate(entity);
+    }
 
-    	String mapStr = null;
-    	try {
-			mapStr=mapper.writeValueAsString(entity);
-		} catch (JsonProcessingException e1) {
-			e1.printStackTrace();
-		}
+    /**
+     * Updates the entity, returns false instead of throwing when CouchDB rejects or cannot be reached
+     */
+    public boolean tryUpdate (T entity) {
+
+    	String mapStr = toLogString(entity);
 
     	
-    	String[] input = beforeConnection("UPDATE", new String[]{mapStr});
+    	CouchDBRequest input = beforeConnection("UPDATE", new String[]{mapStr});
+    	boolean succeeded = false;
     	try {
     		super.update(entity);
+    		succeeded = true;
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage(), e);
 		}
 		afterConnection(input);
+		return succeeded;
 
     }
     
     @Override
     public void remove (T entity) {
-    	String mapStr = null;
-    	try {
-			mapStr=mapper.writeValueAsString(entity);
-		} catch (JsonProcessingException e1) {
-			e1.printStackTrace();
-		}
+    	String mapStr = toLogString(entity);
     	
-		String[] input = beforeConnection("REMOVE", new String[]{mapStr});    	
+		CouchDBRequest input = beforeConnection("REMOVE", new String[]{mapStr});    	
     	try {
     		super.remove(entity);
 		} catch (Exception e){
+			input.setFailed(true);
 			logger.error(e.getMessage(), e);
 		}
 		afterConnection(input);
     }
     
-    public String[] beforeConnection (String httpMethod, String[] args) {
+    public CouchDBRequest beforeConnection (String httpMethod, String[] args) {
 
-		String uuid = UUID.randomUUID().toString();
-		
-    	StringBuilder logs = new StringBuilder().append(httpMethod).append(" ").append(" ").append(this.designDocName);
-    	for (String arg : args){
-    		logs.append(" ").append(arg);
-    	}
-    	String loggingInfo = logs.toString();
-    	
-    	logger.debug(new StringBuilder().append(uuid).append(" ").append(loggingInfo));
-    	synchronized (lock){
-    		CouchDBConnectionProfile.getInstance().increaseConnectionCount(uuid);
+    	String name = "QUERY".equals(httpMethod) && args.length > 0 ? this.profileName + "/" + args[0]
+    			: this.profileName + " " + httpMethod;
+    	CouchDBRequest request = CouchDBConnectionProfile.getInstance().increaseConnectionCount(name);
+
+    	if (logger.isDebugEnabled()) {
+    		StringBuilder logs = new StringBuilder().append(httpMethod).append(" ").append(" ").append(this.designDocName);
+    		for (String arg : args){
+    			logs.append(" ").append(arg);
+    		}
+    		request.setLoggingInfo(logs.toString());
+    		logger.debug(new StringBuilder().append(request.hashCode()).append(" ").append(request.getLoggingInfo()));
     	}
-    	
-    	return new String[]{uuid, String.valueOf(System.currentTimeMillis()), loggingInfo};
+    	return request;
     }
     
-    public void afterConnection (String[] args) {
+    public void afterConnection (CouchDBRequest request) {
     	
-    	synchronized (lock){
-    		CouchDBConnectionProfile.getInstance().decreaseConnectionCount(args[0]);
+    	CouchDBConnectionProfile.getInstance().decreaseConnectionCount(request);
+    	if (logger.isDebugEnabled()) {
+    		long latency = (System.nanoTime() - request.getStartTime()) / 1000000;
+    		StringBuilder logs = new StringBuilder().append(request.hashCode()).append(" ").append(latency).append(" ").append(request.getLoggingInfo());
+    		logger.debug(logs.toString());
     	}
-    	long latency = System.currentTimeMillis() - Long.parseLong(args[1]); 
-    	StringBuilder logs = new StringBuilder().append(args[0]).append(" ").append(latency).append(" ").append(args[2]);
-    	logger.debug(logs.toString());
     }    
+
+    /**
+     * Serializes the entity for debug logging only
+     */
+    private String toLogString (T entity) {
+    	if (!logger.isDebugEnabled())
+    		return null;
+    	try {
+    		return mapper.writeValueAsString(entity);
+    	} catch (JsonProcessingException e) {
+    		return String.valueOf(entity);
+    	}
+    }
     
     //only for mergeDB task
     public void importRecords(List<T> records) throws Exception {
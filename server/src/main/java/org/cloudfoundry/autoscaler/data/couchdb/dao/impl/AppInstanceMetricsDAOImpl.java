@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.AppInstanceMetricsDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.base.CouchDBRequest;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.base.TypedCouchDbRepositorySupport;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
 import org.ektorp.ComplexKey;
@@ -24,6 +25,21 @@ public class AppInstanceMetricsDAOImpl extends CommonDAOImpl implements AppInsta
 			return queryView("byAll");
 		}
 
+		public List<AppInstanceMetrics> findPage(AppInstanceMetrics after, int limit) {
+			ViewQuery q = createQuery("byAll").includeDocs(true).limit(limit);
+			if (after != null)
+				q = q.startKey(ComplexKey.of(after.getAppId(), after.getAppType(), after.getTimestamp()))
+						.startDocId(after.getId()).skip(1);
+			// failures are thrown, an empty page would end the archive early
+			CouchDBRequest input = beforeConnection("QUERY", new String[] { "byAll",
+					after == null ? null : after.getId(), String.valueOf(limit) });
+			try {
+				return db.queryView(q, AppInstanceMetrics.class);
+			} finally {
+				afterConnection(input);
+			}
+		}
+
 	}
 
 	@View(name = "by_appId", map = "function(doc) { if (doc.type=='AppInstanceMetrics' && doc.appId) { emit([doc.appId], doc._id) } }")
@@ -57,7 +73,7 @@ public class AppInstanceMetricsDAOImpl extends CommonDAOImpl implements AppInsta
 			ViewQuery q = createQuery("by_appId_between").includeDocs(true).startKey(startKey).endKey(endKey);
 
 			List<AppInstanceMetrics> returnvalue = null;
-			String[] input = beforeConnection("QUERY", new String[] { "by_appId_between", appId,
+			CouchDBRequest input = beforeConnection("QUERY", new String[] { "by_appId_between", appId,
 					String.valueOf(startTimestamp), String.valueOf(endTimestamp) });
 			try {
 				returnvalue = db.queryView(q, AppInstanceMetrics.class);
@@ -85,7 +101,7 @@ public class AppInstanceMetricsDAOImpl extends CommonDAOImpl implements AppInsta
 			ViewQuery q = createQuery("by_serviceId_before").includeDocs(true).startKey(startKey).endKey(endKey);
 
 			List<AppInstanceMetrics> returnvalue = null;
-			String[] input = beforeConnection("QUERY",
+			CouchDBRequest input = beforeConnection("QUERY",
 					new String[] { "by_serviceId_before", serviceId, String.valueOf(0), String.valueOf(olderThan) });
 			try {
 				returnvalue = db.queryView(q, AppInstanceMetrics.class);
@@ -159,6 +175,11 @@ public class AppInstanceMetricsDAOImpl extends CommonDAOImpl implements AppInsta
 		return null;
 	}
 
+	@Override
+	public List<AppInstanceMetrics> findPage(AppInstanceMetrics after, int limit) {
+		return this.metricsRepoAll.findPage(after, limit);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> TypedCouchDbRepositorySupport<T> getDefaultRepo() {
@@ -60,4 +60,29 @@ public abstract class CommonDAOImpl implements CommonDAO {
 
 	}
 
+	@Override
+	public <T> boolean tryAdd(T entity) {
+		return this.getDefaultRepo().tryAdd(entity);
+	}
+
+	@Override
+	public <T> boolean tryAddAll(List<T> entities) {
+		return this.<T> getDefaultRepo().tryAddAll(entities);
+	}
+
+	@Override
+	public <T> boolean tryUpdate(T entity) {
+		return this.getDefaultRepo().tryUpdate(entity);
+	}
+
+	@Override
+	public boolean isReachable() {
+		return this.getDefaultRepo().isReachable();
+	}
+
+	@Override
+	public <T> boolean tryPut(T entity) {
+		return this.getDefaultRepo().tryPut(entity);
+	}
+
 }
@@ -5,12 +5,15 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.ScalingHistoryDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.base.CouchDBRequest;
 import org.cloudfoundry.autoscaler.data.couchdb.dao.base.TypedCouchDbRepositorySupport;
 import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
 import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
 import org.ektorp.support.View;
+import org.ektorp.support.Views;
 
 public class ScalingHistoryDAOImpl extends CommonDAOImpl implements ScalingHistoryDAO {
 
@@ -27,42 +30,116 @@ public class ScalingHistoryDAOImpl extends CommonDAOImpl implements ScalingHisto
 
 	}
 
-	@View(name = "findByScalingTime", map = "function(doc) { if (doc.type == 'ScalingHistory' && doc.appId &&doc.startTime"
-			+ ") emit( [doc.appId, doc.startTime], doc._id )}")
-	public class ScalingHistoryRepository_ByScalingTime extends TypedCouchDbRepositorySupport<ScalingHistory> {
-
-		public ScalingHistoryRepository_ByScalingTime(CouchDbConnector db) {
-			super(ScalingHistory.class, db, "ScalingHistory_ByScalingTime");
+	@Views({
+			@View(name = "by_time", map = "function(doc) { if (doc.type == 'ScalingHistory' && doc.appId && doc.startTime"
+					+ ") emit( [doc.appId, doc.startTime], doc._id )}", reduce = "_count"),
+			@View(name = "by_status", map = "function(doc) { if (doc.type == 'ScalingHistory' && doc.appId && doc.startTime"
+					+ ") emit( [doc.appId, doc.status, doc.startTime], doc._id )}", reduce = "_count"),
+			@View(name = "by_scaleType", map = "function(doc) { if (doc.type == 'ScalingHistory' && doc.appId && doc.startTime"
+					+ " && doc.adjustment) emit( [doc.appId, doc.adjustment < 0 ? 'scaleIn' : 'scaleOut', doc.startTime], doc._id )}", reduce = "_count"),
+			@View(name = "by_scaleType_status", map = "function(doc) { if (doc.type == 'ScalingHistory' && doc.appId && doc.startTime"
+					+ " && doc.adjustment) emit( [doc.appId, doc.adjustment < 0 ? 'scaleIn' : 'scaleOut', doc.status, doc.startTime], doc._id )}", reduce = "_count") })
+	public class ScalingHistoryRepository_ByFilter extends TypedCouchDbRepositorySupport<ScalingHistory> {
+
+		public ScalingHistoryRepository_ByFilter(CouchDbConnector db) {
+			super(ScalingHistory.class, db, "ScalingHistory_ByFilter");
 		}
 
 		public List<ScalingHistory> findByScalingTime(String appId, long startTime, long endTime) {
-			ComplexKey startKey = ComplexKey.of(appId, endTime);
-			ComplexKey endKey = ComplexKey.of(appId, startTime);
-			ViewQuery q = createQuery("findByScalingTime").includeDocs(true).startKey(startKey).endKey(endKey)
-					.descending(true);
+			ViewQuery q = createFilterQuery(appId, null, null, startTime, endTime).includeDocs(true).reduce(false);
+
+			List<ScalingHistory> returnvalue = null;
+			CouchDBRequest input = beforeConnection("QUERY",
+					new String[] { q.getViewName(), appId, String.valueOf(startTime), String.valueOf(endTime) });
+			try {
+				returnvalue = db.queryView(q, ScalingHistory.class);
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+			}
+			afterConnection(input);
+
+			return returnvalue;
+		}
+
+		public List<ScalingHistory> findByFilter(String appId, String scaleType, Integer status, long startTime,
+				long endTime, int offset, int maxCount) {
+			ViewQuery q = createFilterQuery(appId, scaleType, status, startTime, endTime).includeDocs(true)
+					.reduce(false);
+			if (offset > 0)
+				q = q.skip(offset);
+			if (maxCount > 0)
+				q = q.limit(maxCount);
 
 			List<ScalingHistory> returnvalue = null;
-			String[] input = beforeConnection("QUERY",
-					new String[] { "findByScalingTime", appId, String.valueOf(startTime), String.valueOf(endTime) });
+			CouchDBRequest input = beforeConnection("QUERY", new String[] { q.getViewName(), appId, scaleType,
+					String.valueOf(status), String.valueOf(startTime), String.valueOf(endTime),
+					String.valueOf(offset), String.valueOf(maxCount) });
 			try {
 				returnvalue = db.queryView(q, ScalingHistory.class);
 			} catch (Exception e) {
-				e.printStackTrace();
+				logger.error(e.getMessage(), e);
 			}
 			afterConnection(input);
 
 			return returnvalue;
 		}
 
+		public int countByFilter(String appId, String scaleType, Integer status, long startTime, long endTime) {
+			ViewQuery q = createFilterQuery(appId, scaleType, status, startTime, endTime).reduce(true);
+
+			int count = 0;
+			CouchDBRequest input = beforeConnection("QUERY", new String[] { q.getViewName(), appId, scaleType,
+					String.valueOf(status), String.valueOf(startTime), String.valueOf(endTime) });
+			try {
+				ViewResult result = db.queryView(q);
+				if (result != null && !result.isEmpty())
+					count = result.getRows().get(0).getValueAsInt();
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+			}
+			afterConnection(input);
+
+			return count;
+		}
+
+		/**
+		 * Picks the composite view matching the given filters, so that the
+		 * filtering, paging and counting all happen in CouchDB
+		 */
+		private ViewQuery createFilterQuery(String appId, String scaleType, Integer status, long startTime,
+				long endTime) {
+			ComplexKey startKey;
+			ComplexKey endKey;
+			String viewName;
+			if (scaleType != null && status != null) {
+				viewName = "by_scaleType_status";
+				startKey = ComplexKey.of(appId, scaleType, status, endTime);
+				endKey = ComplexKey.of(appId, scaleType, status, startTime);
+			} else if (scaleType != null) {
+				viewName = "by_scaleType";
+				startKey = ComplexKey.of(appId, scaleType, endTime);
+				endKey = ComplexKey.of(appId, scaleType, startTime);
+			} else if (status != null) {
+				viewName = "by_status";
+				startKey = ComplexKey.of(appId, status, endTime);
+				endKey = ComplexKey.of(appId, status, startTime);
+			} else {
+				viewName = "by_time";
+				startKey = ComplexKey.of(appId, endTime);
+				endKey = ComplexKey.of(appId, startTime);
+			}
+			return createQuery(viewName).startKey(startKey).endKey(endKey).descending(true);
+		}
+
 	}
 
 	private static final Logger logger = Logger.getLogger(ScalingHistoryDAOImpl.class);
 	private ScalingHistoryRepository_All scalingHistoryAllRepo = null;
-	private ScalingHistoryRepository_ByScalingTime scalingHistoryByScalingTimeRepo = null;
+	private ScalingHistoryRepository_ByFilter scalingHistoryByFilterRepo = null;
 
 	public ScalingHistoryDAOImpl(CouchDbConnector db) {
 		this.scalingHistoryAllRepo = new ScalingHistoryRepository_All(db);
-		this.scalingHistoryByScalingTimeRepo = new ScalingHistoryRepository_ByScalingTime(db);
+		this.scalingHistoryByFilterRepo = new ScalingHistoryRepository_ByFilter(db);
 	}
 
 	public ScalingHistoryDAOImpl(CouchDbConnector db, boolean initDesignDocument) {
@@ -86,7 +163,19 @@ public class ScalingHistoryDAOImpl extends CommonDAOImpl implements ScalingHisto
 	@Override
 	public List<ScalingHistory> findByScalingTime(String appId, long startTime, long endTime) {
 		// TODO Auto-generated method stub
-		return this.scalingHistoryByScalingTimeRepo.findByScalingTime(appId, startTime, endTime);
+		return this.scalingHistoryByFilterRepo.findByScalingTime(appId, startTime, endTime);
+	}
+
+	@Override
+	public List<ScalingHistory> findByFilter(String appId, String scaleType, Integer status, long startTime,
+			long endTime, int offset, int maxCount) {
+		return this.scalingHistoryByFilterRepo.findByFilter(appId, scaleType, status, startTime, endTime, offset,
+				maxCount);
+	}
+
+	@Override
+	public int countByFilter(String appId, String scaleType, Integer status, long startTime, long endTime) {
+		return this.scalingHistoryByFilterRepo.countByFilter(appId, scaleType, status, startTime, endTime);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -102,7 +191,7 @@ public class ScalingHistoryDAOImpl extends CommonDAOImpl implements ScalingHisto
 		// TODO Auto-generated method stub
 		List<TypedCouchDbRepositorySupport<T>> repoList = new ArrayList<TypedCouchDbRepositorySupport<T>>();
 		repoList.add((TypedCouchDbRepositorySupport<T>) this.scalingHistoryAllRepo);
-		repoList.add((TypedCouchDbRepositorySupport<T>) this.scalingHistoryByScalingTimeRepo);
+		repoList.add((TypedCouchDbRepositorySupport<T>) this.scalingHistoryByFilterRepo);
 		return repoList;
 	}
 }
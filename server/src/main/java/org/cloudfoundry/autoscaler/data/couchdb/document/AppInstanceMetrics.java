@@ -24,6 +24,7 @@ public class AppInstanceMetrics extends TypedCouchDbDocument implements Serializ
     private String serviceId;
     private long timestamp;
     private double memQuota;
+    private Long sampleInterval;
     private List<InstanceMetrics> instanceMetrics = new LinkedList<InstanceMetrics>();
 
     public AppInstanceMetrics() {
@@ -103,6 +104,19 @@ public class AppInstanceMetrics extends TypedCouchDbDocument implements Serializ
 	}
 
 
+	/**
+	 * The poll interval when the metrics were stored in change-only mode, the
+	 * values hold until the next stored metrics
+	 */
+	public Long getSampleInterval() {
+		return sampleInterval;
+	}
+
+	public void setSampleInterval(Long sampleInterval) {
+		this.sampleInterval = sampleInterval;
+	}
+
+
 	public void addInstanceMetrics(InstanceMetrics instMetrics) {
         this.instanceMetrics.add(instMetrics);
     }
@@ -1,6 +1,7 @@
 package org.cloudfoundry.autoscaler.data.couchdb.document;
 
 import java.io.Serializable;
+import java.util.Map;
 
 import org.ektorp.support.TypeDiscriminator;
 
@@ -27,6 +28,7 @@ public class ScalingHistory extends TypedCouchDbDocument{
 	private Long scheduleStartTime;
 	private Integer dayOfWeek;
 	private Integer rawOffset;
+	private Map<String, Long> latency;// milliseconds spent in each stage, from the breach to the running instances
 	
 	public ScalingHistory (){
 		super();
@@ -206,4 +208,12 @@ public class ScalingHistory extends TypedCouchDbDocument{
 	public void setRawOffset(Integer rawOffset) {
 		this.rawOffset = rawOffset;
 	}
+
+	public Map<String, Long> getLatency() {
+		return latency;
+	}
+
+	public void setLatency(Map<String, Long> latency) {
+		this.latency = latency;
+	}
 }
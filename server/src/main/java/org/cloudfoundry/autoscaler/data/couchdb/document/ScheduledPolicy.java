@@ -17,6 +17,7 @@ public class ScheduledPolicy {
 	private String type;
 	private String repeatCycle;
 	private String timezone;
+	private Integer leadTimeSecs; // how long before its start to add its minimum instances, null for the auto-tuned lead
 	
 	public int getInstanceMinCount() {
 		return instanceMinCount;
@@ -60,4 +61,10 @@ public class ScheduledPolicy {
 	public void setTimezone(String timezone) {
 		this.timezone = timezone;
 	}
+	public Integer getLeadTimeSecs() {
+		return leadTimeSecs;
+	}
+	public void setLeadTimeSecs(Integer leadTimeSecs) {
+		this.leadTimeSecs = leadTimeSecs;
+	}
 }
@@ -0,0 +1,391 @@
+package org.cloudfoundry.autoscaler.data.couchdb.spool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+
+/**
+ * Append-only local disk spool for writes that could not reach CouchDB.
+ *
+ * Records are appended as "type TAB json" lines to the active log and fsynced
+ * in batches. The replay task rotates the active log, hands consecutive
+ * records of the same type to the {@link Replayer} in bulk and in order, and
+ * stops at the first failure so a recovering database is retried at the
+ * replay interval instead of by every writer. A batch that failed
+ * maxReplayAttempts times in a row has its first record written alone. If
+ * that fails too while the database is available, the database rejects the
+ * record, and it is moved to the dead letter file so it does not hold up the
+ * records behind it. Records are never dead-lettered during an outage.
+ * Replay is at-least-once: a
+ * record may be written again if the server stops in the middle of a batch.
+ */
+public class WriteSpool {
+	private static final Logger logger = Logger.getLogger(WriteSpool.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String ACTIVE_FILE = "spool.log";
+	private static final String REPLAY_FILE = "spool.replay.log";
+	private static final String DEAD_LETTER_FILE = "spool.dead.log";
+
+	public interface Replayer {
+		/**
+		 * Writes a batch of spooled records of the same type
+		 * @param type
+		 * @param records
+		 * @return true if the whole batch is persisted
+		 */
+		public boolean replay(String type, List<String> records);
+
+		/**
+		 * @return true if the database answers, so that a failed write was rejected by it
+		 */
+		public boolean isAvailable();
+	}
+
+	private final File dir;
+	private final File activeFile;
+	private final File replayFile;
+	private final File deadLetterFile;
+	private final long maxBytes;
+	private final int fsyncBatchSize;
+	private final int replayBatchSize;
+	private final int maxReplayAttempts;
+	private final Replayer replayer;
+
+	private final Object writeLock = new Object();
+	private final Object replayLock = new Object();
+	private FileOutputStream activeStream;
+	private Writer activeWriter;
+	private long activeBytes;
+	private long activeRecords;
+	private int unsyncedRecords;
+	private long replayBytes;
+	private long replayedLines;
+	/** failed attempts to replay the first pending record **/
+	private int headAttempts;
+
+	private final AtomicLong pendingRecords = new AtomicLong(0);
+	private final AtomicLong spooledRecords = new AtomicLong(0);
+	private final AtomicLong replayedRecords = new AtomicLong(0);
+	private final AtomicLong droppedRecords = new AtomicLong(0);
+	private final AtomicLong deadLetterRecords = new AtomicLong(0);
+	private final AtomicLong replayFailures = new AtomicLong(0);
+	private volatile long lastReplayTime = 0;
+
+	private ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+	public WriteSpool(String dirName, long maxBytes, long fsyncIntervalMs, int fsyncBatchSize, long replayIntervalMs,
+			int replayBatchSize, int maxReplayAttempts, Replayer replayer) throws IOException {
+		this.dir = new File(dirName);
+		this.activeFile = new File(dir, ACTIVE_FILE);
+		this.replayFile = new File(dir, REPLAY_FILE);
+		this.deadLetterFile = new File(dir, DEAD_LETTER_FILE);
+		this.maxBytes = maxBytes;
+		this.fsyncBatchSize = fsyncBatchSize;
+		this.replayBatchSize = replayBatchSize;
+		this.maxReplayAttempts = Math.max(1, maxReplayAttempts);
+		this.replayer = replayer;
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Failed to create spool directory " + dir.getAbsolutePath());
+
+		// records left by a previous run are replayed first
+		if (replayFile.exists()) {
+			replayBytes = replayFile.length();
+			pendingRecords.addAndGet(countLines(replayFile));
+		}
+		if (activeFile.exists()) {
+			activeBytes = activeFile.length();
+			activeRecords = countLines(activeFile);
+			pendingRecords.addAndGet(activeRecords);
+		}
+		openActiveFile();
+		if (pendingRecords.get() > 0)
+			logger.info("Found " + pendingRecords.get() + " spooled records in " + dir.getAbsolutePath());
+
+		executor.setThreadFactory(new NamedThreadFactory("writeSpool"));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sync();
+			}
+		}, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					replay();
+				} catch (Exception e) {
+					logger.error(e.getMessage(), e);
+				}
+			}
+		}, replayIntervalMs, replayIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Whether there are records waiting for replay. New writes of the same
+	 * kind should be spooled as well while this is true to keep them in order.
+	 */
+	public boolean hasPending() {
+		return pendingRecords.get() > 0;
+	}
+
+	/**
+	 * Appends a record to the spool
+	 * @param type
+	 * @param json
+	 * @return false if the spool is full or cannot be written
+	 */
+	public boolean append(String type, String json) {
+		byte[] line = (type + "\t" + json + "\n").getBytes(UTF8);
+		synchronized (writeLock) {
+			if (activeBytes + replayBytes + line.length > maxBytes) {
+				droppedRecords.incrementAndGet();
+				logger.warn("Write spool is full, dropped " + type + " record " + json);
+				return false;
+			}
+			try {
+				activeWriter.write(new String(line, UTF8));
+				activeBytes += line.length;
+				activeRecords++;
+				pendingRecords.incrementAndGet();
+				spooledRecords.incrementAndGet();
+				if (++unsyncedRecords >= fsyncBatchSize)
+					syncActiveFile();
+				return true;
+			} catch (IOException e) {
+				droppedRecords.incrementAndGet();
+				logger.error("Failed to spool " + type + " record " + json, e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Flushes and fsyncs the records appended since the last sync
+	 */
+	public void sync() {
+		synchronized (writeLock) {
+			if (unsyncedRecords == 0)
+				return;
+			try {
+				syncActiveFile();
+			} catch (IOException e) {
+				logger.error("Failed to sync write spool", e);
+			}
+		}
+	}
+
+	/**
+	 * Replays spooled records in order until the spool is empty or a batch fails
+	 */
+	public void replay() throws IOException {
+		synchronized (replayLock) {
+			while (hasPending()) {
+				if (!replayFile.exists() && !rotateActiveFile())
+					return;
+				if (!replayFromFile())
+					return;
+			}
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		synchronized (writeLock) {
+			stats.put("spoolBytes", activeBytes + replayBytes);
+		}
+		stats.put("maxBytes", maxBytes);
+		stats.put("pendingRecords", pendingRecords.get());
+		stats.put("spooledRecords", spooledRecords.get());
+		stats.put("replayedRecords", replayedRecords.get());
+		stats.put("droppedRecords", droppedRecords.get());
+		stats.put("deadLetterRecords", deadLetterRecords.get());
+		stats.put("replayFailures", replayFailures.get());
+		stats.put("lastReplayTime", lastReplayTime);
+		return stats;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+		synchronized (writeLock) {
+			try {
+				syncActiveFile();
+				activeWriter.close();
+			} catch (IOException e) {
+				logger.error("Failed to close write spool", e);
+			}
+		}
+	}
+
+	private boolean replayFromFile() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(replayFile), UTF8));
+		try {
+			long lineNumber = 0;
+			String batchType = null;
+			List<String> batch = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (lineNumber++ < replayedLines)
+					continue;
+				int sep = line.indexOf('\t');
+				if (sep < 0) {
+					logger.warn("Skipped malformed spool record " + line);
+					replayedLines++;
+					pendingRecords.decrementAndGet();
+					continue;
+				}
+				String type = line.substring(0, sep);
+				if (batchType != null && (!batchType.equals(type) || batch.size() >= replayBatchSize)) {
+					if (!replayOrSkip(batchType, batch))
+						return false;
+					batch.clear();
+				}
+				batchType = type;
+				batch.add(line.substring(sep + 1));
+			}
+			if (!batch.isEmpty() && !replayOrSkip(batchType, batch))
+				return false;
+		} finally {
+			reader.close();
+		}
+
+		if (!replayFile.delete())
+			throw new IOException("Failed to delete replayed spool file " + replayFile.getAbsolutePath());
+		synchronized (writeLock) {
+			replayBytes = 0;
+		}
+		replayedLines = 0;
+		return true;
+	}
+
+	/**
+	 * Replays the batch, skipping its first record once the batch failed
+	 * maxReplayAttempts times and the database rejects the record alone
+	 * @return true if every record of the batch is replayed or skipped
+	 */
+	private boolean replayOrSkip(String type, List<String> batch) {
+		List<String> remaining = new ArrayList<String>(batch);
+		while (!replayBatch(type, remaining)) {
+			if (++headAttempts < maxReplayAttempts)
+				return false;
+			headAttempts = 0;
+			String head = remaining.get(0);
+			if (!replayBatch(type, Collections.singletonList(head))) {
+				// the record is only to blame if the database is up
+				if (!isAvailable())
+					return false;
+				deadLetter(type, head);
+			}
+			remaining.remove(0);
+			if (remaining.isEmpty())
+				return true;
+		}
+		headAttempts = 0;
+		return true;
+	}
+
+	private boolean isAvailable() {
+		try {
+			return replayer.isAvailable();
+		} catch (Exception e) {
+			logger.error("Failed to check the database for the write spool", e);
+			return false;
+		}
+	}
+
+	private void deadLetter(String type, String record) {
+		logger.error("Gave up replaying " + type + " record after " + maxReplayAttempts + " attempts, moved to "
+				+ deadLetterFile.getAbsolutePath() + ": " + record);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(deadLetterFile, true), UTF8);
+			try {
+				writer.write(type + "\t" + record + "\n");
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			logger.error("Failed to write the dead letter file, dropped " + type + " record " + record, e);
+		}
+		replayedLines++;
+		pendingRecords.decrementAndGet();
+		deadLetterRecords.incrementAndGet();
+	}
+
+	private boolean replayBatch(String type, List<String> batch) {
+		boolean succeeded = false;
+		try {
+			succeeded = replayer.replay(type, batch);
+		} catch (Exception e) {
+			logger.error("Failed to replay " + batch.size() + " " + type + " records", e);
+		}
+		if (!succeeded) {
+			replayFailures.incrementAndGet();
+			return false;
+		}
+		replayedLines += batch.size();
+		pendingRecords.addAndGet(-batch.size());
+		replayedRecords.addAndGet(batch.size());
+		lastReplayTime = System.currentTimeMillis();
+		return true;
+	}
+
+	private boolean rotateActiveFile() throws IOException {
+		synchronized (writeLock) {
+			if (activeRecords == 0)
+				return false;
+			syncActiveFile();
+			activeWriter.close();
+			if (!activeFile.renameTo(replayFile)) {
+				openActiveFile();
+				throw new IOException("Failed to rotate spool file " + activeFile.getAbsolutePath());
+			}
+			replayBytes = activeBytes;
+			activeBytes = 0;
+			activeRecords = 0;
+			replayedLines = 0;
+			openActiveFile();
+			return true;
+		}
+	}
+
+	private void openActiveFile() throws IOException {
+		activeStream = new FileOutputStream(activeFile, true);
+		activeWriter = new OutputStreamWriter(activeStream, UTF8);
+	}
+
+	private void syncActiveFile() throws IOException {
+		activeWriter.flush();
+		activeStream.getChannel().force(false);
+		unsyncedRecords = 0;
+	}
+
+	private static long countLines(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			long count = 0;
+			while (reader.readLine() != null)
+				count++;
+			return count;
+		} finally {
+			reader.close();
+		}
+	}
+
+}
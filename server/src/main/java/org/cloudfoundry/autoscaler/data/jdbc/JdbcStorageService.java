@@ -0,0 +1,824 @@
+package org.cloudfoundry.autoscaler.data.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.StepHeldMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.Application;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.BoundApp;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ServiceConfig;
+import org.cloudfoundry.autoscaler.data.couchdb.document.TriggerRecord;
+import org.cloudfoundry.autoscaler.exceptions.DataStoreException;
+import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
+import org.cloudfoundry.autoscaler.manager.ScalingHistoryFilter;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.util.AutoScalerEnvUtil;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Relational implementation of {@link AutoScalingDataStore} on plain JDBC.
+ *
+ * Each document type has its own table holding the columns the queries
+ * filter and sort on, backed by indexes, and the document itself as JSON, so
+ * the documents keep the same shape as in CouchDB. Metrics are buffered and
+ * written with batched inserts; reads flush the buffer first so they always
+ * see the metrics added before them. A batch that fails to be written goes
+ * back to the front of the buffer, and metrics are dropped only when the
+ * buffer holds maxPendingMetrics.
+ */
+public class JdbcStorageService implements AutoScalingDataStore {
+	private static final Logger logger = Logger.getLogger(JdbcStorageService.class);
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private static final String[] SCHEMA = {
+			"CREATE TABLE application (id VARCHAR(64) NOT NULL PRIMARY KEY, app_id VARCHAR(64), binding_id VARCHAR(64), "
+					+ "service_id VARCHAR(64), policy_id VARCHAR(64), state VARCHAR(32), doc %s)",
+			"CREATE INDEX application_app_id ON application (app_id)",
+			"CREATE INDEX application_binding_id ON application (binding_id)",
+			"CREATE INDEX application_service_id ON application (service_id, state)",
+			"CREATE INDEX application_policy_id ON application (policy_id)",
+			"CREATE TABLE autoscaler_policy (policy_id VARCHAR(64) NOT NULL PRIMARY KEY, doc %s)",
+			"CREATE TABLE app_autoscale_state (app_id VARCHAR(64) NOT NULL PRIMARY KEY, doc %s)",
+			"CREATE TABLE scaling_history (id VARCHAR(64) NOT NULL PRIMARY KEY, app_id VARCHAR(64), status INT, "
+					+ "scale_type VARCHAR(16), start_time BIGINT, doc %s)",
+			"CREATE INDEX scaling_history_time ON scaling_history (app_id, start_time)",
+			"CREATE INDEX scaling_history_status ON scaling_history (app_id, status, start_time)",
+			"CREATE INDEX scaling_history_type ON scaling_history (app_id, scale_type, start_time)",
+			"CREATE INDEX scaling_history_type_status ON scaling_history (app_id, scale_type, status, start_time)",
+			"CREATE TABLE trigger_record (id VARCHAR(255) NOT NULL PRIMARY KEY, app_id VARCHAR(64), "
+					+ "server_name VARCHAR(255), doc %s)",
+			"CREATE INDEX trigger_record_app_id ON trigger_record (app_id)",
+			"CREATE INDEX trigger_record_server ON trigger_record (server_name)",
+			"CREATE TABLE app_instance_metrics (app_id VARCHAR(64), service_id VARCHAR(64), metric_time BIGINT, doc %s)",
+			"CREATE INDEX app_instance_metrics_app ON app_instance_metrics (app_id, metric_time)",
+			"CREATE INDEX app_instance_metrics_time ON app_instance_metrics (metric_time)",
+			"CREATE TABLE service_config (service_id VARCHAR(64) NOT NULL PRIMARY KEY, persist_time BIGINT, doc %s)",
+			"CREATE TABLE bound_app (service_id VARCHAR(64) NOT NULL, app_id VARCHAR(64) NOT NULL, "
+					+ "server_name VARCHAR(255), doc %s, PRIMARY KEY (service_id, app_id))",
+			"CREATE INDEX bound_app_app_id ON bound_app (app_id)",
+			"CREATE INDEX bound_app_server ON bound_app (server_name)" };
+
+	private static volatile JdbcStorageService instance = null;
+
+	private final String url;
+	private final String username;
+	private final String password;
+	private final String serverName;
+	private final int metricsBatchSize;
+	private final long metricsRetention;
+	private final BlockingQueue<Connection> idleConnections;
+	private final BlockingDeque<AppInstanceMetrics> pendingMetrics;
+	private final AtomicLong droppedMetrics = new AtomicLong(0);
+	private final Object metricsFlushLock = new Object();
+	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+	private interface SqlWork<T> {
+		public T run(Connection connection) throws SQLException;
+	}
+
+	public JdbcStorageService(String driver, String url, String username, String password, int poolSize,
+			int metricsBatchSize, int maxPendingMetrics, long metricsFlushIntervalMs, long metricsRetentionMs)
+			throws DataStoreException {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.serverName = AutoScalerEnvUtil.getServerName();
+		this.metricsBatchSize = metricsBatchSize;
+		this.metricsRetention = metricsRetentionMs;
+		this.pendingMetrics = new LinkedBlockingDeque<AppInstanceMetrics>(Math.max(maxPendingMetrics, metricsBatchSize));
+		this.idleConnections = new ArrayBlockingQueue<Connection>(poolSize);
+		try {
+			if (driver != null && !driver.isEmpty())
+				Class.forName(driver);
+			initSchema(ConfigManager.get("jdbcDocumentColumnType", "CLOB"));
+		} catch (Exception e) {
+			throw new DataStoreException("Failed to initialize the database " + url, e);
+		}
+
+		executor.setThreadFactory(new NamedThreadFactory("jdbcStorage"));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flushMetrics();
+				} catch (Exception e) {
+					logger.error("Failed to flush metrics", e);
+				}
+			}
+		}, metricsFlushIntervalMs, metricsFlushIntervalMs, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					purgeMetrics(System.currentTimeMillis() - metricsRetention);
+				} catch (Exception e) {
+					logger.error("Failed to purge metrics", e);
+				}
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	public static JdbcStorageService getInstance() {
+		if (instance == null) {
+			synchronized (JdbcStorageService.class) {
+				if (instance == null) {
+					try {
+						instance = new JdbcStorageService(ConfigManager.get("jdbcDriver"), ConfigManager.get("jdbcUrl"),
+								ConfigManager.get("jdbcUsername"), ConfigManager.get("jdbcPassword"),
+								ConfigManager.getInt("jdbcPoolSize", 10), ConfigManager.getInt("jdbcMetricsBatchSize", 500),
+								ConfigManager.getInt("jdbcMaxPendingMetrics", 100000),
+								ConfigManager.getLong("jdbcMetricsFlushIntervalMs", 1000),
+								ConfigManager.getLong("couchdbMetricDBStaleAfter", 43200) * 60 * 1000);
+					} catch (DataStoreException e) {
+						logger.error(e.getMessage(), e);
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the instance if it has been created, without creating it
+	 */
+	public static JdbcStorageService getInitializedInstance() {
+		return instance;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+		try {
+			flushMetrics();
+		} catch (Exception e) {
+			logger.error("Failed to flush metrics on shutdown", e);
+		}
+		Connection connection;
+		while ((connection = idleConnections.poll()) != null)
+			closeQuietly(connection);
+	}
+
+	private void initSchema(final String documentColumnType) throws SQLException {
+		execute(new SqlWork<Void>() {
+			@Override
+			public Void run(Connection connection) throws SQLException {
+				DatabaseMetaData metaData = connection.getMetaData();
+				Statement statement = connection.createStatement();
+				try {
+					boolean tableExists = false;
+					for (String sql : SCHEMA) {
+						if (sql.startsWith("CREATE TABLE")) {
+							String table = sql.substring("CREATE TABLE ".length(), sql.indexOf(' ', "CREATE TABLE ".length()));
+							tableExists = tableExists(metaData, table);
+							if (!tableExists)
+								logger.info("Creating table " + table);
+						}
+						// indexes are only created together with their table
+						if (!tableExists)
+							statement.executeUpdate(String.format(sql, documentColumnType));
+					}
+				} finally {
+					statement.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+		for (String name : new String[] { table, table.toUpperCase() }) {
+			ResultSet rs = metaData.getTables(null, null, name, null);
+			try {
+				if (rs.next())
+					return true;
+			} finally {
+				rs.close();
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void addTrigger(Trigger t) throws Exception {
+		final TriggerRecord triggerRecord = new TriggerRecord(t.getAppName(), t);
+		triggerRecord.setServerName(serverName);
+		upsert("UPDATE trigger_record SET app_id = ?, server_name = ?, doc = ? WHERE id = ?",
+				"INSERT INTO trigger_record (app_id, server_name, doc, id) VALUES (?, ?, ?, ?)", triggerRecord.getAppId(),
+				serverName, toJson(triggerRecord), triggerRecord.getId());
+	}
+
+	@Override
+	public void removeTrigger(String appId) throws Exception {
+		update("DELETE FROM trigger_record WHERE app_id = ?", appId);
+	}
+
+	@Override
+	public Map<String, List<TriggerRecord>> getAllTriggers() throws Exception {
+		Map<String, List<TriggerRecord>> triggersMap = new HashMap<String, List<TriggerRecord>>();
+		for (TriggerRecord record : query(TriggerRecord.class, "SELECT doc FROM trigger_record WHERE server_name = ?",
+				serverName)) {
+			String key = record.getId();
+			List<TriggerRecord> recordList = triggersMap.get(key);
+			if (recordList == null) {
+				recordList = new LinkedList<TriggerRecord>();
+				triggersMap.put(key, recordList);
+			}
+			recordList.add(record);
+		}
+		return triggersMap;
+	}
+
+	@Override
+	public void addAppStats(AppInstanceMetrics appInstanceMetrics) throws Exception {
+		if (!pendingMetrics.offer(appInstanceMetrics)) {
+			droppedMetrics.incrementAndGet();
+			logger.warn("Metrics buffer is full, dropped metrics of application " + appInstanceMetrics.getAppId());
+			return;
+		}
+		if (pendingMetrics.size() >= metricsBatchSize)
+			flushMetrics();
+	}
+
+	/**
+	 * Writes the buffered metrics with batched inserts
+	 */
+	public void flushMetrics() throws SQLException {
+		synchronized (metricsFlushLock) {
+			while (!pendingMetrics.isEmpty()) {
+				final List<AppInstanceMetrics> batch = new ArrayList<AppInstanceMetrics>(metricsBatchSize);
+				pendingMetrics.drainTo(batch, metricsBatchSize);
+				try {
+					execute(new SqlWork<Void>() {
+						@Override
+						public Void run(Connection connection) throws SQLException {
+							PreparedStatement statement = connection.prepareStatement(
+									"INSERT INTO app_instance_metrics (app_id, service_id, metric_time, doc) VALUES (?, ?, ?, ?)");
+							try {
+								for (AppInstanceMetrics metrics : batch) {
+									statement.setString(1, metrics.getAppId());
+									statement.setString(2, metrics.getServiceId());
+									statement.setLong(3, metrics.getTimestamp());
+									statement.setString(4, toJson(metrics));
+									statement.addBatch();
+								}
+								statement.executeBatch();
+							} finally {
+								statement.close();
+							}
+							return null;
+						}
+					});
+				} catch (SQLException e) {
+					// retried first on the next flush
+					int dropped = 0;
+					for (int i = batch.size() - 1; i >= 0; i--) {
+						if (!pendingMetrics.offerFirst(batch.get(i)))
+							dropped++;
+					}
+					droppedMetrics.addAndGet(dropped);
+					logger.error("Failed to write " + batch.size() + " metrics, dropped " + dropped
+							+ " of them as the metrics buffer is full", e);
+					throw e;
+				}
+			}
+		}
+	}
+
+	public int getPendingMetricCount() {
+		return pendingMetrics.size();
+	}
+
+	public long getDroppedMetricCount() {
+		return droppedMetrics.get();
+	}
+
+	/**
+	 * Deletes the metrics older than the given time
+	 */
+	public int purgeMetrics(long olderThan) throws SQLException {
+		return update("DELETE FROM app_instance_metrics WHERE metric_time < ?", olderThan);
+	}
+
+	@Override
+	public void removeAppStatsWithHistory(String appId) throws Exception {
+		// keep the same behavior as the CouchDB store
+	}
+
+	@Override
+	public List<AppInstanceMetrics> getAppStatsHistoryByAppIdAfter(String appId, long newerThan) throws Exception {
+		flushMetrics();
+		List<AppInstanceMetrics> stored = query(AppInstanceMetrics.class,
+				"SELECT doc FROM app_instance_metrics WHERE app_id = ? AND metric_time > ? ORDER BY metric_time", appId,
+				newerThan - StepHeldMetrics.getLookback());
+		return StepHeldMetrics.expand(stored, newerThan + 1, System.currentTimeMillis());
+	}
+
+	@Override
+	public ServiceConfig getConfig(String serviceId) throws Exception {
+		return first(query(ServiceConfig.class, "SELECT doc FROM service_config WHERE service_id = ?", serviceId));
+	}
+
+	@Override
+	public long getSmallestPersistTime() {
+		try {
+			Long smallest = execute(new SqlWork<Long>() {
+				@Override
+				public Long run(Connection connection) throws SQLException {
+					Statement statement = connection.createStatement();
+					try {
+						ResultSet rs = statement.executeQuery("SELECT MIN(persist_time) FROM service_config");
+						rs.next();
+						return rs.getLong(1);
+					} finally {
+						statement.close();
+					}
+				}
+			});
+			return smallest;
+		} catch (SQLException e) {
+			logger.error(e);
+		}
+		return 0;
+	}
+
+	@Override
+	public List<ServiceConfig> getAllServiceConfigs() throws Exception {
+		return query(ServiceConfig.class, "SELECT doc FROM service_config");
+	}
+
+	/**
+	 * Saves a service config. Configs are created outside of the server for
+	 * the CouchDB store, this is for provisioning the relational store.
+	 */
+	public void saveServiceConfig(ServiceConfig config) throws Exception {
+		upsert("UPDATE service_config SET persist_time = ?, doc = ? WHERE service_id = ?",
+				"INSERT INTO service_config (persist_time, doc, service_id) VALUES (?, ?, ?)", config.getPersistTimeInDb(),
+				toJson(config), config.getServiceId());
+	}
+
+	@Override
+	public void addBinding(String serviceId, String appId, String appType, String appName) throws Exception {
+		updateBinding(serviceId, appId, appType, appName, true);
+	}
+
+	@Override
+	public void updateBinding(String serviceId, String appId, String appType, String appName) throws Exception {
+		updateBinding(serviceId, appId, appType, appName, false);
+	}
+
+	private void updateBinding(String serviceId, String appId, String appType, String appName, boolean insertIfNotFound)
+			throws Exception {
+		BoundApp app = first(query(BoundApp.class, "SELECT doc FROM bound_app WHERE service_id = ? AND app_id = ?",
+				serviceId, appId));
+		if (app != null) {
+			if (appType != null && appName != null
+					&& (!appType.equals(app.getAppType()) || !appName.equals(app.getAppName()))) {
+				app.setAppType(appType);
+				app.setAppName(appName);
+				app.setServerName(serverName);
+				update("UPDATE bound_app SET server_name = ?, doc = ? WHERE service_id = ? AND app_id = ?", serverName,
+						toJson(app), serviceId, appId);
+			}
+		} else if (insertIfNotFound) {
+			app = new BoundApp(appId, serviceId, appType, appName);
+			app.setServerName(serverName);
+			upsert("UPDATE bound_app SET server_name = ?, doc = ? WHERE service_id = ? AND app_id = ?",
+					"INSERT INTO bound_app (server_name, doc, service_id, app_id) VALUES (?, ?, ?, ?)", serverName,
+					toJson(app), serviceId, appId);
+		}
+	}
+
+	@Override
+	public void removeBinding(String serviceId, String appId) throws Exception {
+		update("DELETE FROM bound_app WHERE service_id = ? AND app_id = ?", serviceId, appId);
+	}
+
+	@Override
+	public Map<String, List<BoundApp>> getAllBindings() throws Exception {
+		Map<String, List<BoundApp>> bindingsMap = new HashMap<String, List<BoundApp>>();
+		for (BoundApp boundApp : query(BoundApp.class, "SELECT doc FROM bound_app WHERE server_name = ?", serverName)) {
+			String serviceId = boundApp.getServiceId();
+			List<BoundApp> apps = bindingsMap.get(serviceId);
+			if (apps == null) {
+				apps = new LinkedList<BoundApp>();
+				bindingsMap.put(serviceId, apps);
+			}
+			apps.add(boundApp);
+		}
+		return bindingsMap;
+	}
+
+	@Override
+	public Set<String> getAllBoundServiceIds() throws Exception {
+		return getAllBindings().keySet();
+	}
+
+	@Override
+	public List<BoundApp> getAllBindingsByServiceId(String serviceId) throws Exception {
+		return query(BoundApp.class, "SELECT doc FROM bound_app WHERE service_id = ?", serviceId);
+	}
+
+	@Override
+	public String getAppTypeById(String appId) throws Exception {
+		BoundApp boundApp = first(query(BoundApp.class, "SELECT doc FROM bound_app WHERE app_id = ?", appId));
+		if (boundApp != null) {
+			return boundApp.getAppType();
+		}
+		return "";
+	}
+
+	@Override
+	public void saveApplication(Application app) throws DataStoreException {
+		Application existingApp = getApplication(app.getAppId());
+		if (app.getId() == null)
+			app.setId(existingApp == null ? UUID.randomUUID().toString() : existingApp.getId());
+		try {
+			upsert("UPDATE application SET app_id = ?, binding_id = ?, service_id = ?, policy_id = ?, state = ?, doc = ? WHERE id = ?",
+					"INSERT INTO application (app_id, binding_id, service_id, policy_id, state, doc, id) VALUES (?, ?, ?, ?, ?, ?, ?)",
+					app.getAppId(), app.getBindingId(), app.getServiceId(), app.getPolicyId(), app.getState(), toJson(app),
+					app.getId());
+		} catch (SQLException e) {
+			throw new DataStoreException("Failed to save application " + app.getAppId(), e);
+		}
+	}
+
+	@Override
+	public void removeApplication(String appId) {
+		try {
+			update("DELETE FROM application WHERE app_id = ?", appId);
+		} catch (SQLException e) {
+			logger.error("Failed to remove application " + appId, e);
+		}
+	}
+
+	@Override
+	public Application getApplicationByBindingId(String bindingId) {
+		return queryFirst(Application.class, "SELECT doc FROM application WHERE binding_id = ?", bindingId);
+	}
+
+	@Override
+	public Application getApplication(String appId) {
+		return queryFirst(Application.class, "SELECT doc FROM application WHERE app_id = ?", appId);
+	}
+
+	@Override
+	public void removeApplicationByBindingId(String bindingId) throws DataStoreException {
+		try {
+			update("DELETE FROM application WHERE binding_id = ?", bindingId);
+		} catch (SQLException e) {
+			throw new DataStoreException("Failed to remove application of binding " + bindingId, e);
+		}
+	}
+
+	@Override
+	public AutoScalerPolicy getPolicyById(String policyId) throws PolicyNotFoundException {
+		if (policyId == null)
+			return null;
+		AutoScalerPolicy policy = queryFirst(AutoScalerPolicy.class,
+				"SELECT doc FROM autoscaler_policy WHERE policy_id = ?", policyId);
+		if (policy == null)
+			throw new PolicyNotFoundException(policyId);
+		return policy;
+	}
+
+	@Override
+	public String savePolicy(AutoScalerPolicy policy) throws DataStoreException {
+		String policyId = policy.getPolicyId();
+		try {
+			if (policyId == null) {
+				String uuid = UUID.randomUUID().toString();
+				policy.setPolicyId(uuid);
+				policy.setId(uuid);
+				update("INSERT INTO autoscaler_policy (doc, policy_id) VALUES (?, ?)", toJson(policy), uuid);
+			} else {
+				if (policy.getId() == null)
+					policy.setId(policyId);
+				if (update("UPDATE autoscaler_policy SET doc = ? WHERE policy_id = ?", toJson(policy), policyId) == 0)
+					throw new DataStoreException("Th policy" + policyId + "is not found.",
+							new PolicyNotFoundException(policyId));
+			}
+		} catch (SQLException e) {
+			throw new DataStoreException("Failed to save policy " + policy.getPolicyId(), e);
+		}
+		return policy.getPolicyId();
+	}
+
+	@Override
+	public void deletePolicy(String policyId) throws DataStoreException, PolicyNotFoundException {
+		try {
+			if (update("DELETE FROM autoscaler_policy WHERE policy_id = ?", policyId) == 0)
+				throw new PolicyNotFoundException(policyId);
+		} catch (SQLException e) {
+			throw new DataStoreException("Failed to delete policy " + policyId, e);
+		}
+	}
+
+	@Override
+	public void saveScalingState(AppAutoScaleState state) throws DataStoreException {
+		if (state.getId() == null)
+			state.setId(state.getAppId());
+		try {
+			upsert("UPDATE app_autoscale_state SET doc = ? WHERE app_id = ?",
+					"INSERT INTO app_autoscale_state (doc, app_id) VALUES (?, ?)", toJson(state), state.getAppId());
+		} catch (SQLException e) {
+			throw new DataStoreException("Failed to save the scaling state of application " + state.getAppId(), e);
+		}
+	}
+
+	@Override
+	public AppAutoScaleState getScalingState(String appId) {
+		if (appId == null)
+			return null;
+		return queryFirst(AppAutoScaleState.class, "SELECT doc FROM app_autoscale_state WHERE app_id = ?", appId);
+	}
+
+	@Override
+	public List<Application> getApplications(String serviceId) {
+		try {
+			return query(Application.class,
+					"SELECT doc FROM application WHERE service_id = ? AND (state IS NULL OR state <> 'unbond')", serviceId);
+		} catch (SQLException e) {
+			logger.error("Failed to get applications of service " + serviceId, e);
+			return new ArrayList<Application>();
+		}
+	}
+
+	@Override
+	public List<Application> getApplicationsByPolicyId(String policyId) {
+		try {
+			return query(Application.class, "SELECT doc FROM application WHERE policy_id = ?", policyId);
+		} catch (SQLException e) {
+			logger.error("Failed to get applications of policy " + policyId, e);
+			return new ArrayList<Application>();
+		}
+	}
+
+	@Override
+	public List<AutoScalerPolicy> getAutoScalerPolicies() {
+		try {
+			return query(AutoScalerPolicy.class, "SELECT doc FROM autoscaler_policy");
+		} catch (SQLException e) {
+			logger.error("Failed to get policies", e);
+			return new ArrayList<AutoScalerPolicy>();
+		}
+	}
+
+	@Override
+	public void saveScalingHistory(ScalingHistory scalingHistory) throws DataStoreException {
+		if (scalingHistory.getId() == null)
+			scalingHistory.setId(UUID.randomUUID().toString());
+		try {
+			upsert("UPDATE scaling_history SET app_id = ?, status = ?, scale_type = ?, start_time = ?, doc = ? WHERE id = ?",
+					"INSERT INTO scaling_history (app_id, status, scale_type, start_time, doc, id) VALUES (?, ?, ?, ?, ?, ?)",
+					scalingHistory.getAppId(), scalingHistory.getStatus(),
+					getScaleType(scalingHistory.getAdjustment()),
+					scalingHistory.getStartTime(), toJson(scalingHistory), scalingHistory.getId());
+		} catch (SQLException e) {
+			throw new DataStoreException("Failed to save scaling history " + scalingHistory.getId(), e);
+		}
+	}
+
+	/**
+	 * Same as the scale type views of CouchDB, which skip histories without
+	 * an adjustment
+	 */
+	private static String getScaleType(int adjustment) {
+		if (adjustment == 0)
+			return null;
+		return adjustment < 0 ? ScalingHistoryFilter.SCALE_IN_TYPE : ScalingHistoryFilter.SCALE_OUT_TYPE;
+	}
+
+	@Override
+	public ScalingHistory getHistoryById(String id) throws DataStoreException {
+		if (id == null)
+			return null;
+		try {
+			return first(query(ScalingHistory.class, "SELECT doc FROM scaling_history WHERE id = ?", id));
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+	@Override
+	public List<ScalingHistory> getHistoryList(ScalingHistoryFilter filter) throws DataStoreException {
+		List<Object> params = new ArrayList<Object>();
+		String where = historyFilterClause(filter, params);
+		if (where == null)
+			return new ArrayList<ScalingHistory>();
+		StringBuilder sql = new StringBuilder("SELECT doc FROM scaling_history").append(where)
+				.append(" ORDER BY start_time DESC");
+		int maxCount = Math.max(filter.getMaxCount(), 0);
+		int offset = Math.max(filter.getOffset(), 0);
+		if (maxCount > 0 || offset > 0) {
+			// OFFSET is only valid after LIMIT on some databases
+			sql.append(" LIMIT ? OFFSET ?");
+			params.add(maxCount > 0 ? maxCount : Integer.MAX_VALUE);
+			params.add(offset);
+		}
+		try {
+			return query(ScalingHistory.class, sql.toString(), params.toArray());
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+	@Override
+	public int getHistoryCount(ScalingHistoryFilter filter) throws DataStoreException {
+		final List<Object> params = new ArrayList<Object>();
+		String where = historyFilterClause(filter, params);
+		if (where == null)
+			return 0;
+		final String sql = "SELECT COUNT(*) FROM scaling_history" + where;
+		try {
+			return execute(new SqlWork<Integer>() {
+				@Override
+				public Integer run(Connection connection) throws SQLException {
+					PreparedStatement statement = prepare(connection, sql, params.toArray());
+					try {
+						ResultSet rs = statement.executeQuery();
+						rs.next();
+						return rs.getInt(1);
+					} finally {
+						statement.close();
+					}
+				}
+			});
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+	/**
+	 * @return the WHERE clause of the filter, or null if nothing can match
+	 */
+	private String historyFilterClause(ScalingHistoryFilter filter, List<Object> params) {
+		String scaleType = null;
+		if (ScalingHistoryFilter.SCALE_IN_TYPE.equalsIgnoreCase(filter.getScaleType()))
+			scaleType = ScalingHistoryFilter.SCALE_IN_TYPE;
+		else if (ScalingHistoryFilter.SCALE_OUT_TYPE.equalsIgnoreCase(filter.getScaleType()))
+			scaleType = ScalingHistoryFilter.SCALE_OUT_TYPE;
+		else if (filter.getScaleType() != null)
+			return null;
+
+		StringBuilder where = new StringBuilder(" WHERE app_id = ?");
+		params.add(filter.getAppId());
+		if (scaleType != null) {
+			where.append(" AND scale_type = ?");
+			params.add(scaleType);
+		}
+		if (filter.getStatus() != null) {
+			where.append(" AND status = ?");
+			params.add(Integer.parseInt(filter.getStatus()));
+		}
+		where.append(" AND start_time BETWEEN ? AND ?");
+		params.add(filter.getStartTime());
+		params.add(filter.getEndTime());
+		return where.toString();
+	}
+
+	private <T> T execute(SqlWork<T> work) throws SQLException {
+		Connection connection = idleConnections.poll();
+		if (connection == null)
+			connection = DriverManager.getConnection(url, username, password);
+		boolean healthy = false;
+		try {
+			T result = work.run(connection);
+			healthy = true;
+			return result;
+		} finally {
+			if (!healthy && !isValid(connection))
+				closeQuietly(connection);
+			else if (!idleConnections.offer(connection))
+				closeQuietly(connection);
+		}
+	}
+
+	private int update(final String sql, final Object... params) throws SQLException {
+		return execute(new SqlWork<Integer>() {
+			@Override
+			public Integer run(Connection connection) throws SQLException {
+				PreparedStatement statement = prepare(connection, sql, params);
+				try {
+					return statement.executeUpdate();
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Updates the row, or inserts it if it does not exist. Both statements
+	 * take the same parameters in the same order.
+	 */
+	private void upsert(String updateSql, String insertSql, Object... params) throws SQLException {
+		if (update(updateSql, params) > 0)
+			return;
+		try {
+			update(insertSql, params);
+		} catch (SQLException e) {
+			// inserted by another writer in between
+			if (update(updateSql, params) == 0)
+				throw e;
+		}
+	}
+
+	private <T> List<T> query(final Class<T> type, final String sql, final Object... params) throws SQLException {
+		return execute(new SqlWork<List<T>>() {
+			@Override
+			public List<T> run(Connection connection) throws SQLException {
+				PreparedStatement statement = prepare(connection, sql, params);
+				try {
+					List<T> results = new ArrayList<T>();
+					ResultSet rs = statement.executeQuery();
+					while (rs.next())
+						results.add(fromJson(rs.getString(1), type));
+					return results;
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	private <T> T queryFirst(Class<T> type, String sql, Object... params) {
+		try {
+			return first(query(type, sql, params));
+		} catch (SQLException e) {
+			logger.error("Failed to query " + sql, e);
+			return null;
+		}
+	}
+
+	private static <T> T first(List<T> results) {
+		return results.isEmpty() ? null : results.get(0);
+	}
+
+	private static PreparedStatement prepare(Connection connection, String sql, Object[] params) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		for (int i = 0; i < params.length; i++)
+			statement.setObject(i + 1, params[i]);
+		return statement;
+	}
+
+	private static String toJson(Object document) throws SQLException {
+		try {
+			return mapper.writeValueAsString(document);
+		} catch (Exception e) {
+			throw new SQLException("Failed to serialize " + document.getClass().getSimpleName(), e);
+		}
+	}
+
+	private static <T> T fromJson(String json, Class<T> type) throws SQLException {
+		try {
+			return mapper.readValue(json, type);
+		} catch (Exception e) {
+			throw new SQLException("Failed to deserialize " + type.getSimpleName(), e);
+		}
+	}
+
+	private static boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(1);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			logger.warn("Failed to close database connection", e);
+		}
+	}
+
+}
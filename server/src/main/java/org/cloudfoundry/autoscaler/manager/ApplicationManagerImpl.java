@@ -4,7 +4,6 @@ package org.cloudfoundry.autoscaler.manager;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.constant.Constants;
@@ -21,6 +20,8 @@ import org.cloudfoundry.autoscaler.exceptions.NoAttachedPolicyException;
 import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
 import org.cloudfoundry.autoscaler.exceptions.TriggerNotSubscribedException;
 import org.cloudfoundry.autoscaler.util.CloudFoundryManager;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.cloudfoundry.autoscaler.util.LocalCache;
 /**
  * Implements the interface ApplicationManager
  * 
@@ -31,7 +32,14 @@ public class ApplicationManagerImpl implements ApplicationManager {
 	private static final Logger logger     = Logger.getLogger(CLASS_NAME); 
 	private static final ApplicationManagerImpl instance = new ApplicationManagerImpl();
 	
-	private ConcurrentHashMap<String, Application> applicationCache = new ConcurrentHashMap<String, Application>();
+	private final LocalCache<String, Application> applicationCache = new LocalCache<String, Application>("application",
+			ConfigManager.getInt("applicationCacheSize", 10000), ConfigManager.getLong("applicationCacheTTLSec", 3600) * 1000,
+			ConfigManager.getLong("localCacheRefreshAheadSec", 300) * 1000, new LocalCache.Loader<String, Application>() {
+				@Override
+				public Application load(String appId) throws Exception {
+					return AutoScalingDataStoreFactory.getAutoScalingDataStore().getApplication(appId);
+				}
+			});
 	private ApplicationManagerImpl(){
 		
 	}
@@ -79,7 +87,7 @@ public class ApplicationManagerImpl implements ApplicationManager {
 			AutoScalerPolicy policy = null;
 			policy = policyManager.getPolicyById(policyId);
 			try {
-				handleInstancesByPolicy(appId, policy); // Check the maximum instances and minimum
+				enforceInstancesByPolicy(appId, policy); // Check the maximum instances and minimum
 														// instances
 			} catch (AppNotFoundException e) {
 				logger.warn("The application " + appId
@@ -136,7 +144,7 @@ public class ApplicationManagerImpl implements ApplicationManager {
 		try {
 			if (AutoScalerPolicy.STATE_ENABLED.equals(policyState)){
 				logger.info("The policy is enabled for application " + appId);
-				handleInstancesByPolicy(appId, policy); //Check the maximum instances and minimum instances
+				enforceInstancesByPolicy(appId, policy); //Check the maximum instances and minimum instances
 			}
 			else{
 				logger.info("The policy is disabled for application " + appId);
@@ -170,15 +178,25 @@ public class ApplicationManagerImpl implements ApplicationManager {
 		ApplicationScaleManager manager = ApplicationScaleManagerImpl.getInstance();
 		manager.doScaleBySchedule(appId, policy);
 	}
+	/**
+	 * Applies a bound or updated policy right away, not paced as schedule changes
+	 */
+	private void enforceInstancesByPolicy(String appId, AutoScalerPolicy policy) throws Exception{
+		ApplicationScaleManager manager = ApplicationScaleManagerImpl.getInstance();
+		manager.doScaleByPolicy(appId, policy);
+	}
 	@Override
 	public Application getApplication(String appId) throws DataStoreException, CloudException {
 		
 		Application app = null;
-		if (applicationCache.containsKey(appId)){ 
+		try {
 			app = applicationCache.get(appId);
-		} else {
-			app = AutoScalingDataStoreFactory.getAutoScalingDataStore().getApplication(appId);
-			applicationCache.put(appId, app);
+		} catch (DataStoreException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new DataStoreException(e);
 		}
 		
 		if (app!= null && app.getAppType() == null){
@@ -250,4 +268,8 @@ public class ApplicationManagerImpl implements ApplicationManager {
 	public void invalidateCache(){
 		applicationCache.clear();
 	}
+
+	public Map<String, Object> getCacheStats() {
+		return applicationCache.getStats();
+	}
 }
\ No newline at end of file
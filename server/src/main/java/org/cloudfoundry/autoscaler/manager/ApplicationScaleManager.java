@@ -2,11 +2,31 @@ package org.cloudfoundry.autoscaler.manager;
 
 import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy;
 
 public interface ApplicationScaleManager {
 	
 	public void doScaleByTrigger(MonitorTriggerEvent event) throws Exception;
+	/**
+	 * Scales the app into the instance limits of its current scheduled policy, paced with the other schedule changes
+	 * @param appId
+	 * @param policy
+	 */
 	public void doScaleBySchedule(String appId,AutoScalerPolicy policy) throws Exception;
+	/**
+	 * Scales the app into the instance limits of the policy right away, when the policy is bound or updated
+	 * @param appId
+	 * @param policy
+	 */
+	public void doScaleByPolicy(String appId,AutoScalerPolicy policy) throws Exception;
+	/**
+	 * Scales the app out to the minimum instance count of a scheduled policy before it starts
+	 * @param appId
+	 * @param policy
+	 * @param scheduledPolicy the scheduled policy of the policy starting next
+	 * @param scheduleStartTime
+	 */
+	public void doPrewarmBySchedule(String appId,AutoScalerPolicy policy,ScheduledPolicy scheduledPolicy,long scheduleStartTime) throws Exception;
 	
 
 }
@@ -5,14 +5,15 @@ import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.text.SimpleDateFormat;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
 import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.bean.ScalingTrace;
 import org.cloudfoundry.autoscaler.constant.Constants;
 import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
-import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
 import org.cloudfoundry.autoscaler.data.couchdb.document.Application;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
@@ -27,6 +28,7 @@ import org.cloudfoundry.autoscaler.schedule.ScheduledServiceUtil;
 import org.cloudfoundry.autoscaler.util.CloudFoundryManager;
 import org.cloudfoundry.autoscaler.util.ConfigManager;
 import org.cloudfoundry.autoscaler.util.IcapMonitorMetricsMapper;
+import org.cloudfoundry.autoscaler.util.InstanceCountTracker;
 
 public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 	private static ApplicationScaleManagerImpl instance = new ApplicationScaleManagerImpl();
@@ -36,46 +38,35 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 	}
 	private static final Logger logger     = Logger.getLogger(ApplicationScaleManager.class.getName());
 	private static final Logger loggerEvent = Logger.getLogger("triggerevent");
-	public final long eventTimeout = Long.parseLong(ConfigManager.get("LAST_TRIGGER_EVENT_TIME_OUT", "10")) * 60 * 1000L;
+	private static final long lastActionTimeout = Long.parseLong(ConfigManager.get("LAST_TRIGGER_EVENT_TIME_OUT", "10")) * 60 * 1000L;
+	public final long eventTimeout = lastActionTimeout;
+	private static final double targetDampening = Math.min(1, Math.max(0.01, ConfigManager.getDouble("targetTrackingDampening", 0.5)));
 	@Override
 	public void doScaleByTrigger(MonitorTriggerEvent triggerEvent) throws Exception{
 
 		String appId = triggerEvent.getAppId();
 		String triggerId = triggerEvent.getTriggerId();
 		AutoScalerPolicy policy = null;
-		AutoScalerPolicyTrigger policyTrigger = null;
 		
 		logger.debug("Receive trigger " + triggerEvent.toString() + "with handler " + this.toString() + " for appId = " + appId 	+ ", triggerId = " + triggerId + ", metricType = " + triggerEvent.getMetricType());
 		loggerEvent.debug("Receive trigger " + triggerEvent.toString() + "with handler " + this.toString() + " for appId = " + appId 	+ ", triggerId = " + triggerId + ", metricType = " + triggerEvent.getMetricType());
 		int currentInstanceCount = this.getCurrentInstanceCount(appId);
 	 	try {
-	 			long approximateCooldownSetting = 0;
-				policy = getPolicy(triggerEvent.getAppId());
-				policyTrigger = getAutoScalerPolicyTrigger(policy, triggerEvent);
-				if (policyTrigger == null) {
-					logger.warn("PolicyTrigger is null.");
+			policy = getPolicy(triggerEvent.getAppId());
+			AppAutoScaleState appState = CooldownTracker.getInstance().get(appId);
+			int newCount = decideInstanceCount(policy, triggerEvent, currentInstanceCount, appState, System.currentTimeMillis());
+			if (newCount < 0)
+				return;
+			if (newCount < currentInstanceCount) {
+				//instances added ahead of a schedule are kept until it starts
+				newCount = ScheduleLeadTimeTuner.getInstance().applyFloor(appId, newCount);
+				if (newCount >= currentInstanceCount) {
+					logger.debug("Abort trigger " + triggerEvent.toString() + " as the instances of an upcoming schedule are kept. " + appId);
 					return;
 				}
-
-				approximateCooldownSetting = 1000L * ((policyTrigger.getStepDownCoolDownSecs() < policyTrigger.getStepUpCoolDownSecs() ) ?
-						policyTrigger.getStepDownCoolDownSecs() : policyTrigger.getStepUpCoolDownSecs());
-				
-
-			if(! validateCooldownSetting(appId,policyTrigger,triggerId)) {
-				logger.debug("Abort trigger " + triggerEvent.toString() + " for event " + triggerEvent.getMetricType() + "/" + triggerId + " as a scaling action is ongoing or cooldown time " + appId);
-				return;
-			}
-			
-			int newCount = 0;
-			if (validateInstanceCounts(appId,policy,triggerId,currentInstanceCount)){
-				newCount = calculateNewCount(policy,policyTrigger,triggerId,currentInstanceCount);
-				logger.info("Handle monitor trigger" + this.toString() + " : appId = " + appId 	+ ", triggerId = " + triggerId + ", metricValue = " + triggerEvent.getMetricValue());
-				logger.info("Scale: Target instance count for app " + appId + " is " + newCount);
-				this.scale(appId, currentInstanceCount, newCount, null, policy.getTimezone(), null,null);
-			} else {
-				logger.debug("Abort trigger " + triggerEvent.toString() + " for event " + triggerEvent.getMetricType() + "/" + triggerId + " as it reachs the max/min instance count. " + appId);
-				return; 
 			}
+			logger.info("Scale: Target instance count for app " + appId + " is " + newCount);
+			this.scale(appId, currentInstanceCount, newCount, null, policy.getTimezone(), null,null, triggerEvent.getTrace(), policy);
 			
 		}catch (PolicyNotFoundException e) {
 			logger.error("The policy for app " + appId + " .can not be found.", e);
@@ -92,18 +83,116 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		}
 
 
+	}
+	/**
+	 * Decides the new instance count of an app for a trigger event, from the
+	 * cooldown, the instance count limits and the trigger of the policy. The
+	 * replay of recorded metrics decides with this as well.
+	 * 
+	 * @param policy
+	 * @param triggerEvent
+	 * @param currentInstanceCount
+	 * @param appState the scaling state of the app, or null before its first scaling
+	 * @param now
+	 * @return the new instance count, or -1 if the app is not scaled
+	 * @throws PolicyNotFoundException if the policy has no trigger for the metric of the event
+	 */
+	public static int decideInstanceCount(AutoScalerPolicy policy, MonitorTriggerEvent triggerEvent, int currentInstanceCount, AppAutoScaleState appState, long now) throws PolicyNotFoundException {
+		String appId = triggerEvent.getAppId();
+		String triggerId = triggerEvent.getTriggerId();
+		AutoScalerPolicyTrigger policyTrigger = getAutoScalerPolicyTrigger(policy, triggerEvent);
+		if (policyTrigger == null) {
+			logger.warn("PolicyTrigger is null.");
+			return -1;
+		}
+
+		/** a target event scales out or in, and is checked like an upper or lower one **/
+		if (AutoScalerPolicyTrigger.TriggerId_Target.equals(triggerId)) {
+			triggerId = triggerEvent.isScaleOut() ? AutoScalerPolicyTrigger.TriggerId_UpperThreshold
+					: AutoScalerPolicyTrigger.TriggerId_LowerThreshold;
+		}
+
+		if(! validateCooldownSetting(appId,appState,policyTrigger,triggerId,now)) {
+			logger.debug("Abort trigger " + triggerEvent.toString() + " for event " + triggerEvent.getMetricType() + "/" + triggerId + " as a scaling action is ongoing or cooldown time " + appId);
+			return -1;
+		}
+
+		if (!validateInstanceCounts(appId,policy,triggerId,currentInstanceCount)) {
+			logger.debug("Abort trigger " + triggerEvent.toString() + " for event " + triggerEvent.getMetricType() + "/" + triggerId + " as it reachs the max/min instance count. " + appId);
+			return -1;
+		}
+
+		int newCount = 0;
+		if (policyTrigger.isTargetTracking()) {
+			newCount = calculateTargetCount(policy, policyTrigger, triggerEvent, currentInstanceCount);
+			if (newCount == currentInstanceCount) {
+				logger.debug("Abort trigger " + triggerEvent.toString() + " for event " + triggerEvent.getMetricType() + "/" + triggerId + " as the instance count already meets the target. " + appId);
+				return -1;
+			}
+		} else
+			newCount = calculateNewCount(policy,policyTrigger,triggerId,currentInstanceCount);
+		logger.info("Handle monitor trigger : appId = " + appId 	+ ", triggerId = " + triggerId + ", metricValue = " + triggerEvent.getMetricValue());
+		return newCount;
 	}
 	@Override
-	public void doScaleBySchedule(String appId,AutoScalerPolicy policy) throws Exception{
-		Long startTime = this.getStartTime(policy);
-		Integer dayOfWeek = this.getDayOfWeek(policy);
+	public void doScaleBySchedule(final String appId,final AutoScalerPolicy policy) throws Exception{
+		final Long startTime = this.getStartTime(policy);
+		final Integer dayOfWeek = this.getDayOfWeek(policy);
 		int currentInstanceCount = this.getCurrentInstanceCount(appId);
-		if(this.validateInstanceCounts(appId, policy, null,currentInstanceCount)){
-			
-			int newCount = this.calculateNewCount(policy, null, null, currentInstanceCount);
-			this.scale(appId, currentInstanceCount, newCount, policy.getCurrentScheduleType(), policy.getTimezone(), startTime, dayOfWeek);
+		Integer newCount = getScheduledCount(appId, policy, currentInstanceCount);
+		if(newCount != null){
+			final ScalingTrace trace = new ScalingTrace();
+			trace.setEnqueuedTime(System.currentTimeMillis());
+			//schedule changes come in bursts, the dispatcher paces their Cloud Controller calls
+			ScalingDispatcher.getInstance().submit(appId, policy.getOrgId(), currentInstanceCount, newCount, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					trace.setHandledTime(System.currentTimeMillis());
+					//the instance count may have changed while the action was queued, e.g. by a trigger
+					int currentInstanceCount = getCurrentInstanceCount(appId);
+					Integer newCount = getScheduledCount(appId, policy, currentInstanceCount);
+					if (newCount == null)
+						return null;
+					scale(appId, currentInstanceCount, newCount, policy.getCurrentScheduleType(), policy.getTimezone(), startTime, dayOfWeek, trace, policy);
+					return null;
+				}
+			});
+		}
+	}
+	@Override
+	public void doScaleByPolicy(String appId, AutoScalerPolicy policy) throws Exception{
+		//a queued schedule action of the app applies the limits of the replaced policy
+		ScalingDispatcher.getInstance().remove(appId);
+		int currentInstanceCount = this.getCurrentInstanceCount(appId);
+		if(validateInstanceCounts(appId, policy, null,currentInstanceCount)){
+			int newCount = calculateNewCount(policy, null, null, currentInstanceCount);
+			ScalingTrace trace = new ScalingTrace();
+			trace.setEnqueuedTime(System.currentTimeMillis());
+			trace.setHandledTime(trace.getEnqueuedTime());
+			scale(appId, currentInstanceCount, newCount, policy.getCurrentScheduleType(), policy.getTimezone(), this.getStartTime(policy), this.getDayOfWeek(policy), trace, policy);
 		}
 	}
+	@Override
+	public void doPrewarmBySchedule(final String appId, final AutoScalerPolicy policy, final ScheduledPolicy scheduledPolicy, long scheduleStartTime) throws Exception{
+		final int minCount = Math.min(scheduledPolicy.getInstanceMinCount(), scheduledPolicy.getInstanceMaxCount());
+		ScheduleLeadTimeTuner.getInstance().setFloor(appId, minCount, scheduleStartTime);
+		int currentInstanceCount = this.getCurrentInstanceCount(appId);
+		if (currentInstanceCount >= minCount)
+			return;
+		logger.info("Scale: Pre-warm application " + appId + " to " + minCount + " instances for the schedule starting at " + new Date(scheduleStartTime));
+		final ScalingTrace trace = new ScalingTrace();
+		trace.setEnqueuedTime(System.currentTimeMillis());
+		ScalingDispatcher.getInstance().submit(appId, policy.getOrgId(), currentInstanceCount, minCount, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				trace.setHandledTime(System.currentTimeMillis());
+				int currentInstanceCount = getCurrentInstanceCount(appId);
+				if (currentInstanceCount < minCount)
+					scale(appId, currentInstanceCount, minCount, scheduledPolicy.getType(), policy.getTimezone(), null, null, trace, policy);
+				return null;
+			}
+		});
+	}
 	private Integer getDayOfWeek(AutoScalerPolicy policy){
 		Integer dayOfWeek = null;
 		String scheduleType = policy.getCurrentScheduleType();
@@ -167,8 +256,8 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		}
 		return startTime;
 	}
-	private AutoScalerPolicyTrigger getAutoScalerPolicyTrigger(AutoScalerPolicy policy, MonitorTriggerEvent event)
-			throws AppNotFoundException, PolicyNotFoundException {
+	private static AutoScalerPolicyTrigger getAutoScalerPolicyTrigger(AutoScalerPolicy policy, MonitorTriggerEvent event)
+			throws PolicyNotFoundException {
 		List<AutoScalerPolicyTrigger> triggers = policy.getPolicyTriggers();
 		if (triggers == null)
 			throw new PolicyNotFoundException("No policy for metric: "
@@ -183,7 +272,18 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		throw new PolicyNotFoundException("No policy for metric: "
 				+ event.getMetricType());
 	}
-	private int calculateNewCount(AutoScalerPolicy policy, AutoScalerPolicyTrigger policyTrigger,String triggerId,int currentInstanceCount) {
+	/**
+	 * @param appId
+	 * @param policy
+	 * @param currentInstanceCount
+	 * @return the instance count within the current limits of the policy, or null if the app is already within them
+	 */
+	static Integer getScheduledCount(String appId, AutoScalerPolicy policy, int currentInstanceCount) {
+		if (!validateInstanceCounts(appId, policy, null, currentInstanceCount))
+			return null;
+		return calculateNewCount(policy, null, null, currentInstanceCount);
+	}
+	private static int calculateNewCount(AutoScalerPolicy policy, AutoScalerPolicyTrigger policyTrigger,String triggerId,int currentInstanceCount) {
 		int newCount = 0;
 		if(null != policyTrigger){
 			int instanceStep = policyTrigger.getInstanceStepCountUp();
@@ -214,6 +314,49 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		}
 		return newCount;
 	}
+	private static int calculateTargetCount(AutoScalerPolicy policy, AutoScalerPolicyTrigger policyTrigger, MonitorTriggerEvent triggerEvent, int currentInstanceCount) {
+		double targetValue = triggerEvent.getTargetValue();
+		if (targetValue <= 0)
+			targetValue = policyTrigger.getTargetValue();
+		int newCount = calculateTargetCount(currentInstanceCount, triggerEvent.getMetricValue(), targetValue,
+				policyTrigger.getInstanceStepCountDown(), targetDampening);
+		if (newCount < policy.getCurrentInstanceMinCount()) {
+			newCount = policy.getCurrentInstanceMinCount();
+		} else if (newCount > policy.getCurrentInstanceMaxCount()) {
+			newCount = policy.getCurrentInstanceMaxCount();
+		}
+		return newCount;
+	}
+	/**
+	 * Calculates the instance count of a target tracking trigger. The required
+	 * count is proportional to the current one, and rounded up, so scaling in
+	 * never takes the average above the target. Each action moves the given
+	 * share of the way to the required count, at least one instance, and
+	 * scales in by at most the step down of the policy.
+	 * 
+	 * @param currentInstanceCount
+	 * @param metricValue the average of the metric
+	 * @param targetValue the target of the average
+	 * @param instanceStepCountDown the step down of the policy, may be negative
+	 * @param dampening the share of the way to the required count, (0, 1]
+	 * @return the new instance count
+	 */
+	static int calculateTargetCount(int currentInstanceCount, double metricValue, double targetValue, int instanceStepCountDown, double dampening) {
+		if (currentInstanceCount <= 0 || targetValue <= 0)
+			return currentInstanceCount;
+		/** ignore rounding errors when the average is right at the target **/
+		int requiredCount = (int) Math.ceil(currentInstanceCount * metricValue / targetValue - 1e-9);
+		int difference = requiredCount - currentInstanceCount;
+		if (difference == 0)
+			return currentInstanceCount;
+		int step = (int) Math.ceil(Math.abs(difference) * dampening - 1e-9);
+		if (step < 1)
+			step = 1;
+		if (difference > 0)
+			return currentInstanceCount + step;
+		int maxStepDown = Math.max(1, Math.abs(instanceStepCountDown));
+		return currentInstanceCount - Math.min(step, maxStepDown);
+	}
 	/*****************************************************************************************************************
 	 * 
 	 * @throws PolicyNotFoundException
@@ -234,7 +377,7 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		}
 		return policy;
 	}
-	private long getCooldownSecs(AutoScalerPolicyTrigger policyTrigger,String triggerId) {
+	private static long getCooldownSecs(AutoScalerPolicyTrigger policyTrigger,String triggerId) {
 		if (AutoScalerPolicyTrigger.TriggerId_LowerThreshold.equals(triggerId)) {
 			return policyTrigger.getStepDownCoolDownSecs();
 		} else
@@ -245,10 +388,7 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 	 * 
 	 * @return true if should scale in/out
 	 */
-	private boolean validateCooldownSetting(String appId,AutoScalerPolicyTrigger policyTrigger,String triggerId) {
-		AutoScalingDataStore stateStore = AutoScalingDataStoreFactory.getAutoScalingDataStore();
-		AppAutoScaleState appState = null;
-		appState = stateStore.getScalingState(appId);
+	private static boolean validateCooldownSetting(String appId,AppAutoScaleState appState,AutoScalerPolicyTrigger policyTrigger,String triggerId,long now) {
         
 		if (appState == null) {
 			// if this is the first trigger for this app we don't
@@ -257,8 +397,7 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		} else if ( (appState.getInstanceCountState() != ScalingStateManager.SCALING_STATE_COMPLETED)
 				&& (appState.getInstanceCountState() != ScalingStateManager.SCALING_STATE_FAILED)){
 			long lastStartTime = appState.getLastActionStartTime();
-	        long currentTime = System.currentTimeMillis();
-	        boolean timeExpired = (currentTime - lastStartTime) > this.eventTimeout;
+	        boolean timeExpired = (now - lastStartTime) > lastActionTimeout;
 	        if(timeExpired){
 	        	logger.debug("True: Last scaling action is not completed but it's time expired for application " + appId + ".");
 	        	return true;
@@ -268,7 +407,7 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		} else { 
 			/** Check cool down time **/
 			long cooldownEndtime = appState.getLastActionEndTime() + 1000L * getCooldownSecs(policyTrigger,triggerId);
-			if (System.currentTimeMillis() < cooldownEndtime) {// in cooldown time
+			if (now < cooldownEndtime) {// in cooldown time
 				logger.debug("False: It's cooldown time for application " + appId
 					+ ". No scaling in action.");
 				return false;
@@ -280,10 +419,9 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 	 * Checks if min instance count < app currnent instance count < max instance count
 	 * 
 	 * @return true if valid to scale in/out
-	 * @throws Exception 
 	 */
 
-	private boolean validateInstanceCounts(String appId,AutoScalerPolicy policy,String triggerId, Integer currentInstanceCount) throws Exception{
+	private static boolean validateInstanceCounts(String appId,AutoScalerPolicy policy,String triggerId, Integer currentInstanceCount) {
 		int minCount = policy.getCurrentInstanceMinCount();
 		int maxCount = policy.getCurrentInstanceMaxCount();
 		if(null == triggerId){
@@ -316,7 +454,30 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		return true;
 		
 	}
+	/**
+	 * @param appId
+	 * @return the memory of an instance of the app in MB, or 0 if unknown
+	 */
+	private int getInstanceMemory(String appId) {
+		QuotaBackoffCache quotaCache = QuotaBackoffCache.getInstance();
+		Integer memory = quotaCache.getInstanceMemory(appId);
+		if (memory == null) {
+			try {
+				memory = Integer.parseInt(CloudFoundryManager.getInstance().getAppInfoByAppId(appId)[2]);
+				quotaCache.setInstanceMemory(appId, memory);
+			} catch (Exception e) {
+				logger.warn("Failed to get the memory of application " + appId + ". " + e.getMessage());
+				return 0;
+			}
+		}
+		return memory;
+	}
+
 	private int getCurrentInstanceCount(String appId) throws Exception{
+		/** Cloud Controller is only asked when the local count is stale **/
+		Integer trackedInstances = InstanceCountTracker.getInstance().getInstanceCount(appId);
+		if (trackedInstances != null)
+			return trackedInstances;
 		int currentInstances = 0;
 		try {
 			currentInstances =  CloudFoundryManager.getInstance().getAppInstancesByAppId(appId);
@@ -329,7 +490,20 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 		} 
 		return currentInstances;
 	}
-	private void scale(String appId,Integer currentInstanceCount,Integer newCount,String scheduleType,String timeZone,Long startTime,Integer dayOfWeek) throws Exception{
+	private void scale(String appId,Integer currentInstanceCount,Integer newCount,String scheduleType,String timeZone,Long startTime,Integer dayOfWeek,ScalingTrace trace,AutoScalerPolicy policy) throws Exception{
+		QuotaBackoffCache quotaCache = QuotaBackoffCache.getInstance();
+		boolean quotaBound = quotaCache.isActive(policy.getOrgId(), policy.getSpaceId());
+		if (quotaBound && newCount > currentInstanceCount) {
+			//the org or space ran out of memory recently, do not ask for more than fits
+			int allowedCount = quotaCache.clamp(policy.getOrgId(), policy.getSpaceId(), currentInstanceCount, newCount, getInstanceMemory(appId));
+			if (allowedCount <= currentInstanceCount) {
+				logger.info("Scale: Suppressed scaling application " + appId + " to " + newCount + " instances, the memory quota of its org or space is exceeded.");
+				return;
+			}
+			if (allowedCount < newCount)
+				logger.info("Scale: Clamped scaling application " + appId + " to " + allowedCount + " instances instead of " + newCount + " by the memory quota of its org or space.");
+			newCount = allowedCount;
+		}
 		ScalingStateManager stateManager = ScalingStateManager.getInstance();
 		CloudApplicationManager manager = CloudApplicationManager.getInstance();
 		String actionUUID = UUID.randomUUID().toString();
@@ -338,11 +512,21 @@ public class ApplicationScaleManagerImpl implements ApplicationScaleManager{
 				TriggerEventHandler.TRIGGER_TYPE_POLICY_CHANGED, actionUUID, scheduleType,timeZone, startTime, dayOfWeek)) {
 			try {
 				//start scaling until update appState successfully
+				if (trace != null)
+					trace.setScaleRequestTime(System.currentTimeMillis());
 				manager.scaleApplication(appId, newCount);
+				if (trace != null)
+					trace.setScaleAcceptedTime(System.currentTimeMillis());
+				if (quotaBound)
+					quotaCache.recordSuccess(policy.getOrgId(), policy.getSpaceId(), currentInstanceCount, newCount, getInstanceMemory(appId));
 				ScalingStateMonitorTask task = new ScalingStateMonitorTask(appId, newCount, actionUUID);
+				task.setInitialInstanceCount(currentInstanceCount);
+				task.setTrace(trace);
 				ScalingStateMonitor.getInstance().monitor(task);
 			} catch (CloudException e2) {
 				String errorCode = e2.getErrorCode();
+				if (Constants.MemoryQuotaExceeded.equals(errorCode) || Constants.SpaceMemoryQuotaExceeded.equals(errorCode))
+					quotaCache.recordFailure(policy.getOrgId(), policy.getSpaceId(), errorCode, currentInstanceCount, newCount, getInstanceMemory(appId));
 				if (Constants.MemoryQuotaExceeded.equals(errorCode)){
 					logger.error("Failed to scale application " + appId + ". You have exceeded your organization's memory limit.");
 				}else{
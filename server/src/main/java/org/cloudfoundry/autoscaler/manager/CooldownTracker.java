@@ -0,0 +1,104 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
+
+/**
+ * The last scaling action of each app, for the cooldown check of trigger
+ * events.
+ *
+ * ScalingStateManager updates the tracker each time it stores a scaling
+ * state, so trigger events check the cooldown in memory instead of reading
+ * the state from the store. The state of an app is read from the store once,
+ * on startup or on the first event after a restart.
+ */
+public class CooldownTracker {
+	private static final CooldownTracker instance = new CooldownTracker(null);
+
+	/** marks an app that has never been scaled **/
+	private static final AppAutoScaleState NO_STATE = new AppAutoScaleState();
+
+	private final ConcurrentMap<String, AppAutoScaleState> states = new ConcurrentHashMap<String, AppAutoScaleState>();
+	private AutoScalingDataStore dataStore;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong loads = new AtomicLong(0);
+	private final AtomicLong updates = new AtomicLong(0);
+
+	CooldownTracker(AutoScalingDataStore dataStore) {
+		this.dataStore = dataStore;
+	}
+
+	public static CooldownTracker getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param appId
+	 * @return the scaling state of the app, or null before its first scaling
+	 */
+	public AppAutoScaleState get(String appId) {
+		AppAutoScaleState state = states.get(appId);
+		if (state != null) {
+			hits.incrementAndGet();
+		} else {
+			loads.incrementAndGet();
+			if (dataStore == null)
+				dataStore = AutoScalingDataStoreFactory.getAutoScalingDataStore();
+			AppAutoScaleState stored = dataStore.getScalingState(appId);
+			state = stored == null ? NO_STATE : snapshot(stored);
+			// a state stored meanwhile is newer than the one read
+			AppAutoScaleState previous = states.putIfAbsent(appId, state);
+			if (previous != null)
+				state = previous;
+		}
+		return state == NO_STATE ? null : state;
+	}
+
+	/**
+	 * Records a scaling state as stored
+	 * @param appState
+	 */
+	public void update(AppAutoScaleState appState) {
+		if (appState == null || appState.getAppId() == null)
+			return;
+		updates.incrementAndGet();
+		states.put(appState.getAppId(), snapshot(appState));
+	}
+
+	public void remove(String appId) {
+		states.remove(appId);
+	}
+
+	/**
+	 * The state is copied, the tracker never sees later changes of a stored
+	 * document before they are stored
+	 */
+	private static AppAutoScaleState snapshot(AppAutoScaleState appState) {
+		AppAutoScaleState state = new AppAutoScaleState(appState.getAppId(), appState.getInstanceCountState());
+		state.setLastActionTriggerId(appState.getLastActionTriggerId());
+		state.setLastActionInstanceTarget(appState.getLastActionInstanceTarget());
+		state.setLastActionStartTime(appState.getLastActionStartTime());
+		state.setLastActionEndTime(appState.getLastActionEndTime());
+		state.setErrorCode(appState.getErrorCode());
+		state.setHistoryId(appState.getHistoryId());
+		return state;
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("apps", states.size());
+		stats.put("hits", hits.get());
+		stats.put("loads", loads.get());
+		stats.put("updates", updates.get());
+		return stats;
+	}
+
+}
@@ -1,21 +1,34 @@
 package org.cloudfoundry.autoscaler.manager;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
 import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
 import org.cloudfoundry.autoscaler.exceptions.DataStoreException;
 import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
+import org.cloudfoundry.autoscaler.schedule.ScalingScheduledServiceFactory;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.cloudfoundry.autoscaler.util.LocalCache;
 
 public class PolicyManagerImpl implements PolicyManager{
+	private static final Logger logger = Logger.getLogger(PolicyManagerImpl.class.getName());
 	
 	private static PolicyManagerImpl instance= new PolicyManagerImpl();
 	
-	private ConcurrentHashMap<String, AutoScalerPolicy> policyCache = new ConcurrentHashMap<String, AutoScalerPolicy>();
+	private final LocalCache<String, AutoScalerPolicy> policyCache = new LocalCache<String, AutoScalerPolicy>("policy",
+			ConfigManager.getInt("policyCacheSize", 10000), ConfigManager.getLong("policyCacheTTLSec", 3600) * 1000,
+			ConfigManager.getLong("localCacheRefreshAheadSec", 300) * 1000, new LocalCache.Loader<String, AutoScalerPolicy>() {
+				@Override
+				public AutoScalerPolicy load(String policyId) throws Exception {
+					return AutoScalingDataStoreFactory.getAutoScalingDataStore().getPolicyById(policyId);
+				}
+			});
 	List<AutoScalerPolicy> monitoredCache = new CopyOnWriteArrayList<AutoScalerPolicy>();
 	
 	public static PolicyManagerImpl getInstance(){
@@ -27,15 +40,17 @@ public class PolicyManagerImpl implements PolicyManager{
 	
 	@Override
 	public AutoScalerPolicy getPolicyById(String policyId)  throws PolicyNotFoundException, DataStoreException{
-		AutoScalerPolicy policy = null;
-		if (policyCache.containsKey(policyId)){
-			policy= policyCache.get(policyId); 
-		} else {
-			AutoScalingDataStore dataStore = AutoScalingDataStoreFactory.getAutoScalingDataStore();
-			policy = dataStore.getPolicyById(policyId);
-			policyCache.put(policyId, policy);
+		try {
+			return policyCache.get(policyId);
+		} catch (PolicyNotFoundException e) {
+			throw e;
+		} catch (DataStoreException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new DataStoreException(e);
 		}
-		return policy;
 	}
 
 	@Override
@@ -46,6 +61,7 @@ public class PolicyManagerImpl implements PolicyManager{
 		if (policy.getScheduledPolicies() != null
 				&& !policy.getScheduledPolicies().isEmpty()) {
 			monitoredCache.add(policy);
+			registerSchedule(policy);
 		}
 		return newCreatedId;
 	}
@@ -60,6 +76,7 @@ public class PolicyManagerImpl implements PolicyManager{
 		if (policy.getScheduledPolicies() != null
 				&& !policy.getScheduledPolicies().isEmpty()) {
 			monitoredCache.add(policy);
+			registerSchedule(policy);
 		}
 	}
 
@@ -85,6 +102,8 @@ public class PolicyManagerImpl implements PolicyManager{
 				}
 			}
 			monitoredCache.addAll(filteredScalingPolicies);
+			for (AutoScalerPolicy policy : filteredScalingPolicies)
+				registerSchedule(policy);
 		}
     }
 
@@ -98,6 +117,15 @@ public class PolicyManagerImpl implements PolicyManager{
 		if (toRemoved != null) {
 			monitoredCache.remove(toRemoved);
 		}
+		ScalingScheduledServiceFactory.getScheduledService().removeSchedule(policyId);
+	}
+
+	private void registerSchedule(AutoScalerPolicy policy) {
+		try {
+			ScalingScheduledServiceFactory.getScheduledService().registerSchedule(policy);
+		} catch (ParseException e) {
+			logger.error("Failed to parse the schedules of policy " + policy.getPolicyId(), e);
+		}
 	}
 	
 	@Override
@@ -110,4 +138,8 @@ public class PolicyManagerImpl implements PolicyManager{
 	public void invalidateCache() {
 		policyCache.clear();
 	}
+
+	public Map<String, Object> getCacheStats() {
+		return policyCache.getStats();
+	}
 }
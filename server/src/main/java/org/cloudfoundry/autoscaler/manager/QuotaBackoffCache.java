@@ -0,0 +1,207 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.autoscaler.constant.Constants;
+import org.cloudfoundry.autoscaler.util.Clock;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+
+/**
+ * Memory quota failures of scale-outs, per org and space.
+ *
+ * When Cloud Controller rejects a scale-out for the memory quota of the org
+ * or space, the memory the scale-out asked for is an upper bound of the
+ * headroom left. Later scale-outs in the org or space are clamped to that
+ * headroom, or suppressed if not even one instance fits, instead of sending
+ * doomed requests every cycle. Scaling actions that succeed meanwhile move
+ * the headroom. A failure is forgotten quotaBackoffTTLSec after it was seen,
+ * so a raised quota is used again.
+ */
+public class QuotaBackoffCache {
+	private static final QuotaBackoffCache instance = new QuotaBackoffCache(
+			ConfigManager.getLong("quotaBackoffTTLSec", 300) * 1000, Clock.SYSTEM);
+
+	private static class Entry {
+		private final String reason;
+		private final long failureTime;
+		private final long expireTime;
+		private volatile long headroomMB; // the most memory a scale-out may still get
+
+		Entry(String reason, long headroomMB, long failureTime, long expireTime) {
+			this.reason = reason;
+			this.headroomMB = headroomMB;
+			this.failureTime = failureTime;
+			this.expireTime = expireTime;
+		}
+	}
+
+	private final long ttl;
+	private final Clock clock;
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<String, Integer> instanceMemory = new ConcurrentHashMap<String, Integer>();
+
+	private final AtomicLong failures = new AtomicLong(0);
+	private final AtomicLong suppressed = new AtomicLong(0);
+	private final AtomicLong clamped = new AtomicLong(0);
+	private final AtomicLong expired = new AtomicLong(0);
+
+	QuotaBackoffCache(long ttl, Clock clock) {
+		this.ttl = ttl;
+		this.clock = clock;
+	}
+
+	public static QuotaBackoffCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param errorCode the error code of Cloud Controller
+	 * @param orgId
+	 * @param spaceId
+	 * @return the key of the quota the error is about, or null if it is not a memory quota error
+	 */
+	private static String quotaKey(String errorCode, String orgId, String spaceId) {
+		if (Constants.MemoryQuotaExceeded.equals(errorCode))
+			return orgId == null ? null : "org:" + orgId;
+		if (Constants.SpaceMemoryQuotaExceeded.equals(errorCode))
+			return spaceId == null ? null : "space:" + spaceId;
+		return null;
+	}
+
+	private Entry getEntry(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expireTime <= clock.currentTimeMillis()) {
+			if (entries.remove(key, entry))
+				expired.incrementAndGet();
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * @param orgId
+	 * @param spaceId
+	 * @return true if a quota failure is known for the org or space
+	 */
+	public boolean isActive(String orgId, String spaceId) {
+		if (entries.isEmpty())
+			return false;
+		return getEntry("org:" + orgId) != null || getEntry("space:" + spaceId) != null;
+	}
+
+	/**
+	 * Records a failed scaling action
+	 * @param orgId
+	 * @param spaceId
+	 * @param errorCode the error code of Cloud Controller, ignored unless it is a memory quota error
+	 * @param currentCount
+	 * @param newCount
+	 * @param memoryMB the memory of an instance of the app
+	 * @return true if it was a memory quota failure
+	 */
+	public boolean recordFailure(String orgId, String spaceId, String errorCode, int currentCount, int newCount,
+			int memoryMB) {
+		String key = quotaKey(errorCode, orgId, spaceId);
+		if (key == null || newCount <= currentCount || memoryMB <= 0)
+			return false;
+		failures.incrementAndGet();
+		long now = clock.currentTimeMillis();
+		long headroom = (long) (newCount - currentCount) * memoryMB - 1;
+		synchronized (this) {
+			Entry previous = getEntry(key);
+			if (previous != null)
+				headroom = Math.min(headroom, previous.headroomMB);
+			entries.put(key, new Entry(errorCode, headroom, now, now + ttl));
+		}
+		return true;
+	}
+
+	/**
+	 * Records a scaling action accepted by Cloud Controller, it uses or frees
+	 * the headroom of its org and space
+	 * @param orgId
+	 * @param spaceId
+	 * @param currentCount
+	 * @param newCount
+	 * @param memoryMB the memory of an instance of the app
+	 */
+	public synchronized void recordSuccess(String orgId, String spaceId, int currentCount, int newCount, int memoryMB) {
+		long used = (long) (newCount - currentCount) * memoryMB;
+		for (String key : new String[] { "org:" + orgId, "space:" + spaceId }) {
+			Entry entry = getEntry(key);
+			if (entry != null)
+				entry.headroomMB -= used;
+		}
+	}
+
+	/**
+	 * Clamps a scale-out to the headroom left in the org and space
+	 * @param orgId
+	 * @param spaceId
+	 * @param currentCount
+	 * @param newCount
+	 * @param memoryMB the memory of an instance of the app
+	 * @return the instance count the scale-out can reach, currentCount if it has to be suppressed
+	 */
+	public synchronized int clamp(String orgId, String spaceId, int currentCount, int newCount, int memoryMB) {
+		if (newCount <= currentCount || memoryMB <= 0)
+			return newCount;
+		int allowed = newCount;
+		for (String key : new String[] { "org:" + orgId, "space:" + spaceId }) {
+			Entry entry = getEntry(key);
+			if (entry != null)
+				allowed = (int) Math.min(allowed, currentCount + Math.max(0, entry.headroomMB) / memoryMB);
+		}
+		if (allowed <= currentCount) {
+			suppressed.incrementAndGet();
+			return currentCount;
+		}
+		if (allowed < newCount)
+			clamped.incrementAndGet();
+		return allowed;
+	}
+
+	/**
+	 * @param appId
+	 * @return the memory of an instance of the app as last seen, or null
+	 */
+	public Integer getInstanceMemory(String appId) {
+		return instanceMemory.get(appId);
+	}
+
+	public void setInstanceMemory(String appId, int memoryMB) {
+		instanceMemory.put(appId, memoryMB);
+	}
+
+	public void remove(String appId) {
+		instanceMemory.remove(appId);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> quotas = new HashMap<String, Object>();
+		long now = clock.currentTimeMillis();
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			Entry entry = e.getValue();
+			if (entry.expireTime <= now)
+				continue;
+			Map<String, Object> quota = new HashMap<String, Object>();
+			quota.put("reason", entry.reason);
+			quota.put("headroomMB", entry.headroomMB);
+			quota.put("failureTime", entry.failureTime);
+			quota.put("expiresInSec", (entry.expireTime - now) / 1000);
+			quotas.put(e.getKey(), quota);
+		}
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("quotas", quotas);
+		stats.put("failures", failures.get());
+		stats.put("suppressed", suppressed.get());
+		stats.put("clamped", clamped.get());
+		stats.put("expired", expired.get());
+		return stats;
+	}
+
+}
@@ -0,0 +1,310 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.util.Clock;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
+import org.cloudfoundry.autoscaler.util.TokenBucket;
+
+/**
+ * Dispatches the scaling actions of schedule changes to Cloud Controller.
+ *
+ * At a shared schedule boundary many policies change in the same scan. Their
+ * actions are queued and dispatched at most at scheduleScalingRatePerSec, and
+ * at most at scheduleScalingOrgRatePerSec for the apps of an org, so a burst
+ * drains at a predictable pace instead of tripping the Cloud Controller rate
+ * limits. Scale-outs go first, then the largest instance count changes. A
+ * newer action of an app replaces its queued one.
+ */
+public class ScalingDispatcher {
+	private static final Logger logger = Logger.getLogger(ScalingDispatcher.class);
+	private static final String UNKNOWN_ORG = "";
+	private static ScalingDispatcher instance;
+
+	private final double orgRatePerSec;
+	private final double orgBurst;
+	private final Clock clock;
+
+	/** guards the fields below **/
+	private final Object lock = new Object();
+	private final TokenBucket globalBucket;
+	private final Map<String, TokenBucket> orgBuckets = new HashMap<String, TokenBucket>();
+	private final Map<String, Request> queuedByApp = new HashMap<String, Request>();
+	private final TreeSet<Request> queue = new TreeSet<Request>(new Comparator<Request>() {
+		@Override
+		public int compare(Request r1, Request r2) {
+			if (r1.isScaleOut() != r2.isScaleOut())
+				return r1.isScaleOut() ? -1 : 1;
+			int delta1 = Math.abs(r1.delta);
+			int delta2 = Math.abs(r2.delta);
+			if (delta1 != delta2)
+				return delta1 > delta2 ? -1 : 1;
+			return r1.seq < r2.seq ? -1 : (r1.seq == r2.seq ? 0 : 1);
+		}
+	});
+	private boolean running = true;
+	private long seq;
+	/** set by poll when no request can be dispatched yet **/
+	private long waitMillis;
+
+	private final Thread dispatchThread;
+	private final ExecutorService workers;
+
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private final AtomicLong submitted = new AtomicLong(0);
+	private final AtomicLong replaced = new AtomicLong(0);
+	private final AtomicLong dispatched = new AtomicLong(0);
+	private final AtomicLong completed = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+	private final AtomicLong globalThrottled = new AtomicLong(0);
+	private final AtomicLong orgThrottled = new AtomicLong(0);
+	private final LatencyHistogram queueTime = new LatencyHistogram();
+
+	private class Request implements Runnable {
+		private final String appId;
+		private final String orgId;
+		private final int delta;
+		private final long seq;
+		private final long submitTime;
+		private final Callable<?> action;
+
+		Request(String appId, String orgId, int delta, long seq, long submitTime, Callable<?> action) {
+			this.appId = appId;
+			this.orgId = orgId;
+			this.delta = delta;
+			this.seq = seq;
+			this.submitTime = submitTime;
+			this.action = action;
+		}
+
+		boolean isScaleOut() {
+			return delta > 0;
+		}
+
+		@Override
+		public void run() {
+			try {
+				action.call();
+				completed.incrementAndGet();
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				logger.error("Failed to dispatch the scaling action of app " + appId, e);
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @param ratePerSec the actions dispatched per second
+	 * @param burst the actions dispatched at once after an idle time
+	 * @param orgRatePerSec the actions dispatched per second for the apps of an org
+	 * @param orgBurst the actions dispatched at once for the apps of an org
+	 * @param workerCount the threads running the actions
+	 * @param clock
+	 */
+	ScalingDispatcher(double ratePerSec, double burst, double orgRatePerSec, double orgBurst, int workerCount,
+			Clock clock) {
+		this.orgRatePerSec = orgRatePerSec;
+		this.orgBurst = orgBurst;
+		this.clock = clock;
+		this.globalBucket = new TokenBucket(ratePerSec, burst, clock);
+		this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount),
+				new NamedThreadFactory("ScheduleScalingWorker"));
+		this.dispatchThread = new NamedThreadFactory("ScheduleScalingDispatcher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLoop();
+			}
+		});
+		this.dispatchThread.setDaemon(true);
+		this.dispatchThread.start();
+	}
+
+	public static synchronized ScalingDispatcher getInstance() {
+		if (instance == null)
+			instance = new ScalingDispatcher(ConfigManager.getDouble("scheduleScalingRatePerSec", 10),
+					ConfigManager.getDouble("scheduleScalingBurst", 20),
+					ConfigManager.getDouble("scheduleScalingOrgRatePerSec", 2),
+					ConfigManager.getDouble("scheduleScalingOrgBurst", 5),
+					ConfigManager.getInt("scheduleScalingWorkers", 4), Clock.SYSTEM);
+		return instance;
+	}
+
+	/**
+	 * Queues the scaling action of an app, replacing its queued one
+	 * @param appId
+	 * @param orgId the org of the app, or null if unknown
+	 * @param currentCount the instance count of the app
+	 * @param newCount the instance count the action scales to
+	 * @param action calls Cloud Controller
+	 */
+	public void submit(String appId, String orgId, int currentCount, int newCount, Callable<?> action) {
+		synchronized (lock) {
+			if (!running)
+				throw new IllegalStateException("The scaling dispatcher is shut down");
+			Request request = new Request(appId, orgId == null ? UNKNOWN_ORG : orgId, newCount - currentCount, seq++,
+					clock.currentTimeMillis(), action);
+			Request previous = queuedByApp.put(appId, request);
+			if (previous != null) {
+				queue.remove(previous);
+				replaced.incrementAndGet();
+			}
+			queue.add(request);
+			submitted.incrementAndGet();
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Drops the queued action of an app, e.g. when the app is unbound
+	 * @param appId
+	 */
+	public void remove(String appId) {
+		synchronized (lock) {
+			Request request = queuedByApp.remove(appId);
+			if (request != null)
+				queue.remove(request);
+		}
+	}
+
+	private void dispatchLoop() {
+		while (true) {
+			Request request = null;
+			synchronized (lock) {
+				try {
+					while (running && (request = poll()) == null) {
+						if (queue.isEmpty())
+							lock.wait();
+						else
+							lock.wait(Math.max(1, waitMillis));
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (!running)
+					return;
+			}
+			queueTime.recordMillis(clock.currentTimeMillis() - request.submitTime);
+			dispatched.incrementAndGet();
+			inFlight.incrementAndGet();
+			try {
+				workers.execute(request);
+			} catch (RejectedExecutionException e) {
+				inFlight.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes the first queued request whose org has a token, if the global
+	 * bucket has one. Called with the lock held.
+	 * @return the request, or null with waitMillis set to the time to wait
+	 */
+	private Request poll() {
+		if (queue.isEmpty()) {
+			evictFullOrgBuckets();
+			return null;
+		}
+		long globalWait = globalBucket.getWaitMillis();
+		if (globalWait > 0) {
+			globalThrottled.incrementAndGet();
+			waitMillis = globalWait;
+			return null;
+		}
+		long orgWait = Long.MAX_VALUE;
+		Iterator<Request> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			Request request = iterator.next();
+			TokenBucket orgBucket = getOrgBucket(request.orgId);
+			long wait = orgBucket.getWaitMillis();
+			if (wait > 0) {
+				orgWait = Math.min(orgWait, wait);
+				continue;
+			}
+			orgBucket.tryTake();
+			globalBucket.tryTake();
+			iterator.remove();
+			queuedByApp.remove(request.appId);
+			return request;
+		}
+		orgThrottled.incrementAndGet();
+		waitMillis = orgWait;
+		return null;
+	}
+
+	private TokenBucket getOrgBucket(String orgId) {
+		TokenBucket bucket = orgBuckets.get(orgId);
+		if (bucket == null) {
+			bucket = new TokenBucket(orgRatePerSec, orgBurst, clock);
+			orgBuckets.put(orgId, bucket);
+		}
+		return bucket;
+	}
+
+	private void evictFullOrgBuckets() {
+		Iterator<TokenBucket> iterator = orgBuckets.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isFull())
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * Stops dispatching, queued actions are dropped
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			running = false;
+			if (!queue.isEmpty())
+				logger.warn("Dropped " + queue.size() + " queued scaling actions of schedule changes.");
+			queue.clear();
+			queuedByApp.clear();
+			lock.notifyAll();
+		}
+		workers.shutdown();
+		try {
+			workers.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		synchronized (lock) {
+			stats.put("queued", queue.size());
+			stats.put("orgs", orgBuckets.size());
+			long oldest = 0;
+			for (Request request : queue)
+				oldest = Math.max(oldest, clock.currentTimeMillis() - request.submitTime);
+			stats.put("oldestQueuedMillis", oldest);
+		}
+		stats.put("inFlight", inFlight.get());
+		stats.put("submitted", submitted.get());
+		stats.put("replaced", replaced.get());
+		stats.put("dispatched", dispatched.get());
+		stats.put("completed", completed.get());
+		stats.put("failed", failed.get());
+		stats.put("globalThrottled", globalThrottled.get());
+		stats.put("orgThrottled", orgThrottled.get());
+		stats.put("queueTime", queueTime.getStats());
+		return stats;
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
+
+/**
+ * Trigger events waiting for a scaling thread, in lanes by urgency.
+ *
+ * Scale-out events of breaches deviating from the threshold by at least the
+ * urgent severity go to the urgent lane, other scale-out events to the
+ * scale-out lane and scale-in events to the scale-in lane. Lanes are served
+ * by weighted round robin: each turn a lane hands out up to its weight of
+ * events, so a batch of scale-in events delays a scale-out by at most the
+ * scale-in weight, and no lane is starved. An app waits in one lane at a
+ * time, and moves up to the lane of its pending event when a more urgent
+ * event is merged into it.
+ */
+public class ScalingEventLanes {
+
+	public static final int LANE_URGENT = 0;
+	public static final int LANE_SCALE_OUT = 1;
+	public static final int LANE_SCALE_IN = 2;
+	private static final String[] LANE_NAMES = { "urgent", "scaleOut", "scaleIn" };
+
+	private static class Entry {
+		private MonitorTriggerEvent event;
+		private int lane;
+		private final long enqueueTime = System.nanoTime();
+
+		Entry(MonitorTriggerEvent event, int lane) {
+			this.event = event;
+			this.lane = lane;
+		}
+	}
+
+	private final double urgentSeverity;
+	private final int[] weights;
+	private final List<ArrayDeque<Entry>> lanes;
+	/** the queued entry of each app **/
+	private final Map<String, Entry> queued = new HashMap<String, Entry>();
+	private final long[] enqueued;
+	private long promoted;
+	private final LatencyHistogram[] waitTime;
+	private int currentLane = 0;
+	private int credits;
+
+	/**
+	 * @param urgentSeverity the relative deviation from the threshold of urgent scale-out events
+	 * @param urgentWeight
+	 * @param scaleOutWeight
+	 * @param scaleInWeight
+	 */
+	public ScalingEventLanes(double urgentSeverity, int urgentWeight, int scaleOutWeight, int scaleInWeight) {
+		this.urgentSeverity = urgentSeverity;
+		this.weights = new int[] { Math.max(1, urgentWeight), Math.max(1, scaleOutWeight), Math.max(1, scaleInWeight) };
+		this.lanes = new ArrayList<ArrayDeque<Entry>>(LANE_NAMES.length);
+		this.enqueued = new long[LANE_NAMES.length];
+		this.waitTime = new LatencyHistogram[LANE_NAMES.length];
+		for (int i = 0; i < LANE_NAMES.length; i++) {
+			lanes.add(new ArrayDeque<Entry>());
+			waitTime[i] = new LatencyHistogram();
+		}
+		this.credits = weights[0];
+	}
+
+	/**
+	 * @param event
+	 * @return the lane of the event
+	 */
+	public int laneOf(MonitorTriggerEvent event) {
+		if (!event.isScaleOut())
+			return LANE_SCALE_IN;
+		if (event.getSeverity() >= urgentSeverity)
+			return LANE_URGENT;
+		return LANE_SCALE_OUT;
+	}
+
+	public synchronized void offer(MonitorTriggerEvent event) {
+		int lane = laneOf(event);
+		Entry entry = new Entry(event, lane);
+		lanes.get(lane).addLast(entry);
+		queued.put(event.getAppId(), entry);
+		enqueued[lane]++;
+	}
+
+	/**
+	 * Moves the queued app of an event to the lane of the event, if that lane
+	 * is more urgent, e.g. when a scale-out was merged into a pending scale-in
+	 * @param event the pending event of the app
+	 * @return true if the app was moved
+	 */
+	public synchronized boolean promote(MonitorTriggerEvent event) {
+		Entry entry = queued.get(event.getAppId());
+		if (entry == null)
+			return false;
+		entry.event = event;
+		int lane = laneOf(event);
+		if (lane >= entry.lane)
+			return false;
+		lanes.get(entry.lane).remove(entry);
+		entry.lane = lane;
+		lanes.get(lane).addLast(entry);
+		promoted++;
+		return true;
+	}
+
+	/**
+	 * @return the next event by weighted round robin, or null if all lanes are empty
+	 */
+	public synchronized MonitorTriggerEvent poll() {
+		for (int i = 0; i <= lanes.size(); i++) {
+			if (credits > 0 && !lanes.get(currentLane).isEmpty()) {
+				credits--;
+				Entry entry = lanes.get(currentLane).pollFirst();
+				waitTime[currentLane].recordSince(entry.enqueueTime);
+				if (queued.get(entry.event.getAppId()) == entry)
+					queued.remove(entry.event.getAppId());
+				return entry.event;
+			}
+			currentLane = (currentLane + 1) % lanes.size();
+			credits = weights[currentLane];
+		}
+		return null;
+	}
+
+	public synchronized int size() {
+		int size = 0;
+		for (ArrayDeque<Entry> lane : lanes)
+			size += lane.size();
+		return size;
+	}
+
+	public synchronized Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		for (int i = 0; i < lanes.size(); i++) {
+			Map<String, Object> laneStats = new HashMap<String, Object>();
+			laneStats.put("weight", weights[i]);
+			laneStats.put("depth", lanes.get(i).size());
+			laneStats.put("enqueued", enqueued[i]);
+			laneStats.put("waitTime", waitTime[i].getStats());
+			stats.put(LANE_NAMES[i], laneStats);
+		}
+		stats.put("promoted", promoted);
+		return stats;
+	}
+
+}
@@ -1,59 +1,170 @@
 package org.cloudfoundry.autoscaler.manager;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.metric.monitor.MonitorController;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.metric.monitor.StateMonitor;
+import org.cloudfoundry.autoscaler.util.Clock;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
 
-
+/**
+ * Dispatches trigger events to the per app {@link TriggerEventHandler}.
+ *
+ * Events are put into the mailbox of the app handler. Only the first event
+ * of an idle handler schedules a drain, later events wait in the mailbox and
+ * are coalesced into one. Handlers are evicted when the app is unbound, or
+ * when they were idle for triggerEventHandlerIdleTTLMin minutes. Events
+ * handled after their deadline are dropped or evaluated again.
+ */
 public class ScalingEventManager {
     private static final Logger logger = Logger.getLogger(ScalingEventManager.class);
+    private static final long idleTTL = ConfigManager.getLong("triggerEventHandlerIdleTTLMin", 60) * 60 * 1000;
+    private static final long eventDeadline = ConfigManager.getLong("triggerEventDeadlineSec", 120) * 1000;
+    private static final boolean reevaluateExpired = ConfigManager.getBoolean("triggerEventReevaluate", true);
+    private final ScalingEventLanes lanes = new ScalingEventLanes(ConfigManager.getDouble("scalingLaneUrgentSeverity", 0.2),
+    		ConfigManager.getInt("scalingLaneUrgentWeight", 8), ConfigManager.getInt("scalingLaneScaleOutWeight", 4),
+    		ConfigManager.getInt("scalingLaneScaleInWeight", 1));
     private static ScalingEventManager instance = new ScalingEventManager();
 
+    private final Clock clock = Clock.SYSTEM;
+
     private ConcurrentMap<String, TriggerEventHandler> eventHandlerMap = new ConcurrentHashMap<String, TriggerEventHandler>();
-    private ConcurrentMap<String, MonitorTriggerEvent> pendingEventMap = new ConcurrentHashMap<String, MonitorTriggerEvent>();
-    
+    private ScheduledThreadPoolExecutor evictExecutor = new ScheduledThreadPoolExecutor(1,
+    		new NamedThreadFactory("triggerEventHandlerEvictor"));
+
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong executed = new AtomicLong(0);
+    private final AtomicLong evicted = new AtomicLong(0);
+    private final AtomicLong expired = new AtomicLong(0);
+    private final AtomicLong reevaluated = new AtomicLong(0);
+
     private ScalingEventManager() {
+    	long period = Math.max(60000, idleTTL / 2);
+    	evictExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					evictIdleHandlers(clock.currentTimeMillis() - idleTTL);
+				} catch (Exception e) {
+					logger.error("error to evict idle trigger event handlers", e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
     }
     public static ScalingEventManager getInstance(){
     	return instance;
     }
-    
+
+    /**
+     * Puts an event into the mailbox of its app
+     * @param event
+     * @return true if the caller has to process the event with processTriggerEvents, false if it was coalesced
+     */
     public boolean addTriggerEvents (MonitorTriggerEvent event){
-      	String key = event.getAppId() + ":" + event.getTriggerId();
-    	MonitorTriggerEvent pendingEvent = pendingEventMap.get(key);
-    	if (pendingEvent == null){
-    		pendingEventMap.put(key, event);
-    		return true;
-    	} else {
-			return false;
-		}    	
+    	received.incrementAndGet();
+    	if (event.getDeadline() == 0 && eventDeadline > 0)
+    		event.setDeadline((event.getTimeStamp() > 0 ? event.getTimeStamp() : clock.currentTimeMillis()) + eventDeadline);
+    	while (true) {
+    		TriggerEventHandler handler = getHandler(event.getAppId());
+    		int result = handler.offer(event);
+    		if (result == TriggerEventHandler.OFFER_EVICTED) {
+    			eventHandlerMap.remove(event.getAppId(), handler);
+    			continue;
+    		}
+    		if (result == TriggerEventHandler.OFFER_COALESCED) {
+    			coalesced.incrementAndGet();
+    			/** the merged event may need a more urgent lane than the queued one **/
+    			synchronized (lanes) {
+    				MonitorTriggerEvent pending = handler.peek();
+    				if (pending != null)
+    					lanes.promote(pending);
+    			}
+    		}
+    		return result == TriggerEventHandler.OFFER_SCHEDULE;
+    	}
     }
-    
+
+    /**
+     * Queues an event for a scaling thread in the lane of its urgency, after
+     * addTriggerEvents asked to process it. The lane is chosen by the pending
+     * event of the app, which events coalesced meanwhile may have replaced.
+     * @param event
+     */
+    public void queueTriggerEvent(MonitorTriggerEvent event) {
+    	TriggerEventHandler handler = eventHandlerMap.get(event.getAppId());
+    	synchronized (lanes) {
+    		MonitorTriggerEvent pending = handler == null ? null : handler.peek();
+    		lanes.offer(pending != null ? pending : event);
+    	}
+    }
+
+    /**
+     * @return the next queued event to process with processTriggerEvents, or null
+     */
+    public MonitorTriggerEvent pollTriggerEvent() {
+    	return lanes.poll();
+    }
+
+    /**
+     * Handles the events in the mailbox of the app of the event until it is empty
+     * @param event
+     */
     public void processTriggerEvents (MonitorTriggerEvent event){
-    	try{ 
-    		TriggerEventHandler handler = null;
-    		handler = eventHandlerMap.get(event.getAppId());
-    		if (handler == null){
-    			synchronized (this) {
-    				handler = eventHandlerMap.get(event.getAppId());
-    				if (handler == null){
-    					handler = new TriggerEventHandler();
-    					eventHandlerMap.put(event.getAppId(), handler);
-    				}
-    			}
+    	TriggerEventHandler handler = eventHandlerMap.get(event.getAppId());
+    	if (handler == null)
+    		return;
+    	MonitorTriggerEvent pending;
+    	while ((pending = handler.poll()) != null) {
+    		pending = checkDeadline(pending);
+    		if (pending == null)
+    			continue;
+    		try {
+    			if (handler.handleEvent(pending))
+    				executed.incrementAndGet();
+    			else
+    				dropped.incrementAndGet();
+    		} catch (Exception e) {
+    			dropped.incrementAndGet();
+    			logger.error("error to post trigger event", e);
     		}
-    		handler.handleEvent(event);
+    	}
+    }
 
-    	} catch (Exception e) {
-    		logger.error("error to post trigger event", e);
-    	} finally {
-    		String key = event.getAppId() + ":" + event.getTriggerId();
-    		pendingEventMap.remove(key);
+    /**
+     * Checks if an event is still current when it is handled. An event past
+     * its deadline is based on old metrics, so it is dropped, or replaced by
+     * an event of the current window if its trigger is still breached.
+     * @param event
+     * @return the event to handle, or null if it is dropped
+     */
+    private MonitorTriggerEvent checkDeadline(MonitorTriggerEvent event) {
+    	if (event.getDeadline() <= 0 || clock.currentTimeMillis() <= event.getDeadline())
+    		return event;
+    	if (reevaluateExpired) {
+    		StateMonitor monitor = MonitorController.getInstance().getStateMonitor(event.getAppId());
+    		MonitorTriggerEvent current = monitor == null ? null : monitor.reevaluate(event);
+    		if (current != null) {
+    			reevaluated.incrementAndGet();
+    			current.setTrace(event.getTrace());
+    			return current;
+    		}
     	}
-    	
+    	expired.incrementAndGet();
+    	logger.info("Dropped trigger event " + event.getTriggerId() + " of app " + event.getAppId() + " evaluated at "
+    			+ event.getTimeStamp() + ", its deadline " + event.getDeadline() + " has passed.");
+    	return null;
     }
 
     public  boolean postTriggerEvents(List<MonitorTriggerEvent> triggerEventList) {
@@ -62,28 +173,83 @@ public class ScalingEventManager {
                 logger.info("No events.");
                 return false;
             }
-            
-            TriggerEventHandler handler = null;
-            for (MonitorTriggerEvent event: triggerEventList){
-            	handler = eventHandlerMap.get(event.getAppId());
-            	if (handler == null){
-            		synchronized (this) {
-            			handler = eventHandlerMap.get(event.getAppId());
-            			if (handler == null){
-            				handler = new TriggerEventHandler();
-            				eventHandlerMap.put(event.getAppId(), handler);
-            			}
-            		}
-            	}
-            	handler.handleEvent(event);
 
+            for (MonitorTriggerEvent event: triggerEventList){
+            	if (addTriggerEvents(event))
+            		processTriggerEvents(event);
             }
 
         } catch (Exception e) {
         	logger.error("error to post trigger event", e);
-            
-        } 
+
+        }
         return false;
     }
 
+    /**
+     * Evicts the handler of an app, e.g. when the app is unbound
+     * @param appId
+     */
+    public void removeHandler(String appId) {
+    	TriggerEventHandler handler = eventHandlerMap.remove(appId);
+    	if (handler != null)
+    		evict(handler);
+    }
+
+    /**
+     * Evicts the handlers idle since the given time
+     * @param idleSince
+     * @return the number of evicted handlers
+     */
+    public int evictIdleHandlers(long idleSince) {
+    	int count = 0;
+    	for (Map.Entry<String, TriggerEventHandler> entry : eventHandlerMap.entrySet()) {
+    		TriggerEventHandler handler = entry.getValue();
+    		if (handler.evict(idleSince)) {
+    			eventHandlerMap.remove(entry.getKey(), handler);
+    			evicted.incrementAndGet();
+    			count++;
+    		}
+    	}
+    	if (count > 0)
+    		logger.info("Evicted " + count + " idle trigger event handlers.");
+    	return count;
+    }
+
+    private void evict(TriggerEventHandler handler) {
+    	if (handler.evict(0))
+    		evicted.incrementAndGet();
+    	if (handler.clear() != null)
+    		dropped.incrementAndGet();
+    }
+
+    private TriggerEventHandler getHandler(String appId) {
+    	TriggerEventHandler handler = eventHandlerMap.get(appId);
+    	if (handler == null) {
+    		TriggerEventHandler newHandler = new TriggerEventHandler(appId, null, clock);
+    		handler = eventHandlerMap.putIfAbsent(appId, newHandler);
+    		if (handler == null)
+    			handler = newHandler;
+    	}
+    	return handler;
+    }
+
+    public void shutdown() {
+    	evictExecutor.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+    	Map<String, Object> stats = new HashMap<String, Object>();
+    	stats.put("handlers", eventHandlerMap.size());
+    	stats.put("received", received.get());
+    	stats.put("coalesced", coalesced.get());
+    	stats.put("dropped", dropped.get());
+    	stats.put("executed", executed.get());
+    	stats.put("evicted", evicted.get());
+    	stats.put("expired", expired.get());
+    	stats.put("reevaluated", reevaluated.get());
+    	stats.put("lanes", lanes.getStats());
+    	return stats;
+    }
+
 }
@@ -47,35 +47,33 @@ public class ScalingHistoryManager {
 	 */
 	public List<ScalingHistory> getHistoryList(ScalingHistoryFilter filter, String zone) throws DataStoreException{
 		AutoScalingDataStore dataStore = AutoScalingDataStoreFactory.getAutoScalingDataStore();
-		ScalingHistory activeScaling = null;
-
-		List<ScalingHistory> scalingHistory = dataStore.getHistoryList(filter);
-		if (scalingHistory == null){
-			scalingHistory = new LinkedList<ScalingHistory>();
-		}
-
+		ScalingHistory activeScaling = getActiveScaling(dataStore, filter);
 		boolean validActiveScaling = false;
+
+		/** The active scaling takes the first slot of the first page, so shift the persisted pages by one **/
+		List<ScalingHistory> scalingHistory = null;
 		int offset = filter.getOffset();
-		if (offset == 0) { // Retrieve the history that is in scaling status
-			String status = filter.getStatus();
-			/** Check scaling activity **/
-			if (status == null
-					|| (Integer.parseInt(status) == ScalingStateManager.SCALING_STATE_REALIZING)) {
-				AppAutoScaleState scalingState = dataStore
-						.getScalingState(filter.getAppId());
-				if (scalingState != null) {
-					activeScaling = scalingState.getScaleEvent();
-					if (activeScaling != null)  {
-						if ( ( filter.getScaleType() == null) || (filter.getScaleType().equalsIgnoreCase(filter.SCALE_IN_TYPE) && activeScaling.getAdjustment() <0 )  ||
-								(filter.getScaleType().equalsIgnoreCase(filter.SCALE_OUT_TYPE) && activeScaling.getAdjustment() >0 )  ) {
-										filter.setOffset(offset - 1);
-										filter.setMaxCount(filter.getMaxCount() - 1);
-										validActiveScaling = true;
-							}
-					}
+		int maxCount = filter.getMaxCount();
+		if (activeScaling != null) {
+			if (offset == 0) {
+				validActiveScaling = true;
+				if (maxCount != 1) {
+					filter.setMaxCount(maxCount > 1 ? maxCount - 1 : maxCount);
+					scalingHistory = dataStore.getHistoryList(filter);
 				}
+			} else {
+				filter.setOffset(offset - 1);
+				scalingHistory = dataStore.getHistoryList(filter);
 			}
+			filter.setOffset(offset);
+			filter.setMaxCount(maxCount);
+		} else {
+			scalingHistory = dataStore.getHistoryList(filter);
 		}
+		if (scalingHistory == null){
+			scalingHistory = new LinkedList<ScalingHistory>();
+		}
+
 		TimeZone curTimeZone = TimeZone.getDefault();
 		TimeZone policyTimeZone = TimeZone.getDefault();
 		int timeZoneRawOffSet = curTimeZone.getRawOffset();
@@ -131,21 +129,35 @@ public class ScalingHistoryManager {
 		AutoScalingDataStore dataStore = AutoScalingDataStoreFactory
 				.getAutoScalingDataStore();
 		int count = dataStore.getHistoryCount(filter);
+		if (getActiveScaling(dataStore, filter) != null)
+			count ++;
+		return count;
+	}
+
+	/**
+	 * Get the scaling that is in progress if it matches the filter
+	 * @param dataStore
+	 * @param filter
+	 * @return
+	 * @throws DataStoreException
+	 */
+	private ScalingHistory getActiveScaling(AutoScalingDataStore dataStore, ScalingHistoryFilter filter)
+			throws DataStoreException {
 		String status = filter.getStatus();
 		/** Check scaling activity **/
-		if (status == null || (Integer.parseInt(status) == ScalingStateManager.SCALING_STATE_REALIZING)) {
-			AppAutoScaleState scalingState = dataStore.getScalingState(filter
-					.getAppId());
-			if (scalingState != null && scalingState.getScaleEvent() != null){
-				ScalingHistory activeScaling = scalingState.getScaleEvent();
-				if (activeScaling != null) {
-						if ( ( filter.getScaleType() == null) || (filter.getScaleType().equalsIgnoreCase(filter.SCALE_IN_TYPE) && activeScaling.getAdjustment() <0 )  ||
-								(filter.getScaleType().equalsIgnoreCase(filter.SCALE_OUT_TYPE) && activeScaling.getAdjustment() >0 )  ) {
-							count ++;
-						}
-				}
-			}
-		}
-		return count;
+		if (status != null && Integer.parseInt(status) != ScalingStateManager.SCALING_STATE_REALIZING)
+			return null;
+		AppAutoScaleState scalingState = dataStore.getScalingState(filter.getAppId());
+		if (scalingState == null)
+			return null;
+		ScalingHistory activeScaling = scalingState.getScaleEvent();
+		if (activeScaling == null)
+			return null;
+		String scaleType = filter.getScaleType();
+		if ((scaleType == null)
+				|| (scaleType.equalsIgnoreCase(ScalingHistoryFilter.SCALE_IN_TYPE) && activeScaling.getAdjustment() < 0)
+				|| (scaleType.equalsIgnoreCase(ScalingHistoryFilter.SCALE_OUT_TYPE) && activeScaling.getAdjustment() > 0))
+			return activeScaling;
+		return null;
 	}
 }
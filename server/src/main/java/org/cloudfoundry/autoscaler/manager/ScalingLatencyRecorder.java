@@ -0,0 +1,65 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.autoscaler.bean.ScalingTrace;
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
+
+/**
+ * Latency histograms of the stages of completed scaling actions, separately
+ * for trigger events and schedule changes
+ */
+public class ScalingLatencyRecorder {
+
+	public static final String SOURCE_TRIGGER = "trigger";
+	public static final String SOURCE_SCHEDULE = "schedule";
+
+	private static final ScalingLatencyRecorder instance = new ScalingLatencyRecorder();
+
+	private final AtomicLong recorded = new AtomicLong(0);
+	private final ConcurrentMap<String, LatencyHistogram> latencyMap = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	public static ScalingLatencyRecorder getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records the stages of a completed scaling action
+	 * @param trace
+	 * @return the breakdown of the trace
+	 */
+	public Map<String, Long> record(ScalingTrace trace) {
+		Map<String, Long> breakdown = trace.getBreakdown();
+		String source = trace.getFiredTime() > 0 ? SOURCE_TRIGGER : SOURCE_SCHEDULE;
+		for (Map.Entry<String, Long> entry : breakdown.entrySet())
+			getLatencyHistogram(source + "." + entry.getKey()).recordMillis(entry.getValue());
+		recorded.incrementAndGet();
+		return breakdown;
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> latency = new TreeMap<String, Object>();
+		for (Map.Entry<String, LatencyHistogram> entry : latencyMap.entrySet())
+			latency.put(entry.getKey(), entry.getValue().getStats());
+		Map<String, Object> stats = new TreeMap<String, Object>();
+		stats.put("recorded", recorded.get());
+		stats.put("latency", latency);
+		return stats;
+	}
+
+	private LatencyHistogram getLatencyHistogram(String name) {
+		LatencyHistogram histogram = latencyMap.get(name);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = latencyMap.putIfAbsent(name, newHistogram);
+			if (histogram == null)
+				histogram = newHistogram;
+		}
+		return histogram;
+	}
+
+}
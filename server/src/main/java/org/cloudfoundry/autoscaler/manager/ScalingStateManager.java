@@ -1,10 +1,15 @@
 package org.cloudfoundry.autoscaler.manager;
 
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
 import org.cloudfoundry.autoscaler.constant.Constants;
+import org.cloudfoundry.autoscaler.data.AsyncAutoScalingDataStore;
 import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.DataStoreFuture;
 import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
 import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
@@ -20,10 +25,12 @@ public class ScalingStateManager {
 	public static final int SCALING_STATE_FAILED = -1;
 
 	private AutoScalingDataStore dataStore = null;
+	private AsyncAutoScalingDataStore asyncDataStore = null;
 	private ScalingHistoryManager historyStore = null;
 
 	private ScalingStateManager()  {
 		dataStore = AutoScalingDataStoreFactory.getAutoScalingDataStore();
+		asyncDataStore = AutoScalingDataStoreFactory.getAsyncAutoScalingDataStore();
 		historyStore= ScalingHistoryManager.getInstance();
 	}
 
@@ -43,7 +50,39 @@ public class ScalingStateManager {
 	 */
 	public boolean setScalingStateRealizing(String appId, 
 			String thresholdType, int currentInstance, int newCount, AutoScalerPolicyTrigger policyTrigger,int triggerType, String actionId, String scheduleType,String timeZone,  Long scheduleStartTime, Integer dayOfWeek) {
-		
+		// the state has to be stored before scaling, so wait for it, after
+		// the transitions of the app still pending but not behind its metrics
+		try {
+			return setScalingStateRealizingAsync(appId, thresholdType, currentInstance, newCount, policyTrigger,
+					triggerType, actionId, scheduleType, timeZone, scheduleStartTime, dayOfWeek).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.error("Error occurs when store the state of application " + appId + ".", e.getCause());
+		}
+		return false;
+	}
+
+	/**
+	 * Set scaling state to realizing state without blocking the caller
+	 * @return whether the state is stored
+	 */
+	public DataStoreFuture<Boolean> setScalingStateRealizingAsync(final String appId, final String thresholdType,
+			final int currentInstance, final int newCount, final AutoScalerPolicyTrigger policyTrigger,
+			final int triggerType, final String actionId, final String scheduleType, final String timeZone,
+			final Long scheduleStartTime, final Integer dayOfWeek) {
+		return asyncDataStore.submit(AsyncAutoScalingDataStore.scalingStateKey(appId), new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return realize(appId, thresholdType, currentInstance, newCount, policyTrigger, triggerType, actionId,
+						scheduleType, timeZone, scheduleStartTime, dayOfWeek);
+			}
+		});
+	}
+
+	private boolean realize(String appId, String thresholdType, int currentInstance, int newCount,
+			AutoScalerPolicyTrigger policyTrigger, int triggerType, String actionId, String scheduleType,
+			String timeZone, Long scheduleStartTime, Integer dayOfWeek) {
 
 		// update app-state in store
 		try {
@@ -65,17 +104,13 @@ public class ScalingStateManager {
 			appState.setLastActionInstanceTarget(newCount);
 			appState.setLastActionStartTime(startTime);
 			appState.setScaleEvent(history);
-			dataStore.saveScalingState(appState);
+			saveScalingState(appState);
 			return true;
 
 		} catch (DataStoreException e) {
 			logger.error("Error occurs when store the state of application " + appId + ".", e);
 			
 		}
-		try {
-			Thread.sleep(10);
-		} catch (InterruptedException e) {
-		}
 
 		return false;
 	}
@@ -90,7 +125,21 @@ public class ScalingStateManager {
 	 * @param policyTrigger
 	 * @param triggerType
 	 */
-	public void setScalingStateFailed(String appId, 
+	public DataStoreFuture<Void> setScalingStateFailed(final String appId, final String thresholdType,
+			final int currentInstance, final int newCount, final AutoScalerPolicyTrigger policyTrigger,
+			final int triggerType, final String errorCode, final String actionId, final String scheduleType,
+			final String timeZone, final Long scheduleStartTime, final Integer dayOfWeek) {
+		return asyncDataStore.submit(AsyncAutoScalingDataStore.scalingStateKey(appId), new Callable<Void>() {
+			@Override
+			public Void call() {
+				fail(appId, thresholdType, currentInstance, newCount, policyTrigger, triggerType, errorCode, actionId,
+						scheduleType, timeZone, scheduleStartTime, dayOfWeek);
+				return null;
+			}
+		});
+	}
+
+	private void fail(String appId, 
 			String thresholdType, int currentInstance, int newCount, AutoScalerPolicyTrigger policyTrigger,
 			int triggerType, String errorCode, String actionId,String scheduleType,String timeZone, Long scheduleStartTime, Integer dayOfWeek) {
 		
@@ -127,7 +176,7 @@ public class ScalingStateManager {
 					appState.setLastActionStartTime(startTime);
 					appState.setErrorCode(errorCode);
 					appState.setScaleEvent(null);
-					dataStore.saveScalingState(appState);
+					saveScalingState(appState);
 					return;
 				}
 				
@@ -156,17 +205,13 @@ public class ScalingStateManager {
 				appState.setLastActionStartTime(startTime);
 				appState.setErrorCode(errorCode);
 				appState.setScaleEvent(null);
-				dataStore.saveScalingState(appState);
+				saveScalingState(appState);
 				return;
 			
 			} catch (DataStoreException e) {
 				logger.error("Failed to save scaling history for application " + appId, e);
 				
 			}
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-			}
 		
 
 	}
@@ -178,8 +223,29 @@ public class ScalingStateManager {
 	 * @param appName
 	 * @throws Exception 
 	 */
-	public void setScalingStateCompleted(String appId, String actionId) throws Exception{
-		long endTime = System.currentTimeMillis();
+	public DataStoreFuture<Void> setScalingStateCompleted(final String appId, final String actionId) {
+		return setScalingStateCompleted(appId, actionId, null);
+	}
+
+	/**
+	 * Set scaling state to completed state
+	 * @param appId
+	 * @param actionId
+	 * @param latency the stage durations of the action to store on its history, or null
+	 */
+	public DataStoreFuture<Void> setScalingStateCompleted(final String appId, final String actionId,
+			final Map<String, Long> latency) {
+		final long endTime = System.currentTimeMillis();
+		return asyncDataStore.submit(AsyncAutoScalingDataStore.scalingStateKey(appId), new Callable<Void>() {
+			@Override
+			public Void call() {
+				complete(appId, actionId, endTime, latency);
+				return null;
+			}
+		});
+	}
+
+	private void complete(String appId, String actionId, long endTime, Map<String, Long> latency) {
 
 		try {
 			AppAutoScaleState appState = dataStore.getScalingState(appId);
@@ -205,6 +271,8 @@ public class ScalingStateManager {
 				}
 				history.setStatus(ScalingStateManager.SCALING_STATE_COMPLETED);
 				history.setEndTime(endTime);
+				if (latency != null)
+					history.setLatency(latency);
 				historyStore.saveScalingHistory(history); // update history
 				appState.setHistoryId(actionId);
 
@@ -214,16 +282,12 @@ public class ScalingStateManager {
 			appState.setInstanceCountState(ScalingStateManager.SCALING_STATE_COMPLETED);
 			appState.setLastActionEndTime(endTime);
 			appState.setScaleEvent(null);
-			dataStore.saveScalingState(appState);
+			saveScalingState(appState);
 			return;
 		} catch (DataStoreException e) {
 
 			logger.error("Error occurs when store the state of application " + appId + "." + e.getMessage(), e);
 		}
-		try {
-			Thread.sleep(1000);
-		} catch (InterruptedException e) {
-		}
 		
 	}
 	
@@ -232,6 +296,7 @@ public class ScalingStateManager {
 		AppAutoScaleState appState = dataStore.getScalingState(appId);
 		ScalingHistory history = null;
 		if (appState != null) {
+			CooldownTracker.getInstance().update(appState);
 			history = appState.getScaleEvent();
 		}
 
@@ -257,7 +322,7 @@ public class ScalingStateManager {
 					appState.setLastActionStartTime(currentTime);
 					appState.setErrorCode(errorCode);
 					appState.setScaleEvent(null);
-					dataStore.saveScalingState(appState);
+					saveScalingState(appState);
 				} else {
 					history.setStatus(ScalingStateManager.SCALING_STATE_COMPLETED);
 					history.setEndTime(history.getStartTime() + 20L);
@@ -267,7 +332,7 @@ public class ScalingStateManager {
 					appState.setInstanceCountState(ScalingStateManager.SCALING_STATE_COMPLETED);
 					appState.setLastActionEndTime(currentTime);
 					appState.setScaleEvent(null);
-					dataStore.saveScalingState(appState);
+					saveScalingState(appState);
 				}
 			}
 		} catch (Exception e) {
@@ -277,6 +342,17 @@ public class ScalingStateManager {
 
 	}
 
+	/**
+	 * Stores the scaling state and records it for the cooldown check of
+	 * trigger events
+	 * @param appState
+	 * @throws DataStoreException
+	 */
+	private void saveScalingState(AppAutoScaleState appState) throws DataStoreException {
+		dataStore.saveScalingState(appState);
+		CooldownTracker.getInstance().update(appState);
+	}
+
 	
 	/**
 	 * Builds ScalingHistory object
@@ -297,7 +373,10 @@ public class ScalingStateManager {
 		int breachDuration = 0;
 		if (trigger != null){
 		    metricName = trigger.getMetricType();
-			if (thresholdType.equals(AutoScalerPolicyTrigger.TriggerId_LowerThreshold)){
+			if (trigger.isTargetTracking()){
+				threshold = trigger.getTargetValue();
+			}
+			else if (thresholdType.equals(AutoScalerPolicyTrigger.TriggerId_LowerThreshold)){
 				threshold = trigger.getLowerThreshold();
 			}
 			else{
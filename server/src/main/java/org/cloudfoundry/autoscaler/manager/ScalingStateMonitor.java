@@ -1,28 +1,65 @@
 package org.cloudfoundry.autoscaler.manager;
 
-import java.util.Iterator;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.exceptions.AppNotFoundException;
 import org.cloudfoundry.autoscaler.exceptions.CloudException;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
 import org.cloudfoundry.autoscaler.util.CloudFoundryManager;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
 
+/**
+ * Detects the completion of scaling actions.
+ *
+ * Each task waits in a delay queue until its next check is due. A dispatcher
+ * thread hands due tasks to a small worker pool, so checks of many apps run
+ * in parallel while at most scalingStateMonitorThreads Cloud Controller
+ * checks are in flight. Unfinished tasks are checked again with exponential
+ * backoff. Tasks running longer than scalingStateMonitorTimeoutSec are given
+ * up and their scaling state is completed, so the app can scale again.
+ */
 public class ScalingStateMonitor implements Runnable{
 	private static final Logger logger = Logger
 			.getLogger(ScalingStateMonitor.class.getName());
-	BlockingQueue<ScalingStateMonitorTask> taskQueue = new LinkedBlockingQueue<ScalingStateMonitorTask>();
+	private static final int threads = ConfigManager.getInt("scalingStateMonitorThreads", 4);
+	private static final long initialDelay = ConfigManager.getLong("scalingStateMonitorInitialDelayMs", 2000);
+	private static final long maxDelay = ConfigManager.getLong("scalingStateMonitorMaxDelayMs", 20000);
+	private static final long timeout = ConfigManager.getLong("scalingStateMonitorTimeoutSec", 600) * 1000;
+
+	private final DelayQueue<ScalingStateMonitorTask> taskQueue = new DelayQueue<ScalingStateMonitorTask>();
 	private static ScalingStateMonitor monitorInstance= new ScalingStateMonitor();
 	private int IS_STOPPED = 0;
 	private int IS_RUNNING = 1;
 	private int status = IS_STOPPED;
-	private final static long THREAD_SLEEP_TIME = 5000;
-    private ExecutorService taskExecutor = Executors.newFixedThreadPool(1);
+	private final ExecutorService taskExecutor = Executors
+			.newSingleThreadExecutor(new NamedThreadFactory("scalingStateMonitor"));
+	private final ThreadPoolExecutor checkExecutor;
+	private final Semaphore checkPermits = new Semaphore(threads);
+
+	private final AtomicLong submitted = new AtomicLong(0);
+	private final AtomicLong checks = new AtomicLong(0);
+	private final AtomicLong completed = new AtomicLong(0);
+	private final AtomicLong timedOut = new AtomicLong(0);
+	private final AtomicLong removed = new AtomicLong(0);
+	private final AtomicLong errors = new AtomicLong(0);
+	private final LatencyHistogram timeToDetect = new LatencyHistogram();
+	private final LatencyHistogram checkLatency = new LatencyHistogram();
+
 	private ScalingStateMonitor(){
-		
+		checkExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("scalingStateCheck"));
+		checkExecutor.allowCoreThreadTimeOut(true);
 	}
 	/**
 	 * Gets ScalingStateMonitor instance
@@ -31,33 +68,49 @@ public class ScalingStateMonitor implements Runnable{
 	public static ScalingStateMonitor getInstance(){
 		return monitorInstance;
 	}
-	
+
 	/**
 	 * Adds a monitor task to the queue
 	 * @param task
 	 */
 	public void monitor(ScalingStateMonitorTask task){
+		task.scheduleNextCheck(initialDelay, maxDelay);
+		submitted.incrementAndGet();
 		taskQueue.add(task);
 		startMonitor();
 	}
 	@Override
 	public void run() {
-		while (true){
+		while (!Thread.currentThread().isInterrupted()){
 			try{
-				/** Gets tasks from task queue **/
-				Iterator<ScalingStateMonitorTask> taskIter = taskQueue.iterator();
-				while (taskIter.hasNext()){
-					ScalingStateMonitorTask task = taskIter.next();
-					doMonitor (task);
+				/** Waits for the next due task and a free worker **/
+				final ScalingStateMonitorTask task = taskQueue.take();
+				checkPermits.acquire();
+				try {
+					checkExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								doMonitor(task);
+							} finally {
+								checkPermits.release();
+							}
+						}
+					});
+				} catch (RuntimeException e) {
+					checkPermits.release();
+					taskQueue.add(task);
+					throw e;
 				}
-				sleep (THREAD_SLEEP_TIME);
+			}catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}catch(Exception e){
 				logger.error( e.getMessage(), e);
 			}
 		}
-		
+
 	}
-	
+
 	/**
 	 * Execute a monitor task
 	 * @param task
@@ -65,6 +118,8 @@ public class ScalingStateMonitor implements Runnable{
 	private void doMonitor(ScalingStateMonitorTask task){
 		String appId = task.getAppId();
 		int targetCount = task.getTargetInstanceCount();
+		long startTime = System.nanoTime();
+		checks.incrementAndGet();
 		try {
 			CloudFoundryManager manager = CloudFoundryManager.getInstance();
 			int runningInstances = manager.getRunningInstances(appId);
@@ -73,27 +128,61 @@ public class ScalingStateMonitor implements Runnable{
 			if (runningInstances == instances){
 				//Scaling is completed
 				logger.info("Scaling is completed for application " + appId + ". Target count is " + targetCount + " and With current running instance number is " + runningInstances);
-				ScalingStateManager.getInstance().setScalingStateCompleted(appId, actionId);
-				taskQueue.remove(task);
+				Map<String, Long> latency = null;
+				if (task.getTrace() != null) {
+					task.getTrace().setRunningTime(System.currentTimeMillis());
+					latency = ScalingLatencyRecorder.getInstance().record(task.getTrace());
+				}
+				ScalingStateManager.getInstance().setScalingStateCompleted(appId, actionId, latency);
+				if (task.getInitialInstanceCount() >= 0 && task.getInitialInstanceCount() < targetCount)
+					ScheduleLeadTimeTuner.getInstance().recordStartup(appId, System.currentTimeMillis() - task.getCreateTime());
+				completed.incrementAndGet();
+				timeToDetect.recordMillis(System.currentTimeMillis() - task.getCreateTime());
+				return;
 			}
+			reschedule(task);
 		} catch (CloudException e) {
+			errors.incrementAndGet();
 			logger.error( "An error occurs when monitoring a scaling action for app " + task.getAppId() + "." + e.getMessage(), e);
+			reschedule(task);
 		} catch (AppNotFoundException e) {
-			taskQueue.remove(task);
+			removed.incrementAndGet();
 			logger.error( "The application " + appId + " can not be found. ");
 		}catch (Exception e) {
 			String message = e.getMessage();
             if (message != null && message.contains("404 Not Found")) {
                 logger.warn("Application " + appId + " is not available for now. Stop to monitor the scaling status.");
-                taskQueue.remove(task);
+                removed.incrementAndGet();
             }
-            else  
+            else {
+            	errors.incrementAndGet();
             	logger.error ("An error occurs when monitoring a scaling action for app " + task.getAppId() + ". " + e.getMessage(), e);
+            	reschedule(task);
+            }
+		} finally {
+			checkLatency.recordSince(startTime);
+		}
+	}
+
+	/**
+	 * Queues the task for its next check, or gives it up after the timeout
+	 * @param task
+	 */
+	private void reschedule(ScalingStateMonitorTask task) {
+		if (System.currentTimeMillis() - task.getCreateTime() > timeout) {
+			timedOut.incrementAndGet();
+			logger.warn("Scaling of application " + task.getAppId() + " to " + task.getTargetInstanceCount()
+					+ " instances is not completed after " + task.getChecks() + " checks in " + timeout
+					+ " ms. Stop to monitor the scaling status.");
+			ScalingStateManager.getInstance().setScalingStateCompleted(task.getAppId(), task.getScaclingActionId());
+			return;
 		}
+		task.scheduleNextCheck(initialDelay, maxDelay);
+		taskQueue.add(task);
 	}
+
 	private synchronized void startMonitor(){
 		if (status != IS_RUNNING){
-			//new Thread(this).start();
 			taskExecutor.execute(this);
 			setStatus (IS_RUNNING);
 		}
@@ -105,15 +194,24 @@ public class ScalingStateMonitor implements Runnable{
 	private void setStatus (int status){
 		this.status = status;
 	}
-	
-	private void sleep(long time){
-		try {
-			Thread.sleep(time);
-		} catch (InterruptedException e) {
-			
-		}		
+
+	public void shutdown() {
+		taskExecutor.shutdownNow();
+		checkExecutor.shutdownNow();
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("pending", taskQueue.size());
+		stats.put("submitted", submitted.get());
+		stats.put("checks", checks.get());
+		stats.put("completed", completed.get());
+		stats.put("timedOut", timedOut.get());
+		stats.put("removed", removed.get());
+		stats.put("errors", errors.get());
+		stats.put("timeToDetect", timeToDetect.getStats());
+		stats.put("checkLatency", checkLatency.getStats());
+		return stats;
 	}
-	
 
-	
 }
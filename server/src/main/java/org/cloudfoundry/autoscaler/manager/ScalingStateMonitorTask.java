@@ -1,12 +1,22 @@
 package org.cloudfoundry.autoscaler.manager;
 
-public class ScalingStateMonitorTask {
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.autoscaler.bean.ScalingTrace;
+
+public class ScalingStateMonitorTask implements Delayed {
 	private String appId;
 	private String org;
 	private String space;
 	private String scaclingActionId;
 	private int targetInstanceCount;
-	
+	private int initialInstanceCount = -1; // the instance count before the action, -1 if unknown
+	private final long createTime = System.currentTimeMillis();
+	private volatile long nextCheckTime = createTime;
+	private volatile int checks = 0;
+	private ScalingTrace trace;
+
 	public ScalingStateMonitorTask(String appId,
 			int targetInstanceCount, String actionId) {
 		super();
@@ -38,11 +48,55 @@ public class ScalingStateMonitorTask {
 	public void setTargetInstanceCount(int targetInstanceCount) {
 		this.targetInstanceCount = targetInstanceCount;
 	}
+	public int getInitialInstanceCount() {
+		return initialInstanceCount;
+	}
+	public void setInitialInstanceCount(int initialInstanceCount) {
+		this.initialInstanceCount = initialInstanceCount;
+	}
 	public String getScaclingActionId() {
 		return scaclingActionId;
 	}
 	public void setScaclingActionId(String scaclingActionId) {
 		this.scaclingActionId = scaclingActionId;
 	}
+	public long getCreateTime() {
+		return createTime;
+	}
+	public long getNextCheckTime() {
+		return nextCheckTime;
+	}
+	public int getChecks() {
+		return checks;
+	}
+	public ScalingTrace getTrace() {
+		return trace;
+	}
+	public void setTrace(ScalingTrace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * Schedules the next check with exponential backoff, doubling the delay
+	 * after every check
+	 * @param initialDelay delay of the first check in milliseconds
+	 * @param maxDelay
+	 */
+	public void scheduleNextCheck(long initialDelay, long maxDelay) {
+		long delay = Math.min(maxDelay, initialDelay << Math.min(checks, 20));
+		checks++;
+		nextCheckTime = System.currentTimeMillis() + delay;
+	}
+
+	@Override
+	public long getDelay(TimeUnit unit) {
+		return unit.convert(nextCheckTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public int compareTo(Delayed o) {
+		long diff = getDelay(TimeUnit.MILLISECONDS) - o.getDelay(TimeUnit.MILLISECONDS);
+		return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+	}
 
 }
@@ -0,0 +1,164 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.autoscaler.util.Clock;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+
+/**
+ * How long before a schedule starts its minimum instances are requested.
+ *
+ * New instances take time to stage and start, so a schedule raising the
+ * minimum instance count has its instances requested ahead of its start.
+ * The lead of an app follows the time its scale-outs took from the accepted
+ * request to all instances running, as a moving average, times
+ * scheduleLeadTimeFactor. Apps not scaled out yet use the average of all
+ * apps. scheduleLeadTimeSec is the least lead and scheduleLeadTimeMaxSec the
+ * most; a scheduled policy may set its own lead instead.
+ *
+ * Until the schedule starts, the pre-warmed instance count is a floor for
+ * scale-ins, so the instances are not removed again before they are needed.
+ */
+public class ScheduleLeadTimeTuner {
+	private static final ScheduleLeadTimeTuner instance = new ScheduleLeadTimeTuner(
+			ConfigManager.getLong("scheduleLeadTimeSec", 120) * 1000,
+			ConfigManager.getLong("scheduleLeadTimeMaxSec", 900) * 1000,
+			ConfigManager.getBoolean("scheduleLeadTimeAuto", true) ? ConfigManager.getDouble("scheduleLeadTimeFactor", 1.5) : 0,
+			Clock.SYSTEM);
+
+	/** the weight of the latest startup in the moving average **/
+	private static final double ALPHA = 0.3;
+
+	private static class Floor {
+		private final int instances;
+		private final long until;
+
+		Floor(int instances, long until) {
+			this.instances = instances;
+			this.until = until;
+		}
+	}
+
+	private final long minLead;
+	private final long maxLead;
+	private final double factor;
+	private final Clock clock;
+	private final ConcurrentMap<String, Double> startupMillis = new ConcurrentHashMap<String, Double>();
+	private final ConcurrentMap<String, Floor> floors = new ConcurrentHashMap<String, Floor>();
+	private volatile double allStartupMillis = -1;
+
+	private final AtomicLong startups = new AtomicLong(0);
+	private final AtomicLong floorsApplied = new AtomicLong(0);
+
+	/**
+	 * @param minLead
+	 * @param maxLead
+	 * @param factor the lead as a multiple of the startup time, 0 to only use minLead
+	 * @param clock
+	 */
+	ScheduleLeadTimeTuner(long minLead, long maxLead, double factor, Clock clock) {
+		this.minLead = minLead;
+		this.maxLead = maxLead;
+		this.factor = factor;
+		this.clock = clock;
+	}
+
+	public static ScheduleLeadTimeTuner getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records a completed scale-out
+	 * @param appId
+	 * @param millis the time from the accepted request to all instances running
+	 */
+	public void recordStartup(String appId, long millis) {
+		if (millis < 0)
+			return;
+		startups.incrementAndGet();
+		// retried so that concurrent completions of the app do not lose a startup
+		while (true) {
+			Double previous = startupMillis.get(appId);
+			if (previous == null) {
+				if (startupMillis.putIfAbsent(appId, (double) millis) == null)
+					break;
+			} else if (startupMillis.replace(appId, previous, previous + ALPHA * (millis - previous)))
+				break;
+		}
+		synchronized (this) {
+			allStartupMillis = allStartupMillis < 0 ? millis : allStartupMillis + ALPHA * (millis - allStartupMillis);
+		}
+	}
+
+	/**
+	 * @param appIds the apps to scale
+	 * @param leadTimeSecs the lead set on the scheduled policy, or null
+	 * @return the lead in milliseconds the slowest of the apps needs
+	 */
+	public long getLeadMillis(Collection<String> appIds, Integer leadTimeSecs) {
+		if (leadTimeSecs != null)
+			return Math.max(0, leadTimeSecs * 1000L);
+		double startup = 0;
+		if (factor > 0) {
+			for (String appId : appIds) {
+				Double appStartup = startupMillis.get(appId);
+				if (appStartup == null)
+					appStartup = allStartupMillis;
+				startup = Math.max(startup, appStartup);
+			}
+		}
+		return Math.min(maxLead, Math.max(minLead, (long) (startup * factor)));
+	}
+
+	/**
+	 * Keeps scale-ins of the app from going below the instance count until the time
+	 * @param appId
+	 * @param instances
+	 * @param until
+	 */
+	public void setFloor(String appId, int instances, long until) {
+		floors.put(appId, new Floor(instances, until));
+	}
+
+	/**
+	 * @param appId
+	 * @param newCount the instance count a scaling action decided
+	 * @return the instance count raised to the floor of the app
+	 */
+	public int applyFloor(String appId, int newCount) {
+		if (floors.isEmpty())
+			return newCount;
+		Floor floor = floors.get(appId);
+		if (floor == null)
+			return newCount;
+		if (floor.until <= clock.currentTimeMillis()) {
+			floors.remove(appId, floor);
+			return newCount;
+		}
+		if (newCount >= floor.instances)
+			return newCount;
+		floorsApplied.incrementAndGet();
+		return floor.instances;
+	}
+
+	public void remove(String appId) {
+		startupMillis.remove(appId);
+		floors.remove(appId);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("apps", startupMillis.size());
+		stats.put("startups", startups.get());
+		stats.put("averageStartupMillis", (long) Math.max(0, allStartupMillis));
+		stats.put("floors", floors.size());
+		stats.put("floorsApplied", floorsApplied.get());
+		return stats;
+	}
+
+}
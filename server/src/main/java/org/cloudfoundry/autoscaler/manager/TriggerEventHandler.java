@@ -1,19 +1,24 @@
 package org.cloudfoundry.autoscaler.manager;
 
 import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
 import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.bean.ScalingTrace;
 import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
 import org.cloudfoundry.autoscaler.exceptions.AppNotFoundException;
 import org.cloudfoundry.autoscaler.exceptions.CloudException;
 import org.cloudfoundry.autoscaler.exceptions.DataStoreException;
 import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
+import org.cloudfoundry.autoscaler.util.Clock;
 import org.cloudfoundry.autoscaler.util.ConfigManager;
 
 /**
  * Handles trigger events
  * 
- * 
- * 
+ * Each handler has a single-slot mailbox. An event arriving while another
+ * one is pending or being handled is merged into the pending event, so a
+ * burst of events for the same app results in one scaling attempt per
+ * handling round instead of one per event.
  */
 public class TriggerEventHandler {
 	private static final Logger logger = Logger
@@ -22,6 +27,11 @@ public class TriggerEventHandler {
 	
 	public final static int TRIGGER_TYPE_MONITOR_EVENT = 0;
 	public final static int TRIGGER_TYPE_POLICY_CHANGED = 1;
+
+	public final static int OFFER_SCHEDULE = 0;
+	public final static int OFFER_QUEUED = 1;
+	public final static int OFFER_COALESCED = 2;
+	public final static int OFFER_EVICTED = 3;
 	public final long eventTimeout = Long.parseLong(ConfigManager.get("LAST_TRIGGER_EVENT_TIME_OUT", "10")) * 60 * 1000L;
 	private String appId;
 	private long busyTimestamp;
@@ -29,6 +39,14 @@ public class TriggerEventHandler {
 	private long approximateLastScalingActionTimeStamps;
 	private boolean busy;
 
+	private MonitorTriggerEvent pendingEvent;
+	private boolean scheduled;
+	private boolean evicted;
+	private Clock clock = Clock.SYSTEM;
+	private long lastActiveTime = clock.currentTimeMillis();
+	/** the scale manager handling the events, null for the server one **/
+	private ApplicationScaleManager scaleManager;
+
 
 	public TriggerEventHandler() {
 		this.approximateCooldownSetting = 0l;
@@ -36,6 +54,23 @@ public class TriggerEventHandler {
 		this.busyTimestamp = 0l;
 	}
 
+	public TriggerEventHandler(String appId) {
+		this();
+		this.appId = appId;
+	}
+
+	/**
+	 * @param appId
+	 * @param scaleManager the scale manager handling the events
+	 * @param clock the clock of the cooldown and busy checks
+	 */
+	public TriggerEventHandler(String appId, ApplicationScaleManager scaleManager, Clock clock) {
+		this(appId);
+		this.scaleManager = scaleManager;
+		this.clock = clock;
+		this.lastActiveTime = clock.currentTimeMillis();
+	}
+
 	public TriggerEventHandler(MonitorTriggerEvent event)
 			throws AppNotFoundException, PolicyNotFoundException,
 			CloudException, DataStoreException {
@@ -49,20 +84,127 @@ public class TriggerEventHandler {
 		event.getTriggerId();
 	}
 
-	public void handleEvent(MonitorTriggerEvent event) {
+	/**
+	 * Puts an event into the mailbox
+	 * @param event
+	 * @return OFFER_SCHEDULE if the caller has to drain the mailbox,
+	 *         OFFER_QUEUED if the event waits for the running drain,
+	 *         OFFER_COALESCED if the event was merged into a pending one, or
+	 *         OFFER_EVICTED if the handler is evicted and a new one is needed
+	 */
+	public synchronized int offer(MonitorTriggerEvent event) {
+		if (evicted)
+			return OFFER_EVICTED;
+		lastActiveTime = clock.currentTimeMillis();
+		if (event.getTrace() == null) {
+			/** events posted by a monitor start their trace here **/
+			ScalingTrace trace = new ScalingTrace();
+			trace.setFiredTime(event.getTimeStamp());
+			event.setTrace(trace);
+		}
+		event.getTrace().setEnqueuedTime(lastActiveTime);
+		MonitorTriggerEvent pending = pendingEvent;
+		pendingEvent = merge(pending, event);
+		if (pending != null)
+			return OFFER_COALESCED;
+		if (scheduled)
+			return OFFER_QUEUED;
+		scheduled = true;
+		return OFFER_SCHEDULE;
+	}
+
+	/**
+	 * Takes the pending event, or marks the handler idle when there is none
+	 * @return the pending event, or null if the mailbox is empty
+	 */
+	public synchronized MonitorTriggerEvent poll() {
+		MonitorTriggerEvent event = pendingEvent;
+		pendingEvent = null;
+		if (event == null || evicted) {
+			scheduled = false;
+			lastActiveTime = clock.currentTimeMillis();
+			return null;
+		}
+		return event;
+	}
+
+	/**
+	 * @return the pending event without taking it, or null
+	 */
+	public synchronized MonitorTriggerEvent peek() {
+		return pendingEvent;
+	}
+
+	/**
+	 * Evicts the handler, new events then go to a new handler
+	 * @param idleSince only evict the handler if it was idle since this time, or 0 to evict it anyway
+	 * @return true if the handler was evicted
+	 */
+	public synchronized boolean evict(long idleSince) {
+		if (evicted)
+			return false;
+		if (idleSince > 0 && (scheduled || pendingEvent != null || lastActiveTime > idleSince))
+			return false;
+		evicted = true;
+		return true;
+	}
+
+	/**
+	 * Removes the pending event of an evicted handler
+	 * @return the dropped event or null
+	 */
+	public synchronized MonitorTriggerEvent clear() {
+		MonitorTriggerEvent event = pendingEvent;
+		pendingEvent = null;
+		return event;
+	}
 
-		if ( approximateLastScalingActionTimeStamps + approximateCooldownSetting > System.currentTimeMillis()) {
+	/**
+	 * Merges a new event into the pending one. The newest event supersedes the
+	 * pending one, except that scaling out wins over scaling in. Of two events
+	 * in the same direction for the same metric, the merged event keeps the
+	 * most extreme metric value.
+	 * @param pending the pending event or null
+	 * @param event the new event
+	 * @return the merged event
+	 */
+	public static MonitorTriggerEvent merge(MonitorTriggerEvent pending, MonitorTriggerEvent event) {
+		if (pending == null)
+			return event;
+		boolean pendingUp = pending.isScaleOut();
+		boolean up = event.isScaleOut();
+		if (pendingUp != up)
+			return pendingUp ? pending : event;
+		if (pending.getMetricType() != null && pending.getMetricType().equals(event.getMetricType())) {
+			double value = up ? Math.max(pending.getMetricValue(), event.getMetricValue())
+					: Math.min(pending.getMetricValue(), event.getMetricValue());
+			event.setMetricValue(value);
+		}
+		return event;
+	}
+
+	/**
+	 * Handles an event
+	 * @param event
+	 * @return true if the event was handed to the scale manager, false if it was ignored
+	 */
+	public boolean handleEvent(MonitorTriggerEvent event) {
+
+		if ( approximateLastScalingActionTimeStamps + approximateCooldownSetting > clock.currentTimeMillis()) {
 			loggerEvent.debug("Event " + event.toString() + " for " + this.appId + " is ignored as it happens in cooldown period. ");
-			return;
+			return false;
 		}
 		
 		if (isBusy()){
 			loggerEvent.debug("Event " + event.toString() + " for " + this.appId + " is ignored as the related handler is busy.");
-			return;
+			return false;
 		}
 		setBusy(true);
-		initialize(event);
-		ApplicationScaleManager manager = ApplicationScaleManagerImpl.getInstance();
+		if (appId == null)
+			appId = event.getAppId();
+		if (event.getTrace() != null)
+			event.getTrace().setHandledTime(clock.currentTimeMillis());
+		ApplicationScaleManager manager = scaleManager != null ? scaleManager : ApplicationScaleManagerImpl.getInstance();
 		try {
 			manager.doScaleByTrigger(event);
 		} catch (Exception e) {
@@ -73,11 +215,12 @@ public class TriggerEventHandler {
 		}
 		
 		setBusy(false);
+		return true;
 	}
 
 	public synchronized boolean isBusy(){
 		//if a httpconnection is hang (i.e. in jersey client) when handle event, the eventTimeout definition will help to unlock the thread.
-		if ((busy) && (System.currentTimeMillis() - this.busyTimestamp < this.eventTimeout))
+		if ((busy) && (clock.currentTimeMillis() - this.busyTimestamp < this.eventTimeout))
 			return true;
 		else 
 			return false;
@@ -86,7 +229,7 @@ public class TriggerEventHandler {
 	public synchronized void setBusy(boolean busy){
 		if (busy){
 			this.busy = true;
-			this.busyTimestamp = System.currentTimeMillis();
+			this.busyTimestamp = clock.currentTimeMillis();
 		}
 		else {
 			this.busy = false;
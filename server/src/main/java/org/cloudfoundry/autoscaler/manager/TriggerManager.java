@@ -1,5 +1,6 @@
 package org.cloudfoundry.autoscaler.manager;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -64,14 +65,41 @@ public class TriggerManager {
 
 	private void subscribeTrigger(
 			AutoScalerPolicyTrigger policyTrigger) throws MonitorServiceException, MetricNotSupportedException {
-		Trigger lowTrigger = createTrigger(policyTrigger,
-				AutoScalerPolicyTrigger.TriggerId_LowerThreshold);
-		Trigger upperTrigger = createTrigger(policyTrigger,
-				AutoScalerPolicyTrigger.TriggerId_UpperThreshold);
-		lowTrigger.setAppId(appId);
-		upperTrigger.setAppId(appId);
-		this.subscribe(lowTrigger);
-		this.subscribe(upperTrigger);
+		for (Trigger trigger : createTriggers(appId, policyTrigger))
+			this.subscribe(trigger);
+	}
+
+	/**
+	 * Creates the monitor triggers of a policy
+	 * 
+	 * @param appId
+	 * @param policy
+	 * @return the triggers
+	 * @throws MetricNotSupportedException
+	 */
+	public static List<Trigger> createTriggers(String appId, AutoScalerPolicy policy) throws MetricNotSupportedException {
+		List<Trigger> triggers = new ArrayList<Trigger>();
+		if (policy.getPolicyTriggers() != null) {
+			for (AutoScalerPolicyTrigger policyTrigger : policy.getPolicyTriggers())
+				triggers.addAll(createTriggers(appId, policyTrigger));
+		}
+		return triggers;
+	}
+
+	private static List<Trigger> createTriggers(String appId, AutoScalerPolicyTrigger policyTrigger) throws MetricNotSupportedException {
+		List<Trigger> triggers = new ArrayList<Trigger>();
+		if (policyTrigger.isTargetTracking()) {
+			triggers.add(createTrigger(policyTrigger,
+					AutoScalerPolicyTrigger.TriggerId_Target));
+		} else {
+			triggers.add(createTrigger(policyTrigger,
+					AutoScalerPolicyTrigger.TriggerId_LowerThreshold));
+			triggers.add(createTrigger(policyTrigger,
+					AutoScalerPolicyTrigger.TriggerId_UpperThreshold));
+		}
+		for (Trigger trigger : triggers)
+			trigger.setAppId(appId);
+		return triggers;
 	}
 
 	private void unsubscribeTrigger(String appId) throws MonitorServiceException, TriggerNotSubscribedException {
@@ -82,7 +110,7 @@ public class TriggerManager {
 	 * Create a trigger
 	 * @throws MetricNotSupportedException 
 	 */
-	private Trigger createTrigger(AutoScalerPolicyTrigger policyTrigger,
+	private static Trigger createTrigger(AutoScalerPolicyTrigger policyTrigger,
 			String triggerId) throws MetricNotSupportedException {
 		Trigger trigger = new Trigger();
 
@@ -95,7 +123,7 @@ public class TriggerManager {
 			throw new MetricNotSupportedException(metricType);
 
 		 String statType = policyTrigger.getStatType();
-		 if (Trigger.AGGREGATE_TYPE_MAX.equalsIgnoreCase(statType))
+		 if (Trigger.AGGREGATE_TYPE_MAX.equalsIgnoreCase(statType) && !policyTrigger.isTargetTracking())
 		 {
 			 trigger.setStatType(Trigger.AGGREGATE_TYPE_MAX);
 		 }
@@ -117,12 +145,18 @@ public class TriggerManager {
 			double threshold = IcapMonitorMetricsMapper.converMetricValue(metricName, policyTrigger.getUpperThreshold());
 			trigger.setMetricThreshold(threshold);
 			trigger.setThresholdType(Trigger.THRESHOLD_TYPE_LARGER_THAN);
+			trigger.setPredictive(policyTrigger.isPredictive());
+		} else if (triggerId.equals(AutoScalerPolicyTrigger.TriggerId_Target)) {
+			trigger.setTriggerId(AutoScalerPolicyTrigger.TriggerId_Target);
+			double target = IcapMonitorMetricsMapper.converMetricValue(metricName, policyTrigger.getTargetValue());
+			trigger.setMetricThreshold(target);
+			trigger.setThresholdType(Trigger.THRESHOLD_TYPE_TARGET);
 		}
 		trigger.setCallbackUrl(getCallbackUrl());
 		return trigger;
 	}
 	
-	private String getCallbackUrl(){
+	private static String getCallbackUrl(){
 		String appUrl = AutoScalerEnvUtil.getApplicationUrl();
 		if (appUrl == null)
 			appUrl = "http://localhost:8080/server";// Just for test usage, should be deleted.// TODO
@@ -0,0 +1,211 @@
+package org.cloudfoundry.autoscaler.metric.forecast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+
+/**
+ * Replays stored metrics of an app through a {@link HoltWinters} model the
+ * way {@link PredictiveScaler} does, and reports how well the forecast
+ * predicts breaches of an upper threshold. Run with the server classpath and
+ * configuration against the data store:
+ *
+ * java ... ForecastBacktest appId [CPU|Memory] threshold [unit] [hours]
+ *
+ * The threshold is given like in a policy, e.g. 80 percent. The forecast
+ * settings are read from the forecast* configuration.
+ */
+public class ForecastBacktest {
+
+	/**
+	 * Outcome of a backtest
+	 */
+	public static class Result {
+		private int steps;
+		private int forecastSteps;
+		private double absoluteErrorSum;
+		private double percentageErrorSum;
+		private int percentageErrorCount;
+		private int breaches;
+		private int predictedBreaches;
+		private long leadTimeSum;
+		private int alarms;
+		private int falseAlarms;
+
+		/** steps of the replayed history **/
+		public int getSteps() {
+			return steps;
+		}
+
+		/** steps forecast by the ready model **/
+		public int getForecastSteps() {
+			return forecastSteps;
+		}
+
+		/** mean absolute error of the one step forecast of the load **/
+		public double getMeanAbsoluteError() {
+			return forecastSteps == 0 ? Double.NaN : absoluteErrorSum / forecastSteps;
+		}
+
+		/** mean absolute percentage error of the one step forecast of the load **/
+		public double getMeanAbsolutePercentageError() {
+			return percentageErrorCount == 0 ? Double.NaN : 100 * percentageErrorSum / percentageErrorCount;
+		}
+
+		/** breaches of the threshold while the model was ready **/
+		public int getBreaches() {
+			return breaches;
+		}
+
+		/** breaches forecast before they started **/
+		public int getPredictedBreaches() {
+			return predictedBreaches;
+		}
+
+		/** mean time between the first forecast and the start of the predicted breaches **/
+		public long getMeanLeadTimeMillis() {
+			return predictedBreaches == 0 ? 0 : leadTimeSum / predictedBreaches;
+		}
+
+		/** forecast breaches, consecutive forecasts count once **/
+		public int getAlarms() {
+			return alarms;
+		}
+
+		/** alarms not followed by a breach within the lead time **/
+		public int getFalseAlarms() {
+			return falseAlarms;
+		}
+
+		@Override
+		public String toString() {
+			return "steps=" + steps + ", forecastSteps=" + forecastSteps + ", MAE=" + getMeanAbsoluteError()
+					+ ", MAPE=" + getMeanAbsolutePercentageError() + "%, breaches=" + breaches + ", predictedBreaches="
+					+ predictedBreaches + ", meanLeadTimeSec=" + getMeanLeadTimeMillis() / 1000 + ", alarms=" + alarms
+					+ ", falseAlarms=" + falseAlarms;
+		}
+	}
+
+	/**
+	 * @param history stored metrics of the app
+	 * @param metricName Trigger.METRIC_CPU or Trigger.METRIC_MEM
+	 * @param threshold the upper threshold as in the policy
+	 * @param unit the unit of the threshold
+	 * @param model an empty model
+	 * @param leadSteps steps forecast ahead
+	 * @return the result
+	 */
+	public static Result run(List<AppInstanceMetrics> history, String metricName, double threshold, String unit,
+			HoltWinters model, int leadSteps) {
+		long stepMillis = model.getStepMillis();
+		List<AppInstanceMetrics> sorted = new ArrayList<AppInstanceMetrics>(history);
+		PredictiveScaler.sortByTimestamp(sorted);
+
+		/** the load, instances and threshold of every step, as the model sees them **/
+		List<Long> stepTimes = new ArrayList<Long>();
+		List<double[]> stepValues = new ArrayList<double[]>();
+		long currentStep = -1;
+		double sum = 0;
+		double instances = 0;
+		double stepThreshold = 0;
+		int count = 0;
+		for (AppInstanceMetrics metrics : sorted) {
+			double[] load = PredictiveScaler.loadOf(metrics, metricName);
+			if (load == null)
+				continue;
+			long step = metrics.getTimestamp() / stepMillis;
+			if (step != currentStep && count > 0) {
+				stepTimes.add(currentStep);
+				stepValues.add(new double[] { sum / count, instances, stepThreshold });
+				sum = 0;
+				count = 0;
+			}
+			currentStep = step;
+			sum += load[0];
+			instances = load[1];
+			stepThreshold = PredictiveScaler.thresholdOf(metricName, threshold, unit, metrics.getMemQuota());
+			count++;
+		}
+		if (count > 0) {
+			stepTimes.add(currentStep);
+			stepValues.add(new double[] { sum / count, instances, stepThreshold });
+		}
+
+		Result result = new Result();
+		result.steps = stepTimes.size();
+		/** the step the last alarm covers until, and the time it was first raised **/
+		long alarmUntil = -1;
+		long alarmTime = 0;
+		boolean alarmConfirmed = false;
+		boolean breached = false;
+		for (int i = 0; i < stepTimes.size(); i++) {
+			long step = stepTimes.get(i);
+			double[] values = stepValues.get(i);
+			/** the first value of a step completes the previous one, as a poll does in the scaler **/
+			model.add(step * stepMillis, values[0]);
+			if (i > 0 && model.isReady()) {
+				double forecast = model.forecastAt(step * stepMillis);
+				if (!Double.isNaN(forecast)) {
+					result.forecastSteps++;
+					result.absoluteErrorSum += Math.abs(forecast - values[0]);
+					if (values[0] != 0) {
+						result.percentageErrorSum += Math.abs((forecast - values[0]) / values[0]);
+						result.percentageErrorCount++;
+					}
+				}
+
+				/** the scaler forecasts with the instances of the last step **/
+				double[] previous = stepValues.get(i - 1);
+				double predicted = model.forecastMax(leadSteps) / previous[1];
+				if (predicted >= previous[2]) {
+					if (step > alarmUntil) {
+						if (alarmUntil >= 0 && !alarmConfirmed)
+							result.falseAlarms++;
+						result.alarms++;
+						alarmTime = step * stepMillis;
+						alarmConfirmed = false;
+					}
+					alarmUntil = model.getLastStepTime() / stepMillis + leadSteps;
+				}
+
+				boolean breach = values[0] / values[1] >= values[2];
+				if (breach && !breached) {
+					result.breaches++;
+					if (step <= alarmUntil) {
+						result.predictedBreaches++;
+						result.leadTimeSum += step * stepMillis - alarmTime;
+					}
+				}
+				if (breach && step <= alarmUntil)
+					alarmConfirmed = true;
+				breached = breach;
+			}
+		}
+		if (alarmUntil >= 0 && !alarmConfirmed)
+			result.falseAlarms++;
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: ForecastBacktest appId [CPU|Memory] threshold [unit] [hours]");
+			System.exit(1);
+		}
+		String appId = args[0];
+		String metricName = Trigger.METRIC_MEM.equalsIgnoreCase(args[1]) ? Trigger.METRIC_MEM : Trigger.METRIC_CPU;
+		double threshold = Double.parseDouble(args[2]);
+		String unit = args.length > 3 ? args[3] : "percent";
+		long hours = args.length > 4 ? Long.parseLong(args[4]) : 24 * 14;
+
+		List<AppInstanceMetrics> history = AutoScalingDataStoreFactory.getAutoScalingDataStore()
+				.getAppStatsHistoryByAppIdAfter(appId, System.currentTimeMillis() - hours * 3600 * 1000);
+		Result result = run(history, metricName, threshold, unit, PredictiveScaler.newModel(),
+				PredictiveScaler.getLeadSteps());
+		System.out.println(history.size() + " stored metrics of app " + appId + ": " + result);
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.cloudfoundry.autoscaler.metric.forecast;
+
+/**
+ * Additive Holt-Winters model of a metric, fitted incrementally.
+ *
+ * Samples are averaged into steps of stepMillis, and the model is updated
+ * with the mean of every completed step. Season positions are aligned to the
+ * epoch, so a daily season starts at midnight UTC. The model is initialized
+ * from its first season of steps and forecasts from then on. Missing steps
+ * are skipped; a gap longer than a season restarts the model.
+ */
+public class HoltWinters {
+
+	private final long stepMillis;
+	private final int seasonSteps;
+	private final double alpha;
+	private final double beta;
+	private final double gamma;
+
+	private final double[] season;
+	private double level;
+	private double trend;
+	private boolean ready;
+
+	/** first step of the initial season, -1 before the first sample **/
+	private long firstStep = -1;
+	private final double[] initSum;
+	private final int[] initCount;
+
+	/** step collecting samples **/
+	private long currentStep = -1;
+	private double currentSum;
+	private int currentCount;
+	/** last step the model was updated with **/
+	private long lastStep = -1;
+
+	/**
+	 * @param stepMillis length of a step
+	 * @param seasonSteps number of steps of a season
+	 * @param alpha smoothing of the level
+	 * @param beta smoothing of the trend
+	 * @param gamma smoothing of the season
+	 */
+	public HoltWinters(long stepMillis, int seasonSteps, double alpha, double beta, double gamma) {
+		if (stepMillis <= 0 || seasonSteps < 2)
+			throw new IllegalArgumentException("Invalid step " + stepMillis + " or season " + seasonSteps);
+		this.stepMillis = stepMillis;
+		this.seasonSteps = seasonSteps;
+		this.alpha = alpha;
+		this.beta = beta;
+		this.gamma = gamma;
+		this.season = new double[seasonSteps];
+		this.initSum = new double[seasonSteps];
+		this.initCount = new int[seasonSteps];
+	}
+
+	/**
+	 * Adds a sample. Samples older than the current step are ignored.
+	 * @param timestamp
+	 * @param value
+	 * @return true if a step was completed and the model updated
+	 */
+	public boolean add(long timestamp, double value) {
+		long step = timestamp / stepMillis;
+		if (currentStep < 0) {
+			currentStep = step;
+		} else if (step < currentStep) {
+			return false;
+		}
+		boolean updated = false;
+		if (step > currentStep) {
+			update(currentStep, currentSum / currentCount);
+			updated = true;
+			currentStep = step;
+			currentSum = 0;
+			currentCount = 0;
+		}
+		currentSum += value;
+		currentCount++;
+		return updated;
+	}
+
+	private void update(long step, double value) {
+		if (lastStep >= 0 && step - lastStep > seasonSteps)
+			reset();
+		int position = position(step);
+		if (!ready) {
+			if (firstStep < 0)
+				firstStep = step;
+			if (step - firstStep < seasonSteps) {
+				initSum[position] += value;
+				initCount[position]++;
+				lastStep = step;
+				return;
+			}
+			initialize();
+		}
+		/** a skipped step keeps the level and follows the trend **/
+		for (long skipped = lastStep + 1; skipped < step; skipped++)
+			level += trend;
+		double previousLevel = level;
+		level = alpha * (value - season[position]) + (1 - alpha) * (level + trend);
+		trend = beta * (level - previousLevel) + (1 - beta) * trend;
+		season[position] = gamma * (value - level) + (1 - gamma) * season[position];
+		lastStep = step;
+	}
+
+	private void initialize() {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < seasonSteps; i++) {
+			if (initCount[i] > 0) {
+				sum += initSum[i] / initCount[i];
+				count++;
+			}
+		}
+		level = sum / count;
+		trend = 0;
+		for (int i = 0; i < seasonSteps; i++)
+			season[i] = initCount[i] > 0 ? initSum[i] / initCount[i] - level : 0;
+		ready = true;
+	}
+
+	private void reset() {
+		ready = false;
+		firstStep = -1;
+		level = 0;
+		trend = 0;
+		for (int i = 0; i < seasonSteps; i++) {
+			season[i] = 0;
+			initSum[i] = 0;
+			initCount[i] = 0;
+		}
+	}
+
+	private int position(long step) {
+		return (int) (step % seasonSteps);
+	}
+
+	/**
+	 * @return true once a season has been observed
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @param steps number of steps after the last completed step
+	 * @return the forecast value, or NaN if the model is not ready
+	 */
+	public double forecast(int steps) {
+		if (!ready)
+			return Double.NaN;
+		return level + steps * trend + season[position(lastStep + steps)];
+	}
+
+	/**
+	 * @param timestamp
+	 * @return the forecast value of the step of the timestamp, or NaN if the model is not ready or the step is completed
+	 */
+	public double forecastAt(long timestamp) {
+		long steps = timestamp / stepMillis - lastStep;
+		if (steps <= 0 || steps > Integer.MAX_VALUE)
+			return Double.NaN;
+		return forecast((int) steps);
+	}
+
+	/**
+	 * @param steps
+	 * @return the highest forecast value of the next steps, or NaN if the model is not ready
+	 */
+	public double forecastMax(int steps) {
+		double max = Double.NaN;
+		for (int i = 1; i <= steps; i++) {
+			double value = forecast(i);
+			if (Double.isNaN(max) || value > max)
+				max = value;
+		}
+		return max;
+	}
+
+	public long getStepMillis() {
+		return stepMillis;
+	}
+
+	public long getLastStepTime() {
+		return lastStep < 0 ? 0 : lastStep * stepMillis;
+	}
+
+}
@@ -0,0 +1,293 @@
+package org.cloudfoundry.autoscaler.metric.forecast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.bean.Trigger.ThresholdUnit;
+import org.cloudfoundry.autoscaler.constant.Constants;
+import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.metric.monitor.MonitorController;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+
+/**
+ * Scales out apps ahead of forecast breaches of predictive upper triggers.
+ *
+ * For every app and metric with a predictive trigger, a {@link HoltWinters}
+ * model is fitted to the load of the app, i.e. the sum of the metric over
+ * all instances, so scaling does not distort the learned pattern. The model
+ * starts from the stored history of the last forecastWarmupHours. Whenever a
+ * step of forecastStepMin completes, the highest forecast load of the next
+ * forecastLeadMin is divided by the current instance count. If that reaches
+ * the upper threshold, an upper trigger event is submitted, which is handled
+ * like a reactive one, including cooldown and the instance count bounds.
+ */
+public class PredictiveScaler {
+	private static final Logger logger = Logger.getLogger(PredictiveScaler.class);
+	private static final Logger loggerEvent = Logger.getLogger("triggerevent");
+
+	private static final long stepMillis = ConfigManager.getLong("forecastStepMin", 5) * 60 * 1000;
+	private static final int seasonSteps = (int) (ConfigManager.getLong("forecastSeasonHours", 24) * 3600 * 1000 / stepMillis);
+	private static final double alpha = ConfigManager.getDouble("forecastAlpha", 0.5);
+	private static final double beta = ConfigManager.getDouble("forecastBeta", 0.01);
+	private static final double gamma = ConfigManager.getDouble("forecastGamma", 0.3);
+	private static final int leadSteps = (int) Math.max(1,
+			(ConfigManager.getLong("forecastLeadMin", 15) * 60 * 1000 + stepMillis - 1) / stepMillis);
+	private static final long warmupMillis = ConfigManager.getLong("forecastWarmupHours", 48) * 3600 * 1000;
+
+	private static final PredictiveScaler instance = new PredictiveScaler();
+
+	// <appId, <metric, Model>>
+	private final ConcurrentMap<String, ConcurrentMap<String, Model>> models = new ConcurrentHashMap<String, ConcurrentMap<String, Model>>();
+	private final ExecutorService warmupExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("forecastWarmup"));
+
+	private final AtomicLong steps = new AtomicLong(0);
+	private final AtomicLong forecasts = new AtomicLong(0);
+	private final AtomicLong events = new AtomicLong(0);
+	private final AtomicLong warmups = new AtomicLong(0);
+
+	private static class Model {
+		private final HoltWinters holtWinters = newModel();
+		private boolean warming;
+	}
+
+	private PredictiveScaler() {
+	}
+
+	public static PredictiveScaler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return a model with the configured step, season and smoothing
+	 */
+	public static HoltWinters newModel() {
+		return new HoltWinters(stepMillis, seasonSteps, alpha, beta, gamma);
+	}
+
+	public static int getLeadSteps() {
+		return leadSteps;
+	}
+
+	/**
+	 * Fits the models of the app to polled metrics, and scales out if a
+	 * breach is forecast
+	 * @param metrics
+	 */
+	public void addSample(AppInstanceMetrics metrics) {
+		try {
+			doAddSample(metrics);
+		} catch (Exception e) {
+			logger.error("Failed to forecast the metrics of app " + metrics.getAppId(), e);
+		}
+	}
+
+	private void doAddSample(AppInstanceMetrics metrics) {
+		String appId = metrics.getAppId();
+		List<Trigger> triggers = MonitorController.getInstance().getTriggers(appId);
+		List<Trigger> predictiveTriggers = new ArrayList<Trigger>();
+		if (triggers != null) {
+			for (Trigger trigger : triggers) {
+				if (trigger.isPredictive() && Trigger.THRESHOLD_TYPE_LARGER_THAN.equals(trigger.getThresholdType()))
+					predictiveTriggers.add(trigger);
+			}
+		}
+		if (predictiveTriggers.isEmpty()) {
+			models.remove(appId);
+			return;
+		}
+
+		for (Trigger trigger : predictiveTriggers) {
+			double[] load = loadOf(metrics, trigger.getMetric());
+			if (load == null)
+				continue;
+			Model model = getModel(appId, trigger.getMetric());
+			double predicted;
+			synchronized (model) {
+				if (model.warming || !model.holtWinters.add(metrics.getTimestamp(), load[0]))
+					continue;
+				steps.incrementAndGet();
+				if (!model.holtWinters.isReady())
+					continue;
+				predicted = model.holtWinters.forecastMax(leadSteps);
+			}
+			forecasts.incrementAndGet();
+
+			double perInstance = predicted / load[1];
+			double threshold = thresholdOf(trigger.getMetric(), trigger.getMetricThreshold(), trigger.getUnit(),
+					metrics.getMemQuota());
+			if (perInstance >= threshold) {
+				MonitorTriggerEvent event = new MonitorTriggerEvent();
+				event.setAppId(appId);
+				event.setTriggerId(trigger.getTriggerId());
+				event.setMetricType(trigger.getMetric());
+				event.setMetricValue(perInstance);
+				event.setTimeStamp(System.currentTimeMillis());
+				event.setTrigger(trigger);
+				events.incrementAndGet();
+				loggerEvent.info("Forecast " + trigger.getMetric() + " of app " + appId + " reaches " + perInstance
+						+ " per instance within " + leadSteps * stepMillis / 60000 + " minutes, threshold is " + threshold);
+				MonitorController.getInstance().submitTriggerEvent(event);
+			}
+		}
+	}
+
+	private Model getModel(final String appId, final String metric) {
+		ConcurrentMap<String, Model> appModels = models.get(appId);
+		if (appModels == null) {
+			ConcurrentMap<String, Model> newModels = new ConcurrentHashMap<String, Model>();
+			appModels = models.putIfAbsent(appId, newModels);
+			if (appModels == null)
+				appModels = newModels;
+		}
+		Model model = appModels.get(metric);
+		if (model == null) {
+			Model newModel = new Model();
+			newModel.warming = warmupMillis > 0;
+			model = appModels.putIfAbsent(metric, newModel);
+			if (model == null) {
+				model = newModel;
+				if (model.warming)
+					warmUp(appId, metric, model);
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Fits a new model to the stored history before it gets polled metrics
+	 */
+	private void warmUp(final String appId, final String metric, final Model model) {
+		warmupExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<AppInstanceMetrics> history = AutoScalingDataStoreFactory.getAutoScalingDataStore()
+							.getAppStatsHistoryByAppIdAfter(appId, System.currentTimeMillis() - warmupMillis);
+					sortByTimestamp(history);
+					synchronized (model) {
+						for (AppInstanceMetrics metrics : history) {
+							double[] load = loadOf(metrics, metric);
+							if (load != null)
+								model.holtWinters.add(metrics.getTimestamp(), load[0]);
+						}
+					}
+					warmups.incrementAndGet();
+					logger.info("Fitted the " + metric + " forecast of app " + appId + " to " + history.size()
+							+ " stored metrics");
+				} catch (Exception e) {
+					logger.warn("Failed to fit the " + metric + " forecast of app " + appId + " to stored metrics: "
+							+ e.getMessage());
+				} finally {
+					synchronized (model) {
+						model.warming = false;
+					}
+				}
+			}
+		});
+	}
+
+	static void sortByTimestamp(List<AppInstanceMetrics> metrics) {
+		Collections.sort(metrics, new Comparator<AppInstanceMetrics>() {
+			@Override
+			public int compare(AppInstanceMetrics o1, AppInstanceMetrics o2) {
+				return o1.getTimestamp() < o2.getTimestamp() ? -1 : (o1.getTimestamp() > o2.getTimestamp() ? 1 : 0);
+			}
+		});
+	}
+
+	/**
+	 * Sums a metric over the instances, with the values the StateMonitor
+	 * evaluates the triggers with
+	 * @param metrics
+	 * @param metricName Trigger.METRIC_CPU or Trigger.METRIC_MEM
+	 * @return the load and the number of instances reporting it, or null
+	 */
+	static double[] loadOf(AppInstanceMetrics metrics, String metricName) {
+		if (metrics.getInstanceMetrics() == null)
+			return null;
+		double sum = 0;
+		int count = 0;
+		for (InstanceMetrics instanceMetrics : metrics.getInstanceMetrics()) {
+			for (Metric metric : instanceMetrics.getMetrics()) {
+				String compoundName = metric.getCompoundName();
+				try {
+					if (Trigger.METRIC_CPU.equals(metricName)
+							&& compoundName.equalsIgnoreCase(Constants.METRIC_POLLER_CPU)) {
+						sum += Double.valueOf(metric.getValue()) * 100;
+						count++;
+					} else if (Trigger.METRIC_MEM.equals(metricName)
+							&& compoundName.equalsIgnoreCase(Constants.METRIC_POLLER_MEMORY)) {
+						double usedMemory = Double.valueOf(metric.getValue());
+						if (usedMemory > 0 && metrics.getMemQuota() > 0) {
+							sum += usedMemory;
+							count++;
+						}
+					}
+				} catch (NumberFormatException e) {
+					// not a number, e.g. a held empty value
+				}
+			}
+		}
+		return count == 0 ? null : new double[] { sum, count };
+	}
+
+	/**
+	 * @return the threshold in the unit of the metric values
+	 */
+	static double thresholdOf(String metricName, double threshold, String unit, double memQuota) {
+		double quota = Trigger.METRIC_MEM.equals(metricName) ? memQuota : 0;
+		if (quota == 0 || unit == null)
+			return threshold;
+		if (ThresholdUnit.valueOf(unit.toUpperCase()) == ThresholdUnit.PERCENT)
+			return quota * threshold / 100;
+		return threshold;
+	}
+
+	public void remove(String appId) {
+		models.remove(appId);
+	}
+
+	public void shutdown() {
+		warmupExecutor.shutdownNow();
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		int ready = 0;
+		int count = 0;
+		for (ConcurrentMap<String, Model> appModels : models.values()) {
+			for (Model model : appModels.values()) {
+				count++;
+				if (model.holtWinters.isReady())
+					ready++;
+			}
+		}
+		stats.put("models", count);
+		stats.put("readyModels", ready);
+		stats.put("steps", steps.get());
+		stats.put("forecasts", forecasts.get());
+		stats.put("events", events.get());
+		stats.put("warmups", warmups.get());
+		return stats;
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.cloudfoundry.autoscaler.metric.monitor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.data.StepHeldMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.util.ConfigManager;
+
+/**
+ * Decides which polled metrics are stored in change-only mode.
+ *
+ * Metrics are stored when any metric of any instance moved by more than its
+ * deadband since the metrics last stored for the app, when the instances
+ * changed, after a pause in polling, or when metricsKeyframePolls polls
+ * passed without storing. Stored metrics get the poll interval, so that
+ * {@link StepHeldMetrics} can rebuild the skipped polls on read.
+ */
+public class MetricsChangeFilter {
+	private static final Logger logger = Logger.getLogger(MetricsChangeFilter.class);
+
+	private final Map<String, Deadband> deadbands;
+	private final Deadband defaultDeadband;
+	private final int keyframePolls;
+	private final ConcurrentMap<String, AppState> appStates = new ConcurrentHashMap<String, AppState>();
+
+	private final AtomicLong stored = new AtomicLong(0);
+	private final AtomicLong skipped = new AtomicLong(0);
+
+	private static class AppState {
+		private long lastPollTime;
+		private long interval;
+		private int pollsSinceStored;
+		private Map<String, String> storedValues;
+	}
+
+	/**
+	 * Absolute or percentage threshold of a metric
+	 */
+	private static class Deadband {
+		private final double value;
+		private final boolean percent;
+
+		private Deadband(String definition) {
+			String trimmed = definition.trim();
+			percent = trimmed.endsWith("%");
+			value = Double.parseDouble(percent ? trimmed.substring(0, trimmed.length() - 1) : trimmed);
+		}
+
+		private boolean exceeded(double stored, double current) {
+			double threshold = percent ? Math.abs(stored) * value / 100 : value;
+			return Math.abs(current - stored) > threshold;
+		}
+	}
+
+	public MetricsChangeFilter() {
+		this(ConfigManager.get("metricsDeadband", ""), ConfigManager.get("metricsDefaultDeadband", "0"),
+				StepHeldMetrics.getKeyframePolls());
+	}
+
+	/**
+	 * @param deadbands comma separated metric name and deadband pairs, e.g.
+	 *            Memory:2%,CPU:1
+	 * @param defaultDeadband deadband of the other metrics
+	 * @param keyframePolls
+	 */
+	public MetricsChangeFilter(String deadbands, String defaultDeadband, int keyframePolls) {
+		this.deadbands = new HashMap<String, Deadband>();
+		for (String entry : deadbands.split(",")) {
+			int separator = entry.lastIndexOf(':');
+			if (separator <= 0)
+				continue;
+			try {
+				this.deadbands.put(entry.substring(0, separator).trim(), new Deadband(entry.substring(separator + 1)));
+			} catch (NumberFormatException e) {
+				logger.warn("Ignored invalid metric deadband " + entry);
+			}
+		}
+		this.defaultDeadband = new Deadband(defaultDeadband);
+		this.keyframePolls = keyframePolls;
+	}
+
+	/**
+	 * @param metrics the polled metrics of an app
+	 * @return true if the metrics have to be stored, their sample interval is then set
+	 */
+	public boolean accept(AppInstanceMetrics metrics) {
+		AppState state = appStates.get(metrics.getAppId());
+		if (state == null) {
+			AppState newState = new AppState();
+			state = appStates.putIfAbsent(metrics.getAppId(), newState);
+			if (state == null)
+				state = newState;
+		}
+
+		synchronized (state) {
+			// a poll after a pause, e.g. a restart, starts a new series
+			boolean resumed = false;
+			if (state.lastPollTime > 0 && metrics.getTimestamp() > state.lastPollTime) {
+				long interval = metrics.getTimestamp() - state.lastPollTime;
+				resumed = state.interval > 0 && interval > state.interval * 1.5;
+				if (!resumed)
+					state.interval = interval;
+			}
+			state.lastPollTime = metrics.getTimestamp();
+
+			Map<String, String> values = valuesOf(metrics);
+			if (!resumed && state.storedValues != null && state.pollsSinceStored + 1 < keyframePolls
+					&& !changed(state.storedValues, values)) {
+				state.pollsSinceStored++;
+				skipped.incrementAndGet();
+				return false;
+			}
+			state.storedValues = values;
+			state.pollsSinceStored = 0;
+			if (state.interval > 0)
+				metrics.setSampleInterval(state.interval);
+			stored.incrementAndGet();
+			return true;
+		}
+	}
+
+	private Map<String, String> valuesOf(AppInstanceMetrics metrics) {
+		Map<String, String> values = new HashMap<String, String>();
+		for (InstanceMetrics instance : metrics.getInstanceMetrics()) {
+			// instances without metrics count as well
+			values.put(instance.getInstanceIndex() + "/", "");
+			for (Metric metric : instance.getMetrics())
+				values.put(instance.getInstanceIndex() + "/" + metric.getName(), metric.getValue());
+		}
+		return values;
+	}
+
+	private boolean changed(Map<String, String> storedValues, Map<String, String> values) {
+		if (!storedValues.keySet().equals(values.keySet()))
+			return true;
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			String storedValue = storedValues.get(entry.getKey());
+			String value = entry.getValue();
+			if (storedValue == null || value == null) {
+				if (storedValue != value)
+					return true;
+				continue;
+			}
+			if (storedValue.equals(value))
+				continue;
+			String name = entry.getKey().substring(entry.getKey().indexOf('/') + 1);
+			Deadband deadband = deadbands.containsKey(name) ? deadbands.get(name) : defaultDeadband;
+			try {
+				if (deadband.exceeded(Double.parseDouble(storedValue), Double.parseDouble(value)))
+					return true;
+			} catch (NumberFormatException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void remove(String appId) {
+		appStates.remove(appId);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("stored", stored.get());
+		stats.put("skipped", skipped.get());
+		stats.put("apps", appStates.size());
+		return stats;
+	}
+
+}
@@ -24,16 +24,23 @@ import org.cloudfoundry.autoscaler.bean.Metric;
 import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
 import org.cloudfoundry.autoscaler.bean.Trigger;
 import org.cloudfoundry.autoscaler.constant.Constants;
-import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.LoggingCallback;
+import org.cloudfoundry.autoscaler.data.StepHeldMetrics;
 import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
 import org.cloudfoundry.autoscaler.data.couchdb.document.BoundApp;
 import org.cloudfoundry.autoscaler.exceptions.TriggerNotFoundException;
+import org.cloudfoundry.autoscaler.manager.CooldownTracker;
+import org.cloudfoundry.autoscaler.manager.QuotaBackoffCache;
+import org.cloudfoundry.autoscaler.manager.ScalingDispatcher;
 import org.cloudfoundry.autoscaler.manager.ScalingEventManager;
+import org.cloudfoundry.autoscaler.manager.ScheduleLeadTimeTuner;
 import org.cloudfoundry.autoscaler.metric.bean.ApplicationMetrics;
+import org.cloudfoundry.autoscaler.metric.forecast.PredictiveScaler;
 import org.cloudfoundry.autoscaler.metric.poller.CFPollerManager;
 import org.cloudfoundry.autoscaler.util.CloudFoundryManager;
 import org.cloudfoundry.autoscaler.util.ConfigManager;
+import org.cloudfoundry.autoscaler.util.InstanceCountTracker;
 import org.cloudfoundry.autoscaler.util.MetricConfigManager;
 
 /**
@@ -72,12 +79,15 @@ public class MonitorController implements Runnable {
 			TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("scaleProcessExecutor"));
 
 	private ScheduledThreadPoolExecutor purgeAppMetricsMapExecutor = new ScheduledThreadPoolExecutor(1);
-	private ScheduledThreadPoolExecutor purgeLocalCacheExecutor = new ScheduledThreadPoolExecutor(1);
 
 	private volatile boolean processingStoped = false;
 
 	private boolean store2db = true;
 
+	// null unless metrics are stored in change-only mode
+	private final MetricsChangeFilter metricsChangeFilter = StepHeldMetrics.isChangeOnly() ? new MetricsChangeFilter()
+			: null;
+
 	private MonitorController() {
 		monitorMap = new ConcurrentHashMap<String, StateMonitor>();
 		processingExecutor.execute(this);
@@ -86,9 +96,6 @@ public class MonitorController implements Runnable {
 		purgeAppMetricsMapExecutor.scheduleWithFixedDelay(new PurgeAppMetricsMapThread(appMetricsMap),
 				DEFAULT_PURGE_TIME, DEFAULT_PURGE_TIME, TimeUnit.SECONDS);
 
-		purgeLocalCacheExecutor.setThreadFactory(new NamedThreadFactory("purgeLocalCacheExecutor"));
-		purgeLocalCacheExecutor.scheduleWithFixedDelay(new PurgeLocalCacheThread(), 24, 24, TimeUnit.HOURS);
-
 	}
 
 	public static MonitorController getInstance() {
@@ -102,14 +109,10 @@ public class MonitorController implements Runnable {
 	public void addTrigger(Trigger t) throws Exception {
 		String appId = t.getAppId();
 		logger.info("add Trigger " + t.getMetric() + " for app: " + appId);
-		AutoScalingDataStore storeService = AutoScalingDataStoreFactory.getAutoScalingDataStore();
 		try {
-			// store to db
-			try {
-				storeService.addTrigger(t);
-			} catch (Exception e) {
-				logger.warn(e.getMessage(), e);
-			}
+			// store to db without waiting for it
+			AutoScalingDataStoreFactory.getAsyncAutoScalingDataStore().addTrigger(t)
+					.addCallback(new LoggingCallback<Void>("Failed to store trigger " + t.getMetric() + " of app " + appId));
 
 			// check if the corresponding state monitor exists, if not, create
 			// one
@@ -125,12 +128,9 @@ public class MonitorController implements Runnable {
 
 	public void removeTrigger(String appId) throws TriggerNotFoundException {
 		logger.info("remove Triggers for appId = " + appId);
-		try {
-			AutoScalingDataStore storeService = AutoScalingDataStoreFactory.getAutoScalingDataStore();
-			storeService.removeTrigger(appId);
-		} catch (Exception e) {
-			logger.error(e.getMessage(), e);
-		}
+		// ordered after any pending addTrigger of the app
+		AutoScalingDataStoreFactory.getAsyncAutoScalingDataStore().removeTrigger(appId)
+				.addCallback(new LoggingCallback<Void>("Failed to remove triggers of app " + appId));
 		StateMonitor sm = this.getStateMonitor(appId);
 		if (null == sm) {
 			throw new TriggerNotFoundException("Trigger not found");
@@ -321,7 +321,11 @@ public class MonitorController implements Runnable {
 			// false to indicate the stale data is not allowed.
 			AppInstanceMetrics storedAppInstanceMetrics = appMetricsMap.get(appId).mergeToAppInstanceMetrics(true,
 					false);
-			AutoScalingDataStoreFactory.getAutoScalingDataStore().addAppStats(storedAppInstanceMetrics);
+			PredictiveScaler.getInstance().addSample(storedAppInstanceMetrics);
+			if (metricsChangeFilter != null && !metricsChangeFilter.accept(storedAppInstanceMetrics))
+				return;
+			AutoScalingDataStoreFactory.getAsyncAutoScalingDataStore().addAppStats(storedAppInstanceMetrics)
+					.addCallback(new LoggingCallback<Void>("Failed to store metrics of app " + appId));
 
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
@@ -351,10 +355,6 @@ public class MonitorController implements Runnable {
 			scaleProcessExecutor.shutdownNow();
 			scaleProcessExecutor = null;
 		}
-		if (purgeLocalCacheExecutor != null) {
-			purgeLocalCacheExecutor.shutdownNow();
-			purgeLocalCacheExecutor = null;
-		}
 
 	}
 
@@ -421,21 +421,34 @@ public class MonitorController implements Runnable {
 		return triggers;
 	}
 
-	class ScaleTask implements Runnable {
-		private MonitorTriggerEvent event;
-		private String appId;
-
-		public ScaleTask(String appId, MonitorTriggerEvent event) {
-			this.appId = appId;
-			this.event = event;
+	/**
+	 * Submits a trigger event to the scaling processor, unless it is
+	 * coalesced with a pending event of the app
+	 * @param event
+	 */
+	public void submitTriggerEvent(MonitorTriggerEvent event) {
+		ScalingEventManager manager = ScalingEventManager.getInstance();
+		if (manager.addTriggerEvents(event)) {
+			loggerEvent.debug("Submit events " + event.toString() + " to scalingProcessor");
+			/** each task processes the next event by lane priority, not its own **/
+			manager.queueTriggerEvent(event);
+			scaleProcessExecutor.submit(new ScaleTask());
+		} else {
+			loggerEvent.debug("Coalesce event " + event.toString() + " with the pending event of the app");
 		}
+	}
+
+	class ScaleTask implements Runnable {
 
 		@Override
 		public void run() {
+			MonitorTriggerEvent event = ScalingEventManager.getInstance().pollTriggerEvent();
+			if (event == null)
+				return;
 			try {
 				ScalingEventManager.getInstance().processTriggerEvents(event);
 			} catch (Exception e) {
-				logger.error("Scaling task for appId " + appId + " failed with " + e.getMessage(), e);
+				logger.error("Scaling task for appId " + event.getAppId() + " failed with " + e.getMessage(), e);
 			}
 		}
 
@@ -465,13 +478,7 @@ public class MonitorController implements Runnable {
 					List<MonitorTriggerEvent> triggerEventList = sm.evaluateTriggers();
 					if (triggerEventList != null && !triggerEventList.isEmpty()) {
 						for (MonitorTriggerEvent event : triggerEventList) {
-							if (ScalingEventManager.getInstance().addTriggerEvents(event)) {
-								loggerEvent.debug("Submit events " + event.toString() + " to scalingProcessor");
-								scaleProcessExecutor.submit(new ScaleTask(appId, event));
-							} else {
-								loggerEvent.debug(
-										"Ignore event " + event.toString() + " as the same event type is in queue");
-							}
+							submitTriggerEvent(event);
 						}
 					}
 				}
@@ -554,6 +561,15 @@ public class MonitorController implements Runnable {
 		}
 		boundAppMap.remove(appId);
 		appMetricsMap.remove(appId);
+		if (metricsChangeFilter != null)
+			metricsChangeFilter.remove(appId);
+		ScalingEventManager.getInstance().removeHandler(appId);
+		ScalingDispatcher.getInstance().remove(appId);
+		InstanceCountTracker.getInstance().remove(appId);
+		QuotaBackoffCache.getInstance().remove(appId);
+		CooldownTracker.getInstance().remove(appId);
+		ScheduleLeadTimeTuner.getInstance().remove(appId);
+		PredictiveScaler.getInstance().remove(appId);
 	}
 
 	public BoundApp getBoundApp(String serviceId, String appId) {
@@ -640,6 +656,10 @@ public class MonitorController implements Runnable {
 			return false;
 	}
 
+	public MetricsChangeFilter getMetricsChangeFilter() {
+		return metricsChangeFilter;
+	}
+
 	public void purgeAppFromMap(String appId) {
 		appMetricsMap.remove(appId);
 	}
@@ -1,7 +1,6 @@
 package org.cloudfoundry.autoscaler.metric.monitor;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,6 +13,7 @@ import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
 import org.cloudfoundry.autoscaler.bean.Metric;
 import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.bean.ScalingTrace;
 import org.cloudfoundry.autoscaler.bean.Trigger;
 import org.cloudfoundry.autoscaler.bean.Condition.AggregationType;
 import org.cloudfoundry.autoscaler.bean.Trigger.ThresholdUnit;
@@ -21,6 +21,7 @@ import org.cloudfoundry.autoscaler.constant.Constants;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
 import org.cloudfoundry.autoscaler.metric.bean.Statistic;
 import org.cloudfoundry.autoscaler.metric.bean.Tuple;
+import org.cloudfoundry.autoscaler.util.Clock;
 import org.cloudfoundry.autoscaler.util.ConfigManager;
 
 /**
@@ -36,6 +37,8 @@ public class StateMonitor {
 
 	public static final int TRIGGER_CHECK_INTERVAL_IN_SEC = 10;
 	public static final String strSeparator = "-##@@##-";
+	/** deviation from the target of a target trigger, in percent of the target, that is tolerated **/
+	private static final double targetTolerance = ConfigManager.getDouble("targetTrackingTolerance", 10) / 100;
 
 	public static String autoScalerURL = (System.getenv("autoscalerURL") != null) ? System.getenv("autoscalerURL")
 			: "http://localhost:9080/autoscaler";
@@ -57,8 +60,15 @@ public class StateMonitor {
 
 	private long prevTriggerEvalTime = 0;
 
+	private final Clock clock;
+
 	public StateMonitor(String appId) {
+		this(appId, Clock.SYSTEM);
+	}
+
+	public StateMonitor(String appId, Clock clock) {
 		this.appId = appId;
+		this.clock = clock;
 		this.instanceMetricTupleMap = new HashMap<String, LinkedList<Tuple>>();
 		this.instanceSet = new HashSet<String>();
 
@@ -142,7 +152,7 @@ public class StateMonitor {
 				// remove expired data point if oversized,
 				if (tupleList.size() > maxTimeToKeepInSec) {
 
-					long curTime = Calendar.getInstance().getTimeInMillis();
+					long curTime = clock.currentTimeMillis();
 					Iterator<Tuple> iterator = tupleList.iterator();
 					Tuple oneTuple = iterator.next();
 
@@ -229,7 +239,7 @@ public class StateMonitor {
 		synchronized (this.triggerMap) {
 			synchronized (this.instanceMetricTupleMap) {
 				for (Trigger t : this.triggerMap.values()) {
-					long curTime = Calendar.getInstance().getTimeInMillis();
+					long curTime = clock.currentTimeMillis();
 					int statWindow = t.getStatWindowSecs();
 					double quota = 0;
 					AggregationType statType = AggregationType.valueOf(t.getStatType().toUpperCase());// stat
@@ -320,7 +330,7 @@ public class StateMonitor {
 					// If the all the metric statistic values reaches the
 					// threshold during the breach duration, fire a event
 					if (shouldFireEvent(t, quota, globalStat)) {
-						MonitorTriggerEvent event = createEvent(t, globalStat);
+						MonitorTriggerEvent event = createEvent(t, quota, globalStat);
 						eventList.add(event);
 						logger.debug("Create an event " + event.toString() + " for app " + t.getAppId()
 								+ ". Threshold type is " + t.getTriggerId());
@@ -331,7 +341,7 @@ public class StateMonitor {
 		/** remove inactive instances **/
 		removeInactiveInstances(inactiveInstanceList);
 
-		prevTriggerEvalTime = System.currentTimeMillis();
+		prevTriggerEvalTime = clock.currentTimeMillis();
 		return eventList;
 	}
 
@@ -348,29 +358,85 @@ public class StateMonitor {
 		double threshold = getThesholdByUnit(quota, t.getMetricThreshold(), t.getUnit());
 		logger.debug("Aggreated [" + t.getMetric() + "-" + t.getThresholdType() + "] on all instances in app ["
 				+ this.appId + "]: " + globalStat.getValue() + " with the threshold: " + threshold);
-		// If this trigger is a upper threshold
-		if (t.getThresholdType().equals(Trigger.THRESHOLD_TYPE_LARGER_THAN)) {
-			// Check if the metric value is greater than threshold
-			if (globalStat.getValue() >= threshold) {
-				if (checkBreachDuration(threshold, t)) {
-					logger.debug("Start counting for app " + t.getAppId() + " with trigger " + t.getTriggerId());
-					return true;
-				}
-			} else {
-				setBreachStartTime(t, null);
+		if (isBreached(t, globalStat.getValue(), threshold)) {
+			if (checkBreachDuration(threshold, t)) {
+				logger.debug("Start counting for app " + t.getAppId() + " with trigger " + t.getTriggerId());
+				return true;
 			}
+		} else {
+			setBreachStartTime(t, null);
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a metric value breaches the threshold of a trigger
+	 * 
+	 * @param t
+	 * @param value
+	 * @param threshold the threshold in the unit of the value
+	 * @return true if the value is above an upper threshold, below a lower
+	 *         threshold or out of the tolerated band around a target
+	 */
+	private boolean isBreached(Trigger t, double value, double threshold) {
+		if (t.getThresholdType().equals(Trigger.THRESHOLD_TYPE_LARGER_THAN))
+			return value >= threshold;
+		if (t.getThresholdType().equals(Trigger.THRESHOLD_TYPE_LESS_THAN))
+			return value <= threshold;
+		if (t.getThresholdType().equals(Trigger.THRESHOLD_TYPE_TARGET))
+			return Math.abs(value - threshold) > threshold * targetTolerance;
+		return false;
+	}
 
-		} else if (t.getThresholdType().equals(Trigger.THRESHOLD_TYPE_LESS_THAN)) {
-			if (globalStat.getValue() <= threshold) {
-				if (this.checkBreachDuration(threshold, t)) {
-					logger.debug("Start counting for app " + t.getAppId() + " with trigger " + t.getTriggerId());
-					return true;
+	/**
+	 * Evaluates the trigger of an event again against the current window,
+	 * without changing the tuples or the breach durations, e.g. when the event
+	 * waited too long to be handled
+	 * 
+	 * @param event
+	 * @return a new event with the current value if the threshold is still
+	 *         breached, or null
+	 */
+	public synchronized MonitorTriggerEvent reevaluate(MonitorTriggerEvent event) {
+		synchronized (this.triggerMap) {
+			synchronized (this.instanceMetricTupleMap) {
+				Trigger t = null;
+				for (Trigger trigger : this.triggerMap.values()) {
+					if (trigger.getTriggerId().equals(event.getTriggerId())
+							&& trigger.getMetric().equals(event.getMetricType())) {
+						t = trigger;
+						break;
+					}
+				}
+				if (t == null)
+					return null;
+				long curTime = clock.currentTimeMillis();
+				AggregationType statType = AggregationType.valueOf(t.getStatType().toUpperCase());
+				Statistic globalStat = new Statistic(statType);
+				double quota = 0;
+				for (String instanceId : this.instanceSet) {
+					LinkedList<Tuple> tl = this.instanceMetricTupleMap.get(instanceId + strSeparator + t.getMetric());
+					if (null == tl || tl.size() == 0)
+						continue;
+					quota = tl.get(0).getQuota();
+					Statistic instanceStat = new Statistic(statType);
+					synchronized (tl) {
+						for (Tuple tp : tl) {
+							if (tp.getValue() >= 0 && curTime - tp.getTimestamp() <= t.getStatWindowSecs() * 1000 + 1)
+								instanceStat.update(tp.getValue());
+						}
+					}
+					if (instanceStat.getCount() > 0)
+						globalStat.update(instanceStat.getValue());
 				}
-			} else {
-				setBreachStartTime(t, null);
+				if (globalStat.getCount() == 0)
+					return null;
+				double threshold = getThesholdByUnit(quota, t.getMetricThreshold(), t.getUnit());
+				if (!isBreached(t, globalStat.getValue(), threshold))
+					return null;
+				return createEvent(t, quota, globalStat);
 			}
 		}
-		return false;
 	}
 
 	/** Checks if a tuple is valid when evaluate triggers **/
@@ -417,12 +483,12 @@ public class StateMonitor {
 		long expectedBreachDuration = t.getBreachDurationSecs() * 1000L;
 		Long breachStartTime = this.breachCounterMap.get(t.generateKey());
 		if (null == breachStartTime) {
-			setBreachStartTime(t, Long.valueOf(System.currentTimeMillis()));
+			setBreachStartTime(t, Long.valueOf(clock.currentTimeMillis()));
 			logger.debug("Set breach start time to NOW for app " + t.getAppId() + ", trigger " + t.getTriggerId() + "-"
 					+ t.getMetric() + "-" + t.getThresholdType());
 			return false;
 		}
-		long currentTime = System.currentTimeMillis();
+		long currentTime = clock.currentTimeMillis();
 		long breachDuration = currentTime - breachStartTime.longValue();
 		logger.debug("Current breach duration is " + breachDuration / 1000 + " seconds. Expected breach duration is "
 				+ t.getBreachDurationSecs());
@@ -446,17 +512,28 @@ public class StateMonitor {
 	 * Creates an event and add it to the event list.
 	 * 
 	 * @param t
+	 * @param quota
 	 * @param globalStat
-	 * @param eventList
 	 */
-	private MonitorTriggerEvent createEvent(Trigger t, Statistic globalStat) {
+	private MonitorTriggerEvent createEvent(Trigger t, double quota, Statistic globalStat) {
 		MonitorTriggerEvent event = new MonitorTriggerEvent();
 		event.setAppId(this.appId);
 		event.setTriggerId(t.getTriggerId());
 		event.setMetricValue(globalStat.getValue());
-		event.setTimeStamp(System.currentTimeMillis());
+		event.setTimeStamp(clock.currentTimeMillis());
 		event.setTrigger(t);
 		event.setMetricType(t.getMetric());
+		ScalingTrace trace = new ScalingTrace();
+		Long breachStartTime = this.breachCounterMap.get(t.generateKey());
+		if (breachStartTime != null)
+			trace.setBreachStartTime(breachStartTime);
+		trace.setFiredTime(event.getTimeStamp());
+		event.setTrace(trace);
+		double threshold = getThesholdByUnit(quota, t.getMetricThreshold(), t.getUnit());
+		if (Trigger.THRESHOLD_TYPE_TARGET.equals(t.getThresholdType()))
+			event.setTargetValue(threshold);
+		if (threshold > 0)
+			event.setSeverity(Math.abs(globalStat.getValue() - threshold) / threshold);
 		return event;
 	}
 
@@ -1,6 +1,6 @@
 package org.cloudfoundry.autoscaler.metric.rest;
 
-import java.util.Set;
+import java.util.Map;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
@@ -72,11 +72,11 @@ public class OperationREST {
     public Response connectoins() {
     	int count =  CouchDBConnectionProfile.getInstance().getConnectionCount();
     	
-    	Set<String> connections =  CouchDBConnectionProfile.getInstance().getConntionUUID();
+    	Map<String, Integer> connections =  CouchDBConnectionProfile.getInstance().getActiveConnections();
     	
     	StringBuilder response = new StringBuilder().append(count).append("\n");
-    	for (String str : connections){
-    		response.append(str).append("\n");
+    	for (Map.Entry<String, Integer> entry : connections.entrySet()){
+    		response.append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
     	}
     	return RestApiResponseHandler.getResponseOk(response.toString());
     }  
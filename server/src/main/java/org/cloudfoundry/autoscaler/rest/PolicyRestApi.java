@@ -42,12 +42,15 @@ import org.cloudfoundry.autoscaler.util.RestApiResponseHandler;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 @Path("/policies")
 public class PolicyRestApi {
 	private static final String CLASS_NAME = PolicyRestApi.class.getName();
 	private static final Logger logger     = Logger.getLogger(CLASS_NAME);
+	/** the largest leadTimeSecs of a scheduled entry, as validated by the API server **/
+	private static final int MAX_LEAD_TIME_SECS = 3600;
 	private ObjectMapper objectMapper = new ObjectMapper();
 	/**
 	 * Creates a new policy
@@ -330,6 +333,7 @@ public class PolicyRestApi {
 				scheduledPolicy.setEndTime(String.valueOf(recurringScheduleItemJson.get("endTime")));
 				scheduledPolicy.setRepeatCycle(String.valueOf(recurringScheduleItemJson.get("repeatOn")));
 				scheduledPolicy.setTimezone(timezone);
+				scheduledPolicy.setLeadTimeSecs(getLeadTimeSecs(recurringScheduleItemJson));
 				scheduledPolicyMap.put(UUID.randomUUID().toString(), scheduledPolicy);
 			};
 		}
@@ -344,6 +348,7 @@ public class PolicyRestApi {
 				scheduledPolicy.setStartTime(String.valueOf(specificDateItemJson.get("startDate")) + " " + String.valueOf(specificDateItemJson.get("startTime")));
 				scheduledPolicy.setEndTime(String.valueOf(specificDateItemJson.get("endDate")) + " " + String.valueOf(specificDateItemJson.get("endTime")));
 				scheduledPolicy.setTimezone(timezone);
+				scheduledPolicy.setLeadTimeSecs(getLeadTimeSecs(specificDateItemJson));
 				scheduledPolicy.setRepeatCycle("");
 				scheduledPolicyMap.put(UUID.randomUUID().toString(), scheduledPolicy);
 			};
@@ -351,4 +356,22 @@ public class PolicyRestApi {
 		
 		policy.setScheduledPolicies(scheduledPolicyMap);
 	}
+
+	/**
+	 * @param scheduleJson a recurringSchedule or specificDate entry
+	 * @return the leadTimeSecs of the entry, or null if it is not set
+	 * @throws JsonMappingException if the leadTimeSecs is not a number of seconds in range
+	 */
+	private Integer getLeadTimeSecs(JSONObject scheduleJson) throws JsonMappingException {
+		if (!scheduleJson.has("leadTimeSecs") || scheduleJson.isNull("leadTimeSecs"))
+			return null;
+		String value = String.valueOf(scheduleJson.get("leadTimeSecs"));
+		try {
+			int leadTimeSecs = Integer.parseInt(value);
+			if (leadTimeSecs >= 0 && leadTimeSecs <= MAX_LEAD_TIME_SECS)
+				return leadTimeSecs;
+		} catch (NumberFormatException e) {
+		}
+		throw new JsonMappingException("The leadTimeSecs must be between 0 and " + MAX_LEAD_TIME_SECS + ", but is " + value);
+	}
 }
@@ -16,7 +16,24 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.data.AsyncAutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
+import org.cloudfoundry.autoscaler.data.couchdb.CouchdbStorageService;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.base.CouchDBConnectionProfile;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.base.DesignDocumentPrewarmer;
+import org.cloudfoundry.autoscaler.manager.ApplicationManagerImpl;
+import org.cloudfoundry.autoscaler.manager.CooldownTracker;
+import org.cloudfoundry.autoscaler.manager.PolicyManagerImpl;
+import org.cloudfoundry.autoscaler.manager.QuotaBackoffCache;
+import org.cloudfoundry.autoscaler.manager.ScalingDispatcher;
+import org.cloudfoundry.autoscaler.manager.ScalingEventManager;
+import org.cloudfoundry.autoscaler.manager.ScalingLatencyRecorder;
+import org.cloudfoundry.autoscaler.manager.ScalingStateMonitor;
+import org.cloudfoundry.autoscaler.manager.ScheduleLeadTimeTuner;
+import org.cloudfoundry.autoscaler.metric.forecast.PredictiveScaler;
 import org.cloudfoundry.autoscaler.metric.monitor.MonitorController;
+import org.cloudfoundry.autoscaler.schedule.ScalingScheduledServiceFactory;
+import org.cloudfoundry.autoscaler.util.InstanceCountTracker;
 import org.cloudfoundry.autoscaler.util.RestApiResponseHandler;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -49,6 +66,39 @@ public class ServerStatsRestApi {
             Map<String, Integer> appstatsMap = MonitorController.getInstance().getBoundAppStats();
             stats.put("appCount", appstatsMap.get("appCount"));
             stats.put("instanceCount", appstatsMap.get("instanceCount"));
+            if (MonitorController.getInstance().getMetricsChangeFilter() != null) {
+                stats.put("metricsChangeOnly", MonitorController.getInstance().getMetricsChangeFilter().getStats());
+            }
+
+            stats.put("couchdb", CouchDBConnectionProfile.getInstance().getStats());
+            stats.put("instanceCounts", InstanceCountTracker.getInstance().getStats());
+            stats.put("forecast", PredictiveScaler.getInstance().getStats());
+            stats.put("scalingEvents", ScalingEventManager.getInstance().getStats());
+            stats.put("quotaBackoff", QuotaBackoffCache.getInstance().getStats());
+            stats.put("cooldown", CooldownTracker.getInstance().getStats());
+            Map<String, Object> caches = new HashMap<String, Object>();
+            caches.put("policy", PolicyManagerImpl.getInstance().getCacheStats());
+            caches.put("application", ApplicationManagerImpl.getInstance().getCacheStats());
+            stats.put("caches", caches);
+            stats.put("schedules", ScalingScheduledServiceFactory.getScheduledService().getStats());
+            stats.put("scheduleLeadTime", ScheduleLeadTimeTuner.getInstance().getStats());
+            stats.put("scheduleScaling", ScalingDispatcher.getInstance().getStats());
+            stats.put("scalingLatency", ScalingLatencyRecorder.getInstance().getStats());
+            stats.put("scalingStateMonitor", ScalingStateMonitor.getInstance().getStats());
+            stats.put("designDocPrewarm", DesignDocumentPrewarmer.getInstance().getStats());
+
+            AsyncAutoScalingDataStore asyncDataStore = AutoScalingDataStoreFactory.getInitializedAsyncAutoScalingDataStore();
+            if (asyncDataStore != null) {
+                stats.put("dataStoreAsync", asyncDataStore.getStats());
+            }
+
+            CouchdbStorageService storeService = CouchdbStorageService.getInitializedInstance();
+            if (storeService != null && storeService.getWriteSpool() != null) {
+                stats.put("writeSpool", storeService.getWriteSpool().getStats());
+            }
+            if (storeService != null && storeService.getMetricArchiveStore() != null) {
+                stats.put("metricArchive", storeService.getMetricArchiveStore().getStats());
+            }
             
             return RestApiResponseHandler.getResponseOk(mapper.writeValueAsString(stats));
 
@@ -0,0 +1,221 @@
+package org.cloudfoundry.autoscaler.schedule;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy.ScheduledType;
+import org.cloudfoundry.autoscaler.util.TimeZoneUtil;
+
+/**
+ * The scheduled policies of a policy, parsed once.
+ *
+ * Recurring schedules keep their start and end as time of day and their
+ * days of week, in the time zone of the schedule; specific date schedules
+ * keep their start and end as absolute time. Both the active schedule and
+ * the next time it may change are computed from these without parsing.
+ */
+public class CompiledSchedule {
+
+	private static class Entry {
+		private final String id;
+		private final boolean recurring;
+		private final TimeZone timeZone;
+		// time of day for recurring schedules, absolute time for specific dates
+		private final long start;
+		private final long end;
+		private final boolean[] days = new boolean[8]; // 1 is Monday, 7 is Sunday
+
+		Entry(String id, boolean recurring, TimeZone timeZone, long start, long end) {
+			this.id = id;
+			this.recurring = recurring;
+			this.timeZone = timeZone;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private final List<Entry> entries;
+
+	private CompiledSchedule(List<Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * @param policy
+	 * @return the schedules of the policy
+	 * @throws ParseException if a start or end time is malformed
+	 */
+	public static CompiledSchedule compile(AutoScalerPolicy policy) throws ParseException {
+		List<Entry> entries = new ArrayList<Entry>();
+		Map<String, ScheduledPolicy> scheduledPolicies = policy.getScheduledPolicies();
+		if (scheduledPolicies == null)
+			return new CompiledSchedule(entries);
+		for (Map.Entry<String, ScheduledPolicy> scheduledPolicyEntry : scheduledPolicies.entrySet()) {
+			ScheduledPolicy scheduledPolicy = scheduledPolicyEntry.getValue();
+			TimeZone timeZone = TimeZoneUtil.parseTimeZoneId(scheduledPolicy.getTimezone());
+			if (ScheduledType.RECURRING.name().equals(scheduledPolicy.getType())) {
+				Entry entry = new Entry(scheduledPolicyEntry.getKey(), true, timeZone,
+						parseTimeOfDay(scheduledPolicy.getStartTime()), parseTimeOfDay(scheduledPolicy.getEndTime()));
+				String repeatCycle = scheduledPolicy.getRepeatCycle();
+				for (int day = 1; day <= 7; day++)
+					entry.days[day] = repeatCycle != null && repeatCycle.indexOf(String.valueOf(day)) >= 0;
+				entries.add(entry);
+			} else if (ScheduledType.SPECIALDATE.name().equals(scheduledPolicy.getType())) {
+				SimpleDateFormat format = new SimpleDateFormat(ScheduledPolicy.specialDateDateFormat);
+				format.setTimeZone(timeZone);
+				entries.add(new Entry(scheduledPolicyEntry.getKey(), false, timeZone,
+						format.parse(scheduledPolicy.getStartTime()).getTime(),
+						format.parse(scheduledPolicy.getEndTime()).getTime()));
+			}
+		}
+		return new CompiledSchedule(entries);
+	}
+
+	private static long parseTimeOfDay(String time) throws ParseException {
+		SimpleDateFormat format = new SimpleDateFormat(ScheduledPolicy.recurringDateFormat);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.parse(time).getTime();
+	}
+
+	/**
+	 * @param timeZone
+	 * @param time
+	 * @return the start of the day of the time in the time zone
+	 */
+	private static Calendar startOfDay(TimeZone timeZone, long time) {
+		Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(time);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar;
+	}
+
+	/**
+	 * @param day the start of a day
+	 * @param timeOfDay
+	 * @return the time of day on the day, by the wall clock of its time zone
+	 */
+	private static long timeOn(Calendar day, long timeOfDay) {
+		Calendar calendar = (Calendar) day.clone();
+		calendar.set(Calendar.HOUR_OF_DAY, (int) (timeOfDay / 3600000));
+		calendar.set(Calendar.MINUTE, (int) (timeOfDay / 60000 % 60));
+		return calendar.getTimeInMillis();
+	}
+
+	private static boolean isActive(Entry entry, long now) {
+		if (!entry.recurring)
+			return entry.start <= now && now <= entry.end;
+		Calendar calendar = Calendar.getInstance(entry.timeZone);
+		calendar.setTimeInMillis(now);
+		int dayOfWeek = ScheduledServiceUtil.dayOfWeek(calendar);
+		if (!entry.days[dayOfWeek])
+			return false;
+		long timeOfDay = ((calendar.get(Calendar.HOUR_OF_DAY) * 60L + calendar.get(Calendar.MINUTE)) * 60
+				+ calendar.get(Calendar.SECOND)) * 1000 + calendar.get(Calendar.MILLISECOND);
+		if (entry.start > entry.end) // the schedule spans midnight
+			return entry.start <= timeOfDay || timeOfDay <= entry.end;
+		return entry.start <= timeOfDay && timeOfDay <= entry.end;
+	}
+
+	/**
+	 * A specific date schedule takes precedence over recurring schedules,
+	 * among recurring schedules the first one wins
+	 * @param now
+	 * @return the id of the scheduled policy active at the time, or null
+	 */
+	public String getActiveScheduledPolicyId(long now) {
+		String active = null;
+		for (Entry entry : entries) {
+			if (!isActive(entry, now))
+				continue;
+			if (!entry.recurring || active == null)
+				active = entry.id;
+		}
+		return active;
+	}
+
+	/**
+	 * @param now
+	 * @return the next time after now the active schedule may change, or Long.MAX_VALUE if it never does
+	 */
+	public long getNextTransitionTime(long now) {
+		long next = Long.MAX_VALUE;
+		for (Entry entry : entries) {
+			if (!entry.recurring) {
+				if (entry.start > now)
+					next = Math.min(next, entry.start);
+				else if (entry.end + 1 > now)
+					next = Math.min(next, entry.end + 1);
+				continue;
+			}
+			// the start and end of the schedule and midnight, as the day of week changes then
+			Calendar day = startOfDay(entry.timeZone, now);
+			for (int i = 0; i <= 1; i++) {
+				long midnight = day.getTimeInMillis();
+				for (long time : new long[] { midnight, timeOn(day, entry.start), timeOn(day, entry.end) + 1 }) {
+					if (time > now)
+						next = Math.min(next, time);
+				}
+				day.add(Calendar.DAY_OF_MONTH, 1);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @param now
+	 * @return the start after now of the schedule starting next, or null if no schedule starts anymore
+	 */
+	public Start getNextStart(long now) {
+		Start next = null;
+		for (Entry entry : entries) {
+			long start = Long.MAX_VALUE;
+			if (!entry.recurring) {
+				if (entry.start > now)
+					start = entry.start;
+			} else {
+				Calendar day = startOfDay(entry.timeZone, now);
+				for (int i = 0; i <= 7 && start == Long.MAX_VALUE; i++) {
+					long time = timeOn(day, entry.start);
+					if (time > now && entry.days[ScheduledServiceUtil.dayOfWeek(day)])
+						start = time;
+					day.add(Calendar.DAY_OF_MONTH, 1);
+				}
+			}
+			if (start != Long.MAX_VALUE && (next == null || start < next.time))
+				next = new Start(entry.id, start);
+		}
+		return next;
+	}
+
+	public static class Start {
+		private final String scheduledPolicyId;
+		private final long time;
+
+		Start(String scheduledPolicyId, long time) {
+			this.scheduledPolicyId = scheduledPolicyId;
+			this.time = time;
+		}
+
+		public String getScheduledPolicyId() {
+			return scheduledPolicyId;
+		}
+
+		public long getTime() {
+			return time;
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
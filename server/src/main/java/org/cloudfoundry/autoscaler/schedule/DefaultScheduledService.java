@@ -1,45 +1,206 @@
 package org.cloudfoundry.autoscaler.schedule;
 
 import java.text.ParseException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
-import org.cloudfoundry.autoscaler.manager.PolicyManager;
-import org.cloudfoundry.autoscaler.manager.PolicyManagerImpl;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy;
+import org.cloudfoundry.autoscaler.exceptions.DataStoreException;
+import org.cloudfoundry.autoscaler.manager.ScheduleLeadTimeTuner;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+import org.cloudfoundry.autoscaler.util.Clock;
 
+/**
+ * Switches the current scheduled policy of policies when their schedules
+ * start or end.
+ *
+ * The schedules of each registered policy are compiled once, and the policy
+ * is queued by the next time its active schedule may change. The daemon
+ * sleeps until the earliest of these times and evaluates only the policies
+ * due then, so a schedule takes effect at its boundary instead of on the
+ * next poll of all policies. A schedule raising the minimum instance count
+ * has its instances requested its lead time ahead of its start, see
+ * ScheduleLeadTimeTuner.
+ */
 public class DefaultScheduledService implements ScheduledService{
+	private static final Logger logger = Logger.getLogger(DefaultScheduledService.class.getName());
+	/** the delay to evaluate a policy again after it failed to apply **/
+	private static final long RETRY_DELAY = 60 * 1000L;
 
 	private static ScheduledService service = new DefaultScheduledService();
-	private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(); 
-	
+	private ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("ScheduledDaemon"));
+
+	private static class ScheduleEntry implements Comparable<ScheduleEntry> {
+		private final AutoScalerPolicy policy;
+		private final CompiledSchedule schedule;
+		private long nextTime;
+		// the upcoming start to pre-warm the apps for, and when
+		private CompiledSchedule.Start prewarmStart;
+		private long prewarmTime;
+		private List<String> prewarmAppIds;
+		private long prewarmedStartTime = -1;
+
+		ScheduleEntry(AutoScalerPolicy policy, CompiledSchedule schedule, long nextTime) {
+			this.policy = policy;
+			this.schedule = schedule;
+			this.nextTime = nextTime;
+		}
+
+		@Override
+		public int compareTo(ScheduleEntry other) {
+			return nextTime < other.nextTime ? -1 : (nextTime == other.nextTime ? 0 : 1);
+		}
+	}
+
+	private final Clock clock = Clock.SYSTEM;
+	/** the current entry of each policy, entries replaced in it are skipped in the queue **/
+	private final Map<String, ScheduleEntry> schedules = new ConcurrentHashMap<String, ScheduleEntry>();
+	private final PriorityQueue<ScheduleEntry> queue = new PriorityQueue<ScheduleEntry>();
+	private volatile boolean stopped = false;
+
+	private final AtomicLong evaluations = new AtomicLong(0);
+	private final AtomicLong transitions = new AtomicLong(0);
+	private final AtomicLong failures = new AtomicLong(0);
+	private final AtomicLong prewarms = new AtomicLong(0);
+
 	public static ScheduledService getInstance() {
 		return service;
 	}
-	
+
 	private DefaultScheduledService() {
 	}
-	
+
 	@Override
 	public void registerSchedule(AutoScalerPolicy scalerPolicy) throws ParseException {
+		if (scalerPolicy.getScheduledPolicies() == null || scalerPolicy.getScheduledPolicies().isEmpty()) {
+			removeSchedule(scalerPolicy.getPolicyId());
+			return;
+		}
+		// evaluated right away, the current scheduled policy may be stale
+		ScheduleEntry entry = new ScheduleEntry(scalerPolicy, CompiledSchedule.compile(scalerPolicy), clock.currentTimeMillis());
+		ScheduleEntry previous = schedules.put(scalerPolicy.getPolicyId(), entry);
+		if (previous != null)
+			entry.prewarmedStartTime = previous.prewarmedStartTime;
+		enqueue(entry);
 	}
-	
+
 	@Override
-	public void removeSchedule(String appId) {
+	public void removeSchedule(String policyId) {
+		schedules.remove(policyId);
 	}
-	
-	static class ScheduledDaemon implements Runnable {
 
-		PolicyManager policyManager = PolicyManagerImpl.getInstance();
+	private void enqueue(ScheduleEntry entry) {
+		synchronized (queue) {
+			queue.add(entry);
+			if (queue.peek() == entry)
+				queue.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the next policy due, after waiting for it
+	 * @throws InterruptedException
+	 */
+	private ScheduleEntry take() throws InterruptedException {
+		synchronized (queue) {
+			while (true) {
+				ScheduleEntry head = queue.peek();
+				if (head == null) {
+					queue.wait();
+					continue;
+				}
+				long delay = head.nextTime - clock.currentTimeMillis();
+				if (delay > 0) {
+					queue.wait(delay);
+					continue;
+				}
+				return queue.poll();
+			}
+		}
+	}
+
+	private void evaluate(ScheduleEntry entry) {
+		String policyId = entry.policy.getPolicyId();
+		long now = clock.currentTimeMillis();
+		evaluations.incrementAndGet();
+		if (entry.prewarmStart != null && entry.prewarmTime <= now) {
+			prewarms.incrementAndGet();
+			ScheduledServiceUtil.prewarmScheduledPolicy(entry.policy, entry.prewarmAppIds,
+					entry.prewarmStart.getScheduledPolicyId(), entry.prewarmStart.getTime());
+			entry.prewarmedStartTime = entry.prewarmStart.getTime();
+			entry.prewarmStart = null;
+		}
+		long nextTime = entry.schedule.getNextTransitionTime(now);
+		try {
+			if (ScheduledServiceUtil.applyScheduledPolicy(entry.policy,
+					entry.schedule.getActiveScheduledPolicyId(now)))
+				transitions.incrementAndGet();
+		} catch (Exception e) {
+			failures.incrementAndGet();
+			logger.error("Failed to apply the scheduled policy of policy " + policyId, e);
+			nextTime = Math.min(nextTime, now + RETRY_DELAY);
+		}
+		// an applied change updates the policy, which registers it again
+		if (schedules.get(policyId) != entry)
+			return;
+		try {
+			planPrewarm(entry, now);
+			if (entry.prewarmStart != null)
+				nextTime = Math.min(nextTime, Math.max(now, entry.prewarmTime));
+		} catch (DataStoreException e) {
+			logger.error("Failed to get the applications of policy " + policyId, e);
+		}
+		if (nextTime == Long.MAX_VALUE)
+			return;
+		entry.nextTime = nextTime;
+		enqueue(entry);
+	}
+
+	/**
+	 * Plans to pre-warm the apps of the policy if the schedule starting next
+	 * raises the minimum instance count
+	 * @param entry
+	 * @param now
+	 * @throws DataStoreException
+	 */
+	private void planPrewarm(ScheduleEntry entry, long now) throws DataStoreException {
+		entry.prewarmStart = null;
+		CompiledSchedule.Start start = entry.schedule.getNextStart(now);
+		if (start == null || start.getTime() == entry.prewarmedStartTime)
+			return;
+		ScheduledPolicy scheduledPolicy = entry.policy.getScheduledPolicies().get(start.getScheduledPolicyId());
+		if (scheduledPolicy == null || scheduledPolicy.getInstanceMinCount() <= entry.policy.getCurrentInstanceMinCount())
+			return;
+		List<String> appIds = ScheduledServiceUtil.getEnabledAppIds(entry.policy);
+		long lead = ScheduleLeadTimeTuner.getInstance().getLeadMillis(appIds, scheduledPolicy.getLeadTimeSecs());
+		if (lead <= 0 || appIds.isEmpty())
+			return;
+		entry.prewarmStart = start;
+		entry.prewarmTime = start.getTime() - lead;
+		entry.prewarmAppIds = appIds;
+	}
+
+	class ScheduledDaemon implements Runnable {
+
 		@Override
 		public void run() {
-			List<AutoScalerPolicy> monitoredCache = policyManager.getMonitoredCache();
-			for (AutoScalerPolicy policy : monitoredCache) {
+			while (!stopped) {
 				try {
-					ScheduledServiceUtil.updateScheduledPolicyBasedOnTime(policy);
+					ScheduleEntry entry = take();
+					if (schedules.get(entry.policy.getPolicyId()) == entry)
+						evaluate(entry);
+				} catch (InterruptedException e) {
+					return;
 				} catch (Throwable e) {
+					logger.error("Error occurs when evaluating scheduled policies", e);
 				}
 			}
 		}
@@ -47,11 +208,29 @@ public class DefaultScheduledService implements ScheduledService{
 
 	@Override
 	public void start() {
-		executor.scheduleWithFixedDelay(new ScheduledDaemon(), 0, 60, TimeUnit.SECONDS);
+		executor.execute(new ScheduledDaemon());
 	}
 
 	@Override
 	public void shutdown() {
-		executor.shutdown();
+		stopped = true;
+		executor.shutdownNow();
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("policies", schedules.size());
+		synchronized (queue) {
+			stats.put("queued", queue.size());
+			ScheduleEntry head = queue.peek();
+			if (head != null)
+				stats.put("nextTransitionInSec", Math.max(0, head.nextTime - clock.currentTimeMillis()) / 1000);
+		}
+		stats.put("evaluations", evaluations.get());
+		stats.put("transitions", transitions.get());
+		stats.put("failures", failures.get());
+		stats.put("prewarms", prewarms.get());
+		return stats;
 	}
 }
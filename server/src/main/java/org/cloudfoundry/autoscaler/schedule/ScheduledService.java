@@ -1,6 +1,7 @@
 package org.cloudfoundry.autoscaler.schedule;
 
 import java.text.ParseException;
+import java.util.Map;
 
 import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
 
@@ -11,4 +12,5 @@ public interface ScheduledService {
 	public void removeSchedule(String policyId);
 	public void start();
 	public void shutdown();
+	public Map<String, Object> getStats();
 }
@@ -1,91 +1,40 @@
 package org.cloudfoundry.autoscaler.schedule;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.TimeZone;
 
 import org.apache.log4j.Logger;
 import org.cloudfoundry.autoscaler.data.couchdb.document.Application;
 import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
 import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy;
-import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy.ScheduledType;
 import org.cloudfoundry.autoscaler.exceptions.DataStoreException;
 import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
 import org.cloudfoundry.autoscaler.manager.ApplicationManager;
 import org.cloudfoundry.autoscaler.manager.ApplicationManagerImpl;
+import org.cloudfoundry.autoscaler.manager.ApplicationScaleManager;
+import org.cloudfoundry.autoscaler.manager.ApplicationScaleManagerImpl;
 import org.cloudfoundry.autoscaler.manager.PolicyManager;
 import org.cloudfoundry.autoscaler.manager.PolicyManagerImpl;
-import org.cloudfoundry.autoscaler.util.TimeZoneUtil;
 
 public class ScheduledServiceUtil {
 	private static final String CLASS_NAME = ScheduledServiceUtil.class.getName();
 	private static final Logger logger  = Logger.getLogger(CLASS_NAME);
 	public static void updateScheduledPolicyBasedOnTime(AutoScalerPolicy autoScalerPolicy) throws ParseException, PolicyNotFoundException, DataStoreException {
-		String toSetScheduledId = null;
-		Date current = new Date();
-		
-		for(Map.Entry<String, ScheduledPolicy> scheduledPolicyEntry: autoScalerPolicy.getScheduledPolicies().entrySet()) {
-			String scheduledPolicyId = scheduledPolicyEntry.getKey();
-			ScheduledPolicy scheduledPolicy = scheduledPolicyEntry.getValue();
-			String scheduledType = scheduledPolicy.getType();
-			String timezoneId = scheduledPolicy.getTimezone();
-			TimeZone curTimeZone = TimeZone.getDefault();
-			TimeZone policyTimeZone = TimeZone.getDefault();
-			policyTimeZone = TimeZoneUtil.parseTimeZoneId(timezoneId);
-			if (ScheduledType.RECURRING.name().equals(scheduledType)) {
-				Date startTime = new SimpleDateFormat(ScheduledPolicy.recurringDateFormat).parse(scheduledPolicy.getStartTime());				
-				Date endTime = new SimpleDateFormat(ScheduledPolicy.recurringDateFormat).parse(scheduledPolicy.getEndTime());				
-				startTime = new Date(startTime.getTime() - policyTimeZone.getOffset(System.currentTimeMillis()) + curTimeZone.getOffset(System.currentTimeMillis()));
-				endTime = new Date(endTime.getTime() - policyTimeZone.getOffset(System.currentTimeMillis()) + curTimeZone.getOffset(System.currentTimeMillis()));
-				Date startTimewithDay = generateTime(current, 0, startTime);
-				Date endTimewithDay = generateTime(current, 0, endTime);
-				String repeatCycle = scheduledPolicy.getRepeatCycle();
-				Date date1 = new Date(System.currentTimeMillis() + policyTimeZone.getOffset(System.currentTimeMillis()) - curTimeZone.getOffset(System.currentTimeMillis()));
-				String dayOfWeek = String.valueOf(dayOfWeek(date1));
-				logger.debug("Schedule Type :" + scheduledType + "schedule id: "+ scheduledPolicyId + " toSetScheduledId:" + toSetScheduledId + " endTime in cur zone :" + endTimewithDay +" startTime in cur zone :" + startTimewithDay + " repeat cyble:" + repeatCycle + " dayOfWeek:" + dayOfWeek);
-				int flag = repeatCycle.indexOf(dayOfWeek);
-				if (flag >= 0)
-				{
-					if(startTimewithDay.compareTo(endTimewithDay) > 0)
-					{
-						if((startTimewithDay.compareTo(current) <= 0 || endTimewithDay.compareTo(current) >= 0))
-						{
-							if (toSetScheduledId == null) {
-								logger.debug("***Schedule Type :" + scheduledType + "schedule id: "+ scheduledPolicyId + " toSetScheduledId:" + toSetScheduledId);
-								toSetScheduledId = scheduledPolicyId;
-							}
-						}
-					}
-					else
-					{
-						if((startTimewithDay.compareTo(current) <= 0 && endTimewithDay.compareTo(current) >= 0))
-						{
-							if (toSetScheduledId == null) {
-								logger.debug("***Schedule Type :" + scheduledType + "schedule id: "+ scheduledPolicyId + " toSetScheduledId:" + toSetScheduledId);
-								toSetScheduledId = scheduledPolicyId;
-							}
-						}
-					}
-				}
-				
-			} else if (ScheduledType.SPECIALDATE.toString().equals(scheduledType)) {
-				Date startTime = new SimpleDateFormat(ScheduledPolicy.specialDateDateFormat).parse(scheduledPolicy.getStartTime());
-				Date endTime = new SimpleDateFormat(ScheduledPolicy.specialDateDateFormat).parse(scheduledPolicy.getEndTime());
-				logger.debug("Schedule Type :" + scheduledType + " startTime in policy :" + startTime);
-				
-				startTime = new Date(startTime.getTime() - policyTimeZone.getOffset(startTime.getTime()) + curTimeZone.getOffset(System.currentTimeMillis()));
-				endTime = new Date(endTime.getTime() - policyTimeZone.getOffset(endTime.getTime()) + curTimeZone.getOffset(System.currentTimeMillis()));
-				
-				logger.debug("Schedule Type :" + scheduledType + "schedule id: "+ scheduledPolicyId +" startTime in cur zone :" + startTime);
-				if (startTime.compareTo(current) <= 0 && endTime.compareTo(current) >= 0) {
-					toSetScheduledId = scheduledPolicyId;
-				}
-			}
-		}
+		String toSetScheduledId = CompiledSchedule.compile(autoScalerPolicy).getActiveScheduledPolicyId(System.currentTimeMillis());
+		applyScheduledPolicy(autoScalerPolicy, toSetScheduledId);
+	}
+
+	/**
+	 * Makes a scheduled policy the current one of the policy, and scales the
+	 * apps of the policy by it
+	 * @param autoScalerPolicy
+	 * @param toSetScheduledId the id of the scheduled policy, or null if none is active
+	 * @return true if the current scheduled policy changed
+	 */
+	public static boolean applyScheduledPolicy(AutoScalerPolicy autoScalerPolicy, String toSetScheduledId) throws PolicyNotFoundException, DataStoreException {
 		logger.debug(" ***toSetScheduledId:" + toSetScheduledId);
 		if ((toSetScheduledId == null && autoScalerPolicy
 				.getCurrentScheduledPolicyId() != null)
@@ -117,13 +66,57 @@ public class ScheduledServiceUtil {
 				} catch (Exception e) {
 				}
 			}
-			
+			return true;
 		}
+		return false;
 	}
 	
+	/**
+	 * @param autoScalerPolicy
+	 * @return the ids of the apps having the policy enabled
+	 */
+	public static List<String> getEnabledAppIds(AutoScalerPolicy autoScalerPolicy) throws DataStoreException {
+		List<String> appIds = new ArrayList<String>();
+		for (Application app : ApplicationManagerImpl.getInstance().getApplicationByPolicyId(autoScalerPolicy.getPolicyId())) {
+			if (AutoScalerPolicy.STATE_ENABLED.equals(app.getPolicyState()))
+				appIds.add(app.getAppId());
+		}
+		return appIds;
+	}
+
+	/**
+	 * Scales the apps out to the minimum instance count of a scheduled policy
+	 * before it starts
+	 * @param autoScalerPolicy
+	 * @param appIds
+	 * @param scheduledPolicyId
+	 * @param startTime the start of the scheduled policy
+	 */
+	public static void prewarmScheduledPolicy(AutoScalerPolicy autoScalerPolicy, List<String> appIds, String scheduledPolicyId, long startTime) {
+		ScheduledPolicy scheduledPolicy = autoScalerPolicy.getScheduledPolicies().get(scheduledPolicyId);
+		if (scheduledPolicy == null)
+			return;
+		ApplicationScaleManager scaleManager = ApplicationScaleManagerImpl.getInstance();
+		for (String appId : appIds) {
+			try {
+				scaleManager.doPrewarmBySchedule(appId, autoScalerPolicy, scheduledPolicy, startTime);
+			} catch (Exception e) {
+				logger.warn("Failed to pre-warm application " + appId + " for scheduled policy " + scheduledPolicyId + ". " + e.getMessage());
+			}
+		}
+	}
+
 	public static int dayOfWeek(Date time) {
 		Calendar c = Calendar.getInstance();
 		c.setTime(time);
+		return dayOfWeek(c);
+	}
+
+	/**
+	 * @param c
+	 * @return the day of week of the calendar, 1 is Monday and 7 is Sunday
+	 */
+	public static int dayOfWeek(Calendar c) {
 		int dayForWeek = 0;
 		if (c.get(Calendar.DAY_OF_WEEK) == 1) {
 			dayForWeek = 7;
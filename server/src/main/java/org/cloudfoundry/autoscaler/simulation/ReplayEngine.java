@@ -0,0 +1,300 @@
+package org.cloudfoundry.autoscaler.simulation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.constant.Constants;
+import org.cloudfoundry.autoscaler.data.StepHeldMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.AutoScalingDataStoreFactory;
+import org.cloudfoundry.autoscaler.data.couchdb.archive.MetricSegmentArchive;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.exceptions.MetricNotSupportedException;
+import org.cloudfoundry.autoscaler.manager.TriggerEventHandler;
+import org.cloudfoundry.autoscaler.manager.TriggerManager;
+import org.cloudfoundry.autoscaler.metric.monitor.StateMonitor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Replays recorded metrics of an app against a policy, in simulated time.
+ *
+ * The metrics go through the same {@link StateMonitor} trigger evaluation,
+ * {@link TriggerEventHandler} mailbox and scaling decision as on the server,
+ * with a {@link SimulatedClock} following the recorded time and a
+ * {@link SimulatedCloudController} instead of the app. The recorded load is
+ * spread over the simulated running instances, so the CPU and memory of an
+ * instance follow the instance count the policy leads to. Schedules are not
+ * replayed, the default instance count limits of the policy apply. Run with
+ * the server classpath and configuration:
+ *
+ * java ... ReplayEngine appId policy.json source [instances] [startupSec]
+ *
+ * The policy is in the server format. The source is an archived metric DB
+ * segment, a JSON export of AppInstanceMetrics ending with .json, or a
+ * number of hours of metrics to read from the data store.
+ */
+public class ReplayEngine {
+
+	/**
+	 * A scaling action of the replay
+	 */
+	public static class ScalingAction {
+		private final long time;
+		private final long completeTime;
+		private final String triggerId;
+		private final String metricType;
+		private final double metricValue;
+		private final int fromInstances;
+		private final int toInstances;
+
+		public ScalingAction(long time, long completeTime, String triggerId, String metricType, double metricValue,
+				int fromInstances, int toInstances) {
+			this.time = time;
+			this.completeTime = completeTime;
+			this.triggerId = triggerId;
+			this.metricType = metricType;
+			this.metricValue = metricValue;
+			this.fromInstances = fromInstances;
+			this.toInstances = toInstances;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		/** when the new instances run **/
+		public long getCompleteTime() {
+			return completeTime;
+		}
+
+		public String getTriggerId() {
+			return triggerId;
+		}
+
+		public String getMetricType() {
+			return metricType;
+		}
+
+		public double getMetricValue() {
+			return metricValue;
+		}
+
+		public int getFromInstances() {
+			return fromInstances;
+		}
+
+		public int getToInstances() {
+			return toInstances;
+		}
+
+		@Override
+		public String toString() {
+			return time + " " + triggerId + " " + metricType + "=" + metricValue + " " + fromInstances + " -> "
+					+ toInstances + " (" + (completeTime - time) / 1000 + "s)";
+		}
+	}
+
+	/**
+	 * Outcome of a replay
+	 */
+	public static class Result {
+		private final List<ScalingAction> timeline = new ArrayList<ScalingAction>();
+		private int samples;
+		private int events;
+		private int coalescedEvents;
+		private long startTime;
+		private long endTime;
+		private long instanceMillis;
+
+		/** the scaling actions in time order **/
+		public List<ScalingAction> getTimeline() {
+			return Collections.unmodifiableList(timeline);
+		}
+
+		/** replayed metrics, including held ones of change-only metrics **/
+		public int getSamples() {
+			return samples;
+		}
+
+		/** trigger events fired by the evaluation **/
+		public int getEvents() {
+			return events;
+		}
+
+		/** events merged into a pending one **/
+		public int getCoalescedEvents() {
+			return coalescedEvents;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public long getEndTime() {
+			return endTime;
+		}
+
+		/** running instances over the replayed time **/
+		public long getInstanceSeconds() {
+			return instanceMillis / 1000;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("samples=").append(samples).append(", events=").append(events).append(", coalescedEvents=")
+					.append(coalescedEvents).append(", actions=").append(timeline.size()).append(", instanceSeconds=")
+					.append(getInstanceSeconds());
+			for (ScalingAction action : timeline)
+				sb.append("\n").append(action);
+			return sb.toString();
+		}
+	}
+
+	private final String appId;
+	private final AutoScalerPolicy policy;
+	private final int initialInstances;
+	private final long startupMillis;
+
+	/**
+	 * @param appId
+	 * @param policy the policy to replay, its current schedule is ignored
+	 * @param initialInstances the running instances at the start, or 0 for the recorded ones
+	 * @param startupMillis the time new instances take to start
+	 */
+	public ReplayEngine(String appId, AutoScalerPolicy policy, int initialInstances, long startupMillis) {
+		this.appId = appId;
+		this.policy = policy;
+		this.initialInstances = initialInstances;
+		this.startupMillis = startupMillis;
+	}
+
+	/**
+	 * @param recorded the recorded metrics of the app, in any order
+	 * @return the result
+	 * @throws MetricNotSupportedException if the policy has a trigger for an unknown metric
+	 */
+	public Result run(List<AppInstanceMetrics> recorded) throws MetricNotSupportedException {
+		Result result = new Result();
+		if (recorded.isEmpty())
+			return result;
+		long lastTimestamp = Long.MIN_VALUE;
+		for (AppInstanceMetrics metrics : recorded)
+			lastTimestamp = Math.max(lastTimestamp, metrics.getTimestamp());
+		List<AppInstanceMetrics> replayed = StepHeldMetrics.expand(recorded, Long.MIN_VALUE, lastTimestamp);
+
+		policy.setCurrentScheduledPolicyId(null);
+		long startTime = replayed.get(0).getTimestamp();
+		int instances = initialInstances > 0 ? initialInstances : instanceCountOf(replayed.get(0));
+		SimulatedClock clock = new SimulatedClock(startTime);
+		SimulatedCloudController cloudController = new SimulatedCloudController(instances, startupMillis);
+		SimulatedScaleManager scaleManager = new SimulatedScaleManager(appId, policy, cloudController, clock,
+				result.timeline);
+		StateMonitor monitor = new StateMonitor(appId, clock);
+		for (Trigger trigger : TriggerManager.createTriggers(appId, policy))
+			monitor.addTrigger(trigger);
+		TriggerEventHandler handler = new TriggerEventHandler(appId, scaleManager, clock);
+
+		result.startTime = startTime;
+		long previous = startTime;
+		for (AppInstanceMetrics metrics : replayed) {
+			clock.set(metrics.getTimestamp());
+			long now = clock.currentTimeMillis();
+			result.instanceMillis += (now - previous) * cloudController.getRunningInstances(previous);
+			previous = now;
+			result.samples++;
+
+			/** as the evaluation task of the server does for every poll **/
+			scaleManager.update(now);
+			monitor.addMonitorSample(spread(metrics, cloudController.getRunningInstances(now)));
+			for (MonitorTriggerEvent event : monitor.evaluateTriggers()) {
+				result.events++;
+				if (handler.offer(event) == TriggerEventHandler.OFFER_COALESCED)
+					result.coalescedEvents++;
+			}
+			MonitorTriggerEvent event;
+			while ((event = handler.poll()) != null)
+				handler.handleEvent(event);
+		}
+		result.endTime = previous;
+		return result;
+	}
+
+	private static int instanceCountOf(AppInstanceMetrics metrics) {
+		return metrics.getInstanceMetrics() == null ? 1 : Math.max(1, metrics.getInstanceMetrics().size());
+	}
+
+	/**
+	 * Spreads the recorded load of the app over the running instances
+	 * @param recorded
+	 * @param running
+	 * @return metrics of the running instances
+	 */
+	static AppInstanceMetrics spread(AppInstanceMetrics recorded, int running) {
+		AppInstanceMetrics spread = recorded.shadowClone();
+		List<InstanceMetrics> instances = new LinkedList<InstanceMetrics>();
+		List<InstanceMetrics> recordedInstances = recorded.getInstanceMetrics();
+		if (recordedInstances != null && !recordedInstances.isEmpty()) {
+			double factor = (double) recordedInstances.size() / running;
+			for (int i = 0; i < running; i++) {
+				InstanceMetrics instance = recordedInstances.get(i % recordedInstances.size()).clone();
+				instance.setInstanceIndex(i);
+				for (Metric metric : instance.getMetrics()) {
+					String compoundName = metric.getCompoundName();
+					if (!compoundName.equalsIgnoreCase(Constants.METRIC_POLLER_CPU)
+							&& !compoundName.equalsIgnoreCase(Constants.METRIC_POLLER_MEMORY))
+						continue;
+					try {
+						metric.setValue(String.valueOf(Double.valueOf(metric.getValue()) * factor));
+					} catch (NumberFormatException e) {
+						// not a number, e.g. a held empty value
+					}
+				}
+				instances.add(instance);
+			}
+		}
+		spread.setInstanceMetrics(instances);
+		return spread;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: ReplayEngine appId policy.json source [instances] [startupSec]");
+			System.exit(1);
+		}
+		String appId = args[0];
+		ObjectMapper mapper = new ObjectMapper();
+		AutoScalerPolicy policy = mapper.readValue(new File(args[1]), AutoScalerPolicy.class);
+		int instances = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		long startupMillis = (args.length > 4 ? Long.parseLong(args[4]) : 60) * 1000;
+
+		List<AppInstanceMetrics> recorded;
+		File source = new File(args[2]);
+		if (source.isFile() && source.getName().endsWith(".json")) {
+			recorded = mapper.readValue(source,
+					mapper.getTypeFactory().constructCollectionType(List.class, AppInstanceMetrics.class));
+		} else if (source.isFile()) {
+			recorded = MetricSegmentArchive.open(source).findByAppIdAfter(appId, 0);
+		} else {
+			long hours = Long.parseLong(args[2]);
+			recorded = AutoScalingDataStoreFactory.getAutoScalingDataStore().getAppStatsHistoryByAppIdAfter(appId,
+					System.currentTimeMillis() - hours * 3600 * 1000);
+		}
+
+		long start = System.currentTimeMillis();
+		Result result = new ReplayEngine(appId, policy, instances, startupMillis).run(recorded);
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println(recorded.size() + " recorded metrics of app " + appId + " replayed in " + elapsed + "ms, "
+				+ (result.getEndTime() - result.getStartTime()) / elapsed + "x real time: " + result);
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,30 @@
+package org.cloudfoundry.autoscaler.simulation;
+
+import org.cloudfoundry.autoscaler.util.Clock;
+
+/**
+ * Clock of a replay, set to the time of the replayed metrics. It never goes
+ * back, so out of order metrics do not undo breach durations or cooldowns.
+ */
+public class SimulatedClock extends Clock {
+
+	private volatile long now;
+
+	public SimulatedClock(long now) {
+		this.now = now;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+
+	/**
+	 * @param time the new time, ignored if it is before the current one
+	 */
+	public void set(long time) {
+		if (time > now)
+			now = time;
+	}
+
+}
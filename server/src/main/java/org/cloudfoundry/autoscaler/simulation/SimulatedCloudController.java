@@ -0,0 +1,78 @@
+package org.cloudfoundry.autoscaler.simulation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stands in for Cloud Controller in a replay. It keeps the desired instance
+ * count of the app and when its instances are running: new instances start
+ * after the startup time, removed instances stop at once.
+ */
+public class SimulatedCloudController {
+
+	private final long startupMillis;
+	private int instances;
+	/** start times of the instances not running yet **/
+	private final List<Long> starting = new ArrayList<Long>();
+
+	/**
+	 * @param instances the instance count at the start of the replay, all running
+	 * @param startupMillis the time new instances take to start
+	 */
+	public SimulatedCloudController(int instances, long startupMillis) {
+		this.instances = instances;
+		this.startupMillis = startupMillis;
+	}
+
+	/**
+	 * @return the desired instance count, as Cloud Controller reports it
+	 */
+	public int getInstances() {
+		return instances;
+	}
+
+	/**
+	 * @param now
+	 * @return the instances running at the time
+	 */
+	public int getRunningInstances(long now) {
+		int running = instances;
+		for (long startTime : starting) {
+			if (startTime > now)
+				running--;
+		}
+		return running;
+	}
+
+	/**
+	 * @param now
+	 * @return when all desired instances run
+	 */
+	public long getScalingCompleteTime(long now) {
+		long complete = now;
+		for (long startTime : starting)
+			complete = Math.max(complete, startTime);
+		return complete;
+	}
+
+	/**
+	 * Updates the desired instance count, as a scaling action does
+	 * @param newCount
+	 * @param now
+	 */
+	public void scale(int newCount, long now) {
+		Iterator<Long> iterator = starting.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() <= now)
+				iterator.remove();
+		}
+		for (int i = instances; i < newCount; i++)
+			starting.add(now + startupMillis);
+		/** the instances not running yet are stopped first **/
+		for (int i = newCount; i < instances && !starting.isEmpty(); i++)
+			starting.remove(starting.size() - 1);
+		instances = newCount;
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.cloudfoundry.autoscaler.simulation;
+
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy;
+import org.cloudfoundry.autoscaler.manager.ApplicationScaleManager;
+import org.cloudfoundry.autoscaler.manager.ApplicationScaleManagerImpl;
+import org.cloudfoundry.autoscaler.manager.ScalingStateManager;
+import org.cloudfoundry.autoscaler.util.Clock;
+
+/**
+ * Scale manager of a replay. It decides like the server, and scales the
+ * simulated Cloud Controller instead of the app. The scaling state is kept in
+ * memory, an action completes when its new instances run.
+ */
+class SimulatedScaleManager implements ApplicationScaleManager {
+
+	private final String appId;
+	private final AutoScalerPolicy policy;
+	private final SimulatedCloudController cloudController;
+	private final Clock clock;
+	private final List<ReplayEngine.ScalingAction> timeline;
+
+	private AppAutoScaleState appState;
+	private ReplayEngine.ScalingAction ongoingAction;
+
+	SimulatedScaleManager(String appId, AutoScalerPolicy policy, SimulatedCloudController cloudController,
+			Clock clock, List<ReplayEngine.ScalingAction> timeline) {
+		this.appId = appId;
+		this.policy = policy;
+		this.cloudController = cloudController;
+		this.clock = clock;
+		this.timeline = timeline;
+	}
+
+	@Override
+	public void doScaleByTrigger(MonitorTriggerEvent event) throws Exception {
+		long now = clock.currentTimeMillis();
+		int currentInstanceCount = cloudController.getInstances();
+		int newCount = ApplicationScaleManagerImpl.decideInstanceCount(policy, event, currentInstanceCount, appState,
+				now);
+		if (newCount < 0 || newCount == currentInstanceCount)
+			return;
+
+		cloudController.scale(newCount, now);
+		if (appState == null)
+			appState = new AppAutoScaleState(appId);
+		appState.setInstanceCountState(ScalingStateManager.SCALING_STATE_REALIZING);
+		appState.setLastActionTriggerId(event.getTriggerId());
+		appState.setLastActionInstanceTarget(newCount);
+		appState.setLastActionStartTime(now);
+		ongoingAction = new ReplayEngine.ScalingAction(now, cloudController.getScalingCompleteTime(now),
+				event.getTriggerId(), event.getMetricType(), event.getMetricValue(), currentInstanceCount, newCount);
+		timeline.add(ongoingAction);
+	}
+
+	@Override
+	public void doScaleBySchedule(String appId, AutoScalerPolicy policy) throws Exception {
+		throw new UnsupportedOperationException("Schedules are not replayed");
+	}
+
+	@Override
+	public void doScaleByPolicy(String appId, AutoScalerPolicy policy) throws Exception {
+		throw new UnsupportedOperationException("Policy changes are not replayed");
+	}
+
+	@Override
+	public void doPrewarmBySchedule(String appId, AutoScalerPolicy policy, ScheduledPolicy scheduledPolicy,
+			long scheduleStartTime) throws Exception {
+		throw new UnsupportedOperationException("Schedules are not replayed");
+	}
+
+	/**
+	 * Completes the ongoing action once its instances run
+	 * @param now
+	 */
+	void update(long now) {
+		if (ongoingAction == null || ongoingAction.getCompleteTime() > now)
+			return;
+		appState.setInstanceCountState(ScalingStateManager.SCALING_STATE_COMPLETED);
+		appState.setLastActionEndTime(ongoingAction.getCompleteTime());
+		ongoingAction = null;
+	}
+
+}
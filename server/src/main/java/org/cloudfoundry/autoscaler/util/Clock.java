@@ -0,0 +1,22 @@
+package org.cloudfoundry.autoscaler.util;
+
+/**
+ * Source of the current time for the trigger evaluation and the scaling
+ * decisions. The server runs on the system clock; a replay of recorded
+ * metrics injects a clock that follows the recorded time instead.
+ */
+public abstract class Clock {
+
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * @return the current time in milliseconds since the epoch
+	 */
+	public abstract long currentTimeMillis();
+
+}
@@ -193,12 +193,15 @@ public class CloudFoundryManager {
         List<CFInstanceStats> statsList = new ArrayList<CFInstanceStats>();
         String url = this.target + "/v2/apps/" + appId + "/stats";
 
+        long requestTime = System.currentTimeMillis();
         WebResource webResource = restClient.resource(url);
         String response = webResource.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON)
                 .header("Authorization", "Bearer " + this.accessToken).get(String.class);
 
         JSONObject jsonObj = new JSONObject(response);
         Set<String> keySet = jsonObj.keySet();
+        // the stats have an entry for every desired instance, running or not
+        InstanceCountTracker.getInstance().observe(appId, keySet.size(), requestTime);
         logger.debug(String.format("%d instances for app %s", keySet.size(), appId));
         for (String key : keySet) {
             Object id = key;
@@ -346,6 +349,7 @@ public class CloudFoundryManager {
     
     
     public String[] getAppInfoByAppId(String appId) throws Exception  {
+        long requestTime = System.currentTimeMillis();
         Map appJsonMap = this.getApplicationByAppId(appId);
         Map entity = (Map) appJsonMap.get("entity");
         String detectedBuildpack = (String) entity.get("detected_buildpack");
@@ -357,6 +361,7 @@ public class CloudFoundryManager {
         String memQuota = entity.get("memory").toString();
         String state = entity.get("state").toString();
         String instances = entity.get("instances").toString();
+        InstanceCountTracker.getInstance().observe(appId, Integer.parseInt(instances), requestTime);
         return new String[] { name, deduceAppTypeFromBuildpack(detectedBuildpack), memQuota, state, instances};
         
     }
@@ -493,6 +498,7 @@ public class CloudFoundryManager {
 				.put(ClientResponse.class, jsonObj.toString());
 			int status = response.getStatus();
 			if (String.valueOf(status).startsWith("2")) {
+				InstanceCountTracker.getInstance().observe(appId, instances, System.currentTimeMillis());
 				return;
 			}
 			String content = response.getEntity(String.class);
@@ -501,7 +507,12 @@ public class CloudFoundryManager {
 			String description = (String)json.get("description");
 			logger.error(description);
 			throw new CloudException(errorCode, description);
+		} catch (CloudException e) {
+			//keep the error code, e.g. of quota failures
+			InstanceCountTracker.getInstance().invalidate(appId);
+			throw e;
 		} catch (Exception e) {
+			InstanceCountTracker.getInstance().invalidate(appId);
 			throw new CloudException(e);
 		}
 	}
@@ -0,0 +1,118 @@
+package org.cloudfoundry.autoscaler.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local view of the desired instance counts of the apps.
+ *
+ * The view is fed by every Cloud Controller read of an app, including the
+ * stats polls, and by our own successful instance updates. Observations
+ * older than the current one are ignored, so a poll started before a scaling
+ * action can not overwrite its result. Counts older than
+ * instanceCountMaxAgeSec are stale and have to be read from Cloud Controller
+ * again; a failed instance update invalidates the count of the app.
+ */
+public class InstanceCountTracker {
+	private static final InstanceCountTracker instance = new InstanceCountTracker(
+			ConfigManager.getLong("instanceCountMaxAgeSec", 60) * 1000);
+
+	private final long maxAge;
+	private final ConcurrentMap<String, Entry> counts = new ConcurrentHashMap<String, Entry>();
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong observed = new AtomicLong(0);
+	private final AtomicLong outdated = new AtomicLong(0);
+	private final AtomicLong invalidated = new AtomicLong(0);
+
+	private static class Entry {
+		private final int count;
+		private final long time;
+
+		private Entry(int count, long time) {
+			this.count = count;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * @param maxAge maximum age of a count in milliseconds, 0 disables the local view
+	 */
+	public InstanceCountTracker(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public static InstanceCountTracker getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records the desired instance count of an app
+	 * @param appId
+	 * @param count
+	 * @param observedAt the time the count was requested from Cloud Controller
+	 */
+	public void observe(String appId, int count, long observedAt) {
+		if (maxAge <= 0)
+			return;
+		Entry entry = new Entry(count, observedAt);
+		while (true) {
+			Entry current = counts.putIfAbsent(appId, entry);
+			if (current == null)
+				break;
+			if (current.time > observedAt) {
+				outdated.incrementAndGet();
+				return;
+			}
+			if (counts.replace(appId, current, entry))
+				break;
+		}
+		observed.incrementAndGet();
+	}
+
+	/**
+	 * @param appId
+	 * @return the instance count of the app, or null if it is unknown or stale
+	 */
+	public Integer getInstanceCount(String appId) {
+		Entry entry = counts.get(appId);
+		if (entry == null || entry.count < 0 || System.currentTimeMillis() - entry.time > maxAge) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.count;
+	}
+
+	/**
+	 * Forgets the count of an app, e.g. after a conflicting instance update.
+	 * Observations requested before are ignored.
+	 * @param appId
+	 */
+	public void invalidate(String appId) {
+		if (maxAge <= 0)
+			return;
+		counts.put(appId, new Entry(-1, System.currentTimeMillis()));
+		invalidated.incrementAndGet();
+	}
+
+	public void remove(String appId) {
+		counts.remove(appId);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("apps", counts.size());
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("observed", observed.get());
+		stats.put("outdated", outdated.get());
+		stats.put("invalidated", invalidated.get());
+		return stats;
+	}
+
+}
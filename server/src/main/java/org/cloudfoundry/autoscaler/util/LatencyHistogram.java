@@ -0,0 +1,103 @@
+package org.cloudfoundry.autoscaler.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, 8 sub-buckets per
+ * power of two, so reported percentiles are within 12.5% of the recorded
+ * values. Values are recorded in microseconds.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+	private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong sum = new AtomicLong(0);
+	private final AtomicLong max = new AtomicLong(0);
+
+	public void recordMicros(long micros) {
+		if (micros < 0)
+			micros = 0;
+		buckets.incrementAndGet(bucketIndex(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		long curMax = max.get();
+		while (micros > curMax && !max.compareAndSet(curMax, micros))
+			curMax = max.get();
+	}
+
+	public void recordMillis(long millis) {
+		recordMicros(millis * 1000);
+	}
+
+	public void recordSince(long startNanos) {
+		recordMicros((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the latency in microseconds at the given percentile
+	 */
+	public long getPercentileMicros(double percentile) {
+		long total = count.get();
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * percentile / 100);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(bucketValue(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Summary in milliseconds for the stats endpoints
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		long total = count.get();
+		stats.put("count", total);
+		stats.put("meanMs", total == 0 ? 0 : sum.get() / 1000.0 / total);
+		stats.put("p50Ms", getPercentileMicros(50) / 1000.0);
+		stats.put("p90Ms", getPercentileMicros(90) / 1000.0);
+		stats.put("p99Ms", getPercentileMicros(99) / 1000.0);
+		stats.put("maxMs", max.get() / 1000.0);
+		return stats;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * The midpoint of the values falling into the bucket
+	 */
+	static long bucketValue(int index) {
+		if (index < LINEAR_LIMIT)
+			return index;
+		int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (SUB_BUCKETS + subBucket) * width + width / 2;
+	}
+
+}
@@ -0,0 +1,245 @@
+package org.cloudfoundry.autoscaler.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.cloudfoundry.autoscaler.metric.monitor.NamedThreadFactory;
+
+/**
+ * A bounded cache of documents read from the store.
+ *
+ * The least recently used entry is evicted when the cache is full, and an
+ * entry expires ttl after it was loaded. An entry read within refreshAhead
+ * of its expiry is loaded again in the background while the cached value is
+ * still served, so entries in use do not expire all at once. Concurrent
+ * misses of a key wait for a single load. Values put while a load is running
+ * win over the loaded value, the load may have read before the write.
+ */
+public class LocalCache<K, V> {
+	private static final Logger logger = Logger.getLogger(LocalCache.class.getName());
+	private static final ExecutorService refresher = Executors.newSingleThreadExecutor(new NamedThreadFactory("LocalCacheRefresher"));
+
+	public interface Loader<K, V> {
+		/**
+		 * @param key
+		 * @return the value of the key, or null if there is none
+		 */
+		V load(K key) throws Exception;
+	}
+
+	private static class Entry<V> {
+		private final V value;
+		private final long loadTime;
+		private boolean refreshing = false;
+
+		Entry(V value, long loadTime) {
+			this.value = value;
+			this.loadTime = loadTime;
+		}
+	}
+
+	private final String name;
+	private final int maxSize;
+	private final long ttl;
+	private final long refreshAhead;
+	private final Loader<K, V> loader;
+	private final Clock clock;
+	private final Executor executor;
+	private final LinkedHashMap<K, Entry<V>> entries;
+	private final Map<K, FutureTask<V>> loading = new HashMap<K, FutureTask<V>>();
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong loads = new AtomicLong(0);
+	private final AtomicLong loadFailures = new AtomicLong(0);
+	private final AtomicLong refreshes = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private final AtomicLong expirations = new AtomicLong(0);
+	private final LatencyHistogram loadTime = new LatencyHistogram();
+
+	/**
+	 * @param name
+	 * @param maxSize
+	 * @param ttl in milliseconds
+	 * @param refreshAhead in milliseconds before the expiry, 0 to load expired entries only
+	 * @param loader
+	 */
+	public LocalCache(String name, int maxSize, long ttl, long refreshAhead, Loader<K, V> loader) {
+		this(name, maxSize, ttl, refreshAhead, loader, Clock.SYSTEM, refresher);
+	}
+
+	LocalCache(String name, final int maxSize, long ttl, long refreshAhead, Loader<K, V> loader, Clock clock,
+			Executor executor) {
+		this.name = name;
+		this.maxSize = Math.max(1, maxSize);
+		this.ttl = ttl;
+		this.refreshAhead = Math.min(refreshAhead, ttl);
+		this.loader = loader;
+		this.clock = clock;
+		this.executor = executor;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() <= LocalCache.this.maxSize)
+					return false;
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @param key
+	 * @return the cached value of the key, loaded if it is not cached
+	 * @throws Exception the exception of the loader
+	 */
+	public V get(K key) throws Exception {
+		FutureTask<V> load;
+		boolean owner = false;
+		synchronized (this) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null) {
+				long age = clock.currentTimeMillis() - entry.loadTime;
+				if (age < ttl) {
+					hits.incrementAndGet();
+					if (age >= ttl - refreshAhead && !entry.refreshing && !loading.containsKey(key)) {
+						entry.refreshing = true;
+						refreshes.incrementAndGet();
+						try {
+							executor.execute(newLoad(key));
+						} catch (RejectedExecutionException e) {
+							loading.remove(key);
+							entry.refreshing = false;
+						}
+					}
+					return entry.value;
+				}
+				entries.remove(key);
+				expirations.incrementAndGet();
+			}
+			misses.incrementAndGet();
+			load = loading.get(key);
+			if (load == null) {
+				load = newLoad(key);
+				owner = true;
+			}
+		}
+		if (owner)
+			load.run();
+		try {
+			return load.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * Registers a load of the key, its value is cached unless the key is
+	 * written before it completes. Called with the lock held.
+	 */
+	private FutureTask<V> newLoad(final K key) {
+		final AtomicReference<FutureTask<V>> self = new AtomicReference<FutureTask<V>>();
+		FutureTask<V> load = new FutureTask<V>(new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				long startTime = System.nanoTime();
+				loads.incrementAndGet();
+				V value = null;
+				boolean loaded = false;
+				try {
+					value = loader.load(key);
+					loaded = true;
+				} catch (Exception e) {
+					loadFailures.incrementAndGet();
+					logger.warn("Failed to load " + key + " into the " + name + " cache. " + e.getMessage());
+					throw e;
+				} finally {
+					loadTime.recordSince(startTime);
+					synchronized (LocalCache.this) {
+						if (loading.get(key) == self.get()) {
+							loading.remove(key);
+							Entry<V> entry = entries.get(key);
+							if (value != null)
+								entries.put(key, new Entry<V>(value, clock.currentTimeMillis()));
+							else if (loaded)
+								entries.remove(key); // deleted from the store
+							else if (entry != null)
+								entry.refreshing = false; // served until it expires
+						}
+					}
+				}
+				return value;
+			}
+		});
+		self.set(load);
+		loading.put(key, load);
+		return load;
+	}
+
+	/**
+	 * Caches the value of the key as written to the store
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void put(K key, V value) {
+		loading.remove(key);
+		if (value == null)
+			entries.remove(key);
+		else
+			entries.put(key, new Entry<V>(value, clock.currentTimeMillis()));
+	}
+
+	public synchronized void remove(K key) {
+		loading.remove(key);
+		entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		loading.clear();
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("size", size());
+		stats.put("maxSize", maxSize);
+		stats.put("ttlSec", ttl / 1000);
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		stats.put("hits", hitCount);
+		stats.put("misses", missCount);
+		stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+		stats.put("loads", loads.get());
+		stats.put("loadFailures", loadFailures.get());
+		stats.put("refreshes", refreshes.get());
+		stats.put("evictions", evictions.get());
+		stats.put("expirations", expirations.get());
+		stats.put("loadTime", loadTime.getStats());
+		return stats;
+	}
+
+	public static void shutdown() {
+		refresher.shutdownNow();
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.cloudfoundry.autoscaler.util;
+
+/**
+ * Token bucket rate limiter. Tokens are added at a fixed rate up to the burst
+ * size; a call takes one token. Not thread safe, callers synchronize.
+ */
+public class TokenBucket {
+
+	private final double ratePerMilli;
+	private final double burst;
+	private final Clock clock;
+
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param ratePerSec tokens added per second
+	 * @param burst the maximum tokens, at least 1
+	 * @param clock
+	 */
+	public TokenBucket(double ratePerSec, double burst, Clock clock) {
+		if (ratePerSec <= 0)
+			throw new IllegalArgumentException("ratePerSec must be positive");
+		this.ratePerMilli = ratePerSec / 1000;
+		this.burst = Math.max(1, burst);
+		this.clock = clock;
+		this.tokens = this.burst;
+		this.lastRefill = clock.currentTimeMillis();
+	}
+
+	private void refill() {
+		long now = clock.currentTimeMillis();
+		if (now > lastRefill) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerMilli);
+			lastRefill = now;
+		}
+	}
+
+	/**
+	 * @return the milliseconds until a token is available, 0 if one is available now
+	 */
+	public long getWaitMillis() {
+		refill();
+		if (tokens >= 1)
+			return 0;
+		return (long) Math.ceil((1 - tokens) / ratePerMilli);
+	}
+
+	/**
+	 * Takes a token if one is available
+	 * @return true if a token was taken
+	 */
+	public boolean tryTake() {
+		refill();
+		if (tokens < 1)
+			return false;
+		tokens -= 1;
+		return true;
+	}
+
+	/**
+	 * @return true if the bucket is full, e.g. it has not been used for a while
+	 */
+	public boolean isFull() {
+		refill();
+		return tokens >= burst;
+	}
+
+}
@@ -0,0 +1,169 @@
+package org.cloudfoundry.autoscaler.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncAutoScalingDataStoreTest {
+
+	private AsyncAutoScalingDataStore asyncStore;
+
+	@Before
+	public void setUp() {
+		asyncStore = new AsyncAutoScalingDataStore(null, 4, 2, 100);
+	}
+
+	@After
+	public void tearDown() {
+		asyncStore.shutdown(1000);
+	}
+
+	@Test
+	public void sameKeyInOrderTest() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		DataStoreFuture<Integer> last = null;
+		for (int i = 0; i < 50; i++) {
+			final int seq = i;
+			last = asyncStore.submit("app1", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					Thread.sleep(seq % 3);
+					order.add(seq);
+					return seq;
+				}
+			});
+		}
+		assertEquals(Integer.valueOf(49), last.get(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 50; i++)
+			assertEquals(Integer.valueOf(i), order.get(i));
+	}
+
+	@Test
+	public void callbackTest() throws Exception {
+		final CountDownLatch failed = new CountDownLatch(1);
+		DataStoreFuture<Void> future = asyncStore.submit("app1", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				throw new IllegalStateException("down");
+			}
+		});
+		future.addCallback(new DataStoreCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				failed.countDown();
+			}
+		});
+		assertTrue(failed.await(5, TimeUnit.SECONDS));
+		try {
+			future.get();
+			assertTrue(false);
+		} catch (ExecutionException e) {
+			assertEquals("down", e.getCause().getMessage());
+		}
+
+		// registered after completion
+		final List<String> results = new ArrayList<String>();
+		DataStoreFuture.completed("done").addCallback(new DataStoreCallback<String>() {
+			@Override
+			public void onSuccess(String result) {
+				results.add(result);
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+			}
+		});
+		assertEquals("done", results.get(0));
+		assertEquals(1L, asyncStore.getStats().get("failed"));
+	}
+
+	@Test
+	public void maxPendingTest() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		DataStoreFuture<Void> first = asyncStore.submit("app1", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				release.await();
+				return null;
+			}
+		});
+		for (int i = 1; i < 100; i++)
+			asyncStore.submit("app1", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					return null;
+				}
+			});
+		DataStoreFuture<Void> rejected = asyncStore.submit("app1", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				return null;
+			}
+		});
+		try {
+			rejected.get(1, TimeUnit.SECONDS);
+			assertTrue(false);
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(1L, asyncStore.getStats().get("rejected"));
+
+		// scaling state transitions do not wait behind the other operations of the app
+		DataStoreFuture<Void> state = asyncStore.submit(AsyncAutoScalingDataStore.scalingStateKey("app1"),
+				new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						return null;
+					}
+				});
+		state.get(1, TimeUnit.SECONDS);
+		assertFalse(first.isDone());
+		release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void fullPoolQueueTest() throws Exception {
+		asyncStore.shutdown(1000);
+		asyncStore = new AsyncAutoScalingDataStore(null, 1, 1, 10000);
+		final List<Integer> depths = Collections.synchronizedList(new ArrayList<Integer>());
+		DataStoreFuture<Void> last = null;
+		for (int i = 0; i < 2000; i++) {
+			// other keys keep the pool queue full
+			asyncStore.submit("app" + (i % 7), new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					return null;
+				}
+			});
+			last = asyncStore.submit("app1", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					depths.add(Thread.currentThread().getStackTrace().length);
+					return null;
+				}
+			});
+		}
+		last.get(10, TimeUnit.SECONDS);
+		// the drainer of a key does not run its successor on its own stack
+		assertTrue(Collections.max(depths) < 200);
+	}
+
+}
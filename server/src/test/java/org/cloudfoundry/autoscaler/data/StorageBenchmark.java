@@ -0,0 +1,108 @@
+package org.cloudfoundry.autoscaler.data;
+
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.CouchdbStorageService;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
+import org.cloudfoundry.autoscaler.data.jdbc.JdbcStorageService;
+import org.cloudfoundry.autoscaler.manager.ScalingHistoryFilter;
+import org.cloudfoundry.autoscaler.util.LatencyHistogram;
+
+/**
+ * Compares the scaling history and metric workloads of the data store
+ * backends. Not run as part of the unit tests, it needs a running CouchDB for
+ * the CouchDB side:
+ *
+ * java ... StorageBenchmark [couchdb|jdbc|all] [apps] [recordsPerApp]
+ *
+ * The JDBC side uses jdbc.url (default: in-memory H2) with jdbc.driver,
+ * jdbc.username and jdbc.password system properties.
+ */
+public class StorageBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String backend = args.length > 0 ? args[0] : "all";
+		int apps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int records = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		if ("all".equals(backend) || "jdbc".equals(backend)) {
+			JdbcStorageService jdbc = new JdbcStorageService(System.getProperty("jdbc.driver", "org.h2.Driver"),
+					System.getProperty("jdbc.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1"),
+					System.getProperty("jdbc.username", "sa"), System.getProperty("jdbc.password", ""), 10, 500, 100000, 1000,
+					Long.MAX_VALUE / 2);
+			run("jdbc", jdbc, apps, records);
+			jdbc.shutdown();
+		}
+		if ("all".equals(backend) || "couchdb".equals(backend)) {
+			CouchdbStorageService couchdb = CouchdbStorageService.getInstance();
+			run("couchdb", couchdb, apps, records);
+			couchdb.shutdown();
+		}
+		System.exit(0);
+	}
+
+	private static void run(String name, AutoScalingDataStore store, int apps, int records) throws Exception {
+		String prefix = "benchmark-" + System.currentTimeMillis() + "-";
+		long baseTime = System.currentTimeMillis();
+
+		LatencyHistogram historyWrites = new LatencyHistogram();
+		LatencyHistogram metricWrites = new LatencyHistogram();
+		for (int i = 0; i < records; i++) {
+			for (int app = 0; app < apps; app++) {
+				String appId = prefix + app;
+				long start = System.nanoTime();
+				store.saveScalingHistory(new ScalingHistory(appId, i % 3, i % 2 == 0 ? 1 : -1, 2, baseTime + i * 1000L,
+						baseTime + i * 1000L + 500, "Memory", 80, "upper", 120, 0, null, null, null, null, null));
+				historyWrites.recordSince(start);
+
+				start = System.nanoTime();
+				store.addAppStats(new AppInstanceMetrics(appId, "app", "java", prefix + "service", baseTime + i * 1000L,
+						new LinkedList<InstanceMetrics>()));
+				metricWrites.recordSince(start);
+			}
+		}
+
+		LatencyHistogram historyPages = new LatencyHistogram();
+		LatencyHistogram historyCounts = new LatencyHistogram();
+		LatencyHistogram metricReads = new LatencyHistogram();
+		for (int app = 0; app < apps; app++) {
+			String appId = prefix + app;
+			ScalingHistoryFilter filter = new ScalingHistoryFilter();
+			filter.setAppId(appId);
+			filter.setStartTime(baseTime);
+			filter.setEndTime(baseTime + records * 1000L);
+			filter.setScaleType(ScalingHistoryFilter.SCALE_IN_TYPE);
+			filter.setStatus("1");
+			filter.setMaxCount(20);
+			for (int page = 0; page < 5; page++) {
+				filter.setOffset(page * 20);
+				long start = System.nanoTime();
+				store.getHistoryList(filter);
+				historyPages.recordSince(start);
+			}
+			long start = System.nanoTime();
+			store.getHistoryCount(filter);
+			historyCounts.recordSince(start);
+
+			start = System.nanoTime();
+			store.getAppStatsHistoryByAppIdAfter(appId, baseTime + records * 500L);
+			metricReads.recordSince(start);
+		}
+
+		print(name, "history write", historyWrites);
+		print(name, "history page", historyPages);
+		print(name, "history count", historyCounts);
+		print(name, "metric write", metricWrites);
+		print(name, "metric read", metricReads);
+	}
+
+	private static void print(String name, String workload, LatencyHistogram histogram) {
+		Map<String, Object> stats = histogram.getStats();
+		System.out.println(String.format("%-8s %-14s count=%s mean=%.3fms p50=%sms p99=%sms max=%sms", name, workload,
+				stats.get("count"), stats.get("meanMs"), stats.get("p50Ms"), stats.get("p99Ms"), stats.get("maxMs")));
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.cloudfoundry.autoscaler.data.couchdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.AppInstanceMetricsDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.MetricDBSegmentDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MetricDBSegmentRoutingTest {
+
+	private static final long END = 1000000L;
+	private static final int WRITERS = 8;
+	private static final int WRITES = 400;
+
+	private AppInstanceMetricsDAO recordingDao(final Queue<Long> timestamps) {
+		AppInstanceMetricsDAO dao = mock(AppInstanceMetricsDAO.class);
+		when(dao.tryAdd(any(AppInstanceMetrics.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				timestamps.add(((AppInstanceMetrics) invocation.getArguments()[0]).getTimestamp());
+				return true;
+			}
+		});
+		return dao;
+	}
+
+	@Test
+	public void concurrentRolloverTest() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			MetricDBSegment closing = new MetricDBSegment();
+			closing.setMetricDBPostfix("closing");
+			closing.setSegmentSeq(1);
+			closing.setStartTimestamp(0);
+			closing.setEndTimestamp(END);
+			final Queue<Long> closingWrites = new ConcurrentLinkedQueue<Long>();
+			final Queue<Long> nextWrites = new ConcurrentLinkedQueue<Long>();
+			final AppInstanceMetricsDAO nextDao = recordingDao(nextWrites);
+			final AtomicInteger created = new AtomicInteger(0);
+			MetricDBSegmentDAO segmentDao = mock(MetricDBSegmentDAO.class);
+
+			final CouchdbStorageService service = new CouchdbStorageService(segmentDao, new MetricDBSegmentRouting(
+					Collections.singletonList(closing), Collections.singletonList(recordingDao(closingWrites)))) {
+				@Override
+				AppInstanceMetricsDAO createMetricDB(String metricDBName) {
+					created.incrementAndGet();
+					return nextDao;
+				}
+			};
+
+			// the writers cross the end of the segment together
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicInteger errors = new AtomicInteger(0);
+			Thread[] writers = new Thread[WRITERS];
+			for (int i = 0; i < WRITERS; i++) {
+				writers[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for (int j = 0; j < WRITES; j++)
+								service.addAppStats(new AppInstanceMetrics("app1", "app1", "java", "service1", END
+										- WRITES / 2 + j, new LinkedList<InstanceMetrics>()));
+						} catch (Exception e) {
+							errors.incrementAndGet();
+						}
+					}
+				});
+				writers[i].start();
+			}
+			start.countDown();
+			for (Thread writer : writers)
+				writer.join();
+
+			assertEquals(0, errors.get());
+			assertEquals(WRITERS * WRITES, closingWrites.size() + nextWrites.size());
+			// writers that see the new snapshot use the new segment whatever the timestamp
+			for (long timestamp : closingWrites)
+				assertTrue("written to the closed segment at " + timestamp, timestamp <= END);
+			assertEquals(1, created.get());
+			verify(segmentDao, times(1)).add(any(MetricDBSegment.class));
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package org.cloudfoundry.autoscaler.data.couchdb.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.data.couchdb.dao.AppInstanceMetricsDAO;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.MetricDBSegment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MetricArchiveStoreTest {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File(System.getProperty("java.io.tmpdir"), "metric-archive-test-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		dir.delete();
+	}
+
+	private AppInstanceMetrics metrics(String appId, int seq) {
+		long timestamp = 1000000L + seq * 30000L + (seq % 7 == 0 ? 13 : 0);
+		AppInstanceMetrics metrics = new AppInstanceMetrics(appId, "name-" + appId, "java", "service1", timestamp,
+				new LinkedList<InstanceMetrics>());
+		metrics.setId(appId + "-" + seq);
+		metrics.setMemQuota(512);
+		for (int index = 0; index < 2; index++) {
+			InstanceMetrics instance = new InstanceMetrics();
+			instance.setInstanceIndex(index);
+			instance.setInstanceId(String.valueOf(index));
+			instance.setTimestamp(timestamp);
+			instance.addMetric(new Metric("Memory", String.valueOf(200.0 + (seq % 5) * 0.5), "cf-stats", "Memory",
+					timestamp, "MB", null));
+			instance.addMetric(new Metric("CPU", String.valueOf(seq % 3), "cf-stats", "CPU", timestamp, "%", null));
+			instance.addMetric(new Metric("Status", seq % 11 == 0 ? null : "RUNNING", null, null, timestamp, null,
+					null));
+			metrics.addInstanceMetrics(instance);
+		}
+		return metrics;
+	}
+
+	private MetricDBSegment segment(String postfix, long start, long end) {
+		MetricDBSegment segment = new MetricDBSegment();
+		segment.setMetricDBPostfix(postfix);
+		segment.setServerName("server1");
+		segment.setStartTimestamp(start);
+		segment.setEndTimestamp(end);
+		return segment;
+	}
+
+	@Test
+	public void codecRoundTripTest() throws Exception {
+		List<AppInstanceMetrics> rows = new ArrayList<AppInstanceMetrics>();
+		for (int i = 0; i < 100; i++)
+			rows.add(metrics("app1", i));
+		rows.get(3).getInstanceMetrics().get(0).setInstanceIndex(-1);
+		rows.get(4).getInstanceMetrics().get(1).getMetrics().get(0).setValue("NaN");
+		rows.get(5).getInstanceMetrics().get(1).getMetrics().get(1).setValue("007");
+		rows.get(6).setInstanceMetrics(new LinkedList<InstanceMetrics>());
+
+		byte[] block = MetricArchiveCodec.encode(rows);
+		List<AppInstanceMetrics> decoded = MetricArchiveCodec.decode(block);
+		assertEquals(mapper.writeValueAsString(rows), mapper.writeValueAsString(decoded));
+		assertTrue(block.length * 10 < mapper.writeValueAsBytes(rows).length);
+	}
+
+	@Test
+	public void archiveAndReadTest() throws Exception {
+		List<AppInstanceMetrics> page1 = new ArrayList<AppInstanceMetrics>();
+		List<AppInstanceMetrics> page2 = new ArrayList<AppInstanceMetrics>();
+		for (int i = 0; i < 30; i++)
+			page1.add(metrics("app1", i));
+		for (int i = 0; i < 10; i++)
+			page1.add(metrics("app2", i));
+		for (int i = 10; i < 25; i++)
+			page2.add(metrics("app2", i));
+		AppInstanceMetricsDAO dao = mock(AppInstanceMetricsDAO.class);
+		when(dao.findPage(null, 40)).thenReturn(page1);
+		when(dao.findPage(page1.get(39), 40)).thenReturn(page2);
+
+		MetricDBSegment segment = segment("2016-1", 0, 2000000L);
+		MetricArchiveStore store = new MetricArchiveStore(dir, 40, 8, 0, 0);
+		store.archive("metric-2016-1", segment, dao);
+		assertEquals(2, store.getArchive("2016-1").getAppCount());
+
+		// reloaded from disk
+		store = new MetricArchiveStore(dir, 40, 8, 0, 0);
+		assertEquals(55L, store.getArchive("2016-1").getRowCount());
+		List<MetricDBSegment> live = Collections.singletonList(segment("2016-2", 2000001L, Long.MAX_VALUE));
+		List<AppInstanceMetrics> app2 = store.findByAppIdAfter("app2", 0, live);
+		List<AppInstanceMetrics> expected = new ArrayList<AppInstanceMetrics>(page1.subList(30, 40));
+		expected.addAll(page2);
+		assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(app2));
+
+		long newerThan = page1.get(20).getTimestamp();
+		List<AppInstanceMetrics> app1 = store.findByAppIdAfter("app1", newerThan, live);
+		assertEquals(10, app1.size());
+		assertEquals(newerThan, app1.get(0).getTimestamp());
+		assertEquals(0, store.findByAppIdAfter("app1", 2000001L, live).size());
+
+		// not read while the segment is still in CouchDB
+		assertEquals(0, store.findByAppIdAfter("app1", 0, Collections.singletonList(segment)).size());
+		assertNull(store.getArchive("2016-2"));
+	}
+
+	@Test
+	public void retentionTest() throws Exception {
+		List<AppInstanceMetrics> page = new ArrayList<AppInstanceMetrics>();
+		for (int i = 0; i < 30; i++)
+			page.add(metrics("app1", i));
+		AppInstanceMetricsDAO dao = mock(AppInstanceMetricsDAO.class);
+		when(dao.findPage(null, 40)).thenReturn(page);
+
+		long day = 24 * 60 * 60 * 1000L;
+		MetricArchiveStore store = new MetricArchiveStore(dir, 40, 8, 10 * day, 0);
+		MetricSegmentArchive first = store.archive("metric-1", segment("1", 0, day), dao);
+		store.archive("metric-2", segment("2", day + 1, 2 * day), dao);
+		store.archive("metric-3", segment("3", 2 * day + 1, 3 * day), dao);
+
+		assertEquals(0, store.deleteExpired(11 * day));
+		assertEquals(1, store.deleteExpired(11 * day + 1));
+		assertFalse(first.getFile().exists());
+		assertNull(store.getArchive("1"));
+		assertEquals(2, store.getArchives().size());
+
+		// the oldest archives go while the cap is exceeded
+		long size = store.getArchive("3").getFile().length();
+		store = new MetricArchiveStore(dir, 40, 8, 10 * day, size);
+		assertEquals(1, store.deleteExpired(3 * day));
+		assertNull(store.getArchive("2"));
+		assertEquals(1, new MetricArchiveStore(dir, 40, 8, 0, 0).getArchives().size());
+		assertEquals(30, store.findByAppIdAfter("app1", 0, Collections.<MetricDBSegment> emptyList()).size());
+	}
+
+	@Test
+	public void readVersion1Test() throws Exception {
+		dir.mkdirs();
+		List<AppInstanceMetrics> rows = new ArrayList<AppInstanceMetrics>();
+		for (int i = 0; i < 20; i++) {
+			AppInstanceMetrics row = metrics("app1", i);
+			row.setSampleInterval(30000L);
+			rows.add(row);
+		}
+		File file = new File(dir, "v1.archive");
+		MetricArchiveWriter writer = new MetricArchiveWriter(file, segment("2016-1", 0, 2000000L), 8, 1);
+		for (AppInstanceMetrics row : rows)
+			writer.add(row);
+		writer.close();
+
+		// written before sample intervals were archived
+		MetricSegmentArchive archive = MetricSegmentArchive.open(file);
+		assertEquals(1, archive.getVersion());
+		List<AppInstanceMetrics> decoded = archive.findByAppIdAfter("app1", 0);
+		for (AppInstanceMetrics row : rows)
+			row.setSampleInterval(null);
+		assertEquals(mapper.writeValueAsString(rows), mapper.writeValueAsString(decoded));
+	}
+
+}
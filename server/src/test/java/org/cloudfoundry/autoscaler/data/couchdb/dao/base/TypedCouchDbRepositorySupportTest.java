@@ -0,0 +1,77 @@
+package org.cloudfoundry.autoscaler.data.couchdb.dao.base;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.cloudfoundry.autoscaler.data.couchdb.document.BoundApp;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.support.DesignDocument;
+import org.ektorp.support.View;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class TypedCouchDbRepositorySupportTest {
+
+	@View(name = "by_appId", map = "function(doc) { if (doc.type=='BoundApp') { emit(doc.appId, doc._id) } }")
+	private static class BoundAppRepository extends TypedCouchDbRepositorySupport<BoundApp> {
+		public BoundAppRepository(CouchDbConnector db) {
+			super(BoundApp.class, db, "BoundApp_Test");
+		}
+	}
+
+	private CouchDbConnector mockDb(String name) {
+		CouchDbConnector db = mock(CouchDbConnector.class);
+		when(db.getDatabaseName()).thenReturn(name);
+		return db;
+	}
+
+	@Test
+	public void uploadOnlyOnceTest() {
+		CouchDbConnector db = mockDb("design-doc-test-" + System.nanoTime());
+		new BoundAppRepository(db).initStandardDesignDocument();
+		new BoundAppRepository(db).initStandardDesignDocument();
+
+		ArgumentCaptor<DesignDocument> created = ArgumentCaptor.forClass(DesignDocument.class);
+		verify(db, times(1)).find(DesignDocument.class, "_design/BoundApp_Test");
+		verify(db, times(1)).create(created.capture());
+		assertNotNull(created.getValue().getAnonymous().get("viewsHash"));
+	}
+
+	@Test
+	public void unchangedViewsTest() {
+		CouchDbConnector uploaded = mockDb("design-doc-test-" + System.nanoTime());
+		new BoundAppRepository(uploaded).initStandardDesignDocument();
+		ArgumentCaptor<DesignDocument> created = ArgumentCaptor.forClass(DesignDocument.class);
+		verify(uploaded).create(created.capture());
+
+		// another server finds the same views in the database
+		CouchDbConnector db = mockDb("design-doc-test-" + System.nanoTime());
+		DesignDocument existing = created.getValue();
+		existing.setRevision("1-abc");
+		when(db.find(DesignDocument.class, "_design/BoundApp_Test")).thenReturn(existing);
+		new BoundAppRepository(db).initStandardDesignDocument();
+		verify(db, never()).update(any());
+		verify(db, never()).create(any());
+	}
+
+	@Test
+	public void changedViewsTest() {
+		CouchDbConnector db = mockDb("design-doc-test-" + System.nanoTime());
+		DesignDocument existing = new DesignDocument("_design/BoundApp_Test");
+		existing.setRevision("1-abc");
+		existing.addView("by_appId", new DesignDocument.View("function(doc) { emit(doc.appId, null) }"));
+		existing.setAnonymous("viewsHash", "outdated");
+		when(db.find(DesignDocument.class, "_design/BoundApp_Test")).thenReturn(existing);
+
+		new BoundAppRepository(db).initStandardDesignDocument();
+		verify(db, times(1)).update(existing);
+		assertTrue(existing.get("by_appId").getMap().contains("doc.type=='BoundApp'"));
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.cloudfoundry.autoscaler.data.couchdb.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteSpoolTest {
+
+	private File dir;
+	private WriteSpool spool;
+	private boolean available;
+	private List<String> replayed = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		dir = new File(System.getProperty("java.io.tmpdir"), "write-spool-test-" + System.nanoTime());
+		spool = createSpool(1024);
+	}
+
+	@After
+	public void tearDown() {
+		spool.shutdown();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	private WriteSpool createSpool(long maxBytes) throws Exception {
+		return new WriteSpool(dir.getAbsolutePath(), maxBytes, 60000, 2, 60000, 2, 2, new WriteSpool.Replayer() {
+			@Override
+			public boolean replay(String type, List<String> records) {
+				if (!available)
+					return false;
+				// a record the database rejects
+				for (String record : records)
+					if (record.contains("bad"))
+						return false;
+				for (String record : records)
+					replayed.add(type + ":" + record);
+				return true;
+			}
+
+			@Override
+			public boolean isAvailable() {
+				return available;
+			}
+		});
+	}
+
+	@Test
+	public void replayInOrderTest() throws Exception {
+		assertTrue(spool.append("metrics", "{\"a\":1}"));
+		assertTrue(spool.append("metrics", "{\"a\":2}"));
+		assertTrue(spool.append("history", "{\"h\":1}"));
+		assertTrue(spool.hasPending());
+
+		spool.replay();
+		assertTrue(spool.hasPending());
+		assertEquals(0, replayed.size());
+
+		assertTrue(spool.append("metrics", "{\"a\":3}"));
+		available = true;
+		spool.replay();
+		assertFalse(spool.hasPending());
+		assertEquals(4, replayed.size());
+		assertEquals("metrics:{\"a\":1}", replayed.get(0));
+		assertEquals("history:{\"h\":1}", replayed.get(2));
+		assertEquals("metrics:{\"a\":3}", replayed.get(3));
+		assertEquals(4L, spool.getStats().get("replayedRecords"));
+	}
+
+	@Test
+	public void recoverAfterRestartTest() throws Exception {
+		spool.append("metrics", "{\"a\":1}");
+		spool.shutdown();
+
+		spool = createSpool(1024);
+		assertTrue(spool.hasPending());
+		available = true;
+		spool.replay();
+		assertEquals(1, replayed.size());
+	}
+
+	@Test
+	public void deadLetterTest() throws Exception {
+		available = true;
+		spool.append("metrics", "{\"a\":1}");
+		spool.append("metrics", "{\"bad\":1}");
+		spool.append("metrics", "{\"a\":2}");
+
+		spool.replay();
+		assertEquals(0, replayed.size());
+		// the records before the rejected one are written alone
+		spool.replay();
+		assertEquals(1, replayed.size());
+		assertTrue(spool.hasPending());
+		spool.replay();
+		assertFalse(spool.hasPending());
+		assertEquals(2, replayed.size());
+		assertEquals("metrics:{\"a\":2}", replayed.get(1));
+		assertEquals(1L, spool.getStats().get("deadLetterRecords"));
+		List<String> deadLetters = Files.readAllLines(new File(dir, "spool.dead.log").toPath(), Charset.forName("UTF-8"));
+		assertEquals(Arrays.asList("metrics\t{\"bad\":1}"), deadLetters);
+	}
+
+	@Test
+	public void outageTest() throws Exception {
+		spool.append("metrics", "{\"a\":1}");
+		spool.append("metrics", "{\"a\":2}");
+		spool.append("history", "{\"h\":1}");
+		// the database is down for many more replays than the attempts of a record
+		for (int i = 0; i < 10; i++)
+			spool.replay();
+		assertEquals(0L, spool.getStats().get("deadLetterRecords"));
+		assertEquals(3L, spool.getStats().get("pendingRecords"));
+		assertFalse(new File(dir, "spool.dead.log").exists());
+
+		available = true;
+		spool.replay();
+		assertFalse(spool.hasPending());
+		assertEquals(3, replayed.size());
+		assertEquals("metrics:{\"a\":1}", replayed.get(0));
+	}
+
+	@Test
+	public void maxSizeTest() throws Exception {
+		spool.shutdown();
+		spool = createSpool(20);
+		assertTrue(spool.append("metrics", "{\"a\":1}"));
+		assertFalse(spool.append("metrics", "{\"a\":2}"));
+		assertEquals(1L, spool.getStats().get("droppedRecords"));
+	}
+
+}
@@ -0,0 +1,229 @@
+package org.cloudfoundry.autoscaler.data.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.Application;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.BoundApp;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScalingHistory;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ServiceConfig;
+import org.cloudfoundry.autoscaler.data.couchdb.document.TriggerRecord;
+import org.cloudfoundry.autoscaler.exceptions.PolicyNotFoundException;
+import org.cloudfoundry.autoscaler.manager.ScalingHistoryFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JdbcStorageServiceTest {
+
+	private String url;
+	private JdbcStorageService store;
+
+	@Before
+	public void setUp() throws Exception {
+		url = "jdbc:h2:mem:autoscaler-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1";
+		store = new JdbcStorageService("org.h2.Driver", url, "sa", "", 2, 3, 5, 60000, 60000);
+	}
+
+	@After
+	public void tearDown() {
+		store.shutdown();
+	}
+
+	@Test
+	public void applicationTest() throws Exception {
+		Application app = new Application("app1", "service1", "binding1", "org1", "space1");
+		app.setState("enabled");
+		app.setPolicyId("policy1");
+		store.saveApplication(app);
+		app.setState("unbond");
+		store.saveApplication(app);
+
+		assertEquals("unbond", store.getApplication("app1").getState());
+		assertEquals("app1", store.getApplicationByBindingId("binding1").getAppId());
+		assertEquals(1, store.getApplicationsByPolicyId("policy1").size());
+		assertEquals(0, store.getApplications("service1").size());
+
+		store.removeApplicationByBindingId("binding1");
+		assertNull(store.getApplication("app1"));
+	}
+
+	@Test
+	public void policyTest() throws Exception {
+		AutoScalerPolicy policy = new AutoScalerPolicy();
+		policy.setInstanceMaxCount(5);
+		String policyId = store.savePolicy(policy);
+		assertNotNull(policyId);
+
+		policy.setInstanceMaxCount(8);
+		store.savePolicy(policy);
+		assertEquals(8, store.getPolicyById(policyId).getInstanceMaxCount());
+		assertEquals(1, store.getAutoScalerPolicies().size());
+
+		store.deletePolicy(policyId);
+		try {
+			store.getPolicyById(policyId);
+			assertTrue(false);
+		} catch (PolicyNotFoundException e) {
+			assertEquals(policyId, e.getPolicyId());
+		}
+	}
+
+	@Test
+	public void scalingStateTest() throws Exception {
+		AppAutoScaleState state = new AppAutoScaleState("app1", 1);
+		store.saveScalingState(state);
+		state.setLastActionInstanceTarget(3);
+		store.saveScalingState(state);
+		assertEquals(3, store.getScalingState("app1").getLastActionInstanceTarget());
+		assertNull(store.getScalingState("app2"));
+	}
+
+	@Test
+	public void scalingHistoryTest() throws Exception {
+		for (int i = 1; i <= 6; i++) {
+			ScalingHistory history = new ScalingHistory("app1", i % 2, i % 3 == 0 ? -1 : 1, 2, i * 1000L, i * 1000L + 500,
+					"Memory", 80, "upper", 120, 0, null, null, null, null, null);
+			store.saveScalingHistory(history);
+		}
+		ScalingHistoryFilter filter = new ScalingHistoryFilter();
+		filter.setAppId("app1");
+		filter.setStartTime(0);
+		filter.setEndTime(Long.MAX_VALUE);
+		filter.setMaxCount(2);
+		filter.setOffset(1);
+		List<ScalingHistory> page = store.getHistoryList(filter);
+		assertEquals(2, page.size());
+		assertEquals(5000L, page.get(0).getStartTime());
+		assertEquals(4000L, page.get(1).getStartTime());
+		assertEquals(6, store.getHistoryCount(filter));
+
+		filter.setScaleType(ScalingHistoryFilter.SCALE_IN_TYPE);
+		assertEquals(2, store.getHistoryCount(filter));
+		filter.setStatus("1");
+		assertEquals(1, store.getHistoryCount(filter));
+		filter.setScaleType("unknown");
+		assertEquals(0, store.getHistoryCount(filter));
+
+		// no scale type without an adjustment, as in CouchDB
+		store.saveScalingHistory(new ScalingHistory("app1", 1, 0, 2, 7000L, 7500L, "Memory", 80, "upper", 120, 0,
+				null, null, null, null, null));
+		filter.setScaleType(ScalingHistoryFilter.SCALE_OUT_TYPE);
+		filter.setStatus(null);
+		assertEquals(4, store.getHistoryCount(filter));
+		filter.setScaleType(null);
+		assertEquals(7, store.getHistoryCount(filter));
+
+		ScalingHistory history = page.get(0);
+		history.setStatus(9);
+		store.saveScalingHistory(history);
+		assertEquals(9, store.getHistoryById(history.getId()).getStatus());
+	}
+
+	@Test
+	public void triggerTest() throws Exception {
+		Trigger trigger = new Trigger();
+		trigger.setAppId("app1");
+		trigger.setTriggerId("trigger1");
+		trigger.setMetric("Memory");
+		store.addTrigger(trigger);
+		store.addTrigger(trigger);
+		Map<String, List<TriggerRecord>> triggers = store.getAllTriggers();
+		assertEquals(1, triggers.size());
+
+		store.removeTrigger("app1");
+		assertEquals(0, store.getAllTriggers().size());
+	}
+
+	@Test
+	public void metricsTest() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			List<InstanceMetrics> instanceMetrics = new LinkedList<InstanceMetrics>();
+			store.addAppStats(new AppInstanceMetrics("app1", "app", "java", "service1", i * 1000L, instanceMetrics));
+		}
+		List<AppInstanceMetrics> metrics = store.getAppStatsHistoryByAppIdAfter("app1", 1000);
+		assertEquals(3, metrics.size());
+		assertEquals(2000L, metrics.get(0).getTimestamp());
+
+		assertEquals(2, store.purgeMetrics(2000));
+		assertEquals(3, store.getAppStatsHistoryByAppIdAfter("app1", -1).size());
+	}
+
+	@Test
+	public void failedMetricsFlushTest() throws Exception {
+		execute("ALTER TABLE app_instance_metrics RENAME TO app_instance_metrics_offline");
+		for (int i = 0; i < 2; i++)
+			store.addAppStats(new AppInstanceMetrics("app1", "app", "java", "service1", i * 1000L,
+					new LinkedList<InstanceMetrics>()));
+		try {
+			store.addAppStats(new AppInstanceMetrics("app1", "app", "java", "service1", 2000L,
+					new LinkedList<InstanceMetrics>()));
+			assertTrue(false);
+		} catch (SQLException e) {
+			// kept for the next flush
+			assertEquals(3, store.getPendingMetricCount());
+		}
+		for (int i = 3; i < 8; i++) {
+			try {
+				store.addAppStats(new AppInstanceMetrics("app1", "app", "java", "service1", i * 1000L,
+						new LinkedList<InstanceMetrics>()));
+			} catch (SQLException e) {
+			}
+		}
+		assertEquals(5, store.getPendingMetricCount());
+		assertEquals(3L, store.getDroppedMetricCount());
+
+		execute("ALTER TABLE app_instance_metrics_offline RENAME TO app_instance_metrics");
+		List<AppInstanceMetrics> metrics = store.getAppStatsHistoryByAppIdAfter("app1", -1);
+		assertEquals(5, metrics.size());
+		assertEquals(0L, metrics.get(0).getTimestamp());
+		assertEquals(0, store.getPendingMetricCount());
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+		try {
+			Statement statement = connection.createStatement();
+			statement.execute(sql);
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Test
+	public void bindingAndConfigTest() throws Exception {
+		store.addBinding("service1", "app1", "java", "app");
+		store.addBinding("service1", "app1", "java", "app");
+		store.updateBinding("service1", "app1", "nodejs", "app");
+		Map<String, List<BoundApp>> bindings = store.getAllBindings();
+		assertEquals(1, bindings.get("service1").size());
+		assertEquals("nodejs", store.getAppTypeById("app1"));
+		assertTrue(store.getAllBoundServiceIds().contains("service1"));
+
+		store.removeBinding("service1", "app1");
+		assertEquals(0, store.getAllBindingsByServiceId("service1").size());
+		assertEquals("", store.getAppTypeById("app1"));
+
+		store.saveServiceConfig(new ServiceConfig("service1", 600));
+		store.saveServiceConfig(new ServiceConfig("service2", 300));
+		assertEquals(300, store.getSmallestPersistTime());
+		assertEquals(600, store.getConfig("service1").getPersistTimeInDb());
+	}
+
+}
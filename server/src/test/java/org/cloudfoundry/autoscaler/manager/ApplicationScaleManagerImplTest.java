@@ -0,0 +1,41 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.junit.Test;
+
+public class ApplicationScaleManagerImplTest {
+
+	@Test
+	public void calculateTargetCountTest() {
+		// 4 instances at 90% need 6 to average 60%
+		assertEquals(6, ApplicationScaleManagerImpl.calculateTargetCount(4, 90, 60, -1, 1));
+		// dampened to half the way
+		assertEquals(5, ApplicationScaleManagerImpl.calculateTargetCount(4, 90, 60, -1, 0.5));
+		// at least one instance
+		assertEquals(5, ApplicationScaleManagerImpl.calculateTargetCount(4, 70, 60, -1, 0.1));
+		// on target
+		assertEquals(4, ApplicationScaleManagerImpl.calculateTargetCount(4, 60, 60, -1, 1));
+		// scaling in keeps the average at or below the target
+		assertEquals(4, ApplicationScaleManagerImpl.calculateTargetCount(5, 46, 60, -5, 1));
+		assertEquals(3, ApplicationScaleManagerImpl.calculateTargetCount(5, 36, 60, -5, 1));
+		// and is limited by the step down
+		assertEquals(8, ApplicationScaleManagerImpl.calculateTargetCount(10, 12, 60, -2, 1));
+		assertEquals(9, ApplicationScaleManagerImpl.calculateTargetCount(10, 12, 60, 1, 1));
+	}
+
+	@Test
+	public void scheduledCountTest() {
+		AutoScalerPolicy policy = new AutoScalerPolicy();
+		policy.setInstanceMinCount(2);
+		policy.setInstanceMaxCount(5);
+		// queued with 1 instance, scaled out to the minimum
+		assertEquals(Integer.valueOf(2), ApplicationScaleManagerImpl.getScheduledCount("app1", policy, 1));
+		// a trigger scaled the app into the limits before the queued action ran
+		assertNull(ApplicationScaleManagerImpl.getScheduledCount("app1", policy, 3));
+		assertNull(ApplicationScaleManagerImpl.getScheduledCount("app1", policy, 5));
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.autoscaler.data.AutoScalingDataStore;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppAutoScaleState;
+import org.junit.Test;
+
+public class CooldownTrackerTest {
+
+	private static AutoScalingDataStore dataStore(final AppAutoScaleState state, final AtomicInteger reads) {
+		return (AutoScalingDataStore) Proxy.newProxyInstance(AutoScalingDataStore.class.getClassLoader(),
+				new Class<?>[] { AutoScalingDataStore.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getScalingState")) {
+							reads.incrementAndGet();
+							return "app1".equals(args[0]) ? state : null;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	@Test
+	public void trackerTest() {
+		AppAutoScaleState stored = new AppAutoScaleState("app1", ScalingStateManager.SCALING_STATE_COMPLETED);
+		stored.setLastActionEndTime(1000);
+		AtomicInteger reads = new AtomicInteger();
+		CooldownTracker tracker = new CooldownTracker(dataStore(stored, reads));
+
+		// read from the store once
+		assertEquals(1000, tracker.get("app1").getLastActionEndTime());
+		assertEquals(1000, tracker.get("app1").getLastActionEndTime());
+		assertNull(tracker.get("app2"));
+		assertNull(tracker.get("app2"));
+		assertEquals(2, reads.get());
+
+		// stored states replace the tracked ones, later changes are not seen
+		AppAutoScaleState realizing = new AppAutoScaleState("app1", ScalingStateManager.SCALING_STATE_REALIZING);
+		realizing.setLastActionStartTime(2000);
+		tracker.update(realizing);
+		realizing.setInstanceCountState(ScalingStateManager.SCALING_STATE_COMPLETED);
+		assertEquals(ScalingStateManager.SCALING_STATE_REALIZING, tracker.get("app1").getInstanceCountState());
+		assertEquals(2000, tracker.get("app1").getLastActionStartTime());
+
+		tracker.remove("app1");
+		assertEquals(1000, tracker.get("app1").getLastActionEndTime());
+		assertEquals(3, reads.get());
+		assertEquals(3L, tracker.getStats().get("loads"));
+		assertEquals(4L, tracker.getStats().get("hits"));
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.cloudfoundry.autoscaler.constant.Constants;
+import org.cloudfoundry.autoscaler.simulation.SimulatedClock;
+import org.junit.Test;
+
+public class QuotaBackoffCacheTest {
+
+	@Test
+	public void clampTest() {
+		SimulatedClock clock = new SimulatedClock(1000);
+		QuotaBackoffCache cache = new QuotaBackoffCache(300000, clock);
+		assertFalse(cache.isActive("org1", "space1"));
+		assertEquals(6, cache.clamp("org1", "space1", 2, 6, 256));
+
+		// other errors are not remembered
+		assertFalse(cache.recordFailure("org1", "space1", Constants.CloudFoundryInternalError, 2, 6, 256));
+		assertFalse(cache.isActive("org1", "space1"));
+
+		// 4 instances of 256MB do not fit into the org
+		assertTrue(cache.recordFailure("org1", "space1", Constants.MemoryQuotaExceeded, 2, 6, 256));
+		assertTrue(cache.isActive("org1", "space2"));
+		assertFalse(cache.isActive("org2", "space3"));
+		assertEquals(5, cache.clamp("org1", "space1", 2, 6, 256));
+		// an app with bigger instances of the org gets fewer
+		assertEquals(2, cache.clamp("org1", "space2", 1, 4, 512));
+		// scale-in is never clamped
+		assertEquals(1, cache.clamp("org1", "space1", 2, 1, 256));
+
+		// the accepted clamped scale-out uses the headroom
+		cache.recordSuccess("org1", "space1", 2, 5, 256);
+		assertEquals(3, cache.clamp("org1", "space1", 3, 5, 1024));
+		assertEquals(1L, cache.getStats().get("suppressed"));
+		// a scale-in frees memory
+		cache.recordSuccess("org1", "space2", 4, 2, 512);
+		assertEquals(4, cache.clamp("org1", "space1", 3, 5, 1024));
+
+		// forgotten after the TTL, e.g. the quota was raised
+		clock.set(301000);
+		assertFalse(cache.isActive("org1", "space1"));
+		assertEquals(1L, cache.getStats().get("expired"));
+		assertEquals(10, cache.clamp("org1", "space1", 3, 10, 1024));
+	}
+
+	@Test
+	public void spaceQuotaTest() {
+		QuotaBackoffCache cache = new QuotaBackoffCache(300000, new SimulatedClock(0));
+		cache.recordFailure("org1", "space1", Constants.SpaceMemoryQuotaExceeded, 1, 2, 1024);
+		assertTrue(cache.isActive("org1", "space1"));
+		// the other spaces of the org are not bound
+		assertFalse(cache.isActive("org1", "space2"));
+		assertEquals(1, cache.clamp("org1", "space1", 1, 3, 1024));
+		assertEquals(2, cache.clamp("org1", "space1", 1, 3, 512));
+	}
+
+}
@@ -0,0 +1,92 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.cloudfoundry.autoscaler.simulation.SimulatedClock;
+import org.junit.Test;
+
+public class ScalingDispatcherTest {
+
+	private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+	private Callable<Void> action(final String appId) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				executed.add(appId);
+				return null;
+			}
+		};
+	}
+
+	private void waitForExecuted(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (executed.size() < count && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		Thread.sleep(20);
+		assertEquals(count, executed.size());
+	}
+
+	@Test
+	public void priorityTest() throws Exception {
+		SimulatedClock clock = new SimulatedClock(0);
+		// one action per simulated millisecond
+		ScalingDispatcher dispatcher = new ScalingDispatcher(1000, 1, 1000, 1000, 1, clock);
+		try {
+			dispatcher.submit("first", "org", 2, 3, action("first"));
+			waitForExecuted(1);
+			dispatcher.submit("in2", "org", 4, 2, action("in2"));
+			dispatcher.submit("out1", "org", 2, 3, action("out1"));
+			dispatcher.submit("out5", "org", 2, 7, action("out5"));
+			dispatcher.submit("in5", "org", 6, 1, action("in5"));
+			dispatcher.submit("out1b", "org", 1, 2, action("out1b"));
+			for (int i = 1; i <= 5; i++) {
+				clock.set(i);
+				waitForExecuted(i + 1);
+			}
+			assertEquals(Arrays.asList("first", "out5", "out1", "out1b", "in5", "in2"), executed);
+			assertEquals(6L, dispatcher.getStats().get("completed"));
+			assertEquals(0, dispatcher.getStats().get("queued"));
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	public void orgLimitTest() throws Exception {
+		SimulatedClock clock = new SimulatedClock(0);
+		// one action per simulated second for the apps of an org
+		ScalingDispatcher dispatcher = new ScalingDispatcher(1000, 1000, 1, 1, 2, clock);
+		try {
+			dispatcher.submit("a", "org1", 1, 6, action("a"));
+			dispatcher.submit("b", "org1", 1, 5, action("b"));
+			dispatcher.submit("c", "org2", 1, 2, action("c"));
+			waitForExecuted(2);
+			assertTrue(executed.containsAll(Arrays.asList("a", "c")));
+			assertEquals(1, dispatcher.getStats().get("queued"));
+
+			// a newer action of the app replaces its queued one
+			dispatcher.submit("b", "org1", 1, 3, action("b2"));
+			assertEquals(1L, dispatcher.getStats().get("replaced"));
+			clock.set(1000);
+			waitForExecuted(3);
+			assertEquals("b2", executed.get(2));
+
+			dispatcher.submit("d", "org1", 1, 2, action("d"));
+			dispatcher.remove("d");
+			clock.set(2000);
+			waitForExecuted(3);
+			assertEquals(0, dispatcher.getStats().get("queued"));
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.junit.Test;
+
+public class ScalingEventLanesTest {
+
+	private static MonitorTriggerEvent event(String appId, String triggerId, double severity) {
+		MonitorTriggerEvent event = new MonitorTriggerEvent();
+		event.setAppId(appId);
+		event.setTriggerId(triggerId);
+		event.setSeverity(severity);
+		return event;
+	}
+
+	@Test
+	public void laneTest() {
+		ScalingEventLanes lanes = new ScalingEventLanes(0.2, 8, 4, 1);
+		assertEquals(ScalingEventLanes.LANE_SCALE_IN,
+				lanes.laneOf(event("a", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.9)));
+		assertEquals(ScalingEventLanes.LANE_SCALE_OUT,
+				lanes.laneOf(event("a", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.1)));
+		assertEquals(ScalingEventLanes.LANE_URGENT,
+				lanes.laneOf(event("a", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void weightedPollTest() {
+		ScalingEventLanes lanes = new ScalingEventLanes(0.2, 2, 1, 1);
+		for (int i = 0; i < 5; i++)
+			lanes.offer(event("in" + i, AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5));
+		assertEquals("in0", lanes.poll().getAppId());
+		// scale-outs arriving behind a batch of scale-ins go first
+		lanes.offer(event("out0", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.1));
+		lanes.offer(event("urgent0", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5));
+		lanes.offer(event("urgent1", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5));
+		lanes.offer(event("urgent2", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5));
+		assertEquals(8, lanes.size());
+		String[] expected = { "urgent0", "urgent1", "out0", "in1", "urgent2", "in2", "in3", "in4" };
+		for (String appId : expected)
+			assertEquals(appId, lanes.poll().getAppId());
+		assertNull(lanes.poll());
+
+		Map<String, Object> urgent = (Map<String, Object>) lanes.getStats().get("urgent");
+		assertEquals(3L, urgent.get("enqueued"));
+		assertEquals(0, urgent.get("depth"));
+	}
+
+	@Test
+	public void promoteTest() {
+		ScalingEventLanes lanes = new ScalingEventLanes(0.2, 1, 1, 1);
+		lanes.offer(event("a", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5));
+		lanes.offer(event("b", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5));
+		lanes.offer(event("c", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.1));
+		// a scale-out merged into the pending scale-in of b
+		MonitorTriggerEvent merged = event("b", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5);
+		assertTrue(lanes.promote(merged));
+		assertFalse(lanes.promote(event("c", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5)));
+		assertFalse(lanes.promote(event("d", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5)));
+		assertEquals(3, lanes.size());
+		assertEquals(merged, lanes.poll());
+		assertEquals("c", lanes.poll().getAppId());
+		assertEquals("a", lanes.poll().getAppId());
+		assertNull(lanes.poll());
+		// polled apps are no longer promoted
+		assertFalse(lanes.promote(merged));
+		assertEquals(1L, lanes.getStats().get("promoted"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void mergedScaleOutTest() {
+		ScalingEventManager manager = ScalingEventManager.getInstance();
+		while (manager.pollTriggerEvent() != null)
+			;
+		MonitorTriggerEvent scaleIn = event("lanes-merge", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5);
+		assertTrue(manager.addTriggerEvents(scaleIn));
+		manager.queueTriggerEvent(scaleIn);
+		assertTrue(manager.addTriggerEvents(event("lanes-other", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5)));
+		manager.queueTriggerEvent(event("lanes-other", AutoScalerPolicyTrigger.TriggerId_LowerThreshold, 0.5));
+		assertTrue(manager.addTriggerEvents(event("lanes-out", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.1)));
+		manager.queueTriggerEvent(event("lanes-out", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.1));
+		// the scale-out coalesced into the pending scale-in moves the app to the urgent lane
+		MonitorTriggerEvent scaleOut = event("lanes-merge", AutoScalerPolicyTrigger.TriggerId_UpperThreshold, 0.5);
+		assertFalse(manager.addTriggerEvents(scaleOut));
+		Map<String, Object> lanes = (Map<String, Object>) manager.getStats().get("lanes");
+		assertEquals(1, ((Map<String, Object>) lanes.get("urgent")).get("depth"));
+		assertEquals(1, ((Map<String, Object>) lanes.get("scaleIn")).get("depth"));
+		List<MonitorTriggerEvent> polled = new ArrayList<MonitorTriggerEvent>();
+		MonitorTriggerEvent next;
+		while ((next = manager.pollTriggerEvent()) != null)
+			polled.add(next);
+		assertEquals(3, polled.size());
+		assertTrue(polled.contains(scaleOut));
+		for (String appId : new String[] { "lanes-merge", "lanes-other", "lanes-out" })
+			manager.removeHandler(appId);
+	}
+
+}
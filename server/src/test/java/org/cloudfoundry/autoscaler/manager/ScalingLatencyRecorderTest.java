@@ -0,0 +1,68 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.cloudfoundry.autoscaler.bean.ScalingTrace;
+import org.junit.Test;
+
+public class ScalingLatencyRecorderTest {
+
+	@Test
+	public void breakdownTest() {
+		ScalingTrace trace = new ScalingTrace();
+		trace.setBreachStartTime(1000);
+		trace.setFiredTime(121000);
+		trace.setEnqueuedTime(121005);
+		trace.setHandledTime(121050);
+		trace.setScaleRequestTime(121200);
+		trace.setScaleAcceptedTime(121700);
+		Map<String, Long> breakdown = trace.getBreakdown();
+		assertEquals(Long.valueOf(120000), breakdown.get(ScalingTrace.STAGE_BREACH));
+		assertEquals(Long.valueOf(5), breakdown.get(ScalingTrace.STAGE_DISPATCH));
+		assertEquals(Long.valueOf(45), breakdown.get(ScalingTrace.STAGE_QUEUE));
+		assertEquals(Long.valueOf(150), breakdown.get(ScalingTrace.STAGE_DECISION));
+		assertEquals(Long.valueOf(500), breakdown.get(ScalingTrace.STAGE_SCALE_REQUEST));
+		// not running yet
+		assertFalse(breakdown.containsKey(ScalingTrace.STAGE_STARTUP));
+		assertFalse(breakdown.containsKey(ScalingTrace.STAGE_TOTAL));
+
+		trace.setRunningTime(151700);
+		breakdown = trace.getBreakdown();
+		assertEquals(Long.valueOf(30000), breakdown.get(ScalingTrace.STAGE_STARTUP));
+		assertEquals(Long.valueOf(150700), breakdown.get(ScalingTrace.STAGE_TOTAL));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void recordTest() {
+		ScalingLatencyRecorder recorder = new ScalingLatencyRecorder();
+		ScalingTrace trigger = new ScalingTrace();
+		trigger.setBreachStartTime(1000);
+		trigger.setFiredTime(2000);
+		trigger.setRunningTime(5000);
+		recorder.record(trigger);
+
+		// a schedule change has no breach
+		ScalingTrace schedule = new ScalingTrace();
+		schedule.setEnqueuedTime(1000);
+		schedule.setHandledTime(1500);
+		schedule.setScaleRequestTime(1600);
+		schedule.setScaleAcceptedTime(1700);
+		schedule.setRunningTime(9700);
+		Map<String, Long> breakdown = recorder.record(schedule);
+		assertEquals(Long.valueOf(8700), breakdown.get(ScalingTrace.STAGE_TOTAL));
+
+		Map<String, Object> stats = recorder.getStats();
+		assertEquals(2L, stats.get("recorded"));
+		Map<String, Object> latency = (Map<String, Object>) stats.get("latency");
+		assertTrue(latency.containsKey("trigger.breach"));
+		assertTrue(latency.containsKey("trigger.total"));
+		assertTrue(latency.containsKey("schedule.startup"));
+		assertFalse(latency.containsKey("schedule.breach"));
+	}
+
+}
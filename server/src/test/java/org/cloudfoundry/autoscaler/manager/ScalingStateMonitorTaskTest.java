@@ -0,0 +1,44 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ScalingStateMonitorTaskTest {
+
+	@Test
+	public void backoffTest() {
+		ScalingStateMonitorTask task = new ScalingStateMonitorTask("app1", 3, "action1");
+		long[] expected = { 100, 200, 400, 800, 1000, 1000 };
+		for (long delay : expected) {
+			long before = System.currentTimeMillis();
+			task.scheduleNextCheck(100, 1000);
+			long scheduled = task.getNextCheckTime() - before;
+			assertTrue(scheduled >= delay && scheduled <= delay + 50);
+		}
+		assertEquals(expected.length, task.getChecks());
+	}
+
+	@Test
+	public void delayQueueOrderTest() throws Exception {
+		DelayQueue<ScalingStateMonitorTask> queue = new DelayQueue<ScalingStateMonitorTask>();
+		ScalingStateMonitorTask late = new ScalingStateMonitorTask("app1", 3, "action1");
+		late.scheduleNextCheck(60000, 60000);
+		ScalingStateMonitorTask soon = new ScalingStateMonitorTask("app2", 3, "action2");
+		soon.scheduleNextCheck(50, 50);
+		queue.add(late);
+		queue.add(soon);
+
+		assertNull(queue.poll());
+		assertSame(soon, queue.poll(5, TimeUnit.SECONDS));
+		assertNull(queue.poll());
+		assertTrue(late.getDelay(TimeUnit.SECONDS) > 50);
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.cloudfoundry.autoscaler.simulation.SimulatedClock;
+import org.junit.Test;
+
+public class ScheduleLeadTimeTunerTest {
+
+	@Test
+	public void leadTest() {
+		ScheduleLeadTimeTuner tuner = new ScheduleLeadTimeTuner(30000, 600000, 1.5, new SimulatedClock(0));
+		// nothing observed yet
+		assertEquals(30000, tuner.getLeadMillis(Arrays.asList("app1"), null));
+
+		tuner.recordStartup("app1", 100000);
+		assertEquals(150000, tuner.getLeadMillis(Arrays.asList("app1"), null));
+		// a moving average of the startups of the app
+		tuner.recordStartup("app1", 200000);
+		assertEquals(195000, tuner.getLeadMillis(Arrays.asList("app1"), null));
+
+		// the slowest app decides, apps not scaled out yet use the average of all apps
+		tuner.recordStartup("app2", 20000);
+		assertEquals(30000, tuner.getLeadMillis(Arrays.asList("app2"), null));
+		assertEquals(195000, tuner.getLeadMillis(Arrays.asList("app2", "app1"), null));
+		assertEquals(145500, tuner.getLeadMillis(Arrays.asList("app3"), null));
+
+		// capped, and the lead of a scheduled policy wins
+		tuner.recordStartup("app1", 2000000);
+		assertEquals(600000, tuner.getLeadMillis(Arrays.asList("app1"), null));
+		assertEquals(60000, tuner.getLeadMillis(Arrays.asList("app1"), 60));
+	}
+
+	@Test
+	public void concurrentStartupTest() throws Exception {
+		final ScheduleLeadTimeTuner tuner = new ScheduleLeadTimeTuner(0, Long.MAX_VALUE, 1, new SimulatedClock(0));
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 1000; j++)
+						tuner.recordStartup("app1", 0);
+				}
+			});
+			threads[i].start();
+		}
+		tuner.recordStartup("app1", 1000000);
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		// every startup moved the average, 4000 of them decay it to 0
+		assertEquals(0, tuner.getLeadMillis(Arrays.asList("app1"), null));
+	}
+
+	@Test
+	public void floorTest() {
+		SimulatedClock clock = new SimulatedClock(0);
+		ScheduleLeadTimeTuner tuner = new ScheduleLeadTimeTuner(0, 600000, 1.5, clock);
+		assertEquals(2, tuner.applyFloor("app1", 2));
+		tuner.setFloor("app1", 5, 60000);
+		assertEquals(5, tuner.applyFloor("app1", 2));
+		assertEquals(6, tuner.applyFloor("app1", 6));
+		assertEquals(2, tuner.applyFloor("app2", 2));
+		// the schedule started, its minimum instance count holds now
+		clock.set(60000);
+		assertEquals(2, tuner.applyFloor("app1", 2));
+		assertEquals(1L, tuner.getStats().get("floorsApplied"));
+	}
+
+}
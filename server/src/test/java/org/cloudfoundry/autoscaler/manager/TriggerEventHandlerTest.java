@@ -0,0 +1,70 @@
+package org.cloudfoundry.autoscaler.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.junit.Test;
+
+public class TriggerEventHandlerTest {
+
+	private MonitorTriggerEvent event(String triggerId, String metricType, double value) {
+		MonitorTriggerEvent event = new MonitorTriggerEvent();
+		event.setAppId("app1");
+		event.setTriggerId(triggerId);
+		event.setMetricType(metricType);
+		event.setMetricValue(value);
+		return event;
+	}
+
+	@Test
+	public void mailboxTest() {
+		TriggerEventHandler handler = new TriggerEventHandler("app1");
+		MonitorTriggerEvent first = event(AutoScalerPolicyTrigger.TriggerId_UpperThreshold, "CPU", 80);
+		assertEquals(TriggerEventHandler.OFFER_SCHEDULE, handler.offer(first));
+		assertSame(first, handler.poll());
+		// events arriving while the first one is handled wait for the running drain
+		MonitorTriggerEvent second = event(AutoScalerPolicyTrigger.TriggerId_UpperThreshold, "CPU", 95);
+		assertEquals(TriggerEventHandler.OFFER_QUEUED, handler.offer(second));
+		MonitorTriggerEvent third = event(AutoScalerPolicyTrigger.TriggerId_UpperThreshold, "CPU", 85);
+		assertEquals(TriggerEventHandler.OFFER_COALESCED, handler.offer(third));
+		MonitorTriggerEvent merged = handler.poll();
+		assertSame(third, merged);
+		assertEquals(95, merged.getMetricValue(), 0);
+		assertNull(handler.poll());
+		// the handler is idle again
+		assertFalse(handler.evict(System.currentTimeMillis() - 60000));
+		assertTrue(handler.evict(System.currentTimeMillis() + 1));
+		assertEquals(TriggerEventHandler.OFFER_EVICTED, handler.offer(first));
+	}
+
+	@Test
+	public void mergeTest() {
+		MonitorTriggerEvent up = event(AutoScalerPolicyTrigger.TriggerId_UpperThreshold, "CPU", 90);
+		MonitorTriggerEvent down = event(AutoScalerPolicyTrigger.TriggerId_LowerThreshold, "Memory", 10);
+		// scaling out wins
+		assertSame(up, TriggerEventHandler.merge(up, down));
+		assertSame(up, TriggerEventHandler.merge(down, up));
+		// the lowest value of scale in events of the same metric
+		MonitorTriggerEvent lower = event(AutoScalerPolicyTrigger.TriggerId_LowerThreshold, "Memory", 5);
+		MonitorTriggerEvent newer = event(AutoScalerPolicyTrigger.TriggerId_LowerThreshold, "Memory", 8);
+		assertSame(newer, TriggerEventHandler.merge(lower, newer));
+		assertEquals(5, newer.getMetricValue(), 0);
+		// other metrics are not compared
+		MonitorTriggerEvent cpu = event(AutoScalerPolicyTrigger.TriggerId_LowerThreshold, "CPU", 20);
+		assertSame(cpu, TriggerEventHandler.merge(lower, cpu));
+		assertEquals(20, cpu.getMetricValue(), 0);
+		// target events scale out above the target only
+		MonitorTriggerEvent below = event(AutoScalerPolicyTrigger.TriggerId_Target, "CPU", 30);
+		below.setTargetValue(60);
+		assertSame(up, TriggerEventHandler.merge(below, up));
+		MonitorTriggerEvent above = event(AutoScalerPolicyTrigger.TriggerId_Target, "CPU", 80);
+		above.setTargetValue(60);
+		assertSame(above, TriggerEventHandler.merge(above, down));
+	}
+
+}
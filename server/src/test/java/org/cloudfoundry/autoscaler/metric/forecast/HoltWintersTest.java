@@ -0,0 +1,86 @@
+package org.cloudfoundry.autoscaler.metric.forecast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.junit.Test;
+
+public class HoltWintersTest {
+
+	private static final long STEP = 60000;
+	private static final int SEASON = 24;
+
+	private double seasonal(long step, double base, double amplitude) {
+		return base + amplitude * Math.sin(2 * Math.PI * (step % SEASON) / SEASON);
+	}
+
+	@Test
+	public void forecastTest() {
+		HoltWinters model = new HoltWinters(STEP, SEASON, 0.5, 0.01, 0.3);
+		long step = 0;
+		for (; step < SEASON; step++)
+			model.add(step * STEP + 1000, seasonal(step, 100, 50));
+		assertFalse(model.isReady());
+		for (; step < 4 * SEASON; step++) {
+			// two samples per step
+			model.add(step * STEP + 1000, seasonal(step, 100, 50) - 1);
+			model.add(step * STEP + 2000, seasonal(step, 100, 50) + 1);
+		}
+		assertTrue(model.isReady());
+		// the last step is still collecting samples, the model was updated up to the one before
+		for (int h = 1; h <= SEASON; h++)
+			assertEquals(seasonal(step - 2 + h, 100, 50), model.forecast(h), 1);
+		assertEquals(150, model.forecastMax(SEASON), 1);
+		// samples of completed steps are ignored
+		assertFalse(model.add(0, 1000));
+		// a gap longer than a season restarts the model
+		model.add((step + 2 * SEASON) * STEP, 100);
+		model.add((step + 2 * SEASON + 1) * STEP, 100);
+		assertFalse(model.isReady());
+	}
+
+	private AppInstanceMetrics metrics(long timestamp, double cpuPerInstance) {
+		AppInstanceMetrics metrics = new AppInstanceMetrics("app1", "app1", "java", "service1", timestamp,
+				new LinkedList<InstanceMetrics>());
+		for (int i = 0; i < 2; i++) {
+			InstanceMetrics instance = new InstanceMetrics();
+			instance.setInstanceIndex(i);
+			instance.setTimestamp(timestamp);
+			// the poller CPU value is scaled by 100 when evaluated
+			instance.addMetric(new Metric("CPU", String.valueOf(cpuPerInstance / 100), "cf-stats", "CPU", timestamp,
+					"%", null));
+			metrics.addInstanceMetrics(instance);
+		}
+		return metrics;
+	}
+
+	@Test
+	public void backtestTest() {
+		List<AppInstanceMetrics> history = new ArrayList<AppInstanceMetrics>();
+		for (long step = 0; step < 6 * SEASON; step++) {
+			for (int sample = 0; sample < 3; sample++)
+				history.add(metrics(step * STEP + sample * 20000, seasonal(step, 45, 40)));
+		}
+		ForecastBacktest.Result result = ForecastBacktest.run(history, Trigger.METRIC_CPU, 70, "percent",
+				new HoltWinters(STEP, SEASON, 0.5, 0.01, 0.3), 3);
+		assertEquals(6 * SEASON, result.getSteps());
+		// the model is ready after the first season
+		assertEquals(5 * SEASON - 1, result.getForecastSteps());
+		assertTrue(result.getMeanAbsolutePercentageError() < 5);
+		// one peak a season
+		assertEquals(5, result.getBreaches());
+		assertEquals(5, result.getPredictedBreaches());
+		assertTrue(result.getMeanLeadTimeMillis() >= STEP);
+		assertEquals(0, result.getFalseAlarms());
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.cloudfoundry.autoscaler.metric.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.data.StepHeldMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.junit.Test;
+
+public class MetricsChangeFilterTest {
+
+	private static final long INTERVAL = 30000;
+
+	private AppInstanceMetrics metrics(long timestamp, String memory, String cpu) {
+		AppInstanceMetrics metrics = new AppInstanceMetrics("app1", "app1", "java", "service1", timestamp,
+				new LinkedList<InstanceMetrics>());
+		InstanceMetrics instance = new InstanceMetrics();
+		instance.setInstanceIndex(0);
+		instance.setTimestamp(timestamp);
+		instance.addMetric(new Metric("Memory", memory, "cf-stats", "Memory", timestamp, "MB", null));
+		instance.addMetric(new Metric("CPU", cpu, "cf-stats", "CPU", timestamp, "%", null));
+		metrics.addInstanceMetrics(instance);
+		return metrics;
+	}
+
+	@Test
+	public void deadbandAndKeyframeTest() {
+		MetricsChangeFilter filter = new MetricsChangeFilter("Memory:2%, CPU:1", "0", 4);
+		long t = 1000000;
+		AppInstanceMetrics first = metrics(t, "200.0", "10.0");
+		assertTrue(filter.accept(first));
+		assertNull(first.getSampleInterval());
+		// within the deadbands
+		assertFalse(filter.accept(metrics(t += INTERVAL, "203.0", "10.5")));
+		assertFalse(filter.accept(metrics(t += INTERVAL, "197.0", "9.0")));
+		assertFalse(filter.accept(metrics(t += INTERVAL, "200.0", "10.0")));
+		// keyframe
+		AppInstanceMetrics keyframe = metrics(t += INTERVAL, "200.0", "10.0");
+		assertTrue(filter.accept(keyframe));
+		assertEquals(Long.valueOf(INTERVAL), keyframe.getSampleInterval());
+		// CPU moved by more than 1
+		assertTrue(filter.accept(metrics(t += INTERVAL, "200.0", "11.5")));
+		// new instance
+		AppInstanceMetrics scaled = metrics(t += INTERVAL, "200.0", "11.5");
+		InstanceMetrics instance = new InstanceMetrics();
+		instance.setInstanceIndex(1);
+		scaled.addInstanceMetrics(instance);
+		assertTrue(filter.accept(scaled));
+		// resumed after a pause
+		assertTrue(filter.accept(metrics(t += INTERVAL * 10, "200.0", "11.5")));
+		assertEquals(5L, filter.getStats().get("stored"));
+		assertEquals(3L, filter.getStats().get("skipped"));
+	}
+
+	@Test
+	public void expandTest() {
+		List<AppInstanceMetrics> stored = new ArrayList<AppInstanceMetrics>();
+		AppInstanceMetrics first = metrics(0, "200.0", "10.0");
+		first.setSampleInterval(INTERVAL);
+		AppInstanceMetrics second = metrics(3 * INTERVAL, "300.0", "20.0");
+		second.setSampleInterval(INTERVAL);
+		AppInstanceMetrics full = metrics(100 * INTERVAL, "100.0", "5.0");
+		stored.add(second);
+		stored.add(first);
+		stored.add(full);
+
+		List<AppInstanceMetrics> series = StepHeldMetrics.expand(stored, INTERVAL, 101 * INTERVAL);
+		long[] expected = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 100 };
+		assertEquals(expected.length, series.size());
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i] * INTERVAL, series.get(i).getTimestamp());
+		InstanceMetrics held = series.get(1).getInstanceMetrics().get(0);
+		assertEquals(2 * INTERVAL, held.getTimestamp());
+		assertEquals(2 * INTERVAL, held.getMetrics().get(0).getTimestamp());
+		assertEquals("200.0", held.getMetrics().get(0).getValue());
+		assertEquals("300.0", series.get(4).getInstanceMetrics().get(0).getMetrics().get(0).getValue());
+		// the stored metrics are not changed
+		assertEquals(0, first.getInstanceMetrics().get(0).getTimestamp());
+	}
+
+}
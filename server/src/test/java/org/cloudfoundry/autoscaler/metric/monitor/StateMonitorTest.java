@@ -0,0 +1,59 @@
+package org.cloudfoundry.autoscaler.metric.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
+import org.cloudfoundry.autoscaler.bean.MonitorTriggerEvent;
+import org.cloudfoundry.autoscaler.bean.Trigger;
+import org.cloudfoundry.autoscaler.metric.bean.Tuple;
+import org.cloudfoundry.autoscaler.simulation.SimulatedClock;
+import org.junit.Test;
+
+public class StateMonitorTest {
+
+	@Test
+	public void reevaluateTest() {
+		SimulatedClock clock = new SimulatedClock(90000);
+		StateMonitor monitor = new StateMonitor("app1", clock);
+		Trigger trigger = new Trigger();
+		trigger.setAppId("app1");
+		trigger.setTriggerId(AutoScalerPolicyTrigger.TriggerId_UpperThreshold);
+		trigger.setMetric(Trigger.METRIC_CPU);
+		trigger.setStatType(Trigger.AGGREGATE_TYPE_AVG);
+		trigger.setStatWindowSecs(60);
+		trigger.setBreachDurationSecs(0);
+		trigger.setMetricThreshold(80);
+		trigger.setThresholdType(Trigger.THRESHOLD_TYPE_LARGER_THAN);
+		trigger.setUnit("percent");
+		monitor.addTrigger(trigger);
+
+		monitor.addTuple(new Tuple(Trigger.METRIC_CPU, 90, 90000, "0"));
+		monitor.evaluateTriggers(); // starts the breach
+		clock.set(95000);
+		List<MonitorTriggerEvent> events = monitor.evaluateTriggers();
+		assertEquals(1, events.size());
+		MonitorTriggerEvent event = events.get(0);
+		assertEquals(0.125, event.getSeverity(), 1e-9);
+
+		// still breached in the current window
+		MonitorTriggerEvent current = monitor.reevaluate(event);
+		assertNotNull(current);
+		assertEquals(90, current.getMetricValue(), 1e-9);
+		assertEquals(95000, current.getTimeStamp());
+
+		// the breaching tuple left the window, the load went down
+		clock.set(200000);
+		monitor.addTuple(new Tuple(Trigger.METRIC_CPU, 50, 195000, "0"));
+		assertNull(monitor.reevaluate(event));
+
+		monitor.addTuple(new Tuple(Trigger.METRIC_CPU, 130, 199000, "0"));
+		current = monitor.reevaluate(event);
+		assertNotNull(current);
+		assertEquals(90, current.getMetricValue(), 1e-9);
+	}
+
+}
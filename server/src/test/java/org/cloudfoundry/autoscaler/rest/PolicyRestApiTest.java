@@ -74,6 +74,20 @@ public class PolicyRestApiTest extends JerseyTest{
 		ClientResponse response = webResource.path("/policies/" + policyId).type(MediaType.APPLICATION_JSON).delete(ClientResponse.class);
         assertEquals(response.getStatus(), STATUS204);
 	}
+	@Test
+	public void test006CreatePolicyWithInvalidLeadTime(){
+		WebResource webResource = resource();
+		for (Object leadTimeSecs : new Object[] { "soon", 7200 }) {
+			// the schedules as the API server passes them on
+			JSONObject policy = new JSONObject(getPolicyContent());
+			JSONObject schedules = (JSONObject) policy.remove("schedules");
+			for (String key : schedules.keySet())
+				policy.put(key, schedules.get(key));
+			policy.getJSONArray("recurringSchedule").getJSONObject(0).put("leadTimeSecs", leadTimeSecs);
+			ClientResponse response = webResource.path("/policies").type(MediaType.APPLICATION_JSON).post(ClientResponse.class, policy.toString());
+			assertEquals(response.getStatus(), STATUS400);
+		}
+	}
 	public static String getPolicyContent(){
 		BufferedReader br = new BufferedReader(new InputStreamReader(PolicyRestApiTest.class.getResourceAsStream("/policy.json")));
 		String tmp = "";
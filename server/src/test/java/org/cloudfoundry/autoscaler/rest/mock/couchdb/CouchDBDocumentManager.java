@@ -400,8 +400,8 @@ public class CouchDBDocumentManager {
 		jo.put("rows", rows);
 		return jo;
 	}
-	private JSONObject ScalingHistory_ByScalingTime(){
-		/* ScalingHistory_ByScalingTime */
+	private JSONObject ScalingHistory_ByFilter(){
+		/* ScalingHistory_ByFilter */
 		JSONObject jo = new JSONObject();
 		JSONArray rows = new JSONArray();
 		JSONArray complexKey = new JSONArray();
@@ -418,6 +418,17 @@ public class CouchDBDocumentManager {
 		jo.put("rows", rows);
 		return jo;
 	}
+	private JSONObject ScalingHistory_ByFilter_count(){
+		/* ScalingHistory_ByFilter_count */
+		JSONObject jo = new JSONObject();
+		JSONArray rows = new JSONArray();
+		JSONObject rowObject = new JSONObject();
+		rowObject.put("key", JSONObject.NULL);
+		rowObject.put("value", 1);
+		rows.put(rowObject);
+		jo.put("rows", rows);
+		return jo;
+	}
 	private JSONObject ScalingHistory_byAll(){
 		/* ScalingHistory_byAll */
 		JSONObject jo = new JSONObject();
@@ -740,8 +751,13 @@ public class CouchDBDocumentManager {
 		case "MetricDBSegment_byAll":
 			jo = this.MetricDBSegment_byAll();
 			break;
-		case "ScalingHistory_ByScalingTime":
-			jo = this.ScalingHistory_ByScalingTime();
+		case "ScalingHistory_ByFilter":
+			if("true".equals(includeDocs)){
+				jo = this.ScalingHistory_ByFilter();
+			}
+			else{
+				jo = this.ScalingHistory_ByFilter_count();
+			}
 			break;
 		case "ScalingHistory_byAll":
 			jo = this.ScalingHistory_byAll();
@@ -0,0 +1,86 @@
+package org.cloudfoundry.autoscaler.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy;
+import org.cloudfoundry.autoscaler.data.couchdb.document.ScheduledPolicy.ScheduledType;
+import org.junit.Test;
+
+public class CompiledScheduleTest {
+
+	private static ScheduledPolicy schedule(ScheduledType type, String start, String end, String repeatCycle,
+			String timezone) {
+		ScheduledPolicy schedule = new ScheduledPolicy();
+		schedule.setType(type.name());
+		schedule.setStartTime(start);
+		schedule.setEndTime(end);
+		schedule.setRepeatCycle(repeatCycle);
+		schedule.setTimezone(timezone);
+		return schedule;
+	}
+
+	private static long utc(String time) throws ParseException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.parse(time).getTime();
+	}
+
+	@Test
+	public void scheduleTest() throws ParseException {
+		Map<String, ScheduledPolicy> schedules = new LinkedHashMap<String, ScheduledPolicy>();
+		schedules.put("weekdays", schedule(ScheduledType.RECURRING, "09:00", "17:00", "[1,2,3,4,5]", "(GMT +00:00) UTC"));
+		schedules.put("release", schedule(ScheduledType.SPECIALDATE, "2016-01-05 12:00", "2016-01-05 13:00", null,
+				"(GMT +00:00) UTC"));
+		AutoScalerPolicy policy = new AutoScalerPolicy();
+		policy.setScheduledPolicies(schedules);
+		CompiledSchedule schedule = CompiledSchedule.compile(policy);
+
+		// 2016-01-04 is a Monday
+		assertNull(schedule.getActiveScheduledPolicyId(utc("2016-01-04 08:00:00.000")));
+		assertEquals(utc("2016-01-04 09:00:00.000"), schedule.getNextTransitionTime(utc("2016-01-04 08:00:00.000")));
+		assertEquals("weekdays", schedule.getActiveScheduledPolicyId(utc("2016-01-04 09:00:00.000")));
+		assertEquals(utc("2016-01-04 17:00:00.001"), schedule.getNextTransitionTime(utc("2016-01-04 10:00:00.000")));
+		assertNull(schedule.getActiveScheduledPolicyId(utc("2016-01-04 17:00:00.001")));
+
+		// the specific date takes precedence
+		assertEquals("release", schedule.getActiveScheduledPolicyId(utc("2016-01-05 12:30:00.000")));
+		assertEquals(utc("2016-01-05 13:00:00.001"), schedule.getNextTransitionTime(utc("2016-01-05 12:30:00.000")));
+		assertEquals("weekdays", schedule.getActiveScheduledPolicyId(utc("2016-01-05 13:00:00.001")));
+
+		// not on Saturdays
+		assertNull(schedule.getActiveScheduledPolicyId(utc("2016-01-09 10:00:00.000")));
+
+		// the next start to pre-warm for
+		CompiledSchedule.Start start = schedule.getNextStart(utc("2016-01-05 10:00:00.000"));
+		assertEquals("release", start.getScheduledPolicyId());
+		assertEquals(utc("2016-01-05 12:00:00.000"), start.getTime());
+		start = schedule.getNextStart(utc("2016-01-08 10:00:00.000"));
+		assertEquals("weekdays", start.getScheduledPolicyId());
+		assertEquals(utc("2016-01-11 09:00:00.000"), start.getTime());
+	}
+
+	@Test
+	public void timeZoneTest() throws ParseException {
+		Map<String, ScheduledPolicy> schedules = new LinkedHashMap<String, ScheduledPolicy>();
+		schedules.put("night", schedule(ScheduledType.RECURRING, "22:00", "02:00", "[7]", "(GMT +01:00) Europe/Berlin"));
+		AutoScalerPolicy policy = new AutoScalerPolicy();
+		policy.setScheduledPolicies(schedules);
+		CompiledSchedule schedule = CompiledSchedule.compile(policy);
+
+		// 2016-01-10 is a Sunday, 21:30 UTC is 22:30 in Berlin
+		assertNull(schedule.getActiveScheduledPolicyId(utc("2016-01-10 20:30:00.000")));
+		assertEquals(utc("2016-01-10 21:00:00.000"), schedule.getNextTransitionTime(utc("2016-01-10 20:30:00.000")));
+		assertEquals("night", schedule.getActiveScheduledPolicyId(utc("2016-01-10 21:30:00.000")));
+		// midnight in Berlin, the day of week changes
+		assertEquals(utc("2016-01-10 23:00:00.000"), schedule.getNextTransitionTime(utc("2016-01-10 21:30:00.000")));
+	}
+
+}
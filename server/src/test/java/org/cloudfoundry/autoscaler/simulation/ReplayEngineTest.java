@@ -0,0 +1,102 @@
+package org.cloudfoundry.autoscaler.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cloudfoundry.autoscaler.bean.AutoScalerPolicyTrigger;
+import org.cloudfoundry.autoscaler.bean.InstanceMetrics;
+import org.cloudfoundry.autoscaler.bean.Metric;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AppInstanceMetrics;
+import org.cloudfoundry.autoscaler.data.couchdb.document.AutoScalerPolicy;
+import org.junit.Test;
+
+public class ReplayEngineTest {
+
+	private static final long POLL = 10000;
+
+	private AutoScalerPolicy policy() {
+		AutoScalerPolicyTrigger trigger = new AutoScalerPolicyTrigger();
+		trigger.setMetricType("CPUUtilization");
+		trigger.setStatWindow(60);
+		trigger.setBreachDuration(60);
+		trigger.setLowerThreshold(20);
+		trigger.setUpperThreshold(70);
+		trigger.setInstanceStepCountUp(2);
+		trigger.setInstanceStepCountDown(1);
+		trigger.setStepUpCoolDownSecs(120);
+		trigger.setStepDownCoolDownSecs(120);
+		AutoScalerPolicy policy = new AutoScalerPolicy();
+		policy.setInstanceMinCount(1);
+		policy.setInstanceMaxCount(10);
+		policy.setPolicyTriggers(Arrays.asList(trigger));
+		return policy;
+	}
+
+	/** metrics of two instances sharing a load, in percent of one instance **/
+	private AppInstanceMetrics metrics(long timestamp, double load) {
+		AppInstanceMetrics metrics = new AppInstanceMetrics("app1", "app1", "java", "service1", timestamp,
+				new LinkedList<InstanceMetrics>());
+		for (int i = 0; i < 2; i++) {
+			InstanceMetrics instance = new InstanceMetrics();
+			instance.setInstanceIndex(i);
+			instance.setTimestamp(timestamp);
+			instance.addMetric(new Metric("CPU", String.valueOf(load / 2 / 100), "cf-stats", "CPU", timestamp, "%",
+					null));
+			metrics.addInstanceMetrics(instance);
+		}
+		return metrics;
+	}
+
+	private List<AppInstanceMetrics> recording() {
+		List<AppInstanceMetrics> recorded = new ArrayList<AppInstanceMetrics>();
+		long time = 1000000000000L;
+		// 10 minutes at 50% per instance, 20 minutes of four times the load, 30 minutes of a tenth
+		for (int poll = 0; poll < 60; poll++, time += POLL)
+			recorded.add(metrics(time, 100));
+		for (int poll = 0; poll < 120; poll++, time += POLL)
+			recorded.add(metrics(time, 400));
+		for (int poll = 0; poll < 180; poll++, time += POLL)
+			recorded.add(metrics(time, 40));
+		return recorded;
+	}
+
+	@Test
+	public void replayTest() throws Exception {
+		List<AppInstanceMetrics> recorded = recording();
+		ReplayEngine.Result result = new ReplayEngine("app1", policy(), 0, 30000).run(recorded);
+		assertEquals(recorded.size(), result.getSamples());
+		List<ReplayEngine.ScalingAction> timeline = result.getTimeline();
+
+		// scaled out by two until the load is below 70% per instance
+		assertEquals(AutoScalerPolicyTrigger.TriggerId_UpperThreshold, timeline.get(0).getTriggerId());
+		assertEquals(2, timeline.get(0).getFromInstances());
+		assertEquals(4, timeline.get(0).getToInstances());
+		assertEquals(30000, timeline.get(0).getCompleteTime() - timeline.get(0).getTime());
+		assertEquals(6, timeline.get(1).getToInstances());
+		// not before the breach duration and the cooldown
+		assertTrue(timeline.get(0).getTime() - recorded.get(60).getTimestamp() >= 60000);
+		assertTrue(timeline.get(1).getTime() - timeline.get(0).getCompleteTime() >= 120000);
+		// then scaled in one by one to a single instance
+		ReplayEngine.ScalingAction last = timeline.get(timeline.size() - 1);
+		assertEquals(AutoScalerPolicyTrigger.TriggerId_LowerThreshold, last.getTriggerId());
+		assertEquals(1, last.getToInstances());
+		assertEquals(7, timeline.size());
+
+		// replays are deterministic
+		assertEquals(result.toString(), new ReplayEngine("app1", policy(), 0, 30000).run(recording()).toString());
+	}
+
+	@Test
+	public void spreadTest() {
+		AppInstanceMetrics spread = ReplayEngine.spread(metrics(1000, 300), 3);
+		assertEquals(3, spread.getInstanceMetrics().size());
+		for (InstanceMetrics instance : spread.getInstanceMetrics())
+			assertEquals(1.0, Double.valueOf(instance.getMetrics().get(0).getValue()), 0.001);
+	}
+
+}
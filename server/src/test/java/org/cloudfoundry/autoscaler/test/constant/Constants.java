@@ -5,6 +5,7 @@ public class Constants {
 	public static final int STATUS200 = 200;
 	public static final int STATUS201 = 201;
 	public static final int STATUS204 = 204;
+	public static final int STATUS400 = 400;
 	public static final String TESTAPPID = "123456" + String.valueOf(Math.abs(Math.abs("TESTAPPID".hashCode())));
 	public static final String TESTAPPNAME = "123456" + String.valueOf(Math.abs("TESTAPPNAME".hashCode()));
 	public static final String TESTSERVICEID = "123456" + String.valueOf(Math.abs("TESTSERVICEID".hashCode()));
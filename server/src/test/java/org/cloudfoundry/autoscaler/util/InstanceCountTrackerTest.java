@@ -0,0 +1,47 @@
+package org.cloudfoundry.autoscaler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class InstanceCountTrackerTest {
+
+	@Test
+	public void observeTest() {
+		InstanceCountTracker tracker = new InstanceCountTracker(60000);
+		long now = System.currentTimeMillis();
+		assertNull(tracker.getInstanceCount("app1"));
+		tracker.observe("app1", 2, now - 1000);
+		assertEquals(Integer.valueOf(2), tracker.getInstanceCount("app1"));
+		// our own scaling action
+		tracker.observe("app1", 4, now);
+		// a poll requested before the scaling action is outdated
+		tracker.observe("app1", 2, now - 500);
+		assertEquals(Integer.valueOf(4), tracker.getInstanceCount("app1"));
+		assertEquals(1L, tracker.getStats().get("outdated"));
+		// stale counts are not used
+		tracker.observe("app2", 3, now - 61000);
+		assertNull(tracker.getInstanceCount("app2"));
+	}
+
+	@Test
+	public void invalidateTest() throws Exception {
+		InstanceCountTracker tracker = new InstanceCountTracker(60000);
+		long requestTime = System.currentTimeMillis();
+		tracker.observe("app1", 2, requestTime);
+		Thread.sleep(5);
+		tracker.invalidate("app1");
+		assertNull(tracker.getInstanceCount("app1"));
+		// a read started before the conflict does not restore the count
+		tracker.observe("app1", 2, requestTime);
+		assertNull(tracker.getInstanceCount("app1"));
+		tracker.observe("app1", 3, System.currentTimeMillis() + 1);
+		assertEquals(Integer.valueOf(3), tracker.getInstanceCount("app1"));
+		// disabled
+		InstanceCountTracker disabled = new InstanceCountTracker(0);
+		disabled.observe("app1", 2, System.currentTimeMillis());
+		assertNull(disabled.getInstanceCount("app1"));
+	}
+
+}
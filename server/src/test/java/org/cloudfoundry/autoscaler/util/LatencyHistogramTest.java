@@ -0,0 +1,32 @@
+package org.cloudfoundry.autoscaler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentileTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.recordMicros(i * 1000L);
+		assertEquals(1000, histogram.getCount());
+		long p50 = histogram.getPercentileMicros(50);
+		long p99 = histogram.getPercentileMicros(99);
+		assertTrue(Math.abs(p50 - 500000) <= 500000 / 8);
+		assertTrue(Math.abs(p99 - 990000) <= 990000 / 8);
+		assertEquals(1000000, histogram.getPercentileMicros(100));
+	}
+
+	@Test
+	public void bucketTest() {
+		for (long value = 0; value < 100000; value += 7) {
+			long bucketValue = LatencyHistogram.bucketValue(LatencyHistogram.bucketIndex(value));
+			assertTrue(Math.abs(bucketValue - value) <= Math.max(1, value / 8));
+		}
+		assertEquals(0, new LatencyHistogram().getPercentileMicros(99));
+	}
+
+}
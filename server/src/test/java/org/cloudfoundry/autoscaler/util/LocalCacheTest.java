@@ -0,0 +1,170 @@
+package org.cloudfoundry.autoscaler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.autoscaler.simulation.SimulatedClock;
+import org.junit.Test;
+
+public class LocalCacheTest {
+
+	/** runs background loads when asked to **/
+	private static class ManualExecutor implements Executor {
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		void runAll() {
+			for (Runnable task : tasks)
+				task.run();
+			tasks.clear();
+		}
+	}
+
+	private static class CountingLoader implements LocalCache.Loader<String, String> {
+		private final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public String load(String key) {
+			if (key.startsWith("missing"))
+				return null;
+			return key + "-" + loads.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void lruTest() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		LocalCache<String, String> cache = new LocalCache<String, String>("test", 2, 60000, 0, loader,
+				new SimulatedClock(0), new ManualExecutor());
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("b-2", cache.get("b"));
+		cache.get("a");
+		// b is the least recently used
+		assertEquals("c-3", cache.get("c"));
+		assertEquals(2, cache.size());
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("b-4", cache.get("b"));
+		// values not in the store are not cached
+		assertNull(cache.get("missing"));
+		assertNull(cache.get("missing"));
+		assertEquals(2L, cache.getStats().get("evictions"));
+		assertEquals(3L, cache.getStats().get("hits"));
+		assertEquals(6L, cache.getStats().get("misses"));
+	}
+
+	@Test
+	public void ttlTest() throws Exception {
+		SimulatedClock clock = new SimulatedClock(0);
+		ManualExecutor executor = new ManualExecutor();
+		CountingLoader loader = new CountingLoader();
+		LocalCache<String, String> cache = new LocalCache<String, String>("test", 10, 60000, 10000, loader, clock,
+				executor);
+		assertEquals("a-1", cache.get("a"));
+		clock.set(55000);
+		// served while it is loaded again in the background
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("a-1", cache.get("a"));
+		executor.runAll();
+		assertEquals("a-2", cache.get("a"));
+		assertEquals(1L, cache.getStats().get("refreshes"));
+
+		// not used before its expiry
+		clock.set(200000);
+		assertEquals("a-3", cache.get("a"));
+		assertEquals(1L, cache.getStats().get("expirations"));
+
+		// a value written meanwhile wins over the background load
+		clock.set(255000);
+		cache.get("a");
+		cache.put("a", "written");
+		executor.runAll();
+		assertEquals("written", cache.get("a"));
+	}
+
+	@Test
+	public void rejectedRefreshTest() throws Exception {
+		SimulatedClock clock = new SimulatedClock(0);
+		final ManualExecutor executor = new ManualExecutor();
+		final AtomicInteger rejections = new AtomicInteger(1);
+		LocalCache<String, String> cache = new LocalCache<String, String>("test", 10, 60000, 10000,
+				new CountingLoader(), clock, new Executor() {
+					@Override
+					public void execute(Runnable task) {
+						if (rejections.getAndDecrement() > 0)
+							throw new RejectedExecutionException();
+						executor.execute(task);
+					}
+				});
+		assertEquals("a-1", cache.get("a"));
+		clock.set(55000);
+		// the refresh is tried again after the executor rejected it
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("a-1", cache.get("a"));
+		executor.runAll();
+		assertEquals("a-2", cache.get("a"));
+		assertEquals(2L, cache.getStats().get("refreshes"));
+	}
+
+	@Test
+	public void singleFlightTest() throws Exception {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final LocalCache<String, String> cache = new LocalCache<String, String>("test", 10, 60000, 0,
+				new LocalCache.Loader<String, String>() {
+					@Override
+					public String load(String key) throws Exception {
+						loads.incrementAndGet();
+						loading.countDown();
+						release.await();
+						return key;
+					}
+				}, new SimulatedClock(0), new ManualExecutor());
+		final List<String> values = new ArrayList<String>();
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					values.add(cache.get("a"));
+				} catch (Exception e) {
+				}
+			}
+		});
+		first.start();
+		loading.await();
+		Thread second = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					String value = cache.get("a");
+					synchronized (values) {
+						values.add(value);
+					}
+				} catch (Exception e) {
+				}
+			}
+		});
+		second.start();
+		while (second.getState() != Thread.State.WAITING && second.isAlive())
+			Thread.sleep(1);
+		release.countDown();
+		first.join();
+		second.join();
+		assertEquals(1, loads.get());
+		assertEquals(2, values.size());
+		assertEquals("a", cache.get("a"));
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.cloudfoundry.autoscaler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.cloudfoundry.autoscaler.simulation.SimulatedClock;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void takeTest() {
+		SimulatedClock clock = new SimulatedClock(0);
+		TokenBucket bucket = new TokenBucket(2, 3, clock);
+		assertTrue(bucket.isFull());
+		for (int i = 0; i < 3; i++)
+			assertTrue(bucket.tryTake());
+		assertFalse(bucket.tryTake());
+		assertEquals(500, bucket.getWaitMillis());
+		clock.set(250);
+		assertEquals(250, bucket.getWaitMillis());
+		clock.set(500);
+		assertEquals(0, bucket.getWaitMillis());
+		assertTrue(bucket.tryTake());
+		// refills up to the burst size
+		clock.set(10000);
+		assertTrue(bucket.isFull());
+		for (int i = 0; i < 3; i++)
+			assertTrue(bucket.tryTake());
+		assertFalse(bucket.tryTake());
+	}
+
+}